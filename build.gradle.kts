@@ -5,6 +5,13 @@ plugins {
 group = "org.xiaodi"
 version = "1.0-SNAPSHOT"
 
+java {
+    toolchain {
+        // virtual threads in the parquet downloader
+        languageVersion = JavaLanguageVersion.of(21)
+    }
+}
+
 repositories {
     mavenCentral()
 }
@@ -13,6 +20,8 @@ dependencies {
     implementation("org.duckdb:duckdb_jdbc:0.9.2")
     implementation("org.jetbrains:annotations:23.0.0")
     implementation("org.apiguardian:apiguardian-api:1.1.2")
+    implementation("org.apache.arrow:arrow-vector:15.0.2")
+    runtimeOnly("org.apache.arrow:arrow-memory-netty:15.0.2")
     testImplementation(platform("org.junit:junit-bom:5.10.2")) // Use the latest stable version
     testImplementation("org.junit.jupiter:junit-jupiter")
     testImplementation("org.mockito:mockito-core:5.+")
@@ -36,6 +45,16 @@ tasks.register<JavaExec>("insertParquetsIntoDBs") {
     )
 }
 
+tasks.register<JavaExec>("generateTrips") {
+    group = "etl"
+    description = "Writes synthetic yellow and green trip parquets, e.g. --args=\"--out=parquets --rows=1000000\""
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.xiaodi.taxi.etl.SyntheticTripGenerator")
+    jvmArgs(
+        "--enable-native-access=ALL-UNNAMED", // e.g. for DuckDB native load
+    )
+}
+
 tasks.register("downloadInsertParquetsIntoDBs") {
     group = "etl"
     description = "Download parquets and insert into the DuckDb database"
@@ -57,12 +76,30 @@ tasks.register<JavaExec>("executeQuery") {
         "*",                     // vendorID
         "*",                // taxiType
     )
+    jvmArgs(
+        "--enable-native-access=ALL-UNNAMED", // e.g. for DuckDB native load
+        "--add-opens=java.base/java.nio=ALL-UNNAMED", // Arrow memory for --format=arrow
+    )
+}
+tasks.register<JavaExec>("repl") {
+    group = "etl"
+    description = "Interactive query shell that keeps one warm connection open"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.xiaodi.taxi.query.TripAggregatorRepl")
+    standardInput = System.`in`
     jvmArgs(
         "--enable-native-access=ALL-UNNAMED", // e.g. for DuckDB native load
     )
 }
+tasks.register<JavaExec>("slowQueries") {
+    group = "etl"
+    description = "Summarizes the slow-query log by query shape, e.g. --args=\"--top=5 duck-db/slow-queries\""
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.xiaodi.taxi.query.slowlog.SlowQueryReport")
+}
 tasks.named<Test>("test") {
     useJUnitPlatform()
+    jvmArgs("--add-opens=java.base/java.nio=ALL-UNNAMED") // Arrow memory
     // Optional: Configure test logging or other settings
     testLogging {
         events("passed", "skipped", "failed")
@@ -92,4 +129,38 @@ val integrationTest = tasks.register<Test>("integrationTest") {
 // hook it into the build lifecycle
 tasks.check {
     dependsOn(integrationTest)
-}
\ No newline at end of file
+}
+
+sourceSets {
+    val jmh by creating {
+        java.srcDir("src/jmh/java")
+        compileClasspath += sourceSets["main"].output + configurations["runtimeClasspath"]
+        runtimeClasspath += output + compileClasspath
+    }
+}
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks and writes a JSON report to build/reports/jmh"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val report = layout.buildDirectory.file("reports/jmh/results-${project.version}.json")
+    args("-rf", "json", "-rff", report.get().asFile.absolutePath)
+    // e.g. -PjmhArgs="TripAggregatorServiceBenchmark.aggregate -p shape=location"
+    (project.findProperty("jmhArgs") as String?)?.let { args(it.split(" ")) }
+    doFirst { report.get().asFile.parentFile.mkdirs() }
+}
+tasks.register<JavaExec>("etlScaleBenchmark") {
+    group = "benchmark"
+    description = "Loads synthetic data at several scales and writes build/reports/etl-scale/results.json"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("com.xiaodi.taxi.etl.EtlScaleBenchmark")
+    jvmArgs(
+        "--enable-native-access=ALL-UNNAMED", // e.g. for DuckDB native load
+    )
+}
@@ -0,0 +1,135 @@
+import com.xiaodi.taxi.etl.sql.SQLBuilder;
+import com.xiaodi.taxi.query.TripAggregatorService;
+import com.xiaodi.taxi.query.columnar.ColumnarAggregationService;
+import com.xiaodi.taxi.query.columnar.ColumnarExporter;
+import com.xiaodi.taxi.query.columnar.ColumnarTripsFile;
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the columnar engine against the DuckDB engine on the same trips, NULLs included.
+ */
+public class ColumnarAggregationServiceIntegrationTest {
+    /**
+     * Trips with NULL vendors, locations, payment types, fares and tolls; payment type 4 never has a fare.
+     */
+    private static final String INSERT_TRIPS = "INSERT INTO trips (vendor_id, pickup_datetime, dropoff_datetime, " +
+            "pu_location_id, do_location_id, payment_type, fare_amount, tolls_amount, taxi_type) " +
+            "SELECT CASE WHEN i % 50 = 0 THEN NULL ELSE 1 + i % 2 END, " +
+            "TIMESTAMP '2025-06-01' + to_minutes(CAST(i AS INTEGER)), " +
+            "TIMESTAMP '2025-06-01' + to_minutes(CAST(i + 20 AS INTEGER)), " +
+            "CASE WHEN i % 37 = 0 THEN NULL ELSE 1 + i % 7 END, 1 + i % 5, " +
+            "CASE WHEN i % 11 = 0 THEN NULL ELSE 1 + i % 4 END, " +
+            "CASE WHEN i % 4 = 3 OR i % 13 = 0 THEN NULL ELSE round(2.5 + (i % 97) * 0.37, 2) END, " +
+            "CASE WHEN i % 3 = 0 THEN NULL ELSE (i % 5) * 1.25 END, " +
+            "CASE WHEN i % 6 = 0 THEN 'green' ELSE 'yellow' END " +
+            "FROM range(5000) t(i)";
+
+    @TempDir
+    Path tempDir;
+
+    private Connection connection;
+
+    @BeforeEach
+    void setup() throws Exception {
+        connection = DriverManager.getConnection("jdbc:duckdb:" + tempDir.resolve("trips.duckdb"));
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(SQLBuilder.createTripsTable());
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    void columnarResults_matchTheSqlResults() throws Exception {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(INSERT_TRIPS);
+        }
+        ColumnarAggregationService columnar = new ColumnarAggregationService(export());
+        TripAggregatorService sql = new TripAggregatorService(connection);
+
+        List<TripQueryParams> queries = List.of(
+                TripQueryParams.builder().build(),
+                TripQueryParams.builder().groupByPayment(true).build(),
+                TripQueryParams.builder().pickupDatetime("2025-06-02").dropoffDatetime("2025-06-03 12:00:00")
+                        .groupByPayment(true).build(),
+                TripQueryParams.builder().vendorID("2").taxiType("green").build(),
+                TripQueryParams.builder().puLocationID("3").doLocationID("4").groupByPayment(true).build(),
+                TripQueryParams.builder().vendorID("1").taxiType("Yellow").groupByPayment(true).build(),
+                TripQueryParams.builder().pickupDatetime("2030-01-01").build());
+        for (TripQueryParams params : queries) {
+            List<TripAggregationResult> expected = byPayment(sql.aggregate(params));
+            List<TripAggregationResult> actual = byPayment(columnar.aggregate(params));
+
+            assertEquals(expected.size(), actual.size(), params.toString());
+            for (int i = 0; i < expected.size(); i++) {
+                TripAggregationResult e = expected.get(i);
+                TripAggregationResult a = actual.get(i);
+                String label = params + " " + e.paymentType();
+                assertEquals(e.paymentType(), a.paymentType(), label);
+                assertEquals(e.groups(), a.groups(), label);
+                assertEquals(e.taxiType(), a.taxiType(), label);
+                assertEquals(e.vendor(), a.vendor(), label);
+                assertEquals(e.tripCount(), a.tripCount(), label);
+                assertEquals(e.minFare(), a.minFare(), label);
+                assertEquals(e.maxFare(), a.maxFare(), label);
+                assertEquals(e.totalFare(), a.totalFare(), 1e-9 * Math.max(1, Math.abs(e.totalFare())), label);
+                assertEquals(e.totalTollFare(), a.totalTollFare(),
+                        1e-9 * Math.max(1, Math.abs(e.totalTollFare())), label);
+            }
+        }
+    }
+
+    @Test
+    void nanFare_isSkippedLikeNullByTheColumnarEngine() throws Exception {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("INSERT INTO trips (vendor_id, pickup_datetime, dropoff_datetime, fare_amount, " +
+                    "tolls_amount, taxi_type) VALUES " +
+                    "(1, TIMESTAMP '2025-06-01 08:00:00', TIMESTAMP '2025-06-01 08:30:00', 5.0, 1.0, 'yellow'), " +
+                    "(1, TIMESTAMP '2025-06-01 09:00:00', TIMESTAMP '2025-06-01 09:30:00', 'NaN', NULL, 'yellow'), " +
+                    "(1, TIMESTAMP '2025-06-01 10:00:00', TIMESTAMP '2025-06-01 10:30:00', 7.0, 2.0, 'yellow')");
+        }
+        TripQueryParams params = TripQueryParams.builder().build();
+
+        TripAggregationResult sql = new TripAggregatorService(connection).aggregate(params).getFirst();
+        TripAggregationResult columnar = new ColumnarAggregationService(export()).aggregate(params).getFirst();
+
+        // DuckDB orders NaN above every number; the columnar file stores NULL fares as NaN and cannot tell them apart
+        assertEquals(3, sql.tripCount());
+        assertTrue(Double.isNaN(sql.maxFare()));
+        assertTrue(Double.isNaN(sql.totalFare()));
+        assertEquals(3, columnar.tripCount());
+        assertEquals(5.0, columnar.minFare());
+        assertEquals(7.0, columnar.maxFare());
+        assertEquals(12.0, columnar.totalFare());
+        assertEquals(3.0, columnar.totalTollFare());
+    }
+
+    private ColumnarTripsFile export() throws Exception {
+        Path file = tempDir.resolve("trips.columnar");
+        new ColumnarExporter(connection).export(file, "v1");
+        return ColumnarTripsFile.open(file);
+    }
+
+    private static List<TripAggregationResult> byPayment(List<TripAggregationResult> rows) {
+        return rows.stream()
+                .sorted(Comparator.comparing(TripAggregationResult::paymentType))
+                .toList();
+    }
+}
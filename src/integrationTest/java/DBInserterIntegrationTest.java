@@ -0,0 +1,225 @@
+import com.xiaodi.taxi.etl.ConnectionFactory;
+import com.xiaodi.taxi.etl.DBInserter;
+import com.xiaodi.taxi.etl.DbSnapshots;
+import com.xiaodi.taxi.etl.DefaultConnectionFactory;
+import com.xiaodi.taxi.etl.DefaultDirectoryScanner;
+import com.xiaodi.taxi.etl.EtlOptions;
+import com.xiaodi.taxi.etl.SyntheticTripGenerator;
+import com.xiaodi.taxi.etl.model.ClusterOrder;
+import com.xiaodi.taxi.etl.model.FileIngestReport;
+import com.xiaodi.taxi.etl.model.IngestAction;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests for DBInserter, loading synthetic parquet files into a DuckDB file under a temp directory.
+ */
+public class DBInserterIntegrationTest {
+    private static final long ROWS_PER_FILE = 1_000;
+    private static final YearMonth JANUARY = YearMonth.of(2025, 1);
+    private static final String TABLE_EXISTS = "SELECT COUNT(*) FROM duckdb_tables() WHERE table_name = ";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void syntheticFiles_loadWithTheTripsSchema() throws Exception {
+        Path input = tempDir.resolve("parquets");
+        Path dbFile = tempDir.resolve("trips.duckdb");
+        new SyntheticTripGenerator(new DefaultConnectionFactory(), SyntheticTripGenerator.Spec.builder()
+                .rowsPerFile(ROWS_PER_FILE)
+                .from(JANUARY)
+                .build()).generate(input);
+
+        List<FileIngestReport> reports = new DBInserter(new DefaultDirectoryScanner(), new DefaultConnectionFactory(),
+                EtlOptions.defaults()).run(input, dbFile);
+
+        assertEquals(2, reports.size());
+        for (FileIngestReport report : reports) {
+            assertTrue(report.succeeded(), report.error());
+            assertEquals(ROWS_PER_FILE, report.rows());
+        }
+        assertEquals(ROWS_PER_FILE, count(dbFile, "SELECT COUNT(*) FROM trips WHERE taxi_type = 'green'"));
+        assertEquals(ROWS_PER_FILE, count(dbFile, "SELECT COUNT(*) FROM trips WHERE taxi_type = 'yellow'"));
+        // Every TLC column of both layouts was mapped onto a trips column
+        assertEquals(0, count(dbFile, "SELECT COUNT(*) FROM trips WHERE pickup_datetime IS NULL " +
+                "OR dropoff_datetime IS NULL OR trip_distance IS NULL OR pu_location_id IS NULL " +
+                "OR payment_type IS NULL OR fare_amount IS NULL OR total_amount IS NULL"));
+
+        try (Connection conn = DbSnapshots.openReadOnly(DbSnapshots.current(dbFile));
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("DESCRIBE trips")) {
+            List<String> columns = new ArrayList<>();
+            while (rs.next()) {
+                columns.add(rs.getString("column_name"));
+            }
+            assertEquals(List.of("vendor_id", "pickup_datetime", "dropoff_datetime", "passenger_count",
+                    "trip_distance", "rate_code_id", "pu_location_id", "do_location_id", "payment_type",
+                    "fare_amount", "extra", "mta_tax", "tip_amount", "tolls_amount", "improvement_surcharge",
+                    "total_amount", "congestion_surcharge", "taxi_type", "source_file"), columns);
+        }
+    }
+
+    @Test
+    void unexpectedErrorInOneFile_isReportedAndTheOthersLoad() throws Exception {
+        Path input = tempDir.resolve("parquets");
+        Path dbFile = tempDir.resolve("trips.duckdb");
+        generate(input, JANUARY.plusMonths(2), 42);
+        DBInserter inserter = new DBInserter(new DefaultDirectoryScanner(),
+                failing(sql -> sql.contains("2025-02"), () -> new IllegalStateException("Injected bug")),
+                EtlOptions.builder().parallelism(2).build());
+
+        List<FileIngestReport> reports = inserter.run(input, dbFile);
+
+        assertEquals(3, reports.size());
+        assertTrue(reports.get(0).succeeded());
+        assertFalse(reports.get(1).succeeded());
+        assertTrue(reports.get(1).error().contains("Injected bug"), reports.get(1).error());
+        assertTrue(reports.get(2).succeeded());
+        assertEquals(ROWS_PER_FILE, reports.get(2).rows());
+    }
+
+    @Test
+    void failedChangedRangedFile_isLeftOutAndLoadedByTheNextRun() throws Exception {
+        Path input = tempDir.resolve("parquets");
+        Path dbFile = tempDir.resolve("trips.duckdb");
+        generate(input, JANUARY.plusMonths(1), 42);
+        AtomicBoolean failRanges = new AtomicBoolean();
+        EtlOptions.Builder options = EtlOptions.builder().splitRows(100).snapshotGrace(Duration.ZERO);
+        DBInserter full = new DBInserter(new DefaultDirectoryScanner(), failingRanges(failRanges), options.build());
+        assertTrue(full.run(input, dbFile).stream().allMatch(FileIngestReport::succeeded));
+
+        // January changes, and every range of its reload fails
+        generate(input, JANUARY, 7);
+        failRanges.set(true);
+        DBInserter incremental = new DBInserter(new DefaultDirectoryScanner(), failingRanges(failRanges),
+                options.incremental(true).build());
+        List<FileIngestReport> reports = incremental.run(input, dbFile);
+
+        FileIngestReport january = reports.getFirst();
+        assertEquals(IngestAction.CHANGED, january.action());
+        assertFalse(january.succeeded());
+        assertEquals(IngestAction.UNCHANGED, reports.get(1).action());
+        assertEquals(ROWS_PER_FILE, count(dbFile, "SELECT COUNT(*) FROM trips"));
+        assertEquals(0, count(dbFile, "SELECT COUNT(*) FROM ingested_files WHERE path = '" +
+                january.file().getFileName() + "'"));
+
+        failRanges.set(false);
+        reports = incremental.run(input, dbFile);
+
+        assertEquals(IngestAction.NEW, reports.getFirst().action());
+        assertTrue(reports.getFirst().succeeded());
+        assertEquals(2 * ROWS_PER_FILE, count(dbFile, "SELECT COUNT(*) FROM trips"));
+        assertEquals(2 * ROWS_PER_FILE, count(dbFile, "SELECT COALESCE(SUM(trip_count), 0) FROM trips_rollup"));
+    }
+
+    @Test
+    void incrementalRunWithoutClusterOrSample_dropsTheStaleTables() throws Exception {
+        Path input = tempDir.resolve("parquets");
+        Path dbFile = tempDir.resolve("trips.duckdb");
+        generate(input, JANUARY, 42);
+        new DBInserter(new DefaultDirectoryScanner(), new DefaultConnectionFactory(),
+                EtlOptions.builder().clusterOrder(ClusterOrder.PICKUP).sampleFraction(0.5).build()).run(input, dbFile);
+        assertEquals(1, count(dbFile, TABLE_EXISTS + "'trips_segments'"));
+        assertEquals(1, count(dbFile, TABLE_EXISTS + "'trips_sample'"));
+
+        generate(input, JANUARY.plusMonths(1), 42);
+        new DBInserter(new DefaultDirectoryScanner(), new DefaultConnectionFactory(),
+                EtlOptions.builder().incremental(true).build()).run(input, dbFile);
+
+        assertEquals(2 * ROWS_PER_FILE, count(dbFile, "SELECT COUNT(*) FROM trips"));
+        assertEquals(0, count(dbFile, TABLE_EXISTS + "'trips_segments'"));
+        assertEquals(0, count(dbFile, TABLE_EXISTS + "'trips_sample'"));
+    }
+
+    /**
+     * Writes one yellow file per month from January up to {@code to}.
+     */
+    private static void generate(Path dir, YearMonth to, long seed) throws Exception {
+        new SyntheticTripGenerator(new DefaultConnectionFactory(), SyntheticTripGenerator.Spec.builder()
+                .rowsPerFile(ROWS_PER_FILE)
+                .from(JANUARY)
+                .to(to)
+                .taxiTypes(List.of("yellow"))
+                .seed(seed)
+                .build()).generate(dir);
+    }
+
+    private static long count(Path dbFile, String sql) throws Exception {
+        try (Connection conn = DbSnapshots.openReadOnly(DbSnapshots.current(dbFile));
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * A factory whose duplicated connections fail every range insert (the statements reading
+     * {@code file_row_number}) while {@code fail} is set.
+     */
+    private static ConnectionFactory failingRanges(AtomicBoolean fail) {
+        return failing(sql -> fail.get() && sql.contains("file_row_number"),
+                () -> new SQLException("Injected range failure"));
+    }
+
+    /**
+     * A factory whose duplicated connections throw {@code error} on the statements {@code fails} matches.
+     */
+    private static ConnectionFactory failing(Predicate<String> fails, Supplier<? extends Exception> error) {
+        ConnectionFactory real = new DefaultConnectionFactory();
+        return new ConnectionFactory() {
+            @Override
+            public Connection getConnection(String url) throws SQLException {
+                return real.getConnection(url);
+            }
+
+            @Override
+            public Connection duplicate(Connection conn) throws SQLException {
+                Connection duplicate = real.duplicate(conn);
+                return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                        new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                            Object result = invoke(duplicate, method, args);
+                            if (method.getName().equals("createStatement")) {
+                                Statement stmt = (Statement) result;
+                                return Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                                        new Class<?>[]{Statement.class}, (p, m, a) -> {
+                                            if (m.getName().startsWith("execute") && a != null
+                                                    && a[0] instanceof String sql && fails.test(sql)) {
+                                                throw error.get();
+                                            }
+                                            return invoke(stmt, m, a);
+                                        });
+                            }
+                            return result;
+                        });
+            }
+        };
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
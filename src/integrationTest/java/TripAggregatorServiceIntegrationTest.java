@@ -1,13 +1,30 @@
+import com.xiaodi.taxi.etl.DbSnapshots;
+import com.xiaodi.taxi.etl.model.TripsSchema;
+import com.xiaodi.taxi.etl.sql.SQLBuilder;
+import com.xiaodi.taxi.metrics.MetricsRegistry;
 import com.xiaodi.taxi.query.models.TripAggregationResult;
+import com.xiaodi.taxi.query.TaxiZones;
+import com.xiaodi.taxi.query.TimeSeriesService;
 import com.xiaodi.taxi.query.TripAggregatorService;
+import com.xiaodi.taxi.query.TripsSource;
+import com.xiaodi.taxi.query.models.GroupDimension;
+import com.xiaodi.taxi.query.models.TimeBucket;
+import com.xiaodi.taxi.query.models.TimeSeriesPoint;
+import com.xiaodi.taxi.query.models.TimeSeriesQuery;
 import com.xiaodi.taxi.query.models.TripQueryParams;
+import com.xiaodi.taxi.query.slowlog.SlowQueryEntry;
+import com.xiaodi.taxi.query.slowlog.SlowQueryLog;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 
-import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 
@@ -19,19 +36,19 @@ import static org.junit.jupiter.api.Assertions.*;
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class TripAggregatorServiceIntegrationTest {
     private static final String DB_FILE_PATH = "duck-db/nyc_taxi_combined.duckdb";
+    private Path dbFile;
     private Connection connection;
 
     @BeforeAll
     void setup() throws Exception {
-        // Ensure the DuckDB file exists
-        File dbFile = new File(DB_FILE_PATH);
-        assertTrue(dbFile.exists(),
-                "Database file '" + DB_FILE_PATH + "' not found. " +
+        // Ensure the current snapshot of the DuckDB file exists
+        dbFile = DbSnapshots.current(Paths.get(DB_FILE_PATH));
+        assertTrue(Files.exists(dbFile),
+                "Database file '" + dbFile + "' not found. " +
                         "Please run the Gradle task 'downloadInsertParquetsIntoDBs'.");
 
-        // Open a real connection to DuckDB
-        String jdbcUrl = "jdbc:duckdb:" + DB_FILE_PATH;
-        connection = DriverManager.getConnection(jdbcUrl);
+        // Open a real read-only connection to DuckDB, as queries do, so the snapshot is never written
+        connection = DbSnapshots.openReadOnly(dbFile);
         assertNotNull(connection, "Failed to open DuckDB connection");
     }
 
@@ -132,4 +149,135 @@ public class TripAggregatorServiceIntegrationTest {
                     "Vendor name should match the filter");
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void dailyAndWeeklySeries_countTheSameTrips() throws Exception {
+        TimeSeriesService series = new TimeSeriesService(connection);
+
+        List<TimeSeriesPoint> days = series.series(TimeSeriesQuery.builder().bucket(TimeBucket.DAY).build());
+        List<TimeSeriesPoint> weeks = series.series(TimeSeriesQuery.builder().bucket(TimeBucket.WEEK).build());
+
+        assertFalse(days.isEmpty());
+        assertTrue(weeks.size() < days.size());
+        assertEquals(days.stream().mapToLong(TimeSeriesPoint::tripCount).sum(),
+                weeks.stream().mapToLong(TimeSeriesPoint::tripCount).sum());
+    }
+
+    @Test
+    void slowQuery_isLoggedWithItsProfile() throws Exception {
+        Path dir = Files.createTempDirectory("slow-queries");
+        TripQueryParams params = TripQueryParams.builder().puLocationID("132").build();
+
+        try (TripAggregatorService service = new TripAggregatorService(connection, TripsSource.table(),
+                new MetricsRegistry(), new SlowQueryLog(dir, 0))) {
+            service.aggregate(params);
+        }
+
+        List<SlowQueryEntry> entries = SlowQueryLog.read(dir);
+        assertEquals(1, entries.size());
+        SlowQueryEntry entry = entries.getFirst();
+        assertNull(entry.error(), entry.error());
+        assertEquals(List.of("132"), entry.params());
+        assertNotNull(entry.profile());
+        assertTrue(entry.rowsScanned() > 0, entry.plan());
+    }
+
+    @Test
+    void compactSchema_returnsTheSameAggregates() throws Exception {
+        TripQueryParams params = TripQueryParams.builder().taxiType("green").groupByPayment(true).build();
+        Comparator<TripAggregationResult> byPayment = Comparator.comparing(TripAggregationResult::paymentType);
+        List<TripAggregationResult> expected = new TripAggregatorService(connection).aggregate(params).stream()
+                .sorted(byPayment).toList();
+
+        // the compact copy lives in its own in-memory database reading the snapshot read-only
+        try (Connection compact = DriverManager.getConnection("jdbc:duckdb:");
+             Statement stmt = compact.createStatement()) {
+            stmt.execute("ATTACH '" + dbFile.toAbsolutePath() + "' AS snapshot (READ_ONLY)");
+            stmt.execute(SQLBuilder.createTripsTable(TripsSchema.COMPACT));
+            stmt.execute("INSERT INTO trips SELECT * FROM snapshot.trips WHERE taxi_type = 'green'");
+            stmt.execute(SQLBuilder.createRollupTable(TripsSchema.COMPACT));
+            stmt.execute(SQLBuilder.insertRollup(null));
+
+            List<TripAggregationResult> actual = new TripAggregatorService(compact).aggregate(params).stream()
+                    .sorted(byPayment).toList();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                TripAggregationResult e = expected.get(i);
+                TripAggregationResult a = actual.get(i);
+                assertEquals(e.paymentType(), a.paymentType());
+                assertEquals(e.taxiType(), a.taxiType());
+                assertEquals(e.tripCount(), a.tripCount());
+                assertEquals(e.minFare(), a.minFare(), 0.005);
+                assertEquals(e.maxFare(), a.maxFare(), 0.005);
+                assertEquals(e.totalFare(), a.totalFare(), 0.01);
+                assertEquals(e.totalTollFare(), a.totalTollFare(), 0.01);
+            }
+        }
+    }
+
+    @Test
+    void rollupRoutedQueries_matchTheTripsScan() throws Exception {
+        List<TripQueryParams> queries = List.of(
+                TripQueryParams.builder().build(),
+                TripQueryParams.builder().groupByPayment(true).vendorID("1").build(),
+                TripQueryParams.builder().pickupDatetime("2025-06-15").taxiType("yellow").build(),
+                TripQueryParams.builder().pickupDatetime("2025-06-10 08:00:00").puLocationID("132")
+                        .groupByPayment(true).build(),
+                TripQueryParams.builder().taxiType("green").doLocationID("161").build());
+        Comparator<TripAggregationResult> byPayment = Comparator.comparing(TripAggregationResult::paymentType);
+        MetricsRegistry metrics = new MetricsRegistry();
+        // a source without rollup support always scans trips
+        TripsSource scanOnly = p -> "trips";
+        try (TripAggregatorService routed = new TripAggregatorService(connection, TripsSource.table(), metrics);
+             TripAggregatorService scanned = new TripAggregatorService(connection, scanOnly, new MetricsRegistry())) {
+            for (TripQueryParams params : queries) {
+                long rollupRows = metrics.counter("query_rows_total", "source", "rollup").value();
+                List<TripAggregationResult> expected = scanned.aggregate(params).stream().sorted(byPayment).toList();
+                List<TripAggregationResult> actual = routed.aggregate(params).stream().sorted(byPayment).toList();
+                assertTrue(metrics.counter("query_rows_total", "source", "rollup").value() > rollupRows,
+                        "not answered from the rollup: " + params);
+
+                assertEquals(expected.size(), actual.size(), params.toString());
+                for (int i = 0; i < expected.size(); i++) {
+                    TripAggregationResult e = expected.get(i);
+                    TripAggregationResult a = actual.get(i);
+                    assertEquals(e.paymentType(), a.paymentType());
+                    assertEquals(e.tripCount(), a.tripCount(), params.toString());
+                    assertEquals(e.minFare(), a.minFare(), 0.005);
+                    assertEquals(e.maxFare(), a.maxFare(), 0.005);
+                    assertEquals(e.totalFare(), a.totalFare(), 0.01);
+                    assertEquals(e.totalTollFare(), a.totalTollFare(), 0.01);
+                }
+            }
+        }
+    }
+
+    @Test
+    void zoneFilterAndGrouping_matchLocationIds() throws Exception {
+        TaxiZones zones = new TaxiZones(List.of(
+                new TaxiZones.Zone(132, "Queens", "JFK Airport"),
+                new TaxiZones.Zone(138, "Queens", "LaGuardia Airport"),
+                new TaxiZones.Zone(161, "Manhattan", "Midtown Center")));
+        TripAggregatorService service = new TripAggregatorService(connection, TripsSource.table(),
+                MetricsRegistry.global(), null, zones);
+
+        long byIds = 0;
+        for (String id : List.of("132", "138")) {
+            byIds += service.aggregate(TripQueryParams.builder().puLocationID(id).build()).get(0).tripCount();
+        }
+        TripQueryParams queens = TripQueryParams.builder()
+                .puLocationIDs(zones.locationIds("Queens", TripQueryParams.EMPTY_VALUE))
+                .build();
+        assertEquals(byIds, service.aggregate(queens).get(0).tripCount());
+
+        TripQueryParams grouped = TripQueryParams.builder()
+                .puLocationIDs(List.of(132, 138, 161))
+                .groupBy(List.of(GroupDimension.PU_BOROUGH))
+                .build();
+        List<TripAggregationResult> boroughs = service.aggregate(grouped);
+        assertEquals(2, boroughs.size());
+        TripAggregationResult queensRow = boroughs.stream()
+                .filter(r -> "Queens".equals(r.groups().get("pu_borough"))).findFirst().orElseThrow();
+        assertEquals(byIds, queensRow.tripCount());
+    }
+}
@@ -0,0 +1,168 @@
+package com.xiaodi.taxi.etl;
+
+import com.xiaodi.taxi.etl.model.FileIngestReport;
+import com.xiaodi.taxi.etl.model.TripsSchema;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Measures how a full {@link DBInserter#run} scales with the input size. For each scale factor, synthetic files
+ * with {@code baseRows * scale} rows each are generated with {@link SyntheticTripGenerator} and loaded into a fresh
+ * database, recording rows/sec, peak RSS and the database file size. With several {@code --schemas} the same
+ * files are loaded once per {@link TripsSchema}, so their file sizes can be compared.
+ * <p>
+ * This is a plain driver rather than a JMH benchmark: one load is minutes long at the larger scales and peak RSS
+ * only means something for a single run. The peak RSS counter is reset through {@code /proc/self/clear_refs}
+ * before every load; when that is not possible (non-Linux) the reported peak covers the whole process.
+ * <p>
+ * Flags: {@code --scales=1,10,100}, {@code --base-rows=N}, {@code --months=N}, {@code --parallel=N},
+ * {@code --schemas=standard,compact}, {@code --work-dir=DIR}, {@code --report=FILE}.
+ */
+public class EtlScaleBenchmark {
+    public static void main(String[] args) throws IOException, SQLException {
+        List<Integer> scales = List.of(1, 10, 100);
+        long baseRows = 100_000;
+        int months = 2;
+        int parallelism = 1;
+        List<TripsSchema> schemas = List.of(TripsSchema.STANDARD);
+        Path workDir = Paths.get("build", "etl-scale");
+        Path report = Paths.get("build", "reports", "etl-scale", "results.json");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg : arg.substring(0, eq);
+            String value = eq < 0 ? "" : arg.substring(eq + 1);
+            switch (name) {
+                case "--scales" -> scales = Stream.of(value.split(",")).map(Integer::parseInt).toList();
+                case "--base-rows" -> baseRows = Long.parseLong(value);
+                case "--months" -> months = Integer.parseInt(value);
+                case "--parallel" -> parallelism = Integer.parseInt(value);
+                case "--schemas" -> schemas = Stream.of(value.split(",")).map(TripsSchema::parse).toList();
+                case "--work-dir" -> workDir = Paths.get(value);
+                case "--report" -> report = Paths.get(value);
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (int scale : scales) {
+            for (Result result : runScale(workDir.resolve("x" + scale), baseRows * scale, months, parallelism, scale,
+                    schemas)) {
+                System.out.println(result.summary());
+                results.add(result);
+            }
+        }
+
+        Files.createDirectories(report.toAbsolutePath().getParent());
+        Files.writeString(report, toJson(results), StandardCharsets.UTF_8);
+        System.out.println("Report written to " + report.toAbsolutePath());
+    }
+
+    private static @NotNull List<Result> runScale(@NotNull Path dir, long rowsPerFile, int months, int parallelism,
+                                                  int scale, @NotNull List<TripsSchema> schemas)
+            throws IOException, SQLException {
+        Path parquets = dir.resolve("parquets");
+        SyntheticTripGenerator.Spec spec = SyntheticTripGenerator.Spec.builder()
+                .rowsPerFile(rowsPerFile)
+                .from(YearMonth.of(2025, 1))
+                .to(YearMonth.of(2025, 1).plusMonths(months - 1))
+                .build();
+        long genStart = System.nanoTime();
+        List<Path> files = new SyntheticTripGenerator(new DefaultConnectionFactory(), spec).generate(parquets);
+        double generateSeconds = (System.nanoTime() - genStart) / 1_000_000_000.0;
+        long inputBytes = 0;
+        for (Path file : files) {
+            inputBytes += Files.size(file);
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (TripsSchema schema : schemas) {
+            Path db = dir.resolve(schema == TripsSchema.STANDARD ? "trips.duckdb" : "trips-" + schema.key() + ".duckdb");
+            System.gc();
+            boolean peakReset = resetPeakRss();
+            long start = System.nanoTime();
+            List<FileIngestReport> reports = new DBInserter(new DefaultDirectoryScanner(), new DefaultConnectionFactory(),
+                    EtlOptions.builder().parallelism(parallelism).schema(schema).snapshotGrace(Duration.ZERO).build())
+                    .run(parquets, db);
+            double loadSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            long peakRssBytes = peakRssBytes();
+
+            long rows = reports.stream().mapToLong(FileIngestReport::rows).sum();
+            long failed = reports.stream().filter(r -> !r.succeeded()).count();
+            Path snapshot = DbSnapshots.current(db);
+            long dbBytes = Files.exists(snapshot) ? Files.size(snapshot) : 0;
+            results.add(new Result(scale, schema, files.size(), rows, inputBytes, dbBytes, generateSeconds,
+                    loadSeconds, peakRssBytes, peakReset, failed));
+        }
+        return results;
+    }
+
+    /**
+     * Resets the peak RSS (VmHWM) of this process to its current RSS. Linux only.
+     * @return whether the counter was reset.
+     */
+    static boolean resetPeakRss() {
+        try {
+            Files.writeString(Paths.get("/proc/self/clear_refs"), "5");
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the peak resident set size of this process (VmHWM), or -1 when /proc is not available.
+     */
+    static long peakRssBytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            }
+        } catch (IOException e) {
+            // not Linux
+        }
+        return -1;
+    }
+
+    static @NotNull String toJson(@NotNull List<Result> results) {
+        StringBuilder json = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            json.append(String.format(Locale.ROOT,
+                    "  {\"scale\": %d, \"schema\": \"%s\", \"files\": %d, \"rows\": %d, \"inputBytes\": %d, " +
+                            "\"dbBytes\": %d, " +
+                            "\"generateSeconds\": %.3f, \"loadSeconds\": %.3f, \"rowsPerSecond\": %.1f, " +
+                            "\"peakRssBytes\": %d, \"peakRssReset\": %b, \"failedFiles\": %d}",
+                    r.scale(), r.schema().key(), r.files(), r.rows(), r.inputBytes(), r.dbBytes(), r.generateSeconds(),
+                    r.loadSeconds(), r.rowsPerSecond(), r.peakRssBytes(), r.peakRssReset(), r.failedFiles()));
+            json.append(i + 1 < results.size() ? ",\n" : "\n");
+        }
+        return json.append("]\n").toString();
+    }
+
+    record Result(int scale, @NotNull TripsSchema schema, int files, long rows, long inputBytes, long dbBytes,
+                  double generateSeconds, double loadSeconds, long peakRssBytes, boolean peakRssReset, long failedFiles) {
+        double rowsPerSecond() {
+            return loadSeconds == 0 ? 0 : rows / loadSeconds;
+        }
+
+        @NotNull String summary() {
+            return String.format("📈 x%d %s: %,d rows from %d files in %.2fs (%,.0f rows/s), peak RSS %,d MB%s, DB %,d MB",
+                    scale, schema.key(), rows, files, loadSeconds, rowsPerSecond(), peakRssBytes / (1024 * 1024),
+                    peakRssReset ? "" : " (since JVM start)", dbBytes / (1024 * 1024));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.etl.model.TripsSchema;
+import com.xiaodi.taxi.query.columnar.ColumnarAggregationService;
+import com.xiaodi.taxi.query.columnar.ColumnarExporter;
+import com.xiaodi.taxi.query.columnar.ColumnarTripsFile;
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query path benchmarks: SQL generation, parameter binding, result mapping and the end-to-end aggregate against a
+ * {@link TripsFixture} database, for each of the main filter shapes. {@code aggregateColumnar} answers the same
+ * queries with {@link ColumnarAggregationService} from a columnar export of the fixture. {@code schema} runs every
+ * benchmark against the {@link TripsSchema#STANDARD standard} and the {@link TripsSchema#COMPACT compact} tables.
+ * <p>
+ * Run with {@code ./gradlew jmh}; results are written as JSON to build/reports/jmh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-native-access=ALL-UNNAMED")
+public class TripAggregatorServiceBenchmark {
+
+    @Param({"wildcard", "timeRange", "location", "groupByPayment"})
+    public String shape;
+
+    @Param({"1000000"})
+    public long fixtureRows;
+
+    @Param({"standard", "compact"})
+    public String schema;
+
+    private Connection connection;
+    private TripAggregatorService service;
+    private TripQueryParams params;
+    private String sql;
+    private PreparedStatement statement;
+    private CachedRowSet rows;
+    private ColumnarAggregationService columnar;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        connection = DriverManager.getConnection("jdbc:duckdb:" + TripsFixture.database(fixtureRows, TripsSchema.parse(schema)));
+        service = new TripAggregatorService(connection);
+        params = params(shape);
+        sql = service.buildQuery(params);
+        statement = connection.prepareStatement(sql);
+
+        rows = RowSetProvider.newFactory().createCachedRowSet();
+        service.bindParameters(statement, params);
+        try (ResultSet rs = statement.executeQuery()) {
+            rows.populate(rs);
+        }
+
+        Path columnarFile = TripsFixture.FIXTURE_DIR.resolve("trips-" + fixtureRows + ".columnar");
+        new ColumnarExporter(connection).export(columnarFile, "fixture");
+        columnar = new ColumnarAggregationService(ColumnarTripsFile.open(columnarFile));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        rows.close();
+        statement.close();
+        connection.close();
+    }
+
+    static TripQueryParams params(String shape) {
+        return switch (shape) {
+            case "wildcard" -> TripQueryParams.builder().build();
+            case "timeRange" -> TripQueryParams.builder()
+                    .pickupDatetime("2025-06-08 00:00:00")
+                    .dropoffDatetime("2025-06-14 23:59:59")
+                    .build();
+            case "location" -> TripQueryParams.builder()
+                    .puLocationID("132")
+                    .doLocationID("138")
+                    .build();
+            case "groupByPayment" -> TripQueryParams.builder()
+                    .groupByPayment(true)
+                    .vendorID("1")
+                    .taxiType("yellow")
+                    .build();
+            default -> throw new IllegalArgumentException("Unknown shape: " + shape);
+        };
+    }
+
+    @Benchmark
+    public String buildQuery() {
+        return service.buildQuery(params);
+    }
+
+    @Benchmark
+    public PreparedStatement bindParameters() throws SQLException {
+        service.bindParameters(statement, params);
+        return statement;
+    }
+
+    @Benchmark
+    public List<TripAggregationResult> mapResults() throws SQLException {
+        rows.beforeFirst();
+        return service.mapResults(rows, params);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<TripAggregationResult> aggregate() throws SQLException {
+        return service.aggregate(params);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<TripAggregationResult> aggregateColumnar() {
+        return columnar.aggregate(params);
+    }
+}
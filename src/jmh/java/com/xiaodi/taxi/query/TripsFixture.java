@@ -0,0 +1,78 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.etl.model.TripsSchema;
+import com.xiaodi.taxi.etl.sql.SQLBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Deterministic trips database for the benchmarks: the same row count always produces the same rows, so reports
+ * taken on different releases are measured against identical data. Files are cached under build/jmh-fixtures.
+ */
+final class TripsFixture {
+    static final Path FIXTURE_DIR = Paths.get("build", "jmh-fixtures");
+    private static final long JUNE_2025_MILLIS = 1_748_736_000_000L; // 2025-06-01 00:00:00 UTC
+
+    private TripsFixture() {
+    }
+
+    /**
+     * @param rows number of trips in the fixture.
+     * @return the fixture database, created on first use.
+     */
+    static @NotNull Path database(long rows) throws IOException, SQLException {
+        return database(rows, TripsSchema.STANDARD);
+    }
+
+    /**
+     * @param rows number of trips in the fixture.
+     * @param schema column types of the tables; the rows are the same for every schema.
+     * @return the fixture database, created on first use.
+     */
+    static @NotNull Path database(long rows, @NotNull TripsSchema schema) throws IOException, SQLException {
+        String suffix = schema == TripsSchema.STANDARD ? "" : "-" + schema.key();
+        Path db = FIXTURE_DIR.resolve("trips-" + rows + suffix + ".duckdb").toAbsolutePath();
+        if (Files.exists(db)) {
+            return db;
+        }
+        Files.createDirectories(db.getParent());
+        Path tmp = db.resolveSibling(db.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        try (Connection conn = DriverManager.getConnection("jdbc:duckdb:" + tmp);
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(SQLBuilder.createTripsTable(schema));
+            stmt.execute(insertTrips(rows));
+            stmt.execute(SQLBuilder.createRollupTable(schema));
+            stmt.execute(SQLBuilder.insertRollup(null));
+        }
+        Files.move(tmp, db);
+        return db;
+    }
+
+    /**
+     * June 2025, one trip every few seconds, spread over 265 zones, 2 vendors, 7 payment types and both taxi types.
+     * Values are derived from the row number only, so no random seed is involved.
+     */
+    private static @NotNull String insertTrips(long rows) {
+        long stepMillis = Math.max(1, 30L * 24 * 3600 * 1000 / rows);
+        return "INSERT INTO trips (vendor_id, pickup_datetime, dropoff_datetime, passenger_count, trip_distance, " +
+                "pu_location_id, do_location_id, payment_type, fare_amount, tolls_amount, total_amount, taxi_type, " +
+                "source_file) " +
+                "SELECT 1 + i % 2, " +
+                "epoch_ms(" + JUNE_2025_MILLIS + " + i * " + stepMillis + "), " +
+                "epoch_ms(" + JUNE_2025_MILLIS + " + i * " + stepMillis + " + 300000 + (i % 1800) * 1000), " +
+                "1 + i % 4, (i % 200) / 10.0, " +
+                "1 + (i * 7) % 265, 1 + (i * 13) % 265, i % 7, " +
+                "3.0 + (i % 9000) / 100.0, CASE WHEN i % 10 = 0 THEN 6.94 ELSE 0 END, 5.0 + (i % 9000) / 100.0, " +
+                "CASE WHEN i % 5 = 0 THEN 'green' ELSE 'yellow' END, 'fixture.parquet' " +
+                "FROM range(" + rows + ") t(i)";
+    }
+}
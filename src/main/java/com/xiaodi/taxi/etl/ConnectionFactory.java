@@ -1,8 +1,19 @@
 package com.xiaodi.taxi.etl;
 
+import org.duckdb.DuckDBConnection;
+
 import java.sql.Connection;
 import java.sql.SQLException;
 
 public interface ConnectionFactory {
     Connection getConnection(String url) throws SQLException;
+
+    /**
+     * Opens another connection on the same database instance, so worker threads can write concurrently.
+     * @param conn an open connection.
+     * @return a new connection sharing the database of {@code conn}.
+     */
+    default Connection duplicate(Connection conn) throws SQLException {
+        return conn.unwrap(DuckDBConnection.class).duplicate();
+    }
 }
@@ -1,16 +1,33 @@
 package com.xiaodi.taxi.etl;
 
+import com.xiaodi.taxi.etl.model.ClusterOrder;
+import com.xiaodi.taxi.etl.model.FileIngestReport;
+import com.xiaodi.taxi.etl.model.IngestAction;
+import com.xiaodi.taxi.etl.model.ManifestEntry;
+import com.xiaodi.taxi.etl.model.ParquetFileStats;
+import com.xiaodi.taxi.etl.model.ResourceBudget;
+import com.xiaodi.taxi.etl.model.RowRange;
+import com.xiaodi.taxi.etl.model.StorageBackend;
 import com.xiaodi.taxi.etl.sql.SQLBuilder;
 import com.xiaodi.taxi.etl.sql.SQLExecutor;
+import com.xiaodi.taxi.metrics.MetricsRegistry;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.nio.file.*;
 import java.sql.*;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
 
 /**
- * ETL class to insert all parquets in parquets folder into the duckdb in duck-db/nyc_taxi_combined.duckdb
+ * ETL class to insert all parquets in parquets folder into the duckdb in duck-db/nyc_taxi_combined.duckdb, published
+ * as a new snapshot of it (see {@link DbSnapshots}).
  */
 public class DBInserter {
     public static void main(String[] args) {
@@ -18,10 +35,14 @@ public class DBInserter {
         Path outputFile = Paths.get("duck-db", "nyc_taxi_combined.duckdb");
         DBInserter app = new DBInserter(
                 new DefaultDirectoryScanner(),
-                new DefaultConnectionFactory()
+                new DefaultConnectionFactory(),
+                EtlOptions.parse(args)
         );
         try {
-            app.run(inputDir, outputFile);
+            List<FileIngestReport> reports = app.run(inputDir, outputFile);
+            if (reports.stream().anyMatch(r -> !r.succeeded())) {
+                System.exit(1);
+            }
         } catch (IOException | SQLException e) {
             e.printStackTrace();
         }
@@ -29,6 +50,7 @@ public class DBInserter {
 
     private final DirectoryScanner directoryScanner;
     private final ConnectionFactory ConnectionFactory;
+    private final EtlOptions options;
 
     /**
      * Constructor
@@ -36,66 +58,418 @@ public class DBInserter {
      * @param ConnectionFactory An instance of a connection factory.
      */
     public DBInserter(DirectoryScanner directoryScanner, ConnectionFactory ConnectionFactory) {
+        this(directoryScanner, ConnectionFactory, EtlOptions.defaults());
+    }
+
+    /**
+     * Constructor
+     * @param directoryScanner An instance of a directory scanner.
+     * @param ConnectionFactory An instance of a connection factory.
+     * @param options ETL run options.
+     */
+    public DBInserter(DirectoryScanner directoryScanner, ConnectionFactory ConnectionFactory, EtlOptions options) {
         this.directoryScanner = directoryScanner;
         this.ConnectionFactory = ConnectionFactory;
+        this.options = options;
     }
 
     /**
-     * executes the ETL job.
+     * executes the ETL job. Files are loaded by a pool of {@link EtlOptions#getParallelism()} workers, each on its
+     * own connection; a failing file is reported and does not stop the others.
+     * Unless {@link EtlOptions#isIncremental()} is set the database is rebuilt from scratch; in incremental mode
+     * the ingestion manifest decides per file whether to append, replace or skip it.
+     * With {@link EtlOptions#getClusterOrder()} set, trips is sorted once all files are loaded, and with
+     * {@link EtlOptions#getSampleFraction()} set trips_sample is rebuilt after that. An incremental run that changed
+     * trips without clustering it drops trips_segments, whose row group bounds no longer hold, and without sampling
+     * it drops trips_sample, so approximate queries are answered exactly until the next sample.
+     * With {@link StorageBackend#PARQUET} storage trips go to a new version of the partitioned dataset instead, and
+     * the database only holds the ingestion manifest; it is kept at {@link PartitionedDatasetWriter#manifestFile}
+     * rather than {@code outputFile}, and publishing it publishes the dataset version.
+     * Timings are recorded in {@link MetricsRegistry#global()}: per file by {@link SQLExecutor}, per stage
+     * ({@code etl_stage_seconds}) here. {@link EtlOptions#isProfile()} prints them after the run and
+     * {@link EtlOptions#getMetricsFile()} exports them.
+     * DuckDB's threads, memory and spill directory are held to {@link EtlOptions#resourceBudget()}, and every file
+     * gets a share of it sized from its parquet footer by a {@link ResourceGovernor}.
+     * Files of more than {@link EtlOptions#getSplitRows()} rows are loaded in row-group ranges by a
+     * {@link RangedFileLoader}.
+     * The database is built as a new snapshot next to {@code outputFile}, starting from a copy of the current one in
+     * incremental mode (and from links to the parts of the current dataset version), and only published once the
+     * snapshot validates; snapshots retired more than {@link EtlOptions#getSnapshotGrace()} ago are then deleted.
+     * A full rebuild is not published when a file failed, as it would drop that file's rows; an incremental run is,
+     * with the failed files left as they were, except files loaded in ranges, which are left out until they load.
+     * When {@code inputDir} holds the taxi zone lookup ({@link SQLBuilder#ZONES_CSV}), it is loaded into taxi_zones.
      * @param inputDir parquets directory
-     * @param outputFile duckdb output file
+     * @param outputFile database path; snapshots are written next to it, unless the storage is parquet
+     * @return one report per parquet file, in file name order.
      */
-    public void run(Path inputDir, Path outputFile) throws IOException, SQLException {
-        ensureOutputDirectoryExists(outputFile);
-        deleteExistingFile(outputFile);
+    public List<FileIngestReport> run(Path inputDir, Path outputFile) throws IOException, SQLException {
+        boolean parquet = options.getStorage() == StorageBackend.PARQUET;
+        Path datasetDir = options.getDatasetDir();
+        Path dbFile = parquet ? PartitionedDatasetWriter.manifestFile(datasetDir) : outputFile;
+        ensureOutputDirectoryExists(dbFile);
+        long start = System.nanoTime();
+        Path snapshot = DbSnapshots.next(dbFile, Instant.now());
+        PartitionedDatasetWriter dataset = parquet
+                ? new PartitionedDatasetWriter(PartitionedDatasetWriter.version(datasetDir, snapshot))
+                : null;
+        boolean published = false;
+        try {
+            if (dataset != null) {
+                // left behind by a run that crashed before creating its snapshot
+                dataset.clear();
+            }
+            if (options.isIncremental()) {
+                Path current = DbSnapshots.current(dbFile);
+                copySnapshot(current, snapshot);
+                if (dataset != null) {
+                    dataset.linkFrom(PartitionedDatasetWriter.version(datasetDir, current));
+                }
+            }
+            List<FileIngestReport> reports = build(inputDir, snapshot, dataset);
 
-        try (Connection conn = ConnectionFactory.getConnection("jdbc:duckdb:" + outputFile.toString());
+            long failed = reports.stream().filter(r -> !r.succeeded()).count();
+            long skipped = reports.stream().filter(r -> r.action() == IngestAction.UNCHANGED).count();
+            long rows = reports.stream().mapToLong(FileIngestReport::rows).sum();
+            if (failed > 0 && !options.isIncremental()) {
+                System.out.printf("⚠️ %d of %d files failed, %s was not published; %s stays current.%n", failed,
+                        reports.size(), snapshot.getFileName(), DbSnapshots.current(dbFile).getFileName());
+            } else {
+                if (failed > 0) {
+                    // Failed files rolled back, so they keep what the copied snapshot held for them; ranged ones are
+                    // left out, and both are loaded again by the next run
+                    System.out.printf("⚠️ %d of %d files failed and are retried by the next run; %s was " +
+                            "published without their new rows.%n", failed, reports.size(), snapshot.getFileName());
+                }
+                validate(snapshot, dataset);
+                DbSnapshots.publish(dbFile, snapshot);
+                published = true;
+                // Stamped after the snapshot is published, so readers never see the new stamp before the data
+                DbVersionStamp.write(dbFile);
+                System.out.printf("🎉 ETL complete. %,d rows from %d files (%d skipped) in %.2fs. " +
+                                "%s written to: %s%n", rows, reports.size(), skipped,
+                        (System.nanoTime() - start) / 1_000_000_000.0, parquet ? "Dataset" : "DB snapshot",
+                        parquet ? dataset.getDatasetDir() : snapshot);
+            }
+            for (Path old : DbSnapshots.collectGarbage(dbFile, options.getSnapshotGrace(), Instant.now())) {
+                System.out.println("🧹 Deleted old snapshot " + old.getFileName());
+            }
+            if (parquet) {
+                for (Path old : PartitionedDatasetWriter.collectGarbage(datasetDir, options.getSnapshotGrace(),
+                        Instant.now())) {
+                    System.out.println("🧹 Deleted old dataset " + old.getFileName());
+                }
+            }
+            reportMetrics();
+            return reports;
+        } finally {
+            if (!published) {
+                DbSnapshots.delete(snapshot);
+                if (dataset != null) {
+                    try {
+                        dataset.clear();
+                    } catch (IOException e) {
+                        // collected by a later run once its snapshot is gone
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the parquet files into {@code snapshot}, or into {@code dataset} when it is not null, and runs the cluster,
+     * sample and zones stages.
+     * @return one report per parquet file, in file name order.
+     */
+    private List<FileIngestReport> build(Path inputDir, Path snapshot, PartitionedDatasetWriter dataset)
+            throws IOException, SQLException {
+        List<Path> files;
+        List<FileIngestReport> reports;
+        ResourceBudget budget = options.resourceBudget();
+        if (budget.tempDirectory() != null) {
+            Files.createDirectories(budget.tempDirectory());
+        }
+        ConnectionFactory governed = new GovernedConnectionFactory(ConnectionFactory, budget);
+        try (Connection conn = governed.getConnection("jdbc:duckdb:" + snapshot.toString());
+             Statement stmt = conn.createStatement();
+             ResourceGovernor governor = new ResourceGovernor(budget, options.getParallelism(), MetricsRegistry.global())) {
+            governor.startSampling(ConnectionFactory.duplicate(conn));
+
+            if (dataset == null) {
+                stmt.execute(SQLBuilder.createTripsTable(options.getSchema()));
+                stmt.execute(SQLBuilder.addSourceFileColumn());
+                ensureRollupTable(stmt);
+            }
+            IngestionManifest manifest = IngestionManifest.load(conn);
+
+            try (Stream<Path> paths = directoryScanner.listParquetFiles(inputDir)) {
+                files = paths.sorted().toList();
+            }
+
+            MetricsRegistry metrics = MetricsRegistry.global();
+            long stageStart = System.nanoTime();
+            reports = ingestAll(conn, manifest, files, governor, dataset);
+            metrics.timer("etl_stage_seconds", "stage", "ingest").recordSince(stageStart);
+            reports.forEach(r -> System.out.println(r.summary()));
+
+            // An incremental run starts from a copy, so derived tables may describe the trips before this run
+            boolean tripsChanged = reports.stream().anyMatch(r -> r.action() != IngestAction.UNCHANGED);
+            if (options.getClusterOrder() != ClusterOrder.NONE) {
+                stageStart = System.nanoTime();
+                System.out.println(new TripsClusterer(conn).cluster(options.getClusterOrder()).summary());
+                metrics.timer("etl_stage_seconds", "stage", "cluster").recordSince(stageStart);
+            } else if (tripsChanged) {
+                stmt.execute(SQLBuilder.dropSegmentsTable());
+            }
+            if (options.getSampleFraction() > 0) {
+                stageStart = System.nanoTime();
+                System.out.println(new TripsSampler(conn).sample(options.getSampleFraction()).summary());
+                metrics.timer("etl_stage_seconds", "stage", "sample").recordSince(stageStart);
+            } else if (tripsChanged) {
+                stmt.execute(SQLBuilder.dropSampleTable());
+            }
+            Path zones = inputDir.resolve(SQLBuilder.ZONES_CSV);
+            if (Files.isRegularFile(zones)) {
+                stageStart = System.nanoTime();
+                stmt.execute(SQLBuilder.createZonesTable(zones.toString()));
+                try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + SQLBuilder.ZONES_TABLE)) {
+                    rs.next();
+                    System.out.printf("🗺 %d taxi zones loaded from %s%n", rs.getLong(1), zones.getFileName());
+                }
+                metrics.timer("etl_stage_seconds", "stage", "zones").recordSince(stageStart);
+            }
+        }
+        return reports;
+    }
+
+    /**
+     * Checks a snapshot before it is published: it must open read-only, and trips must hold exactly the rows of the
+     * ingestion manifest, which trips_rollup must sum up to as well; with parquet storage, {@code dataset} must.
+     */
+    private static void validate(Path snapshot, PartitionedDatasetWriter dataset) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection conn = DbSnapshots.openReadOnly(snapshot);
              Statement stmt = conn.createStatement()) {
+            long manifestRows = count(stmt, SQLBuilder.sumManifestRows());
+            if (dataset != null) {
+                long datasetRows = manifestRows == 0 ? 0
+                        : count(stmt, SQLBuilder.countDatasetRows(dataset.getDatasetDir().toAbsolutePath().toString()));
+                if (datasetRows != manifestRows) {
+                    throw new SQLException("Dataset " + dataset.getDatasetDir() + " is inconsistent: it has " +
+                            datasetRows + " rows, the manifest " + manifestRows);
+                }
+            } else {
+                long trips = count(stmt, "SELECT COUNT(*) FROM trips");
+                long rollup = count(stmt, SQLBuilder.sumRollupTrips());
+                if (trips != manifestRows || rollup != trips) {
+                    throw new SQLException("Snapshot " + snapshot + " is inconsistent: trips has " + trips +
+                            " rows, the manifest " + manifestRows + " and trips_rollup " + rollup);
+                }
+            }
+        }
+        MetricsRegistry.global().timer("etl_stage_seconds", "stage", "validate").recordSince(start);
+    }
 
-            stmt.execute(SQLBuilder.createTripsTable());
+    private static long count(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
 
-            try (Stream<Path> files = directoryScanner.listParquetFiles(inputDir)) {
-                files.forEach(path -> {
-                    try {
-                        SQLExecutor processor = new SQLExecutor(stmt);
-                        processor.execute(path);
-                    } catch (SQLException e) {
-                        throw new RuntimeException("Error processing file " + path, e);
+    /**
+     * Copies the current database, and its write-ahead log if any, to a new snapshot for an incremental run.
+     */
+    private static void copySnapshot(Path current, Path snapshot) throws IOException {
+        if (Files.notExists(current)) {
+            return;
+        }
+        Files.copy(current, snapshot);
+        Path wal = current.resolveSibling(current.getFileName() + ".wal");
+        if (Files.exists(wal)) {
+            Files.copy(wal, snapshot.resolveSibling(snapshot.getFileName() + ".wal"));
+        }
+    }
+
+    private void reportMetrics() throws IOException {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        if (options.isProfile()) {
+            System.out.print(metrics.profile());
+        }
+        if (options.getMetricsFile() != null) {
+            metrics.write(options.getMetricsFile());
+            System.out.println("📈 Metrics written to: " + options.getMetricsFile());
+        }
+    }
+
+    private @NotNull List<FileIngestReport> ingestAll(Connection conn, IngestionManifest manifest,
+                                                      @NotNull List<Path> files, ResourceGovernor governor,
+                                                      PartitionedDatasetWriter dataset)
+            throws SQLException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(options.getParallelism(), Math.max(files.size(), 1)));
+        try {
+            List<Future<FileIngestReport>> futures = new ArrayList<>();
+            for (Path file : files) {
+                futures.add(pool.submit(() -> ingestFile(conn, manifest, file, governor, dataset)));
+            }
+
+            List<FileIngestReport> reports = new ArrayList<>(files.size());
+            for (Future<FileIngestReport> future : futures) {
+                reports.add(future.get());
+            }
+            return reports;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while loading parquet files", e);
+        } catch (ExecutionException e) {
+            throw new SQLException("Unexpected error while loading parquet files", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Loads one file in its own transaction: rows of a changed file are deleted first, and the rollup and manifest
+     * rows are written together with the new rows, so a failure leaves trips, rollup and manifest untouched.
+     * The load holds the resources the governor sized from the file's footer.
+     * Large files are loaded in ranges instead, see {@link #ingestRanges}.
+     */
+    private @NotNull FileIngestReport ingestFile(Connection conn, IngestionManifest manifest, Path file,
+                                                 ResourceGovernor governor, PartitionedDatasetWriter dataset) {
+        long start = System.nanoTime();
+        long bytes = fileSize(file);
+        IngestAction action = IngestAction.NEW;
+        try (Connection worker = ConnectionFactory.duplicate(conn);
+             Statement stmt = worker.createStatement()) {
+            IngestionManifest.Decision decision = manifest.decide(file);
+            action = decision.action();
+            if (action == IngestAction.UNCHANGED) {
+                ManifestEntry previous = manifest.get(decision.key());
+                if (!previous.sameStat(decision.sizeBytes(), decision.mtimeMillis())) {
+                    manifest.record(worker, decision.toEntry(previous.rowCount()));
+                }
+                return FileIngestReport.skipped(file, bytes, System.nanoTime() - start);
+            }
+
+            SQLExecutor executor = new SQLExecutor(stmt);
+            ParquetFileStats stats = executor.readStats(file);
+            try (ResourceGovernor.Lease lease = governor.acquire(worker, decision.key(), stats)) {
+                if (dataset != null) {
+                    long rows = dataset.write(stmt, file, decision.key());
+                    manifest.record(worker, decision.toEntry(rows));
+                    return FileIngestReport.success(file, action, rows, bytes, System.nanoTime() - start);
+                }
+
+                if (options.getSplitRows() > 0 && stats.rows() > options.getSplitRows()) {
+                    long rows = ingestRanges(conn, worker, executor, manifest, decision, file,
+                            lease.getSettings().threads());
+                    return FileIngestReport.success(file, action, rows, bytes, System.nanoTime() - start);
+                }
+
+                stmt.execute("BEGIN TRANSACTION");
+                try {
+                    if (action == IngestAction.CHANGED) {
+                        executor.deleteSourceFile(decision.key());
                     }
-                });
+                    long rows = executor.execute(file, decision.key());
+                    executor.buildRollup(decision.key());
+                    manifest.record(worker, decision.toEntry(rows));
+                    stmt.execute("COMMIT");
+                    return FileIngestReport.success(file, action, rows, bytes, System.nanoTime() - start);
+                } catch (SQLException | RuntimeException e) {
+                    stmt.execute("ROLLBACK");
+                    throw e;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return FileIngestReport.failure(file, action, bytes, System.nanoTime() - start, "Interrupted");
+        } catch (SQLException | IOException e) {
+            return FileIngestReport.failure(file, action, bytes, System.nanoTime() - start, e.getMessage());
+        } catch (RuntimeException e) {
+            // A bug hit by one file must not abort the others through the pool's ExecutionException
+            return FileIngestReport.failure(file, action, bytes, System.nanoTime() - start, e.toString());
+        }
+    }
+
+    /**
+     * Loads a large file in row-group ranges of about {@link EtlOptions#getSplitRows()} rows, up to
+     * {@code concurrency} at once, each committed on its own and retried on its own when it fails. Rows left by an
+     * earlier load of the file, or by an interrupted ranged load, are deleted first, together with its manifest row.
+     * Once every range is in, the rollup and manifest rows are written in one transaction; if a range fails for good,
+     * the file's rows are removed again, so trips and manifest still agree and the next incremental run loads it anew.
+     * @return rows inserted.
+     */
+    private long ingestRanges(Connection conn, Connection worker, SQLExecutor executor, IngestionManifest manifest,
+                              IngestionManifest.Decision decision, Path file, int concurrency) throws SQLException {
+        List<RowRange> ranges = RangedFileLoader.plan(executor.readRowGroupRows(file), options.getSplitRows());
+        try (Statement stmt = worker.createStatement()) {
+            stmt.execute("BEGIN TRANSACTION");
+            try {
+                executor.deleteSourceFile(decision.key());
+                manifest.remove(worker, decision.key());
+                stmt.execute("COMMIT");
+            } catch (SQLException | RuntimeException e) {
+                stmt.execute("ROLLBACK");
+                throw e;
             }
 
-            System.out.println("🎉 ETL complete. DB written to: " + outputFile);
+            try {
+                long rows = new RangedFileLoader(ConnectionFactory, conn, concurrency, MetricsRegistry.global())
+                        .load(file, decision.key(), ranges);
+                stmt.execute("BEGIN TRANSACTION");
+                try {
+                    executor.buildRollup(decision.key());
+                    manifest.record(worker, decision.toEntry(rows));
+                    stmt.execute("COMMIT");
+                } catch (SQLException | RuntimeException e) {
+                    stmt.execute("ROLLBACK");
+                    throw e;
+                }
+                System.out.printf("🧩 %s loaded in %d ranges%n", decision.key(), ranges.size());
+                return rows;
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    executor.deleteSourceFile(decision.key());
+                } catch (SQLException cleanup) {
+                    e.addSuppressed(cleanup);
+                }
+                throw e;
+            }
         }
     }
 
-    private void ensureOutputDirectoryExists(@NotNull Path outputFile) throws IOException {
-        Path parent = outputFile.getParent();
-        if (parent != null && Files.notExists(parent)) {
-            Files.createDirectories(parent);
+    /**
+     * Creates trips_rollup and trips_daily, backfilling them when an older database is loaded incrementally.
+     */
+    private void ensureRollupTable(@NotNull Statement stmt) throws SQLException {
+        if (!tableExists(stmt, "trips_rollup")) {
+            stmt.execute(SQLBuilder.createRollupTable(options.getSchema()));
+            stmt.execute(SQLBuilder.insertRollup(null));
+        }
+        if (!tableExists(stmt, SQLBuilder.DAILY_TABLE)) {
+            stmt.execute(SQLBuilder.createDailyTable(options.getSchema()));
+            stmt.execute(SQLBuilder.insertDaily(null));
         }
     }
 
-    private void deleteExistingFile(Path outputFile) throws IOException {
-        if (Files.exists(outputFile) && !Files.deleteIfExists(outputFile)) {
-            throw new IOException("Unable to delete existing file: " + outputFile);
+    private static boolean tableExists(@NotNull Statement stmt, @NotNull String table) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(SQLBuilder.tableExists(table))) {
+            return rs.next() && rs.getLong(1) > 0;
         }
     }
-}
 
-// ---- Classes ----
-class DefaultDirectoryScanner implements DirectoryScanner {
-    @Override
-    public Stream<Path> listParquetFiles(Path inputDir) throws IOException {
-        return Files.list(inputDir)
-                .filter(p -> p.toString().endsWith(".parquet"));
+    private static long fileSize(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
     }
-}
 
-class DefaultConnectionFactory implements ConnectionFactory {
-    @Override
-    public Connection getConnection(String url) throws SQLException {
-        return DriverManager.getConnection(url);
+    private void ensureOutputDirectoryExists(@NotNull Path outputFile) throws IOException {
+        Path parent = outputFile.getParent();
+        if (parent != null && Files.notExists(parent)) {
+            Files.createDirectories(parent);
+        }
     }
 }
 
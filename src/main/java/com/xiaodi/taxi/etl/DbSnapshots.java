@@ -0,0 +1,164 @@
+package com.xiaodi.taxi.etl;
+
+import org.duckdb.DuckDBDriver;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Blue/green snapshots of the DuckDB file. Every ETL run builds a new versioned file next to the database path, e.g.
+ * {@code nyc_taxi_combined.20250701T120000000.duckdb} for {@code nyc_taxi_combined.duckdb}, and publishes it by
+ * atomically replacing the pointer file {@code nyc_taxi_combined.duckdb.current}, which holds the name of the current
+ * snapshot. Readers resolve the pointer when they open a connection, so queries keep running on the previous snapshot
+ * while the next one is built.
+ * <p>
+ * A database written before snapshots existed has no pointer; the database path itself is then current.
+ */
+public final class DbSnapshots {
+    private static final DateTimeFormatter VERSION =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmssSSS").withZone(ZoneOffset.UTC);
+
+    private DbSnapshots() {
+    }
+
+    public static @NotNull Path pointerFile(@NotNull Path dbFile) {
+        return dbFile.resolveSibling(dbFile.getFileName() + ".current");
+    }
+
+    /**
+     * @param dbFile the database path, e.g. {@code duck-db/nyc_taxi_combined.duckdb}.
+     * @return the published snapshot, or {@code dbFile} itself when none was published.
+     */
+    public static @NotNull Path current(@NotNull Path dbFile) throws IOException {
+        Path pointer = pointerFile(dbFile);
+        if (Files.notExists(pointer)) {
+            return dbFile;
+        }
+        return dbFile.resolveSibling(Files.readString(pointer, StandardCharsets.UTF_8).strip());
+    }
+
+    /**
+     * @return the path of a new snapshot versioned by {@code now}, which does not exist yet.
+     */
+    public static @NotNull Path next(@NotNull Path dbFile, @NotNull Instant now) {
+        Instant version = now;
+        Path snapshot;
+        do {
+            snapshot = dbFile.resolveSibling(stem(dbFile) + "." + VERSION.format(version) + extension(dbFile));
+            version = version.plusMillis(1);
+        } while (Files.exists(snapshot));
+        return snapshot;
+    }
+
+    /**
+     * Makes {@code snapshot} the current one by replacing the pointer file atomically.
+     */
+    public static void publish(@NotNull Path dbFile, @NotNull Path snapshot) throws IOException {
+        Path pointer = pointerFile(dbFile);
+        Path tmp = pointer.resolveSibling(pointer.getFileName() + ".tmp");
+        Files.writeString(tmp, snapshot.getFileName().toString(), StandardCharsets.UTF_8);
+        Files.move(tmp, pointer, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return the snapshots of {@code dbFile} from oldest to newest; a pre-snapshot database at {@code dbFile} comes
+     * first once a snapshot was published.
+     */
+    public static @NotNull List<Path> list(@NotNull Path dbFile) throws IOException {
+        Path dir = dbFile.toAbsolutePath().getParent();
+        Pattern name = Pattern.compile(Pattern.quote(stem(dbFile)) + "\\.\\d{8}T\\d{9}" +
+                Pattern.quote(extension(dbFile)));
+        List<Path> snapshots = new ArrayList<>();
+        if (Files.isRegularFile(dbFile) && Files.exists(pointerFile(dbFile))) {
+            snapshots.add(dbFile);
+        }
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> files = Files.list(dir)) {
+                files.filter(f -> name.matcher(f.getFileName().toString()).matches())
+                        .sorted()
+                        .map(f -> dbFile.resolveSibling(f.getFileName()))
+                        .forEach(snapshots::add);
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Deletes the snapshots no reader should still be using. A snapshot older than the current one was retired when
+     * its successor was written, and is deleted once that is {@code grace} ago; a newer one was never published
+     * (a build that failed or crashed) and is deleted once it is itself {@code grace} old. Snapshots that cannot be
+     * deleted yet, e.g. while a reader on Windows holds them open, are left for the next run.
+     * @return the deleted snapshots.
+     */
+    public static @NotNull List<Path> collectGarbage(@NotNull Path dbFile, @NotNull Duration grace,
+                                                     @NotNull Instant now) throws IOException {
+        Path current = current(dbFile);
+        List<Path> snapshots = list(dbFile);
+        int currentIndex = snapshots.indexOf(current);
+        Instant cutoff = now.minus(grace);
+        List<Path> deleted = new ArrayList<>();
+        for (int i = 0; i < snapshots.size(); i++) {
+            if (i == currentIndex) {
+                continue;
+            }
+            // without a current snapshot in the list every other one counts as unpublished
+            Path since = currentIndex >= 0 && i < currentIndex ? snapshots.get(i + 1) : snapshots.get(i);
+            if (Files.getLastModifiedTime(since).toInstant().isBefore(cutoff) && delete(snapshots.get(i))) {
+                deleted.add(snapshots.get(i));
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes a snapshot and its write-ahead log.
+     * @return whether the snapshot is gone.
+     */
+    public static boolean delete(@NotNull Path snapshot) {
+        try {
+            Files.deleteIfExists(snapshot.resolveSibling(snapshot.getFileName() + ".wal"));
+            Files.deleteIfExists(snapshot);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a read-only connection on a snapshot, so readers never take the write lock of the file.
+     */
+    public static @NotNull Connection openReadOnly(@NotNull Path snapshot) throws SQLException {
+        if (Files.notExists(snapshot)) {
+            throw new SQLException("Database " + snapshot + " not found, run the ETL first");
+        }
+        Properties properties = new Properties();
+        properties.setProperty(DuckDBDriver.DUCKDB_READONLY_PROPERTY, "true");
+        return DriverManager.getConnection("jdbc:duckdb:" + snapshot, properties);
+    }
+
+    private static String stem(Path dbFile) {
+        String name = dbFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+
+    private static String extension(Path dbFile) {
+        String name = dbFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot);
+    }
+}
@@ -0,0 +1,51 @@
+package com.xiaodi.taxi.etl;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Version stamp written next to the DuckDB file by every ETL run, so readers can tell when the data changed.
+ */
+public final class DbVersionStamp {
+    private DbVersionStamp() {
+    }
+
+    public static @NotNull Path stampFile(@NotNull Path dbFile) {
+        return dbFile.resolveSibling(dbFile.getFileName() + ".version");
+    }
+
+    /**
+     * Writes a new unique stamp, replacing the previous one atomically.
+     * @param dbFile the DuckDB file that was just written.
+     * @return the new stamp.
+     */
+    public static @NotNull String write(@NotNull Path dbFile) throws IOException {
+        String stamp = Instant.now() + "/" + UUID.randomUUID();
+        Path target = stampFile(dbFile);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.writeString(tmp, stamp, StandardCharsets.UTF_8);
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return stamp;
+    }
+
+    /**
+     * Reads the current stamp. Databases written before stamps existed fall back to the file's size and mtime.
+     * @param dbFile the DuckDB file.
+     * @return the stamp, never null.
+     */
+    public static @NotNull String read(@NotNull Path dbFile) throws IOException {
+        Path stamp = stampFile(dbFile);
+        if (Files.exists(stamp)) {
+            return Files.readString(stamp, StandardCharsets.UTF_8).strip();
+        }
+        if (Files.exists(dbFile)) {
+            return "unstamped/" + Files.size(dbFile) + "/" + Files.getLastModifiedTime(dbFile).toMillis();
+        }
+        return "missing";
+    }
+}
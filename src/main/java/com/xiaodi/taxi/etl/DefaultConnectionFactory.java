@@ -0,0 +1,12 @@
+package com.xiaodi.taxi.etl;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+public class DefaultConnectionFactory implements ConnectionFactory {
+    @Override
+    public Connection getConnection(String url) throws SQLException {
+        return DriverManager.getConnection(url);
+    }
+}
@@ -0,0 +1,14 @@
+package com.xiaodi.taxi.etl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+public class DefaultDirectoryScanner implements DirectoryScanner {
+    @Override
+    public Stream<Path> listParquetFiles(Path inputDir) throws IOException {
+        return Files.list(inputDir)
+                .filter(p -> p.toString().endsWith(".parquet"));
+    }
+}
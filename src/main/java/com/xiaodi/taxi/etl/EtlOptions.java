@@ -0,0 +1,229 @@
+package com.xiaodi.taxi.etl;
+
+import com.xiaodi.taxi.etl.model.ClusterOrder;
+import com.xiaodi.taxi.etl.model.ResourceBudget;
+import com.xiaodi.taxi.etl.model.StorageBackend;
+import com.xiaodi.taxi.etl.model.TripsSchema;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+/**
+ * Value object holding ETL run options, parsed from {@code --name=value} command line flags.
+ */
+public final class EtlOptions {
+    public static final Path DEFAULT_DATASET_DIR = Paths.get("duck-db", "trips-dataset");
+    public static final double DEFAULT_SAMPLE_FRACTION = 0.01;
+    public static final long DEFAULT_SPLIT_ROWS = 4_000_000;
+    public static final Duration DEFAULT_SNAPSHOT_GRACE = Duration.ofHours(1);
+
+    private final int parallelism;
+    private final boolean incremental;
+    private final ClusterOrder clusterOrder;
+    private final StorageBackend storage;
+    private final Path datasetDir;
+    private final double sampleFraction;
+    private final boolean profile;
+    private final Path metricsFile;
+    private final int maxThreads;
+    private final long maxMemoryBytes;
+    private final Path tempDir;
+    private final long splitRows;
+    private final TripsSchema schema;
+    private final Duration snapshotGrace;
+
+    @Contract(pure = true)
+    private EtlOptions(@NotNull Builder b) {
+        this.parallelism = b.parallelism;
+        this.incremental = b.incremental;
+        this.clusterOrder = b.clusterOrder;
+        this.storage = b.storage;
+        this.datasetDir = b.datasetDir;
+        this.sampleFraction = b.sampleFraction;
+        this.profile = b.profile;
+        this.metricsFile = b.metricsFile;
+        this.maxThreads = b.maxThreads;
+        this.maxMemoryBytes = b.maxMemoryBytes;
+        this.tempDir = b.tempDir;
+        this.splitRows = b.splitRows;
+        this.schema = b.schema;
+        this.snapshotGrace = b.snapshotGrace;
+    }
+
+    @Contract(" -> new")
+    public static @NotNull Builder builder() { return new Builder(); }
+
+    public static @NotNull EtlOptions defaults() { return builder().build(); }
+
+    /**
+     * Parses command line flags. Supported flags:
+     * <ul>
+     *     <li>{@code --parallel=N} number of files loaded concurrently (default 1)</li>
+     *     <li>{@code --incremental} keep the existing database and only load new or changed files</li>
+     *     <li>{@code --cluster[=pickup|taxi_type]} sort trips by pickup time, optionally by taxi type first, after
+     *     loading (see {@link TripsClusterer})</li>
+     *     <li>{@code --storage=duckdb|parquet} store trips in the database file (default) or as a Hive-partitioned
+     *     parquet dataset (see {@link PartitionedDatasetWriter})</li>
+     *     <li>{@code --dataset-dir=DIR} root of the parquet dataset (default duck-db/trips-dataset)</li>
+     *     <li>{@code --sample[=FRACTION]} build the stratified sample approximate queries read, keeping FRACTION of
+     *     every taxi type and month (default 0.01, see {@link TripsSampler})</li>
+     *     <li>{@code --profile} print the timing breakdown of every phase after the run</li>
+     *     <li>{@code --metrics=FILE} write the run's metrics to FILE, as JSON for {@code .json} and in the
+     *     Prometheus text format otherwise</li>
+     *     <li>{@code --max-threads=N} DuckDB threads shared by all files loading at once (default every core)</li>
+     *     <li>{@code --max-memory=SIZE} DuckDB memory limit shared by all files loading at once, e.g. {@code 8GB}
+     *     (default 80% of physical memory)</li>
+     *     <li>{@code --temp-dir=DIR} directory DuckDB spills to past the memory limit (default next to the database)</li>
+     *     <li>{@code --split-rows[=N]} load files of more than N rows (default 4,000,000) as ranges of about N rows,
+     *     in parallel and committed one by one (see {@link RangedFileLoader})</li>
+     *     <li>{@code --schema=standard|compact} column types of a new database: the standard INTEGER/DOUBLE/VARCHAR
+     *     columns (default), or narrow integer codes, an ENUM taxi type and DECIMAL money (see {@link TripsSchema})</li>
+     *     <li>{@code --snapshot-grace=MINUTES} how long a replaced database snapshot is kept for the queries still
+     *     reading it (default 60, see {@link DbSnapshots})</li>
+     * </ul>
+     * @param args command line arguments.
+     * @return the parsed options.
+     */
+    public static @NotNull EtlOptions parse(String @NotNull [] args) {
+        Builder b = builder();
+        for (String arg : args) {
+            String name = arg;
+            String value = null;
+            int eq = arg.indexOf('=');
+            if (eq >= 0) {
+                name = arg.substring(0, eq);
+                value = arg.substring(eq + 1);
+            }
+            switch (name) {
+                case "--parallel" -> b.parallelism(Integer.parseInt(requireValue(name, value)));
+                case "--incremental" -> b.incremental(value == null || Boolean.parseBoolean(value));
+                case "--cluster" -> b.clusterOrder(value == null ? ClusterOrder.PICKUP : ClusterOrder.parse(value));
+                case "--storage" -> b.storage(StorageBackend.parse(requireValue(name, value)));
+                case "--dataset-dir" -> b.datasetDir(Paths.get(requireValue(name, value)));
+                case "--sample" -> b.sampleFraction(value == null ? DEFAULT_SAMPLE_FRACTION : Double.parseDouble(value));
+                case "--profile" -> b.profile(value == null || Boolean.parseBoolean(value));
+                case "--metrics" -> b.metricsFile(Paths.get(requireValue(name, value)));
+                case "--max-threads" -> b.maxThreads(Integer.parseInt(requireValue(name, value)));
+                case "--max-memory" -> b.maxMemoryBytes(ResourceBudget.parseBytes(requireValue(name, value)));
+                case "--temp-dir" -> b.tempDir(Paths.get(requireValue(name, value)));
+                case "--split-rows" -> b.splitRows(value == null ? DEFAULT_SPLIT_ROWS : Long.parseLong(value));
+                case "--schema" -> b.schema(TripsSchema.parse(requireValue(name, value)));
+                case "--snapshot-grace" -> b.snapshotGrace(Duration.ofMinutes(Long.parseLong(requireValue(name, value))));
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        return b.build();
+    }
+
+    private static @NotNull String requireValue(String name, String value) {
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Option " + name + " requires a value");
+        }
+        return value;
+    }
+
+    public static final class Builder {
+        private int parallelism = 1;
+        private boolean incremental;
+        private ClusterOrder clusterOrder = ClusterOrder.NONE;
+        private StorageBackend storage = StorageBackend.DUCKDB;
+        private Path datasetDir = DEFAULT_DATASET_DIR;
+        private double sampleFraction;
+        private boolean profile;
+        private Path metricsFile;
+        private int maxThreads;
+        private long maxMemoryBytes;
+        private Path tempDir;
+        private long splitRows;
+        private TripsSchema schema = TripsSchema.STANDARD;
+        private Duration snapshotGrace = DEFAULT_SNAPSHOT_GRACE;
+
+        public Builder parallelism(int n) {
+            if (n < 1) throw new IllegalArgumentException("parallelism must be >= 1");
+            this.parallelism = n;
+            return this;
+        }
+        public Builder incremental(boolean flag) { this.incremental = flag; return this; }
+        public Builder clusterOrder(@NotNull ClusterOrder order) { this.clusterOrder = order; return this; }
+        public Builder storage(@NotNull StorageBackend storage) { this.storage = storage; return this; }
+        public Builder datasetDir(@NotNull Path dir) { this.datasetDir = dir; return this; }
+        public Builder profile(boolean flag) { this.profile = flag; return this; }
+        public Builder metricsFile(Path file) { this.metricsFile = file; return this; }
+        public Builder tempDir(Path dir) { this.tempDir = dir; return this; }
+        public Builder schema(@NotNull TripsSchema schema) { this.schema = schema; return this; }
+        public Builder maxThreads(int n) {
+            if (n < 1) throw new IllegalArgumentException("max threads must be >= 1");
+            this.maxThreads = n;
+            return this;
+        }
+        public Builder splitRows(long rows) {
+            if (rows < 0) throw new IllegalArgumentException("split rows must be >= 0");
+            this.splitRows = rows;
+            return this;
+        }
+        public Builder maxMemoryBytes(long bytes) {
+            if (bytes < 1) throw new IllegalArgumentException("max memory must be positive");
+            this.maxMemoryBytes = bytes;
+            return this;
+        }
+        public Builder snapshotGrace(@NotNull Duration grace) {
+            if (grace.isNegative()) throw new IllegalArgumentException("snapshot grace must be >= 0");
+            this.snapshotGrace = grace;
+            return this;
+        }
+        public Builder sampleFraction(double fraction) {
+            if (fraction < 0 || fraction > 1) throw new IllegalArgumentException("sample fraction must be in [0, 1]");
+            this.sampleFraction = fraction;
+            return this;
+        }
+        @Contract(value = " -> new", pure = true)
+        public @NotNull EtlOptions build() {
+            if (storage == StorageBackend.PARQUET && clusterOrder != ClusterOrder.NONE) {
+                throw new IllegalArgumentException("--cluster only applies to duckdb storage");
+            }
+            if (storage == StorageBackend.PARQUET && sampleFraction > 0) {
+                throw new IllegalArgumentException("--sample only applies to duckdb storage");
+            }
+            if (storage == StorageBackend.PARQUET && splitRows > 0) {
+                throw new IllegalArgumentException("--split-rows only applies to duckdb storage");
+            }
+            if (storage == StorageBackend.PARQUET && schema != TripsSchema.STANDARD) {
+                throw new IllegalArgumentException("--schema only applies to duckdb storage");
+            }
+            return new EtlOptions(this);
+        }
+    }
+
+    public int getParallelism() { return parallelism; }
+    public boolean isIncremental() { return incremental; }
+    public ClusterOrder getClusterOrder() { return clusterOrder; }
+    public StorageBackend getStorage() { return storage; }
+    public Path getDatasetDir() { return datasetDir; }
+    /** Share of trips kept in trips_sample, 0 when no sample is built. */
+    public double getSampleFraction() { return sampleFraction; }
+    public boolean isProfile() { return profile; }
+    /** File the run's metrics are written to, null for none. */
+    public Path getMetricsFile() { return metricsFile; }
+    /** DuckDB threads of the run, 0 for every core. */
+    public int getMaxThreads() { return maxThreads; }
+    /** DuckDB memory limit of the run in bytes, 0 for DuckDB's default share of physical memory. */
+    public long getMaxMemoryBytes() { return maxMemoryBytes; }
+    /** Spill directory, null for DuckDB's default. */
+    public Path getTempDir() { return tempDir; }
+    /** Rows past which a file is loaded in ranges, 0 to load every file whole. */
+    public long getSplitRows() { return splitRows; }
+    /** Column types of the tables a new database is created with; an existing database keeps its own. */
+    public TripsSchema getSchema() { return schema; }
+    /** How long a replaced snapshot is kept after the next one is written. */
+    public Duration getSnapshotGrace() { return snapshotGrace; }
+
+    /**
+     * @return the resource budget of the run, with defaults resolved against this machine.
+     */
+    public @NotNull ResourceBudget resourceBudget() {
+        return ResourceBudget.detect(maxThreads, maxMemoryBytes, tempDir);
+    }
+}
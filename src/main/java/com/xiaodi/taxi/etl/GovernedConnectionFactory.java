@@ -0,0 +1,48 @@
+package com.xiaodi.taxi.etl;
+
+import com.xiaodi.taxi.etl.model.ResourceBudget;
+import com.xiaodi.taxi.etl.sql.SQLBuilder;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Opens connections through another factory and limits the database instance to a {@link ResourceBudget} before
+ * anything runs on it. Duplicated connections share the instance and its limits.
+ */
+public class GovernedConnectionFactory implements ConnectionFactory {
+    private final ConnectionFactory delegate;
+    private final ResourceBudget budget;
+
+    /**
+     * Constructor
+     * @param delegate factory the connections are opened with.
+     * @param budget resources of the database instance.
+     */
+    public GovernedConnectionFactory(ConnectionFactory delegate, ResourceBudget budget) {
+        this.delegate = delegate;
+        this.budget = budget;
+    }
+
+    @Override
+    public Connection getConnection(String url) throws SQLException {
+        Connection conn = delegate.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            if (budget.tempDirectory() != null) {
+                stmt.execute(SQLBuilder.setTempDirectory(budget.tempDirectory().toAbsolutePath().toString()));
+            }
+            stmt.execute(SQLBuilder.setThreads(budget.threads()));
+            stmt.execute(SQLBuilder.setMemoryLimit(budget.memoryBytes()));
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        return conn;
+    }
+
+    @Override
+    public Connection duplicate(Connection conn) throws SQLException {
+        return delegate.duplicate(conn);
+    }
+}
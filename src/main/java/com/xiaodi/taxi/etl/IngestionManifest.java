@@ -0,0 +1,145 @@
+package com.xiaodi.taxi.etl;
+
+import com.xiaodi.taxi.etl.model.IngestAction;
+import com.xiaodi.taxi.etl.model.ManifestEntry;
+import com.xiaodi.taxi.etl.sql.SQLBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ingested_files table: one row per loaded parquet file with its size, mtime, content hash and row count.
+ * Used to decide whether a file is new, changed or can be skipped.
+ */
+public class IngestionManifest {
+    private final Map<String, ManifestEntry> entries;
+
+    private IngestionManifest(Map<String, ManifestEntry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Creates the manifest table if needed and loads its rows.
+     * @param conn connection to the trips database.
+     */
+    public static @NotNull IngestionManifest load(@NotNull Connection conn) throws SQLException {
+        Map<String, ManifestEntry> entries = new ConcurrentHashMap<>();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(SQLBuilder.createManifestTable());
+            try (ResultSet rs = stmt.executeQuery(SQLBuilder.selectManifest())) {
+                while (rs.next()) {
+                    ManifestEntry entry = new ManifestEntry(
+                            rs.getString("path"),
+                            rs.getLong("size_bytes"),
+                            rs.getLong("mtime_millis"),
+                            rs.getString("content_hash"),
+                            rs.getLong("row_count")
+                    );
+                    entries.put(entry.path(), entry);
+                }
+            }
+        }
+        return new IngestionManifest(entries);
+    }
+
+    /**
+     * @param file parquet file.
+     * @return the key of the file in the manifest and in trips.source_file.
+     */
+    public static @NotNull String keyOf(@NotNull Path file) {
+        return file.getFileName().toString();
+    }
+
+    /**
+     * Classifies a file against the manifest. Size and mtime are compared first, so unchanged files are
+     * never read; the content hash is only computed when they differ.
+     * @param file parquet file.
+     * @return the decision, with the fingerprint to record once the file is loaded.
+     */
+    public @NotNull Decision decide(@NotNull Path file) throws IOException {
+        String key = keyOf(file);
+        long size = Files.size(file);
+        long mtime = Files.getLastModifiedTime(file).toMillis();
+        ManifestEntry previous = entries.get(key);
+        if (previous != null && previous.sameStat(size, mtime)) {
+            return new Decision(IngestAction.UNCHANGED, key, size, mtime, previous.contentHash());
+        }
+        String hash = sha256(file);
+        if (previous == null) {
+            return new Decision(IngestAction.NEW, key, size, mtime, hash);
+        }
+        if (previous.contentHash().equals(hash)) {
+            return new Decision(IngestAction.UNCHANGED, key, size, mtime, hash);
+        }
+        return new Decision(IngestAction.CHANGED, key, size, mtime, hash);
+    }
+
+    public ManifestEntry get(@NotNull String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Upserts the manifest row of a loaded file, within the caller's transaction.
+     * @param conn connection the file was loaded on.
+     * @param entry manifest row.
+     */
+    public void record(@NotNull Connection conn, @NotNull ManifestEntry entry) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(SQLBuilder.upsertManifestEntry())) {
+            stmt.setString(1, entry.path());
+            stmt.setLong(2, entry.sizeBytes());
+            stmt.setLong(3, entry.mtimeMillis());
+            stmt.setString(4, entry.contentHash());
+            stmt.setLong(5, entry.rowCount());
+            stmt.executeUpdate();
+        }
+        entries.put(entry.path(), entry);
+    }
+
+    /**
+     * Deletes the manifest row of a file, within the caller's transaction, so the next run loads it as new.
+     * @param conn connection the file's rows are deleted on.
+     * @param key key of the file.
+     */
+    public void remove(@NotNull Connection conn, @NotNull String key) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(SQLBuilder.deleteManifestEntry())) {
+            stmt.setString(1, key);
+            stmt.executeUpdate();
+        }
+        entries.remove(key);
+    }
+
+    static @NotNull String sha256(@NotNull Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * The action to take for a file, with the fingerprint it had when classified.
+     */
+    public record Decision(IngestAction action, String key, long sizeBytes, long mtimeMillis, String contentHash) {
+        public @NotNull ManifestEntry toEntry(long rowCount) {
+            return new ManifestEntry(key, sizeBytes, mtimeMillis, contentHash, rowCount);
+        }
+    }
+}
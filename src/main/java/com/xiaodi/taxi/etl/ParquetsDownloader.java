@@ -1,65 +1,307 @@
 package com.xiaodi.taxi.etl;
 
+import com.xiaodi.taxi.etl.model.DownloadResult;
+import org.jetbrains.annotations.NotNull;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
-import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 /**
- * Util file to download hardcoded links into the parquets folder.
+ * Downloads parquet files into the parquets folder, concurrently on virtual threads.
+ * <p>
+ * Each file is written to a {@code .part} file and atomically renamed once complete. An interrupted transfer is
+ * resumed with an HTTP Range request, and a file whose ETag and Content-Length match the local copy is skipped.
+ * The ETag of every completed download is kept next to it in a {@code .etag} file.
+ * <p>
+ * The taxi zone lookup CSV ({@link #ZONES_URL}) is downloaded with every run, for the ETL to load into taxi_zones.
  */
 public class ParquetsDownloader {
+    public static final String BASE_URL = "https://d37ci6vzurychx.cloudfront.net/trip-data/";
+    public static final String ZONES_URL = "https://d37ci6vzurychx.cloudfront.net/misc/taxi_zone_lookup.csv";
 
     private static final String[] PARQUET_URLS = {
-            "https://d37ci6vzurychx.cloudfront.net/trip-data/yellow_tripdata_2025-06.parquet",
-            "https://d37ci6vzurychx.cloudfront.net/trip-data/yellow_tripdata_2025-05.parquet",
-            "https://d37ci6vzurychx.cloudfront.net/trip-data/green_tripdata_2025-06.parquet",
-            "https://d37ci6vzurychx.cloudfront.net/trip-data/green_tripdata_2025-05.parquet"
+            BASE_URL + "yellow_tripdata_2025-06.parquet",
+            BASE_URL + "yellow_tripdata_2025-05.parquet",
+            BASE_URL + "green_tripdata_2025-06.parquet",
+            BASE_URL + "green_tripdata_2025-05.parquet"
     };
 
     private static final Path OUTPUT_DIR = Paths.get("parquets");
+    private static final int DEFAULT_CONCURRENCY = 4;
 
+    /**
+     * Supported flags:
+     * <ul>
+     *     <li>{@code --urls=FILE} file with one URL per line ({@code #} starts a comment)</li>
+     *     <li>{@code --from=YYYY-MM --to=YYYY-MM} month range, combined with {@code --types=yellow,green}</li>
+     *     <li>{@code --concurrency=N} maximum parallel downloads (default 4)</li>
+     * </ul>
+     * Without {@code --urls} or {@code --from} the default months are downloaded.
+     */
     public static void main(String[] args) {
         try {
+            List<URI> uris = new ArrayList<>();
+            String urlsFile = null, from = null, to = null, types = "yellow,green";
+            int concurrency = DEFAULT_CONCURRENCY;
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                String name = eq < 0 ? arg : arg.substring(0, eq);
+                String value = eq < 0 ? "" : arg.substring(eq + 1);
+                switch (name) {
+                    case "--urls" -> urlsFile = value;
+                    case "--from" -> from = value;
+                    case "--to" -> to = value;
+                    case "--types" -> types = value;
+                    case "--concurrency" -> concurrency = Integer.parseInt(value);
+                    default -> throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+            if (urlsFile != null) {
+                uris.addAll(readUrlList(Paths.get(urlsFile)));
+            }
+            if (from != null) {
+                YearMonth start = YearMonth.parse(from);
+                YearMonth end = to == null ? start : YearMonth.parse(to);
+                uris.addAll(monthRange(start, end, List.of(types.split(","))));
+            }
+            if (uris.isEmpty()) {
+                for (String url : PARQUET_URLS) {
+                    uris.add(URI.create(url));
+                }
+            }
+            URI zones = URI.create(ZONES_URL);
+            if (!uris.contains(zones)) {
+                uris.add(zones);
+            }
+
             // 1. Make sure the output directory exists
             if (Files.notExists(OUTPUT_DIR)) {
                 Files.createDirectories(OUTPUT_DIR);
             }
 
             // 2. Download each file
-            for (String urlString : PARQUET_URLS) {
-                downloadParquet(urlString);
-            }
+            ParquetsDownloader downloader = new ParquetsDownloader(defaultClient(), OUTPUT_DIR, concurrency);
+            List<DownloadResult> results = downloader.downloadAll(uris);
+            results.forEach(r -> System.out.println(r.target().getFileName() + r.summary()));
 
-            System.out.println("All files downloaded to " + OUTPUT_DIR.toAbsolutePath());
+            long failed = results.stream().filter(r -> r.status() == DownloadResult.Status.FAILED).count();
+            System.out.println("All files downloaded to " + OUTPUT_DIR.toAbsolutePath() +
+                    (failed > 0 ? " (" + failed + " failed)" : ""));
+            if (failed > 0) {
+                System.exit(1);
+            }
         } catch (IOException e) {
-            System.err.println("I/O error while creating output directory: " + e.getMessage());
+            System.err.println("I/O error while preparing downloads: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    private static void downloadParquet(String urlString) {
-        URI uri;
-        try {
-            uri = new URI(urlString);
-        } catch (URISyntaxException e) {
-            System.err.println("Invalid URL: " + urlString);
-            return;
+    private final HttpClient client;
+    private final Path outputDir;
+    private final Semaphore permits;
+
+    /**
+     * Constructor
+     * @param client http client used for all requests.
+     * @param outputDir directory the parquet files are written to.
+     * @param concurrency maximum number of files transferred at the same time.
+     */
+    public ParquetsDownloader(HttpClient client, Path outputDir, int concurrency) {
+        this.client = client;
+        this.outputDir = outputDir;
+        this.permits = new Semaphore(concurrency);
+    }
+
+    public static @NotNull HttpClient defaultClient() {
+        return HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+    }
+
+    /**
+     * @return the URLs of every taxi type for every month in the inclusive range.
+     */
+    public static @NotNull List<URI> monthRange(@NotNull YearMonth from, @NotNull YearMonth to,
+                                                @NotNull List<String> taxiTypes) {
+        List<URI> uris = new ArrayList<>();
+        for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+            for (String type : taxiTypes) {
+                uris.add(URI.create(BASE_URL + type.trim().toLowerCase() + "_tripdata_" + month + ".parquet"));
+            }
+        }
+        return uris;
+    }
+
+    static @NotNull List<URI> readUrlList(Path file) throws IOException {
+        List<URI> uris = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            String url = line.strip();
+            if (!url.isEmpty() && !url.startsWith("#")) {
+                uris.add(URI.create(url));
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * Downloads all URLs, one virtual thread per file and at most {@code concurrency} transfers at once.
+     * @return one result per URL, in input order.
+     */
+    public List<DownloadResult> downloadAll(@NotNull List<URI> uris) {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<DownloadResult>> futures = new ArrayList<>();
+            for (URI uri : uris) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return download(uri);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            List<DownloadResult> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(failed(uris.get(i), e.getCause()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    results.add(failed(uris.get(i), e));
+                }
+            }
+            return results;
         }
+    }
 
+    /**
+     * Downloads a single URL, skipping or resuming it when possible.
+     */
+    public DownloadResult download(@NotNull URI uri) {
         String fileName = Paths.get(uri.getPath()).getFileName().toString();
-        Path target = OUTPUT_DIR.resolve(fileName);
+        Path target = outputDir.resolve(fileName);
+        Path part = outputDir.resolve(fileName + ".part");
+        Path etagFile = outputDir.resolve(fileName + ".etag");
+        Path partEtagFile = outputDir.resolve(fileName + ".part.etag");
+        try {
+            HttpResponse<Void> head = client.send(
+                    HttpRequest.newBuilder(uri).method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            if (head.statusCode() != 200) {
+                throw new IOException("HEAD returned HTTP " + head.statusCode());
+            }
+            String etag = head.headers().firstValue("ETag").orElse(null);
+            long length = head.headers().firstValueAsLong("Content-Length").orElse(-1);
 
-        System.out.println("Downloading " + fileName + " ...");
+            if (isUpToDate(target, etagFile, etag, length)) {
+                return new DownloadResult(uri, target, DownloadResult.Status.SKIPPED, 0, null);
+            }
+
+            // A partial file is only resumed when it belongs to the same ETag
+            long offset = 0;
+            if (Files.exists(part)) {
+                if (etag != null && etag.equals(readEtag(partEtagFile))) {
+                    offset = Files.size(part);
+                } else {
+                    Files.delete(part);
+                }
+            }
+            if (etag != null) {
+                writeEtag(partEtagFile, etag);
+            }
+
+            HttpRequest.Builder get = HttpRequest.newBuilder(uri).GET();
+            if (offset > 0) {
+                get.header("Range", "bytes=" + offset + "-");
+                get.header("If-Range", etag);
+            }
+            HttpResponse<InputStream> response = client.send(get.build(), HttpResponse.BodyHandlers.ofInputStream());
+            boolean resumed = response.statusCode() == 206;
+            if (response.statusCode() != 200 && !resumed) {
+                response.body().close();
+                throw new IOException("GET returned HTTP " + response.statusCode());
+            }
 
-        try (InputStream in = uri.toURL().openStream()) {
-            // Copy the stream to the target, replacing any existing file
-            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
-            System.out.println(" → Saved as " + target);
+            long transferred;
+            try (InputStream in = response.body();
+                 OutputStream out = resumed
+                         ? Files.newOutputStream(part, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+                         : Files.newOutputStream(part)) {
+                transferred = in.transferTo(out);
+            }
+
+            long expected = resumed ? totalFromContentRange(response).orElse(length) : length;
+            if (expected >= 0 && Files.size(part) != expected) {
+                throw new IOException("Incomplete download: got " + Files.size(part) + " of " + expected + " bytes");
+            }
+
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if (etag != null) {
+                Files.move(partEtagFile, etagFile,
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.deleteIfExists(etagFile);
+            }
+            return new DownloadResult(uri, target,
+                    resumed ? DownloadResult.Status.RESUMED : DownloadResult.Status.DOWNLOADED, transferred, null);
         } catch (IOException e) {
-            System.err.println("Failed to download " + urlString + ": " + e.getMessage());
-            e.printStackTrace();
+            return failed(uri, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failed(uri, e);
         }
     }
+
+    private static boolean isUpToDate(Path target, Path etagFile, String etag, long length) throws IOException {
+        if (Files.notExists(target)) {
+            return false;
+        }
+        if (length >= 0 && Files.size(target) != length) {
+            return false;
+        }
+        if (etag != null) {
+            return etag.equals(readEtag(etagFile));
+        }
+        return length >= 0;
+    }
+
+    private static Optional<Long> totalFromContentRange(@NotNull HttpResponse<?> response) {
+        // Content-Range: bytes 100-999/1000
+        return response.headers().firstValue("Content-Range")
+                .map(v -> v.substring(v.lastIndexOf('/') + 1).trim())
+                .filter(v -> !v.equals("*"))
+                .map(Long::parseLong);
+    }
+
+    private static String readEtag(Path etagFile) throws IOException {
+        return Files.exists(etagFile) ? Files.readString(etagFile, StandardCharsets.UTF_8).strip() : null;
+    }
+
+    private static void writeEtag(Path etagFile, String etag) throws IOException {
+        Files.writeString(etagFile, etag, StandardCharsets.UTF_8);
+    }
+
+    private @NotNull DownloadResult failed(@NotNull URI uri, @NotNull Throwable e) {
+        String fileName = Paths.get(uri.getPath()).getFileName().toString();
+        return new DownloadResult(uri, outputDir.resolve(fileName), DownloadResult.Status.FAILED, 0, e.getMessage());
+    }
 }
@@ -0,0 +1,228 @@
+package com.xiaodi.taxi.etl;
+
+import com.xiaodi.taxi.etl.sql.SQLExecutor;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Writes trips as a Hive-partitioned parquet dataset: {@code taxi_type=yellow/year=2025/month=6/*.parquet}.
+ * <p>
+ * The parts of a source file are named after it ({@code yellow_tripdata_2025-06.0.parquet}, ...), so reloading a
+ * changed file replaces exactly its own parts and adding a month only adds files. Parts are first written to
+ * {@code .staging/<source file>} and then moved into their partitions, so readers never see a half-written part.
+ * <p>
+ * Every ETL run writes a new version of the dataset, {@code trips-dataset.20250701T120000000} next to
+ * {@code trips-dataset}, together with a snapshot of its ingestion manifest, {@code trips-dataset.20250701T120000000.duckdb}.
+ * Publishing the manifest snapshot (see {@link DbSnapshots}) publishes the dataset version of the same name, so
+ * queries keep reading the previous version while the next one is built, and the DuckDB trips database is left alone.
+ * A dataset written before versions existed has no published manifest; the dataset directory itself is then current.
+ */
+public class PartitionedDatasetWriter {
+    static final String STAGING_DIR = ".staging";
+
+    private final Path datasetDir;
+
+    /**
+     * Constructor
+     * @param datasetDir root directory of the dataset.
+     */
+    public PartitionedDatasetWriter(Path datasetDir) {
+        this.datasetDir = datasetDir;
+    }
+
+    /**
+     * @param datasetDir root directory of the dataset, e.g. {@code duck-db/trips-dataset}.
+     * @return the database path of the dataset's ingestion manifest, e.g. {@code duck-db/trips-dataset.duckdb}.
+     */
+    public static @NotNull Path manifestFile(@NotNull Path datasetDir) {
+        return datasetDir.resolveSibling(datasetDir.getFileName() + ".duckdb");
+    }
+
+    /**
+     * @param snapshot a snapshot of {@link #manifestFile(Path)}.
+     * @return the dataset version written with {@code snapshot}, or {@code datasetDir} itself for the manifest path.
+     */
+    public static @NotNull Path version(@NotNull Path datasetDir, @NotNull Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        if (name.equals(manifestFile(datasetDir).getFileName().toString())) {
+            return datasetDir;
+        }
+        return datasetDir.resolveSibling(name.substring(0, name.length() - ".duckdb".length()));
+    }
+
+    /**
+     * @return the dataset version of the published manifest snapshot, or {@code datasetDir} when none was published.
+     */
+    public static @NotNull Path current(@NotNull Path datasetDir) throws IOException {
+        return version(datasetDir, DbSnapshots.current(manifestFile(datasetDir)));
+    }
+
+    /**
+     * Deletes the dataset versions whose manifest snapshot is gone, so they go with the snapshots collected by
+     * {@link DbSnapshots#collectGarbage}, and {@code datasetDir} itself once a version was published more than
+     * {@code grace} ago.
+     * @return the deleted versions.
+     */
+    public static @NotNull List<Path> collectGarbage(@NotNull Path datasetDir, @NotNull Duration grace,
+                                                     @NotNull Instant now) throws IOException {
+        Path manifest = manifestFile(datasetDir);
+        Path dir = datasetDir.toAbsolutePath().getParent();
+        Pattern name = Pattern.compile(Pattern.quote(datasetDir.getFileName().toString()) + "\\.\\d{8}T\\d{9}");
+        List<Path> versions = new ArrayList<>();
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> files = Files.list(dir)) {
+                files.filter(f -> Files.isDirectory(f) && name.matcher(f.getFileName().toString()).matches())
+                        .sorted()
+                        .map(f -> datasetDir.resolveSibling(f.getFileName()))
+                        .filter(v -> Files.notExists(v.resolveSibling(v.getFileName() + ".duckdb")))
+                        .forEach(versions::add);
+            }
+        }
+        Path pointer = DbSnapshots.pointerFile(manifest);
+        if (Files.isDirectory(datasetDir) && Files.exists(pointer)
+                && Files.getLastModifiedTime(pointer).toInstant().isBefore(now.minus(grace))) {
+            versions.add(datasetDir);
+        }
+        for (Path version : versions) {
+            deleteTree(version);
+        }
+        return versions;
+    }
+
+    /**
+     * @return root directory of the dataset.
+     */
+    public Path getDatasetDir() {
+        return datasetDir;
+    }
+
+    /**
+     * Fills the dataset with the parts of {@code source}, hard-linked where the file system allows and copied
+     * otherwise. Parts are only ever replaced by moving a new file over them, never rewritten, so both datasets can
+     * share them.
+     * @param source a dataset directory; nothing is done when it does not exist.
+     */
+    public void linkFrom(@NotNull Path source) throws IOException {
+        if (!Files.isDirectory(source)) {
+            return;
+        }
+        Path staging = source.resolve(STAGING_DIR);
+        List<Path> parts;
+        try (Stream<Path> files = Files.walk(source)) {
+            parts = files.filter(f -> !f.startsWith(staging))
+                    .filter(f -> Files.isRegularFile(f) && f.getFileName().toString().endsWith(".parquet"))
+                    .toList();
+        }
+        for (Path part : parts) {
+            Path target = datasetDir.resolve(source.relativize(part).toString());
+            Files.createDirectories(target.getParent());
+            try {
+                Files.createLink(target, part);
+            } catch (UnsupportedOperationException | IOException e) {
+                Files.copy(part, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Writes the trips of one parquet file into its partitions, replacing the parts written for it before.
+     * @param stmt statement of the worker connection the COPY runs on.
+     * @param file parquet file.
+     * @param key source file key, see {@link IngestionManifest#keyOf(Path)}.
+     * @return number of rows written.
+     */
+    public long write(@NotNull Statement stmt, @NotNull Path file, @NotNull String key) throws SQLException, IOException {
+        Path staging = datasetDir.resolve(STAGING_DIR).resolve(key);
+        deleteTree(staging);
+        Files.createDirectories(staging);
+        long rows = new SQLExecutor(stmt).exportPartitions(file, key, staging, partPrefix(key) + "{i}");
+
+        delete(key);
+        List<Path> parts;
+        try (Stream<Path> files = Files.walk(staging)) {
+            parts = files.filter(Files::isRegularFile).toList();
+        }
+        for (Path part : parts) {
+            Path target = datasetDir.resolve(staging.relativize(part).toString());
+            Files.createDirectories(target.getParent());
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        deleteTree(staging);
+        return rows;
+    }
+
+    /**
+     * Deletes the parts written for a source file from every partition.
+     * @param key source file key.
+     */
+    public void delete(@NotNull String key) throws IOException {
+        if (Files.notExists(datasetDir)) {
+            return;
+        }
+        String prefix = partPrefix(key);
+        Path staging = datasetDir.resolve(STAGING_DIR);
+        List<Path> parts = new ArrayList<>();
+        Files.walkFileTree(datasetDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return dir.equals(staging) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(".parquet")) {
+                    parts.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // another worker moved or deleted it meanwhile
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        for (Path part : parts) {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    /**
+     * Deletes the whole dataset, e.g. a version left behind by a crashed run.
+     */
+    public void clear() throws IOException {
+        deleteTree(datasetDir);
+    }
+
+    /**
+     * @return the file name prefix of the parts of a source file, e.g. {@code yellow_tripdata_2025-06.}
+     */
+    static @NotNull String partPrefix(@NotNull String key) {
+        String base = key.endsWith(".parquet") ? key.substring(0, key.length() - ".parquet".length()) : key;
+        return base + ".";
+    }
+
+    private static void deleteTree(@NotNull Path root) throws IOException {
+        if (Files.notExists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.xiaodi.taxi.etl;
+
+import com.xiaodi.taxi.etl.model.RowRange;
+import com.xiaodi.taxi.etl.sql.SQLExecutor;
+import com.xiaodi.taxi.metrics.MetricsRegistry;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads one large parquet file as ranges of whole row groups, several at a time. Every range is inserted on a
+ * connection of its own and committed on its own; a range that fails is rolled back and retried, up to
+ * {@link #MAX_ATTEMPTS} times, while the committed ranges stay loaded.
+ * <p>
+ * The file is only partly loaded until every range has committed; callers remove its rows when a range fails for
+ * good, and record it in the manifest only once all ranges are in.
+ */
+class RangedFileLoader {
+    static final int MAX_ATTEMPTS = 3;
+    static final long RETRY_BACKOFF_MILLIS = 200;
+
+    private final ConnectionFactory connectionFactory;
+    private final Connection connection;
+    private final int concurrency;
+    private final MetricsRegistry metrics;
+
+    /**
+     * Constructor
+     * @param connectionFactory factory the range connections are duplicated with.
+     * @param connection an open connection on the database.
+     * @param concurrency ranges loaded at once.
+     * @param metrics registry retries are counted in.
+     */
+    RangedFileLoader(ConnectionFactory connectionFactory, Connection connection, int concurrency, MetricsRegistry metrics) {
+        this.connectionFactory = connectionFactory;
+        this.connection = connection;
+        this.concurrency = concurrency;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Groups consecutive row groups into ranges of at least {@code targetRows} rows; the last range takes the
+     * remainder.
+     * @param rowGroupRows rows of every row group, in file order.
+     */
+    static @NotNull List<RowRange> plan(@NotNull List<Long> rowGroupRows, long targetRows) {
+        List<RowRange> ranges = new ArrayList<>();
+        long first = 0;
+        long end = 0;
+        for (long rows : rowGroupRows) {
+            end += rows;
+            if (end - first >= targetRows) {
+                ranges.add(new RowRange(ranges.size(), first, end));
+                first = end;
+            }
+        }
+        if (end > first) {
+            ranges.add(new RowRange(ranges.size(), first, end));
+        }
+        return ranges;
+    }
+
+    /**
+     * @return rows inserted by all ranges.
+     * @throws SQLException when a range failed on every attempt; the other ranges are still run to the end.
+     */
+    long load(@NotNull Path file, @NotNull String sourceFile, @NotNull List<RowRange> ranges) throws SQLException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, ranges.size())));
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (RowRange range : ranges) {
+                futures.add(pool.submit(() -> loadRange(file, sourceFile, range)));
+            }
+            long rows = 0;
+            List<Throwable> failures = new ArrayList<>();
+            for (Future<Long> future : futures) {
+                try {
+                    rows += future.get();
+                } catch (ExecutionException e) {
+                    failures.add(e.getCause());
+                }
+            }
+            if (!failures.isEmpty()) {
+                SQLException error = new SQLException(failures.size() + " of " + ranges.size() + " ranges of " +
+                        sourceFile + " failed: " + failures.get(0).getMessage(), failures.get(0));
+                failures.subList(1, failures.size()).forEach(error::addSuppressed);
+                throw error;
+            }
+            return rows;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while loading " + sourceFile, e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private long loadRange(Path file, String sourceFile, RowRange range) throws SQLException, InterruptedException {
+        SQLException last = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try (Connection worker = connectionFactory.duplicate(connection);
+                 Statement stmt = worker.createStatement()) {
+                stmt.execute("BEGIN TRANSACTION");
+                try {
+                    long rows = new SQLExecutor(stmt, metrics).executeRange(file, sourceFile, range);
+                    stmt.execute("COMMIT");
+                    return rows;
+                } catch (SQLException e) {
+                    stmt.execute("ROLLBACK");
+                    throw e;
+                }
+            } catch (SQLException e) {
+                last = e;
+                if (attempt < MAX_ATTEMPTS) {
+                    metrics.counter("etl_range_retries_total", "file", sourceFile).increment();
+                    Thread.sleep(RETRY_BACKOFF_MILLIS * attempt);
+                }
+            }
+        }
+        throw new SQLException("Range " + range + " failed after " + MAX_ATTEMPTS + " attempts: " + last.getMessage(), last);
+    }
+}
@@ -0,0 +1,229 @@
+package com.xiaodi.taxi.etl;
+
+import com.xiaodi.taxi.etl.model.ParquetFileStats;
+import com.xiaodi.taxi.etl.model.ResourceBudget;
+import com.xiaodi.taxi.etl.model.ResourceSettings;
+import com.xiaodi.taxi.etl.sql.SQLBuilder;
+import com.xiaodi.taxi.metrics.MetricsRegistry;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Sizes the DuckDB threads and memory of every file load from its parquet footer, within a {@link ResourceBudget}.
+ * <p>
+ * A file gets one thread per row group, DuckDB's unit of parallel parquet reads, up to its share of the budget's
+ * threads, and memory for two decoded row groups per thread on top of {@link #BASE_MEMORY}, up to the whole
+ * budget. threads and memory_limit are settings of the database instance, shared by all its connections, so the
+ * instance is set to the sum of the files in flight; a file whose memory does not fit next to them waits for one to
+ * finish. With no file in flight the whole budget applies, e.g. to clustering and sampling.
+ * <p>
+ * While files load, DuckDB's memory usage and the size of its spill directory are sampled every
+ * {@link #SAMPLE_INTERVAL_MILLIS} ms; the peaks are logged per file and for the run, and recorded as
+ * {@code etl_peak_memory_bytes} and {@code etl_peak_temp_bytes}.
+ */
+public class ResourceGovernor implements AutoCloseable {
+    static final long BASE_MEMORY = 256L * 1000 * 1000;
+    static final long SAMPLE_INTERVAL_MILLIS = 200;
+
+    private final ResourceBudget budget;
+    private final int parallelism;
+    private final MetricsRegistry metrics;
+    private final Map<String, Long> filePeaks = new HashMap<>();
+    private int threadsInUse;
+    private long memoryInUse;
+    private int active;
+    private long peakMemory;
+    private long peakTemp;
+    private Connection samplerConnection;
+    private ScheduledExecutorService sampler;
+    private Path tempDirectory;
+
+    /**
+     * Constructor
+     * @param budget resources of the whole run.
+     * @param parallelism files loaded concurrently.
+     * @param metrics registry the settings and peaks are recorded in.
+     */
+    public ResourceGovernor(ResourceBudget budget, int parallelism, MetricsRegistry metrics) {
+        this.budget = budget;
+        this.parallelism = parallelism;
+        this.metrics = metrics;
+    }
+
+    public ResourceBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the threads and memory of loading a file of {@code stats}.
+     */
+    public @NotNull ResourceSettings plan(@NotNull ParquetFileStats stats) {
+        int share = Math.max(1, budget.threads() / parallelism);
+        int threads = (int) Math.max(1, Math.min(share, stats.rowGroups()));
+        long memory = Math.min(budget.memoryBytes(), BASE_MEMORY + 2L * threads * stats.bytesPerRowGroup());
+        return new ResourceSettings(threads, memory);
+    }
+
+    /**
+     * Starts sampling memory usage and spill size.
+     * @param connection a connection of its own on the database, closed with the governor.
+     */
+    public void startSampling(@NotNull Connection connection) throws SQLException {
+        samplerConnection = connection;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT current_setting('temp_directory')")) {
+            String dir = rs.next() ? rs.getString(1) : null;
+            tempDirectory = dir == null || dir.isBlank() ? null : Paths.get(dir);
+        }
+        sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "etl-resource-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, 0, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void sample() {
+        long memory;
+        try (Statement stmt = samplerConnection.createStatement();
+             ResultSet rs = stmt.executeQuery(SQLBuilder.MEMORY_USAGE)) {
+            memory = rs.next() ? ResourceBudget.parseBytes(rs.getString(1)) : 0;
+        } catch (SQLException | IllegalArgumentException e) {
+            return;
+        }
+        long temp = directorySize(tempDirectory);
+        synchronized (this) {
+            peakMemory = Math.max(peakMemory, memory);
+            peakTemp = Math.max(peakTemp, temp);
+            filePeaks.replaceAll((file, peak) -> Math.max(peak, memory));
+        }
+    }
+
+    private static long directorySize(Path dir) {
+        if (dir == null || !Files.isDirectory(dir)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(f -> {
+                try {
+                    return Files.size(f);
+                } catch (IOException e) {
+                    // spill files come and go while they are counted
+                    return 0;
+                }
+            }).sum();
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Reserves the resources of loading {@code file}, waiting while they do not fit next to the files in flight,
+     * and applies the new totals to the instance of {@code connection}.
+     * @param file label of the file in the log and metrics.
+     * @return the reservation, to be closed once the file is loaded.
+     */
+    public synchronized @NotNull Lease acquire(@NotNull Connection connection, @NotNull String file,
+                                               @NotNull ParquetFileStats stats) throws SQLException, InterruptedException {
+        ResourceSettings settings = plan(stats);
+        while (active > 0 && memoryInUse + settings.memoryBytes() > budget.memoryBytes()) {
+            wait();
+        }
+        active++;
+        threadsInUse += settings.threads();
+        memoryInUse += settings.memoryBytes();
+        filePeaks.put(file, 0L);
+        apply(connection);
+        metrics.gauge("etl_threads", "file", file).set(settings.threads());
+        metrics.gauge("etl_memory_limit_bytes", "file", file).set(settings.memoryBytes());
+        System.out.printf("⚙️ %s: %,d rows in %d row groups, %s decoded -> %s%n", file, stats.rows(), stats.rowGroups(),
+                ResourceBudget.formatBytes(stats.uncompressedBytes()), settings.summary());
+        return new Lease(connection, file, settings);
+    }
+
+    private synchronized void release(@NotNull Lease lease) throws SQLException {
+        active--;
+        threadsInUse -= lease.settings.threads();
+        memoryInUse -= lease.settings.memoryBytes();
+        Long peak = filePeaks.remove(lease.file);
+        notifyAll();
+        if (sampler != null && peak != null) {
+            metrics.gauge("etl_peak_memory_bytes", "file", lease.file).set(peak);
+            System.out.printf("⚙️ %s: peak memory %s of %s%n", lease.file, ResourceBudget.formatBytes(peak),
+                    ResourceBudget.formatBytes(lease.settings.memoryBytes()));
+        }
+        apply(lease.connection);
+    }
+
+    /**
+     * Sets the instance to the resources of the files in flight, or to the whole budget when there are none.
+     */
+    private void apply(@NotNull Connection connection) throws SQLException {
+        int threads = active == 0 ? budget.threads() : Math.min(budget.threads(), threadsInUse);
+        long memory = active == 0 ? budget.memoryBytes() : Math.min(budget.memoryBytes(), memoryInUse);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(SQLBuilder.setThreads(threads));
+            stmt.execute(SQLBuilder.setMemoryLimit(memory));
+        }
+    }
+
+    /**
+     * Stops sampling and logs the peaks of the run.
+     */
+    @Override
+    public synchronized void close() throws SQLException {
+        if (sampler == null) {
+            return;
+        }
+        sampler.shutdownNow();
+        try {
+            sampler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sampler = null;
+        samplerConnection.close();
+        metrics.gauge("etl_peak_memory_bytes").set(peakMemory);
+        metrics.gauge("etl_peak_temp_bytes").set(peakTemp);
+        System.out.printf("⚙️ Resource budget %s; peak memory %s, peak spill %s%n", budget.summary(),
+                ResourceBudget.formatBytes(peakMemory), ResourceBudget.formatBytes(peakTemp));
+    }
+
+    /**
+     * Resources reserved for one file.
+     */
+    public final class Lease implements AutoCloseable {
+        private final Connection connection;
+        private final String file;
+        private final ResourceSettings settings;
+
+        private Lease(Connection connection, String file, ResourceSettings settings) {
+            this.connection = connection;
+            this.file = file;
+            this.settings = settings;
+        }
+
+        public ResourceSettings getSettings() {
+            return settings;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            release(this);
+        }
+    }
+}
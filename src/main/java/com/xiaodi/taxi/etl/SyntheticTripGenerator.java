@@ -0,0 +1,244 @@
+package com.xiaodi.taxi.etl;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes synthetic yellow and green trip parquet files with the TLC column layout ({@code tpep_}/{@code lpep_}
+ * datetimes, {@code VendorID}, {@code PULocationID}, ...), so the ETL can be exercised offline and at any scale.
+ * <p>
+ * Rows are generated by DuckDB from {@code range(n)}; every random value is a hash of the row number, the seed and
+ * the file, so the same {@link Spec} always produces the same files.
+ */
+public class SyntheticTripGenerator {
+    public static void main(String[] args) {
+        Path outputDir = Paths.get("parquets");
+        Spec.Builder spec = Spec.builder();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg : arg.substring(0, eq);
+            String value = eq < 0 ? "" : arg.substring(eq + 1);
+            switch (name) {
+                case "--out" -> outputDir = Paths.get(value);
+                case "--rows" -> spec.rowsPerFile(Long.parseLong(value));
+                case "--from" -> spec.from(YearMonth.parse(value));
+                case "--to" -> spec.to(YearMonth.parse(value));
+                case "--types" -> spec.taxiTypes(List.of(value.split(",")));
+                case "--seed" -> spec.seed(Long.parseLong(value));
+                case "--zone-skew" -> spec.zoneSkew(Double.parseDouble(value));
+                case "--credit-share" -> spec.creditCardShare(Double.parseDouble(value));
+                case "--mean-miles" -> spec.meanTripMiles(Double.parseDouble(value));
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        try {
+            long start = System.nanoTime();
+            List<Path> files = new SyntheticTripGenerator(new DefaultConnectionFactory(), spec.build())
+                    .generate(outputDir);
+            System.out.printf("Generated %d files in %.2fs into %s%n", files.size(),
+                    (System.nanoTime() - start) / 1_000_000_000.0, outputDir.toAbsolutePath());
+        } catch (IOException | SQLException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private final ConnectionFactory connectionFactory;
+    private final Spec spec;
+
+    /**
+     * Constructor
+     * @param connectionFactory factory for the in-memory DuckDB connection the files are written with.
+     * @param spec what to generate.
+     */
+    public SyntheticTripGenerator(ConnectionFactory connectionFactory, Spec spec) {
+        this.connectionFactory = connectionFactory;
+        this.spec = spec;
+    }
+
+    /**
+     * Writes one file per taxi type and month, named like the TLC files, e.g. {@code yellow_tripdata_2025-06.parquet}.
+     * Existing files with the same name are overwritten.
+     * @param outputDir directory the files are written to.
+     * @return the written files.
+     */
+    public @NotNull List<Path> generate(@NotNull Path outputDir) throws IOException, SQLException {
+        Files.createDirectories(outputDir);
+        List<Path> files = new ArrayList<>();
+        try (Connection conn = connectionFactory.getConnection("jdbc:duckdb:");
+             Statement stmt = conn.createStatement()) {
+            for (YearMonth month = spec.getFrom(); !month.isAfter(spec.getTo()); month = month.plusMonths(1)) {
+                for (String type : spec.getTaxiTypes()) {
+                    Path file = outputDir.resolve(fileName(type, month));
+                    stmt.execute(String.format("COPY (%s) TO '%s' (FORMAT PARQUET)",
+                            buildSelect(type, month), file.toString().replace("'", "''")));
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    static @NotNull String fileName(@NotNull String taxiType, @NotNull YearMonth month) {
+        return taxiType + "_tripdata_" + month + ".parquet";
+    }
+
+    /**
+     * Builds the SELECT producing one file. The inner query draws the uniform values u0..u10 per row, the middle
+     * one shapes them into trip attributes, and the outer one projects the TLC columns of the taxi type.
+     * @param taxiType yellow or green.
+     * @param month month the pickups fall in.
+     */
+    @NotNull String buildSelect(@NotNull String taxiType, @NotNull YearMonth month) {
+        boolean yellow = "yellow".equals(taxiType);
+        if (!yellow && !"green".equals(taxiType)) {
+            throw new IllegalArgumentException("Unknown taxi type: " + taxiType);
+        }
+        String prefix = yellow ? "tpep" : "lpep";
+        long monthStart = month.atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+        long monthMillis = month.plusMonths(1).atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli()
+                - monthStart;
+        String tag = fileName(taxiType, month);
+
+        StringBuilder uniforms = new StringBuilder("SELECT i");
+        for (int k = 0; k <= 10; k++) {
+            uniforms.append(String.format(", (hash(i, %d, %d, '%s') %% 1000000) / 1000000.0 AS u%d",
+                    k, spec.getSeed(), tag, k));
+        }
+        uniforms.append(" FROM range(").append(spec.getRowsPerFile()).append(") t(i)");
+
+        double zoneExponent = 1.0 + spec.getZoneSkew();
+        double credit = spec.getCreditCardShare();
+        String trips = "SELECT " +
+                "CASE WHEN u0 < 0.25 THEN 1 WHEN u0 < 0.99 THEN 2 ELSE 7 END AS vendor, " +
+                monthStart + " + CAST(floor(u1 * " + monthMillis + ") AS BIGINT) AS pickup_ms, " +
+                "CAST(floor(120 + u2 * 3000) AS BIGINT) * 1000 AS duration_ms, " +
+                "CAST(1 + floor(u3 * u3 * 4) AS BIGINT) AS passengers, " +
+                "round(-ln(1 - u4 * 0.999) * " + spec.getMeanTripMiles() + ", 2) AS miles, " +
+                "CAST(CASE WHEN u5 < 0.95 THEN 1 ELSE 2 END AS BIGINT) AS rate_code, " +
+                "CAST(1 + floor(265 * pow(u6, " + zoneExponent + ")) AS INTEGER) AS pickup_zone, " +
+                "CAST(1 + floor(265 * pow(u7, " + zoneExponent + ")) AS INTEGER) AS dropoff_zone, " +
+                "CAST(CASE WHEN u8 < " + credit + " THEN 1 " +
+                "WHEN u8 < " + (credit + (1 - credit) * 0.9) + " THEN 2 " +
+                "ELSE 3 + floor(u9 * 2) END AS BIGINT) AS payment, " +
+                "CASE WHEN u10 < 0.05 THEN 6.94 ELSE 0.0 END AS tolls " +
+                "FROM (" + uniforms + ")";
+
+        String fares = "SELECT *, round(3.0 + miles * 2.5, 2) AS fare, " +
+                "CASE WHEN payment = 1 THEN round((3.0 + miles * 2.5) * 0.2, 2) ELSE 0.0 END AS tip, " +
+                (yellow ? "CASE WHEN pickup_zone IN (132, 138) THEN 1.75 ELSE 0.0 END" : "0.0") + " AS airport " +
+                "FROM (" + trips + ")";
+
+        return "SELECT " +
+                "CAST(vendor AS INTEGER) AS VendorID, " +
+                "epoch_ms(pickup_ms) AS " + prefix + "_pickup_datetime, " +
+                "epoch_ms(pickup_ms + duration_ms) AS " + prefix + "_dropoff_datetime, " +
+                (yellow ? "passengers AS passenger_count, miles AS trip_distance, rate_code AS RatecodeID, " +
+                        "'N' AS store_and_fwd_flag, "
+                        : "'N' AS store_and_fwd_flag, rate_code AS RatecodeID, ") +
+                "pickup_zone AS PULocationID, dropoff_zone AS DOLocationID, " +
+                (yellow ? "payment AS payment_type, " : "passengers AS passenger_count, miles AS trip_distance, ") +
+                "fare AS fare_amount, 1.0 AS extra, 0.5 AS mta_tax, tip AS tip_amount, tolls AS tolls_amount, " +
+                (yellow ? "" : "CAST(NULL AS DOUBLE) AS ehail_fee, ") +
+                "1.0 AS improvement_surcharge, " +
+                "round(fare + 1.0 + 0.5 + tip + tolls + 1.0 + 2.5 + airport, 2) AS total_amount, " +
+                (yellow ? "" : "payment AS payment_type, CAST(1 AS BIGINT) AS trip_type, ") +
+                "2.5 AS congestion_surcharge" +
+                (yellow ? ", airport AS Airport_fee" : "") + " " +
+                "FROM (" + fares + ")";
+    }
+
+    /**
+     * Value object describing what to generate.
+     */
+    public static final class Spec {
+        private final long rowsPerFile;
+        private final YearMonth from;
+        private final YearMonth to;
+        private final List<String> taxiTypes;
+        private final long seed;
+        private final double zoneSkew;
+        private final double creditCardShare;
+        private final double meanTripMiles;
+
+        @Contract(pure = true)
+        private Spec(@NotNull Builder b) {
+            this.rowsPerFile = b.rowsPerFile;
+            this.from = b.from;
+            this.to = b.to == null ? b.from : b.to;
+            this.taxiTypes = b.taxiTypes;
+            this.seed = b.seed;
+            this.zoneSkew = b.zoneSkew;
+            this.creditCardShare = b.creditCardShare;
+            this.meanTripMiles = b.meanTripMiles;
+        }
+
+        @Contract(" -> new")
+        public static @NotNull Builder builder() { return new Builder(); }
+
+        public static final class Builder {
+            private long rowsPerFile = 100_000;
+            private YearMonth from = YearMonth.of(2025, 6);
+            private YearMonth to;
+            private List<String> taxiTypes = List.of("yellow", "green");
+            private long seed = 42;
+            private double zoneSkew = 1.0;
+            private double creditCardShare = 0.75;
+            private double meanTripMiles = 3.0;
+
+            public Builder rowsPerFile(long n) {
+                if (n < 1) throw new IllegalArgumentException("rowsPerFile must be >= 1");
+                this.rowsPerFile = n;
+                return this;
+            }
+            public Builder from(YearMonth month) { this.from = month; return this; }
+            public Builder to(YearMonth month) { this.to = month; return this; }
+            public Builder taxiTypes(List<String> types) { this.taxiTypes = List.copyOf(types); return this; }
+            public Builder seed(long seed) { this.seed = seed; return this; }
+            /** 0 spreads pickups and dropoffs evenly over the 265 zones, larger values concentrate them on low IDs. */
+            public Builder zoneSkew(double skew) {
+                if (skew < 0) throw new IllegalArgumentException("zoneSkew must be >= 0");
+                this.zoneSkew = skew;
+                return this;
+            }
+            /** Fraction of trips paid by credit card; 90% of the rest are cash. */
+            public Builder creditCardShare(double share) {
+                if (share < 0 || share > 1) throw new IllegalArgumentException("creditCardShare must be in [0, 1]");
+                this.creditCardShare = share;
+                return this;
+            }
+            /** Mean of the exponentially distributed trip distance; fares grow linearly with it. */
+            public Builder meanTripMiles(double miles) {
+                if (miles <= 0) throw new IllegalArgumentException("meanTripMiles must be > 0");
+                this.meanTripMiles = miles;
+                return this;
+            }
+            @Contract(value = " -> new", pure = true)
+            public @NotNull Spec build() {
+                if (to != null && to.isBefore(from)) throw new IllegalArgumentException("to must not be before from");
+                return new Spec(this);
+            }
+        }
+
+        public long getRowsPerFile() { return rowsPerFile; }
+        public YearMonth getFrom() { return from; }
+        public YearMonth getTo() { return to; }
+        public List<String> getTaxiTypes() { return taxiTypes; }
+        public long getSeed() { return seed; }
+        public double getZoneSkew() { return zoneSkew; }
+        public double getCreditCardShare() { return creditCardShare; }
+        public double getMeanTripMiles() { return meanTripMiles; }
+    }
+}
@@ -0,0 +1,131 @@
+package com.xiaodi.taxi.etl;
+
+import com.xiaodi.taxi.etl.model.ClusterOrder;
+import com.xiaodi.taxi.etl.model.ClusterReport;
+import com.xiaodi.taxi.etl.sql.SQLBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * ETL finalization stage: rewrites trips sorted by pickup time (optionally by taxi type first), so each row group
+ * covers a narrow time range and DuckDB's zone maps skip the row groups outside a query's time window. The bounds
+ * of every row group are recorded in trips_segments.
+ * <p>
+ * The effect is measured on a probe window, the day of the median pickup: rows in row groups overlapping the
+ * window before and after clustering, and the time of a count over the window.
+ */
+public class TripsClusterer {
+    private static final DateTimeFormatter DATETIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String PROBE_QUERY =
+            "SELECT COUNT(*), SUM(fare_amount) FROM trips WHERE pickup_datetime >= ? AND pickup_datetime < ?";
+
+    private final Connection connection;
+
+    /**
+     * Constructor
+     * @param connection connection to the trips database; no other connection may write to it meanwhile.
+     */
+    public TripsClusterer(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Rewrites trips in {@code order} and rebuilds trips_segments, in one transaction.
+     * @param order cluster order, not {@link ClusterOrder#NONE}.
+     * @return the before/after scan report.
+     */
+    public @NotNull ClusterReport cluster(@NotNull ClusterOrder order) throws SQLException {
+        if (order == ClusterOrder.NONE) {
+            throw new IllegalArgumentException("Nothing to cluster for order NONE");
+        }
+        long start = System.nanoTime();
+        try (Statement stmt = connection.createStatement()) {
+            long totalRows = queryLong(stmt, "SELECT COUNT(*) FROM trips");
+            LocalDateTime from = totalRows == 0 ? null : probeStart(stmt);
+            LocalDateTime to = from == null ? null : from.plusDays(1);
+
+            long[] before = rowsScanned("(" + SQLBuilder.selectSegments() + ")", from, to);
+            double probeBefore = probeMillis(from, to);
+
+            stmt.execute("BEGIN TRANSACTION");
+            try {
+                stmt.execute(SQLBuilder.createClusteredTrips(order.orderBy()));
+                stmt.execute("DROP TABLE trips");
+                stmt.execute("ALTER TABLE trips_clustered RENAME TO trips");
+                stmt.execute(SQLBuilder.createSegmentsTable());
+                stmt.execute("COMMIT");
+            } catch (SQLException e) {
+                stmt.execute("ROLLBACK");
+                throw e;
+            }
+            // Write the new row groups out and release the old ones
+            stmt.execute("CHECKPOINT");
+
+            long[] after = rowsScanned("trips_segments", from, to);
+            double probeAfter = probeMillis(from, to);
+            long segments = queryLong(stmt, "SELECT COUNT(*) FROM trips_segments");
+            return new ClusterReport(order, totalRows, from, to, before[0], before[1], after[0], after[1], segments,
+                    probeBefore, probeAfter, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return midnight of the day of the median pickup.
+     */
+    private static LocalDateTime probeStart(@NotNull Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(
+                "SELECT date_trunc('day', quantile_disc(pickup_datetime, 0.5)) FROM trips")) {
+            rs.next();
+            Timestamp ts = rs.getTimestamp(1);
+            return ts == null ? null : ts.toLocalDateTime();
+        }
+    }
+
+    /**
+     * @return rows and row groups of {@code segments} overlapping the window, {0, 0} without a window.
+     */
+    private long[] rowsScanned(String segments, LocalDateTime from, LocalDateTime to) throws SQLException {
+        if (from == null) {
+            return new long[]{0, 0};
+        }
+        try (PreparedStatement ps = connection.prepareStatement(SQLBuilder.rowsScannedForPickupWindow(segments))) {
+            ps.setString(1, DATETIME.format(from));
+            ps.setString(2, DATETIME.format(to));
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return new long[]{rs.getLong(1), rs.getLong(2)};
+            }
+        }
+    }
+
+    /**
+     * @return wall time of the probe query, second of two runs so both measurements see a warm cache.
+     */
+    private double probeMillis(LocalDateTime from, LocalDateTime to) throws SQLException {
+        if (from == null) {
+            return 0;
+        }
+        try (PreparedStatement ps = connection.prepareStatement(PROBE_QUERY)) {
+            ps.setString(1, DATETIME.format(from));
+            ps.setString(2, DATETIME.format(to));
+            long start = 0;
+            for (int run = 0; run < 2; run++) {
+                start = System.nanoTime();
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                }
+            }
+            return (System.nanoTime() - start) / 1_000_000.0;
+        }
+    }
+
+    private static long queryLong(@NotNull Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.xiaodi.taxi.etl;
+
+import com.xiaodi.taxi.etl.model.SampleReport;
+import com.xiaodi.taxi.etl.sql.SQLBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * ETL finalization stage: rebuilds trips_sample, the stratified sample approximate queries are answered from
+ * (see {@link SQLBuilder#createSampleTable(double, long)}).
+ */
+public class TripsSampler {
+    /**
+     * Smallest number of rows sampled from a stratum, so estimates for small months stay usable.
+     */
+    static final long MIN_STRATUM_ROWS = 10_000;
+
+    private final Connection connection;
+
+    /**
+     * Constructor
+     * @param connection connection to the trips database.
+     */
+    public TripsSampler(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * @param fraction share of each stratum to sample, in (0, 1].
+     * @return the size of the new sample.
+     */
+    public @NotNull SampleReport sample(double fraction) throws SQLException {
+        if (fraction <= 0 || fraction > 1) {
+            throw new IllegalArgumentException("Sample fraction must be in (0, 1]: " + fraction);
+        }
+        long start = System.nanoTime();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(SQLBuilder.createSampleTable(fraction, MIN_STRATUM_ROWS));
+            try (ResultSet rs = stmt.executeQuery("SELECT SUM(rows), COUNT(*), SUM(stratum_rows) FROM (" +
+                    "SELECT COUNT(*) AS rows, ANY_VALUE(stratum_rows) AS stratum_rows FROM " + SQLBuilder.SAMPLE_TABLE +
+                    " GROUP BY taxi_type, stratum_month)")) {
+                rs.next();
+                return new SampleReport(fraction, rs.getLong(1), rs.getLong(3), rs.getLong(2),
+                        System.nanoTime() - start);
+            }
+        }
+    }
+}
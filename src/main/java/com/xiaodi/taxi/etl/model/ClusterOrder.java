@@ -0,0 +1,40 @@
+package com.xiaodi.taxi.etl.model;
+
+/**
+ * Physical order trips is rewritten in after loading, so DuckDB's per-row-group min/max (zone maps) can skip
+ * row groups outside a time window.
+ */
+public enum ClusterOrder {
+    /** Rows stay in load order. */
+    NONE(null),
+    /** Sorted by pickup_datetime. */
+    PICKUP("pickup_datetime"),
+    /** Sorted by taxi_type, then pickup_datetime, so taxi type filters prune as well. */
+    TAXI_TYPE_PICKUP("taxi_type, pickup_datetime");
+
+    private final String orderBy;
+
+    ClusterOrder(String orderBy) {
+        this.orderBy = orderBy;
+    }
+
+    /**
+     * @return the ORDER BY column list, or null for {@link #NONE}.
+     */
+    public String orderBy() {
+        return orderBy;
+    }
+
+    /**
+     * @param value {@code pickup}, {@code taxi_type} or {@code none}.
+     */
+    public static ClusterOrder parse(String value) {
+        return switch (value) {
+            case "pickup" -> PICKUP;
+            case "taxi_type" -> TAXI_TYPE_PICKUP;
+            case "none" -> NONE;
+            default -> throw new IllegalArgumentException("Unknown cluster order: " + value +
+                    " (expected pickup, taxi_type or none)");
+        };
+    }
+}
@@ -0,0 +1,23 @@
+package com.xiaodi.taxi.etl.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.LocalDateTime;
+
+/**
+ * Effect of clustering trips on a probe pickup window: how many rows sit in row groups whose pickup range
+ * overlaps the window, i.e. the rows a scan with that filter still has to read after zone-map pruning.
+ */
+public record ClusterReport(ClusterOrder order, long totalRows, LocalDateTime probeFrom, LocalDateTime probeTo,
+                            long rowsScannedBefore, long segmentsScannedBefore,
+                            long rowsScannedAfter, long segmentsScannedAfter, long segments,
+                            double probeMillisBefore, double probeMillisAfter, long elapsedNanos) {
+
+    public @NotNull String summary() {
+        return String.format("🗂 trips clustered by %s in %.2fs, %d row groups. Probe %s .. %s: " +
+                        "%,d rows scanned before (%d row groups, %.1f ms), %,d after (%d row groups, %.1f ms) of %,d",
+                order.orderBy(), elapsedNanos / 1_000_000_000.0, segments, probeFrom, probeTo,
+                rowsScannedBefore, segmentsScannedBefore, probeMillisBefore,
+                rowsScannedAfter, segmentsScannedAfter, probeMillisAfter, totalRows);
+    }
+}
@@ -0,0 +1,22 @@
+package com.xiaodi.taxi.etl.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.URI;
+import java.nio.file.Path;
+
+/**
+ * Outcome of downloading one parquet URL.
+ */
+public record DownloadResult(URI uri, Path target, Status status, long bytesTransferred, String error) {
+    public enum Status { DOWNLOADED, RESUMED, SKIPPED, FAILED }
+
+    public @NotNull String summary() {
+        return switch (status) {
+            case DOWNLOADED -> String.format(" → Saved as %s (%,d bytes)", target, bytesTransferred);
+            case RESUMED -> String.format(" → Resumed %s (%,d bytes fetched)", target, bytesTransferred);
+            case SKIPPED -> String.format(" → %s is up to date, skipped", target);
+            case FAILED -> String.format(" → Failed to download %s: %s", uri, error);
+        };
+    }
+}
@@ -0,0 +1,58 @@
+package com.xiaodi.taxi.etl.model;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+
+/**
+ * Outcome of loading a single parquet file: row/byte volumes, wall time and the failure message if any.
+ */
+public record FileIngestReport(Path file, IngestAction action, long rows, long bytes, long elapsedNanos,
+                               String error) {
+
+    @Contract("_, _, _, _, _ -> new")
+    public static @NotNull FileIngestReport success(Path file, IngestAction action, long rows, long bytes,
+                                                    long elapsedNanos) {
+        return new FileIngestReport(file, action, rows, bytes, elapsedNanos, null);
+    }
+
+    @Contract("_, _, _ -> new")
+    public static @NotNull FileIngestReport skipped(Path file, long bytes, long elapsedNanos) {
+        return new FileIngestReport(file, IngestAction.UNCHANGED, 0, bytes, elapsedNanos, null);
+    }
+
+    @Contract("_, _, _, _, _ -> new")
+    public static @NotNull FileIngestReport failure(Path file, IngestAction action, long bytes, long elapsedNanos,
+                                                    String error) {
+        return new FileIngestReport(file, action, 0, bytes, elapsedNanos, error);
+    }
+
+    public boolean succeeded() {
+        return error == null;
+    }
+
+    public double elapsedSeconds() {
+        return elapsedNanos / 1_000_000_000.0;
+    }
+
+    public double rowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rows / elapsedSeconds();
+    }
+
+    public double megabytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : bytes / (1024.0 * 1024.0) / elapsedSeconds();
+    }
+
+    public @NotNull String summary() {
+        if (!succeeded()) {
+            return String.format("❌ %s failed after %.2fs: %s", file.getFileName(), elapsedSeconds(), error);
+        }
+        if (action == IngestAction.UNCHANGED) {
+            return String.format("⏭ %s unchanged, skipped", file.getFileName());
+        }
+        return String.format("✅ %s (%s): %,d rows in %.2fs (%,.0f rows/s, %.1f MB/s)",
+                file.getFileName(), action.name().toLowerCase(), rows, elapsedSeconds(), rowsPerSecond(),
+                megabytesPerSecond());
+    }
+}
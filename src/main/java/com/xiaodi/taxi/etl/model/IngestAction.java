@@ -0,0 +1,13 @@
+package com.xiaodi.taxi.etl.model;
+
+/**
+ * What the ETL does with a parquet file, based on the ingestion manifest.
+ */
+public enum IngestAction {
+    /** Not in the manifest yet; rows are appended. */
+    NEW,
+    /** In the manifest with different content; its rows are deleted and re-inserted. */
+    CHANGED,
+    /** In the manifest with identical content; the file is skipped. */
+    UNCHANGED
+}
@@ -0,0 +1,11 @@
+package com.xiaodi.taxi.etl.model;
+
+/**
+ * One row of the ingestion manifest, describing an ingested parquet file.
+ * @param path file name relative to the parquets directory; also stored in trips.source_file.
+ */
+public record ManifestEntry(String path, long sizeBytes, long mtimeMillis, String contentHash, long rowCount) {
+    public boolean sameStat(long sizeBytes, long mtimeMillis) {
+        return this.sizeBytes == sizeBytes && this.mtimeMillis == mtimeMillis;
+    }
+}
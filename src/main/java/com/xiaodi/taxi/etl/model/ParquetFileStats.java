@@ -0,0 +1,15 @@
+package com.xiaodi.taxi.etl.model;
+
+/**
+ * Size of a parquet file as recorded in its footer, read without scanning any row group.
+ * @param uncompressedBytes size of the decoded column chunks, which is what a load holds in memory.
+ */
+public record ParquetFileStats(long rows, long rowGroups, long compressedBytes, long uncompressedBytes) {
+
+    /**
+     * @return the mean decoded size of one row group, 0 for an empty file.
+     */
+    public long bytesPerRowGroup() {
+        return rowGroups == 0 ? 0 : uncompressedBytes / rowGroups;
+    }
+}
@@ -0,0 +1,92 @@
+package com.xiaodi.taxi.etl.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Resources the whole ETL run may use, shared by the files loaded concurrently.
+ * @param threads DuckDB worker threads.
+ * @param memoryBytes DuckDB memory limit in bytes.
+ * @param tempDirectory directory DuckDB spills to past the memory limit, null for DuckDB's default next to the
+ *                      database file.
+ */
+public record ResourceBudget(int threads, long memoryBytes, Path tempDirectory) {
+    /**
+     * Share of physical memory used without {@code --max-memory}, DuckDB's own default.
+     */
+    public static final double DEFAULT_MEMORY_SHARE = 0.8;
+
+    public ResourceBudget {
+        if (threads < 1 || memoryBytes < 1) {
+            throw new IllegalArgumentException("Resource budget needs at least one thread and one byte");
+        }
+    }
+
+    /**
+     * @param maxThreads threads, 0 for every core.
+     * @param maxMemoryBytes memory limit, 0 for {@link #DEFAULT_MEMORY_SHARE} of physical memory.
+     * @param tempDirectory spill directory, null for DuckDB's default.
+     */
+    public static @NotNull ResourceBudget detect(int maxThreads, long maxMemoryBytes, Path tempDirectory) {
+        int threads = maxThreads > 0 ? maxThreads : Runtime.getRuntime().availableProcessors();
+        long memory = maxMemoryBytes > 0 ? maxMemoryBytes : (long) (physicalMemory() * DEFAULT_MEMORY_SHARE);
+        return new ResourceBudget(threads, memory, tempDirectory);
+    }
+
+    private static long physicalMemory() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getTotalMemorySize();
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    /**
+     * Parses a size as DuckDB writes it, e.g. {@code 4GB}, {@code 512 MiB} or {@code 0 bytes}. KB, MB, GB and TB
+     * are powers of 1000, KiB, MiB, GiB and TiB powers of 1024, as in DuckDB's {@code memory_limit}.
+     */
+    public static long parseBytes(@NotNull String size) {
+        String s = size.trim().toLowerCase(Locale.ROOT);
+        int unit = 0;
+        while (unit < s.length() && (Character.isDigit(s.charAt(unit)) || s.charAt(unit) == '.')) {
+            unit++;
+        }
+        if (unit == 0) {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+        double value = Double.parseDouble(s.substring(0, unit));
+        long multiplier = switch (s.substring(unit).trim()) {
+            case "", "b", "byte", "bytes" -> 1L;
+            case "kb", "k" -> 1000L;
+            case "mb", "m" -> 1000L * 1000;
+            case "gb", "g" -> 1000L * 1000 * 1000;
+            case "tb", "t" -> 1000L * 1000 * 1000 * 1000;
+            case "kib" -> 1L << 10;
+            case "mib" -> 1L << 20;
+            case "gib" -> 1L << 30;
+            case "tib" -> 1L << 40;
+            default -> throw new IllegalArgumentException("Invalid size unit: " + size);
+        };
+        return (long) (value * multiplier);
+    }
+
+    /**
+     * @return {@code bytes} in the largest of MB, GB and TB that keeps it above one, e.g. {@code 1.5 GB}.
+     */
+    public static @NotNull String formatBytes(long bytes) {
+        if (bytes >= 1_000_000_000_000L) {
+            return String.format(Locale.ROOT, "%.1f TB", bytes / 1e12);
+        }
+        if (bytes >= 1_000_000_000L) {
+            return String.format(Locale.ROOT, "%.1f GB", bytes / 1e9);
+        }
+        return String.format(Locale.ROOT, "%.1f MB", bytes / 1e6);
+    }
+
+    public @NotNull String summary() {
+        return String.format("threads=%d, memory_limit=%s, temp_directory=%s", threads, formatBytes(memoryBytes),
+                tempDirectory == null ? "default" : tempDirectory);
+    }
+}
@@ -0,0 +1,13 @@
+package com.xiaodi.taxi.etl.model;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * DuckDB resources reserved for loading one file, see {@link com.xiaodi.taxi.etl.ResourceGovernor}.
+ */
+public record ResourceSettings(int threads, long memoryBytes) {
+
+    public @NotNull String summary() {
+        return String.format("threads=%d, memory_limit=%s", threads, ResourceBudget.formatBytes(memoryBytes));
+    }
+}
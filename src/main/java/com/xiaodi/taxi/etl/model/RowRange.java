@@ -0,0 +1,21 @@
+package com.xiaodi.taxi.etl.model;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A run of whole row groups of a parquet file, by row position in the file.
+ * @param index position of the range in its file.
+ * @param firstRow first row of the range.
+ * @param endRow first row after the range.
+ */
+public record RowRange(int index, long firstRow, long endRow) {
+
+    public long rows() {
+        return endRow - firstRow;
+    }
+
+    @Override
+    public @NotNull String toString() {
+        return String.format("#%d [%,d, %,d)", index, firstRow, endRow);
+    }
+}
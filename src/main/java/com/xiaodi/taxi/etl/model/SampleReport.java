@@ -0,0 +1,15 @@
+package com.xiaodi.taxi.etl.model;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Size of the stratified sample built by {@link com.xiaodi.taxi.etl.TripsSampler}.
+ */
+public record SampleReport(double fraction, long sampleRows, long totalRows, long strata, long elapsedNanos) {
+
+    public @NotNull String summary() {
+        return String.format("🎲 trips_sample built in %.2fs: %,d of %,d rows (%.2f%%, target %.2f%%) in %d strata",
+                elapsedNanos / 1_000_000_000.0, sampleRows, totalRows,
+                totalRows == 0 ? 0.0 : 100.0 * sampleRows / totalRows, 100 * fraction, strata);
+    }
+}
@@ -0,0 +1,22 @@
+package com.xiaodi.taxi.etl.model;
+
+/**
+ * Where the ETL stores trips.
+ */
+public enum StorageBackend {
+    /** The trips and trips_rollup tables of the DuckDB database file. */
+    DUCKDB,
+    /** A Hive-partitioned parquet dataset, {@code taxi_type=/year=/month=}, next to a DuckDB catalog. */
+    PARQUET;
+
+    /**
+     * @param value {@code duckdb} or {@code parquet}.
+     */
+    public static StorageBackend parse(String value) {
+        return switch (value) {
+            case "duckdb" -> DUCKDB;
+            case "parquet" -> PARQUET;
+            default -> throw new IllegalArgumentException("Unknown storage: " + value + " (expected duckdb or parquet)");
+        };
+    }
+}
@@ -0,0 +1,32 @@
+package com.xiaodi.taxi.etl.model;
+
+/**
+ * Column types of the trips, trips_rollup and trips_daily tables.
+ */
+public enum TripsSchema {
+    /** INTEGER codes and location IDs, DOUBLE money, VARCHAR taxi type. */
+    STANDARD,
+    /**
+     * UTINYINT vendor, rate code and payment type, USMALLINT location IDs, an ENUM taxi type and DECIMAL money:
+     * narrower columns compress better and money sums are exact to the cent.
+     */
+    COMPACT;
+
+    /**
+     * @param value {@code standard} or {@code compact}.
+     */
+    public static TripsSchema parse(String value) {
+        return switch (value) {
+            case "standard" -> STANDARD;
+            case "compact" -> COMPACT;
+            default -> throw new IllegalArgumentException("Unknown schema: " + value + " (expected standard or compact)");
+        };
+    }
+
+    /**
+     * @return the lower-case name {@link #parse} accepts.
+     */
+    public String key() {
+        return name().toLowerCase();
+    }
+}
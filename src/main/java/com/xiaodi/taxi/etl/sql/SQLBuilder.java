@@ -1,30 +1,386 @@
 package com.xiaodi.taxi.etl.sql;
 
 import com.xiaodi.taxi.etl.model.NormalizedColumns;
+import com.xiaodi.taxi.etl.model.TripsSchema;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
 public class SQLBuilder {
+    /**
+     * Rows per DuckDB row group, the granularity of its min/max zone maps.
+     */
+    public static final long ROW_GROUP_SIZE = 122_880;
+    public static final String SAMPLE_TABLE = "trips_sample";
+    public static final String DAILY_TABLE = "trips_daily";
+    public static final String ZONES_TABLE = "taxi_zones";
+    /** File name of the TLC taxi zone lookup, loaded into {@link #ZONES_TABLE} when it is next to the parquet files. */
+    public static final String ZONES_CSV = "taxi_zone_lookup.csv";
+    public static final long SAMPLE_BUCKETS = 1_000_000;
+    /**
+     * Memory held by the buffer manager, as text like {@code 1.2GB}.
+     */
+    public static final String MEMORY_USAGE = "SELECT memory_usage FROM pragma_database_size() LIMIT 1";
+
     @Contract(pure = true)
     public static @NotNull String createTripsTable() {
+        return createTripsTable(TripsSchema.STANDARD);
+    }
+
+    @Contract(pure = true)
+    public static @NotNull String createTripsTable(@NotNull TripsSchema schema) {
+        ColumnTypes t = ColumnTypes.of(schema);
         return "CREATE TABLE IF NOT EXISTS trips (" +
-                "vendor_id INTEGER, pickup_datetime TIMESTAMP, dropoff_datetime TIMESTAMP, " +
-                "passenger_count INTEGER, trip_distance DOUBLE, rate_code_id INTEGER, " +
-                "pu_location_id INTEGER, do_location_id INTEGER, payment_type INTEGER, " +
-                "fare_amount DOUBLE, extra DOUBLE, mta_tax DOUBLE, tip_amount DOUBLE, " +
-                "tolls_amount DOUBLE, improvement_surcharge DOUBLE, total_amount DOUBLE, " +
-                "congestion_surcharge DOUBLE, taxi_type VARCHAR" +
+                "vendor_id " + t.code + ", pickup_datetime TIMESTAMP, dropoff_datetime TIMESTAMP, " +
+                "passenger_count INTEGER, trip_distance DOUBLE, rate_code_id " + t.code + ", " +
+                "pu_location_id " + t.location + ", do_location_id " + t.location + ", payment_type " + t.code + ", " +
+                "fare_amount " + t.money + ", extra " + t.money + ", mta_tax " + t.money + ", tip_amount " + t.money + ", " +
+                "tolls_amount " + t.money + ", improvement_surcharge " + t.money + ", total_amount " + t.money + ", " +
+                "congestion_surcharge " + t.money + ", taxi_type " + t.taxiType + ", source_file VARCHAR" +
+                ")";
+    }
+
+    /**
+     * Column types of a {@link TripsSchema}. Compact money is DECIMAL(18,2), stored as 64-bit integers, and its
+     * sums DECIMAL(38,2), the type DuckDB gives SUM over it.
+     */
+    private record ColumnTypes(String code, String location, String money, String sum, String taxiType) {
+        static ColumnTypes of(@NotNull TripsSchema schema) {
+            return switch (schema) {
+                case STANDARD -> new ColumnTypes("INTEGER", "INTEGER", "DOUBLE", "DOUBLE", "VARCHAR");
+                case COMPACT -> new ColumnTypes("UTINYINT", "USMALLINT", "DECIMAL(18,2)", "DECIMAL(38,2)",
+                        "ENUM('yellow', 'green')");
+            };
+        }
+    }
+
+    /**
+     * Adds the source_file column to trips tables created before incremental loads existed.
+     */
+    @Contract(pure = true)
+    public static @NotNull String addSourceFileColumn() {
+        return "ALTER TABLE trips ADD COLUMN IF NOT EXISTS source_file VARCHAR";
+    }
+
+    @Contract(pure = true)
+    public static @NotNull String createManifestTable() {
+        return "CREATE TABLE IF NOT EXISTS ingested_files (" +
+                "path VARCHAR PRIMARY KEY, size_bytes BIGINT, mtime_millis BIGINT, content_hash VARCHAR, " +
+                "row_count BIGINT, ingested_at TIMESTAMP" +
                 ")";
     }
 
-    public static @NotNull String buildInsertSql(@NotNull NormalizedColumns info) {
+    @Contract(pure = true)
+    public static @NotNull String selectManifest() {
+        return "SELECT path, size_bytes, mtime_millis, content_hash, row_count FROM ingested_files";
+    }
+
+    @Contract(pure = true)
+    public static @NotNull String upsertManifestEntry() {
+        return "INSERT OR REPLACE INTO ingested_files VALUES (?, ?, ?, ?, ?, current_timestamp)";
+    }
+
+    @Contract(pure = true)
+    public static @NotNull String deleteManifestEntry() {
+        return "DELETE FROM ingested_files WHERE path = ?";
+    }
+
+    /**
+     * Hourly rollup of trips, keyed on every dimension the query service filters on. source_file is part of the
+     * key so the rollup of a single parquet file can be replaced on incremental loads.
+     */
+    @Contract(pure = true)
+    public static @NotNull String createRollupTable() {
+        return createRollupTable(TripsSchema.STANDARD);
+    }
+
+    @Contract(pure = true)
+    public static @NotNull String createRollupTable(@NotNull TripsSchema schema) {
+        ColumnTypes t = ColumnTypes.of(schema);
+        return "CREATE TABLE IF NOT EXISTS trips_rollup (" +
+                "hour_bucket TIMESTAMP, pu_location_id " + t.location + ", do_location_id " + t.location + ", " +
+                "vendor_id " + t.code + ", payment_type " + t.code + ", taxi_type " + t.taxiType + ", source_file VARCHAR, " +
+                "min_fare " + t.money + ", max_fare " + t.money + ", trip_count BIGINT, sum_fare " + t.sum + ", " +
+                "sum_tolls " + t.sum +
+                ")";
+    }
+
+    /**
+     * Per-day partial aggregates for time series, keyed on the filters a series can have. Like trips_rollup it
+     * keeps source_file, so the partials of a single parquet file can be replaced on incremental loads.
+     */
+    @Contract(pure = true)
+    public static @NotNull String createDailyTable() {
+        return createDailyTable(TripsSchema.STANDARD);
+    }
+
+    @Contract(pure = true)
+    public static @NotNull String createDailyTable(@NotNull TripsSchema schema) {
+        ColumnTypes t = ColumnTypes.of(schema);
+        return "CREATE TABLE IF NOT EXISTS " + DAILY_TABLE + " (" +
+                "day DATE, vendor_id " + t.code + ", payment_type " + t.code + ", taxi_type " + t.taxiType + ", " +
+                "source_file VARCHAR, min_fare " + t.money + ", max_fare " + t.money + ", trip_count BIGINT, " +
+                "sum_fare " + t.sum + ", sum_tolls " + t.sum +
+                ")";
+    }
+
+    /**
+     * Merges the hourly rollup of one source file, or of all source files when {@code sourceFile} is null, into
+     * daily partials, so building them does not scan trips again.
+     */
+    public static @NotNull String insertDaily(String sourceFile) {
+        String where = sourceFile == null ? "" : " WHERE source_file = " + quote(sourceFile);
+        return "INSERT INTO " + DAILY_TABLE + " SELECT CAST(hour_bucket AS DATE) AS day, " +
+                "vendor_id, payment_type, taxi_type, source_file, " +
+                "MIN(min_fare), MAX(max_fare), SUM(trip_count), SUM(sum_fare), SUM(sum_tolls) " +
+                "FROM trips_rollup" + where + " " +
+                "GROUP BY day, vendor_id, payment_type, taxi_type, source_file";
+    }
+
+    /**
+     * Replaces taxi_zones with the TLC taxi zone lookup.
+     */
+    public static @NotNull String createZonesTable(@NotNull String csvPath) {
+        return "CREATE OR REPLACE TABLE " + ZONES_TABLE + " AS " + readZonesCsv(csvPath);
+    }
+
+    /**
+     * Reads the TLC taxi zone lookup, a CSV of {@code LocationID, Borough, Zone, service_zone}, with the columns of
+     * {@link #selectZones()}.
+     */
+    public static @NotNull String readZonesCsv(@NotNull String csvPath) {
+        return "SELECT CAST(LocationID AS INTEGER) AS location_id, Borough AS borough, Zone AS zone, service_zone " +
+                "FROM read_csv_auto(" + quote(csvPath) + ", header = true, all_varchar = true)";
+    }
+
+    @Contract(pure = true)
+    public static @NotNull String selectZones() {
+        return "SELECT location_id, borough, zone, service_zone FROM " + ZONES_TABLE;
+    }
+
+    /**
+     * Rows the ingestion manifest recorded, which trips must hold after a run.
+     */
+    @Contract(pure = true)
+    public static @NotNull String sumManifestRows() {
+        return "SELECT COALESCE(SUM(row_count), 0) FROM ingested_files";
+    }
+
+    @Contract(pure = true)
+    public static @NotNull String sumRollupTrips() {
+        return "SELECT CAST(COALESCE(SUM(trip_count), 0) AS BIGINT) FROM trips_rollup";
+    }
+
+    /**
+     * Rows of the {@code taxi_type=/year=/month=} partitions of a parquet dataset, which must match the manifest.
+     */
+    @Contract(pure = true)
+    public static @NotNull String countDatasetRows(@NotNull String datasetDir) {
+        return String.format("SELECT COUNT(*) FROM read_parquet('%s/*/*/*/*.parquet')", datasetDir);
+    }
+
+    @Contract(pure = true)
+    public static @NotNull String tableExists(@NotNull String table) {
+        return String.format("SELECT COUNT(*) FROM duckdb_tables() WHERE table_name = '%s'", table);
+    }
+
+    /**
+     * Rolls up the trips of one source file, or of all trips when {@code sourceFile} is null.
+     */
+    public static @NotNull String insertRollup(String sourceFile) {
+        String where = sourceFile == null ? "" : " WHERE source_file = " + quote(sourceFile);
+        return "INSERT INTO trips_rollup SELECT date_trunc('hour', pickup_datetime) AS hour_bucket, " +
+                "pu_location_id, do_location_id, vendor_id, payment_type, taxi_type, source_file, " +
+                "MIN(fare_amount), MAX(fare_amount), COUNT(*), SUM(fare_amount), SUM(tolls_amount) " +
+                "FROM trips" + where + " " +
+                "GROUP BY hour_bucket, pu_location_id, do_location_id, vendor_id, payment_type, taxi_type, source_file";
+    }
+
+    /**
+     * Rewrites trips into {@code trips_clustered} in the given order; the caller swaps the tables.
+     * @param orderBy ORDER BY column list.
+     */
+    public static @NotNull String createClusteredTrips(@NotNull String orderBy) {
+        return "CREATE OR REPLACE TABLE trips_clustered AS SELECT * FROM trips ORDER BY " + orderBy;
+    }
+
+    /**
+     * Per row group bounds of trips. DuckDB stores rows in row groups of {@link #ROW_GROUP_SIZE} consecutive
+     * row ids, so {@code rowid // ROW_GROUP_SIZE} is the row group a row lives in.
+     */
+    @Contract(pure = true)
+    public static @NotNull String selectSegments() {
+        return "SELECT rowid // " + ROW_GROUP_SIZE + " AS segment_id, COUNT(*) AS row_count, " +
+                "MIN(pickup_datetime) AS min_pickup, MAX(pickup_datetime) AS max_pickup, " +
+                "MIN(dropoff_datetime) AS min_dropoff, MAX(dropoff_datetime) AS max_dropoff, " +
+                "MIN(taxi_type) AS min_taxi_type, MAX(taxi_type) AS max_taxi_type " +
+                "FROM trips GROUP BY segment_id";
+    }
+
+    @Contract(pure = true)
+    public static @NotNull String createSegmentsTable() {
+        return "CREATE OR REPLACE TABLE trips_segments AS " + selectSegments() + " ORDER BY segment_id";
+    }
+
+    @Contract(pure = true)
+    public static @NotNull String dropSegmentsTable() {
+        return "DROP TABLE IF EXISTS trips_segments";
+    }
+
+    /**
+     * Rows and row groups of {@code segments} that a {@code pickup_datetime >= ? AND pickup_datetime < ?} scan
+     * cannot skip. Binds the window start and end.
+     * @param segments trips_segments, or {@link #selectSegments()} as a subquery.
+     */
+    public static @NotNull String rowsScannedForPickupWindow(@NotNull String segments) {
+        return "SELECT COALESCE(SUM(row_count), 0), COUNT(*) FROM " + segments + " " +
+                "WHERE max_pickup >= ? AND min_pickup < ?";
+    }
+
+    /**
+     * Stratified sample of trips, one stratum per taxi type and pickup month. A row is sampled when its
+     * {@code sample_bucket}, a hash of its row id in {@code [0, SAMPLE_BUCKETS)}, is below
+     * {@code stratum_rate * SAMPLE_BUCKETS}. The rate is {@code fraction}, raised for small strata so each keeps at
+     * least {@code minStratumRows} rows. Since the buckets are uniform, the rows with a bucket below
+     * {@code stratum_rate * k * SAMPLE_BUCKETS} are themselves a sample at rate {@code stratum_rate * k}, so smaller
+     * samples are prefixes of this one. {@code stratum_rows} is the size of the stratum in trips.
+     */
+    public static @NotNull String createSampleTable(double fraction, long minStratumRows) {
+        return "CREATE OR REPLACE TABLE " + SAMPLE_TABLE + " AS " +
+                "WITH strata AS (SELECT taxi_type, date_trunc('month', pickup_datetime) AS stratum_month, " +
+                "COUNT(*) AS stratum_rows FROM trips GROUP BY ALL), " +
+                "rated AS (SELECT t.vendor_id, t.pickup_datetime, t.dropoff_datetime, t.pu_location_id, " +
+                "t.do_location_id, t.payment_type, t.fare_amount, t.tolls_amount, t.taxi_type, s.stratum_month, " +
+                "s.stratum_rows, LEAST(1.0, GREATEST(" + fraction + ", CAST(" + minStratumRows + " AS DOUBLE) / " +
+                "s.stratum_rows)) AS stratum_rate, hash(t.rowid) % " + SAMPLE_BUCKETS + " AS sample_bucket " +
+                "FROM trips t JOIN strata s ON t.taxi_type IS NOT DISTINCT FROM s.taxi_type " +
+                "AND date_trunc('month', t.pickup_datetime) IS NOT DISTINCT FROM s.stratum_month) " +
+                "SELECT * FROM rated WHERE sample_bucket < stratum_rate * " + SAMPLE_BUCKETS + " " +
+                "ORDER BY taxi_type, stratum_month, sample_bucket";
+    }
+
+    @Contract(pure = true)
+    public static @NotNull String dropSampleTable() {
+        return "DROP TABLE IF EXISTS " + SAMPLE_TABLE;
+    }
+
+    public static @NotNull String deleteBySourceFile(@NotNull String table, @NotNull String sourceFile) {
+        return String.format("DELETE FROM %s WHERE source_file = %s", table, quote(sourceFile));
+    }
+
+    private static @NotNull String quote(@NotNull String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    /**
+     * Reads the column names from the parquet footer only, without scanning any row group.
+     * @param parquetPath escaped path of the parquet file.
+     */
+    public static @NotNull String readParquetSchema(@NotNull String parquetPath) {
+        return String.format("SELECT name FROM parquet_schema('%s')", parquetPath);
+    }
+
+    /**
+     * Reads the row count, row groups and column chunk sizes of a parquet file from its footer. parquet_metadata
+     * returns one row per row group and column, so the row count is taken once per row group.
+     * @param parquetPath escaped path of the parquet file.
+     */
+    public static @NotNull String readParquetMetadata(@NotNull String parquetPath) {
+        return String.format("SELECT CAST(COALESCE(SUM(num_rows), 0) AS BIGINT) AS rows, COUNT(*) AS row_groups, " +
+                "CAST(COALESCE(SUM(compressed), 0) AS BIGINT) AS compressed_bytes, " +
+                "CAST(COALESCE(SUM(uncompressed), 0) AS BIGINT) AS uncompressed_bytes " +
+                "FROM (SELECT row_group_id, MAX(row_group_num_rows) AS num_rows, " +
+                "SUM(total_compressed_size) AS compressed, SUM(total_uncompressed_size) AS uncompressed " +
+                "FROM parquet_metadata('%s') GROUP BY row_group_id)", parquetPath);
+    }
+
+    /**
+     * Sets the worker threads of the database instance; DuckDB shares them between all its connections.
+     */
+    @Contract(pure = true)
+    public static @NotNull String setThreads(int threads) {
+        return "SET threads = " + threads;
+    }
+
+    /**
+     * Sets the memory limit of the database instance, rounded down to whole megabytes (powers of 1000, as DuckDB
+     * reads {@code MB}).
+     */
+    @Contract(pure = true)
+    public static @NotNull String setMemoryLimit(long bytes) {
+        return "SET memory_limit = '" + Math.max(1, bytes / 1_000_000) + "MB'";
+    }
+
+    public static @NotNull String setTempDirectory(@NotNull String path) {
+        return "SET temp_directory = " + quote(path);
+    }
+
+    /**
+     * Lists the row count of every row group of a parquet file, in file order, from its footer.
+     * @param parquetPath escaped path of the parquet file.
+     */
+    public static @NotNull String readRowGroups(@NotNull String parquetPath) {
+        return String.format("SELECT row_group_id, MAX(row_group_num_rows) AS num_rows FROM parquet_metadata('%s') " +
+                "GROUP BY row_group_id ORDER BY row_group_id", parquetPath);
+    }
+
+    /**
+     * Reads the rows at positions {@code [firstRow, endRow)} of a parquet file. The bounds are compared with
+     * DuckDB's file_row_number, whose per row group statistics let the reader skip the row groups outside them.
+     * @param parquetPath escaped path of the parquet file.
+     */
+    @Contract(pure = true)
+    public static @NotNull String readParquetRange(@NotNull String parquetPath, long firstRow, long endRow) {
+        return String.format("(SELECT * FROM read_parquet('%s', file_row_number = true) " +
+                "WHERE file_row_number >= %d AND file_row_number < %d)", parquetPath, firstRow, endRow);
+    }
+
+    @Contract(pure = true)
+    public static @NotNull String readParquet(@NotNull String parquetPath) {
+        return String.format("read_parquet('%s')", parquetPath);
+    }
+
+    /**
+     * Builds the insert that streams the normalized columns of {@code source} into trips.
+     * Target columns are listed explicitly so the projection order cannot drift from the table layout.
+     * @param info normalized column names.
+     * @param source table or table function to select from, e.g. {@link #readParquet(String)}.
+     * @param sourceFile value stored in trips.source_file for every inserted row.
+     */
+    public static @NotNull String buildInsertSql(@NotNull NormalizedColumns info, @NotNull String source,
+                                                 @NotNull String sourceFile) {
+        return "INSERT INTO trips (vendor_id, pickup_datetime, dropoff_datetime, rate_code_id, pu_location_id, " +
+                "do_location_id, passenger_count, trip_distance, payment_type, fare_amount, extra, mta_tax, " +
+                "tip_amount, tolls_amount, improvement_surcharge, total_amount, congestion_surcharge, taxi_type, source_file) " +
+                selectNormalized(info, sourceFile) + " FROM " + source;
+    }
+
+    /**
+     * Builds the COPY writing the normalized columns of {@code source} into a Hive-partitioned parquet dataset,
+     * one directory per taxi_type, pickup year and pickup month.
+     * @param info normalized column names.
+     * @param source table or table function to select from, e.g. {@link #readParquet(String)}.
+     * @param sourceFile value stored in the source_file column.
+     * @param targetDir escaped root directory of the partitions.
+     * @param filenamePattern file name of the written parts, with DuckDB's {@code {i}} placeholder.
+     */
+    public static @NotNull String copyToPartitions(@NotNull NormalizedColumns info, @NotNull String source,
+                                                   @NotNull String sourceFile, @NotNull String targetDir,
+                                                   @NotNull String filenamePattern) {
+        return String.format("COPY (%s, year(%s) AS year, month(%s) AS month FROM %s) TO '%s' " +
+                        "(FORMAT PARQUET, PARTITION_BY (taxi_type, year, month), OVERWRITE_OR_IGNORE 1, " +
+                        "FILENAME_PATTERN %s)",
+                selectNormalized(info, sourceFile), info.pickupColumn(), info.pickupColumn(), source, targetDir,
+                quote(filenamePattern));
+    }
+
+    private static @NotNull String selectNormalized(@NotNull NormalizedColumns info, @NotNull String sourceFile) {
         return String.format(
-                "INSERT INTO trips SELECT VendorID as vendor_id, %s AS pickup_datetime, %s AS dropoff_datetime, " +
+                "SELECT VendorID as vendor_id, %s AS pickup_datetime, %s AS dropoff_datetime, " +
                         "RatecodeID as rate_code_id, PULocationID as pu_location_id, DOLocationID as do_location_id, " +
                         "passenger_count, trip_distance, payment_type, fare_amount, extra, mta_tax, tip_amount, " +
-                        "tolls_amount, improvement_surcharge, total_amount, congestion_surcharge, '%s' AS taxi_type " +
-                        "FROM temp_trips",
-                info.pickupColumn(), info.dropoffColumn(), info.taxiType()
+                        "tolls_amount, improvement_surcharge, total_amount, congestion_surcharge, '%s' AS taxi_type, " +
+                        "%s AS source_file",
+                info.pickupColumn(), info.dropoffColumn(), info.taxiType(), quote(sourceFile)
         );
     }
 }
@@ -1,35 +1,191 @@
 package com.xiaodi.taxi.etl.sql;
 
 import com.xiaodi.taxi.etl.model.NormalizedColumns;
+import com.xiaodi.taxi.etl.model.ParquetFileStats;
+import com.xiaodi.taxi.etl.model.RowRange;
+import com.xiaodi.taxi.metrics.MetricsRegistry;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Runs the per-file ETL statements. Every file load records into its {@link MetricsRegistry}, labelled with the
+ * source file: {@code etl_read_seconds} (parquet footer and schema detection), {@code etl_insert_seconds} (the
+ * streaming INSERT or COPY, which reads the row groups), {@code etl_rollup_seconds}, the rows and bytes loaded,
+ * and rows/s and bytes/s over read and insert.
+ */
 public class SQLExecutor {
     private final Statement stmt;
     private final ColumnNormalizer normalizer;
+    private final MetricsRegistry metrics;
 
     public SQLExecutor(Statement stmt) {
+        this(stmt, MetricsRegistry.global());
+    }
+
+    /**
+     * Constructor
+     * @param stmt statement the SQL runs on.
+     * @param metrics registry the load timings are recorded in.
+     */
+    public SQLExecutor(Statement stmt, MetricsRegistry metrics) {
         this.stmt = stmt;
         this.normalizer = new ColumnNormalizer();
+        this.metrics = metrics;
+    }
+
+    /**
+     * Loads one parquet file into the trips table. The schema is detected from the parquet footer and the
+     * needed columns are streamed straight from read_parquet into trips, without a staging copy.
+     * @param file parquet file.
+     * @return number of rows inserted into trips, 0 if the file is not a recognized taxi schema.
+     */
+    public long execute(@NotNull Path file) throws SQLException {
+        return execute(file, file.getFileName().toString());
+    }
+
+    /**
+     * Loads one parquet file into the trips table, tagging every row with {@code sourceFile}.
+     * @param file parquet file.
+     * @param sourceFile value stored in trips.source_file.
+     * @return number of rows inserted into trips, 0 if the file is not a recognized taxi schema.
+     */
+    public long execute(@NotNull Path file, @NotNull String sourceFile) throws SQLException {
+        String path = escape(file);
+        long start = System.nanoTime();
+        NormalizedColumns info = detectColumns(path);
+        long readNanos = metrics.timer("etl_read_seconds", "file", sourceFile).recordSince(start);
+        if (!info.hasTaxiType()) {
+            return 0;
+        }
+        long insertStart = System.nanoTime();
+        stmt.execute(SQLBuilder.buildInsertSql(info, SQLBuilder.readParquet(path), sourceFile));
+        long rows = Math.max(stmt.getUpdateCount(), 0);
+        recordLoad(file, sourceFile, rows, readNanos, metrics.timer("etl_insert_seconds", "file", sourceFile)
+                .recordSince(insertStart));
+        return rows;
     }
 
-    public void execute(@NotNull Path file) throws SQLException {
-        String path = file.toAbsolutePath().toString().replace("\\", "\\\\");
-        stmt.execute(String.format(
-                "CREATE TABLE temp_trips AS SELECT * FROM read_parquet('%s')", path
-        ));
+    /**
+     * Loads the rows of one range of a parquet file into the trips table, tagging every row with
+     * {@code sourceFile}. Timings are recorded as {@code etl_range_insert_seconds} of the file.
+     * @param file parquet file.
+     * @param range rows to load.
+     * @return number of rows inserted into trips, 0 if the file is not a recognized taxi schema.
+     */
+    public long executeRange(@NotNull Path file, @NotNull String sourceFile, @NotNull RowRange range) throws SQLException {
+        String path = escape(file);
+        NormalizedColumns info = detectColumns(path);
+        if (!info.hasTaxiType()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        stmt.execute(SQLBuilder.buildInsertSql(info, SQLBuilder.readParquetRange(path, range.firstRow(), range.endRow()),
+                sourceFile));
+        long rows = Math.max(stmt.getUpdateCount(), 0);
+        metrics.timer("etl_range_insert_seconds", "file", sourceFile).recordSince(start);
+        metrics.counter("etl_rows_total", "file", sourceFile).add(rows);
+        return rows;
+    }
 
-        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(temp_trips)")) {
-            NormalizedColumns info = normalizer.normalize(rs);
-            if (info.hasTaxiType()) {
-                stmt.execute(SQLBuilder.buildInsertSql(info));
+    /**
+     * @return the row count of every row group of a parquet file, in file order.
+     */
+    public @NotNull List<Long> readRowGroupRows(@NotNull Path file) throws SQLException {
+        List<Long> rows = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery(SQLBuilder.readRowGroups(escape(file)))) {
+            while (rs.next()) {
+                rows.add(rs.getLong("num_rows"));
             }
-        } finally {
-            stmt.execute("DROP TABLE IF EXISTS temp_trips");
         }
+        return rows;
+    }
+
+    /**
+     * Writes one parquet file as Hive partitions (taxi_type/year/month) under {@code targetDir}.
+     * @param file parquet file.
+     * @param sourceFile value stored in the source_file column.
+     * @param targetDir root directory of the partitions.
+     * @param filenamePattern name of the written parts, with DuckDB's {@code {i}} placeholder.
+     * @return number of rows written, 0 if the file is not a recognized taxi schema.
+     */
+    public long exportPartitions(@NotNull Path file, @NotNull String sourceFile, @NotNull Path targetDir,
+                                 @NotNull String filenamePattern) throws SQLException {
+        String path = escape(file);
+        long start = System.nanoTime();
+        NormalizedColumns info = detectColumns(path);
+        long readNanos = metrics.timer("etl_read_seconds", "file", sourceFile).recordSince(start);
+        if (!info.hasTaxiType()) {
+            return 0;
+        }
+        long insertStart = System.nanoTime();
+        stmt.execute(SQLBuilder.copyToPartitions(info, SQLBuilder.readParquet(path), sourceFile, escape(targetDir),
+                filenamePattern));
+        long rows = Math.max(stmt.getUpdateCount(), 0);
+        recordLoad(file, sourceFile, rows, readNanos, metrics.timer("etl_insert_seconds", "file", sourceFile)
+                .recordSince(insertStart));
+        return rows;
+    }
+
+    private void recordLoad(@NotNull Path file, @NotNull String sourceFile, long rows, long readNanos, long insertNanos) {
+        long bytes;
+        try {
+            bytes = Files.size(file);
+        } catch (IOException e) {
+            bytes = 0;
+        }
+        double seconds = (readNanos + insertNanos) / 1_000_000_000.0;
+        metrics.counter("etl_rows_total", "file", sourceFile).add(rows);
+        metrics.counter("etl_bytes_total", "file", sourceFile).add(bytes);
+        metrics.gauge("etl_rows_per_second", "file", sourceFile).set(seconds == 0 ? 0 : rows / seconds);
+        metrics.gauge("etl_bytes_per_second", "file", sourceFile).set(seconds == 0 ? 0 : bytes / seconds);
+    }
+
+    /**
+     * Reads the size of a parquet file from its footer.
+     */
+    public @NotNull ParquetFileStats readStats(@NotNull Path file) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(SQLBuilder.readParquetMetadata(escape(file)))) {
+            rs.next();
+            return new ParquetFileStats(rs.getLong("rows"), rs.getLong("row_groups"), rs.getLong("compressed_bytes"),
+                    rs.getLong("uncompressed_bytes"));
+        }
+    }
+
+    private NormalizedColumns detectColumns(String path) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(SQLBuilder.readParquetSchema(path))) {
+            return normalizer.normalize(rs);
+        }
+    }
+
+    private static @NotNull String escape(@NotNull Path file) {
+        return file.toAbsolutePath().toString().replace("\\", "\\\\");
+    }
+
+    /**
+     * Removes the trips and derived aggregates loaded from {@code sourceFile}.
+     */
+    public void deleteSourceFile(@NotNull String sourceFile) throws SQLException {
+        stmt.execute(SQLBuilder.deleteBySourceFile("trips", sourceFile));
+        stmt.execute(SQLBuilder.deleteBySourceFile("trips_rollup", sourceFile));
+        stmt.execute(SQLBuilder.deleteBySourceFile(SQLBuilder.DAILY_TABLE, sourceFile));
+    }
+
+    /**
+     * Builds the hourly rollup rows of the trips loaded from {@code sourceFile}, and the daily partials merged
+     * from them.
+     */
+    public void buildRollup(@NotNull String sourceFile) throws SQLException {
+        long start = System.nanoTime();
+        stmt.execute(SQLBuilder.insertRollup(sourceFile));
+        stmt.execute(SQLBuilder.insertDaily(sourceFile));
+        metrics.timer("etl_rollup_seconds", "file", sourceFile).recordSince(start);
     }
 }
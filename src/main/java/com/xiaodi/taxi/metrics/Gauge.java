@@ -0,0 +1,19 @@
+package com.xiaodi.taxi.metrics;
+
+/**
+ * Last value set, e.g. the throughput of a file load.
+ */
+public final class Gauge {
+    private volatile double value;
+
+    Gauge() {
+    }
+
+    public void set(double value) {
+        this.value = value;
+    }
+
+    public double value() {
+        return value;
+    }
+}
@@ -0,0 +1,248 @@
+package com.xiaodi.taxi.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * Named timers, counters and gauges of one process, with optional labels (e.g. {@code file="yellow_2025-06.parquet"}).
+ * Metrics are created on first use and can be exported in the Prometheus text format, as JSON, or printed as a
+ * profile breakdown.
+ * <p>
+ * The ETL and query services record into {@link #global()} unless they are given a registry of their own.
+ */
+public final class MetricsRegistry {
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final Map<MetricId, Object> metrics = new ConcurrentSkipListMap<>();
+
+    /**
+     * Name and labels of a metric; labels are name/value pairs in the order given.
+     */
+    private record MetricId(String name, List<String> labels) implements Comparable<MetricId> {
+        @Override
+        public int compareTo(@NotNull MetricId other) {
+            int c = name.compareTo(other.name);
+            return c != 0 ? c : String.join("\u0000", labels).compareTo(String.join("\u0000", other.labels));
+        }
+    }
+
+    public static @NotNull MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @param name metric name, e.g. {@code query_execute_seconds}.
+     * @param labels label name/value pairs.
+     */
+    public @NotNull Timer timer(@NotNull String name, String @NotNull ... labels) {
+        return get(name, labels, Timer.class, Timer::new);
+    }
+
+    public @NotNull Counter counter(@NotNull String name, String @NotNull ... labels) {
+        return get(name, labels, Counter.class, Counter::new);
+    }
+
+    public @NotNull Gauge gauge(@NotNull String name, String @NotNull ... labels) {
+        return get(name, labels, Gauge.class, Gauge::new);
+    }
+
+    private <T> T get(String name, String[] labels, Class<T> type, Supplier<T> create) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("labels must be name/value pairs: " + List.of(labels));
+        }
+        Object metric = metrics.computeIfAbsent(new MetricId(name, List.of(labels)), id -> create.get());
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(name + " is a " + metric.getClass().getSimpleName() + ", not a " +
+                    type.getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    /**
+     * Drops every metric.
+     */
+    public void clear() {
+        metrics.clear();
+    }
+
+    public boolean isEmpty() {
+        return metrics.isEmpty();
+    }
+
+    /**
+     * @return the metrics in the Prometheus text exposition format. Timers are summaries in seconds
+     * ({@code _count}, {@code _sum}) plus a {@code _max} gauge.
+     */
+    public @NotNull String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        String family = null;
+        List<String> maxLines = new ArrayList<>();
+        for (Map.Entry<MetricId, Object> entry : metrics.entrySet()) {
+            MetricId id = entry.getKey();
+            Object metric = entry.getValue();
+            if (!id.name.equals(family)) {
+                flushMax(out, family, maxLines);
+                family = id.name;
+                out.append("# TYPE ").append(id.name).append(' ')
+                        .append(metric instanceof Timer ? "summary" : metric instanceof Counter ? "counter" : "gauge")
+                        .append('\n');
+            }
+            String labels = prometheusLabels(id.labels);
+            if (metric instanceof Timer t) {
+                sample(out, id.name + "_count", labels, Long.toString(t.count()));
+                sample(out, id.name + "_sum", labels, number(t.totalNanos() / NANOS_PER_SECOND));
+                maxLines.add(id.name + "_max" + labels + " " + number(t.maxNanos() / NANOS_PER_SECOND));
+            } else if (metric instanceof Counter c) {
+                sample(out, id.name, labels, Long.toString(c.value()));
+            } else if (metric instanceof Gauge g) {
+                sample(out, id.name, labels, number(g.value()));
+            } else {
+                throw new IllegalStateException("Unknown metric " + metric);
+            }
+        }
+        flushMax(out, family, maxLines);
+        return out.toString();
+    }
+
+    private static void flushMax(StringBuilder out, String family, List<String> maxLines) {
+        if (maxLines.isEmpty()) {
+            return;
+        }
+        out.append("# TYPE ").append(family).append("_max gauge\n");
+        maxLines.forEach(line -> out.append(line).append('\n'));
+        maxLines.clear();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String value) {
+        out.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    private static String prometheusLabels(List<String> labels) {
+        if (labels.isEmpty()) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder("{");
+        for (int i = 0; i < labels.size(); i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels.get(i)).append("=\"").append(labels.get(i + 1)
+                    .replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return out.append('}').toString();
+    }
+
+    /**
+     * @return the metrics as one JSON object with {@code timers}, {@code counters} and {@code gauges} arrays;
+     * durations are in seconds.
+     */
+    public @NotNull String toJson() {
+        List<String> timers = new ArrayList<>();
+        List<String> counters = new ArrayList<>();
+        List<String> gauges = new ArrayList<>();
+        for (Map.Entry<MetricId, Object> entry : metrics.entrySet()) {
+            String head = "{\"name\":" + quote(entry.getKey().name) + ",\"labels\":" + jsonLabels(entry.getKey().labels);
+            Object metric = entry.getValue();
+            if (metric instanceof Timer t) {
+                timers.add(head + ",\"count\":" + t.count() +
+                        ",\"total_seconds\":" + number(t.totalNanos() / NANOS_PER_SECOND) +
+                        ",\"max_seconds\":" + number(t.maxNanos() / NANOS_PER_SECOND) + "}");
+            } else if (metric instanceof Counter c) {
+                counters.add(head + ",\"value\":" + c.value() + "}");
+            } else if (metric instanceof Gauge g) {
+                gauges.add(head + ",\"value\":" + (Double.isFinite(g.value()) ? number(g.value()) : "null") + "}");
+            } else {
+                throw new IllegalStateException("Unknown metric " + metric);
+            }
+        }
+        return "{\"timers\":[" + String.join(",", timers) + "],\"counters\":[" + String.join(",", counters) +
+                "],\"gauges\":[" + String.join(",", gauges) + "]}";
+    }
+
+    private static String jsonLabels(List<String> labels) {
+        StringBuilder out = new StringBuilder("{");
+        for (int i = 0; i < labels.size(); i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(quote(labels.get(i))).append(':').append(quote(labels.get(i + 1)));
+        }
+        return out.append('}').toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder out = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private static String number(double value) {
+        return Double.toString(value);
+    }
+
+    /**
+     * Writes the metrics to {@code file}: JSON when its name ends with {@code .json}, the Prometheus text format
+     * otherwise (e.g. a {@code .prom} file for node_exporter's textfile collector).
+     */
+    public void write(@NotNull Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        String text = file.getFileName().toString().endsWith(".json") ? toJson() + "\n" : toPrometheus();
+        Files.writeString(file, text, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a human readable breakdown: every timer with its count, total, mean and max in milliseconds,
+     * then the counters and gauges.
+     */
+    public @NotNull String profile() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "%-60s %8s %12s %10s %10s%n", "Timer", "Count", "Total ms", "Mean ms", "Max ms"));
+        for (Map.Entry<MetricId, Object> entry : metrics.entrySet()) {
+            if (entry.getValue() instanceof Timer t) {
+                double total = t.totalNanos() / 1_000_000.0;
+                out.append(String.format(Locale.ROOT, "%-60s %8d %12.2f %10.3f %10.3f%n", display(entry.getKey()),
+                        t.count(), total, t.count() == 0 ? 0 : total / t.count(), t.maxNanos() / 1_000_000.0));
+            }
+        }
+        for (Map.Entry<MetricId, Object> entry : metrics.entrySet()) {
+            if (entry.getValue() instanceof Counter c) {
+                out.append(String.format(Locale.ROOT, "%-60s %,20d%n", display(entry.getKey()), c.value()));
+            } else if (entry.getValue() instanceof Gauge g) {
+                out.append(String.format(Locale.ROOT, "%-60s %,20.1f%n", display(entry.getKey()), g.value()));
+            }
+        }
+        return out.toString();
+    }
+
+    private static String display(MetricId id) {
+        return id.name + prometheusLabels(id.labels);
+    }
+}
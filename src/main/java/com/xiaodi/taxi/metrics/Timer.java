@@ -0,0 +1,44 @@
+package com.xiaodi.taxi.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count, total and maximum of recorded durations. Safe to record from several threads.
+ */
+public final class Timer {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    Timer() {
+    }
+
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Records the time since {@code startNanos}, a {@link System#nanoTime()} reading.
+     * @return the recorded duration.
+     */
+    public long recordSince(long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        record(nanos);
+        return nanos;
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long totalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+}
@@ -0,0 +1,79 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+
+/**
+ * Merges partial MIN/MAX/COUNT/SUM aggregates with SQL null semantics: MIN, MAX and SUM ignore missing
+ * partials and report 0 when nothing was merged, like {@code ResultSet.getDouble} on a SQL NULL.
+ */
+public final class AggregateAccumulator {
+    private double minFare = Double.POSITIVE_INFINITY;
+    private double maxFare = Double.NEGATIVE_INFINITY;
+    private long tripCount;
+    private double totalFare;
+    private double totalTollFare;
+    private boolean hasFare;
+    private boolean hasTollFare;
+
+    /**
+     * Merges one partial aggregate; null arguments are SQL NULLs.
+     */
+    public void add(Double min, Double max, long count, Double fareSum, Double tollSum) {
+        if (min != null) {
+            minFare = Math.min(minFare, min);
+            hasFare = true;
+        }
+        if (max != null) {
+            maxFare = Math.max(maxFare, max);
+            hasFare = true;
+        }
+        tripCount += count;
+        if (fareSum != null) {
+            totalFare += fareSum;
+        }
+        if (tollSum != null) {
+            totalTollFare += tollSum;
+            hasTollFare = true;
+        }
+    }
+
+    /**
+     * Merges the partials merged into {@code other}, keeping its SQL NULLs. A {@link TripAggregationResult} cannot be
+     * merged instead, as it reports a NULL minimum or maximum as 0.
+     */
+    public void add(@NotNull AggregateAccumulator other) {
+        if (other.hasFare) {
+            minFare = Math.min(minFare, other.minFare);
+            maxFare = Math.max(maxFare, other.maxFare);
+            hasFare = true;
+        }
+        tripCount += other.tripCount;
+        totalFare += other.totalFare;
+        if (other.hasTollFare) {
+            totalTollFare += other.totalTollFare;
+            hasTollFare = true;
+        }
+    }
+
+    public long tripCount() {
+        return tripCount;
+    }
+
+    public @NotNull TripAggregationResult toResult(String taxiType, String vendor, String paymentType) {
+        return toResult(taxiType, vendor, paymentType, Map.of());
+    }
+
+    public @NotNull TripAggregationResult toResult(String taxiType, String vendor, String paymentType,
+                                                   Map<String, String> groups) {
+        return new TripAggregationResult(taxiType, vendor, paymentType,
+                hasFare ? minFare : 0.0,
+                hasFare ? maxFare : 0.0,
+                (int) tripCount,
+                hasTollFare ? totalTollFare : 0.0,
+                totalFare,
+                groups);
+    }
+}
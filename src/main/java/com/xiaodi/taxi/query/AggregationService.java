@@ -0,0 +1,44 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import com.xiaodi.taxi.query.models.TripQueryParams;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Contract for answering trip aggregate queries.
+ */
+public interface AggregationService {
+    List<TripAggregationResult> aggregate(TripQueryParams params) throws SQLException;
+
+    /**
+     * Answers a query, handing each row to {@code sink}. The default collects the rows first; implementations may
+     * stream them straight from the result set.
+     * @param params query params.
+     * @param sink receives the rows in result order.
+     * @return number of rows.
+     */
+    default long aggregate(TripQueryParams params, ResultSink sink) throws SQLException, IOException {
+        List<TripAggregationResult> rows = aggregate(params);
+        for (TripAggregationResult row : rows) {
+            sink.accept(row);
+        }
+        return rows.size();
+    }
+
+    /**
+     * Answers several queries at once. The default runs them one by one; implementations may share one scan.
+     * @param batch query params.
+     * @return one result list per query, in input order.
+     */
+    default List<List<TripAggregationResult>> aggregateBatch(List<TripQueryParams> batch) throws SQLException {
+        List<List<TripAggregationResult>> results = new ArrayList<>(batch.size());
+        for (TripQueryParams params : batch) {
+            results.add(aggregate(params));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,59 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a batch of queries, one per line, with the seven TripAggregator arguments separated by commas:
+ * <pre>
+ * # pickup, dropoff, puLocationID, doLocationID, groupByPayment, vendorID, taxiType
+ * 2025-06-01 00:00:00,2025-06-01 23:59:59,132,,false,,yellow
+ * </pre>
+ * Empty fields and {@code *} mean "no filter"; blank lines and lines starting with {@code #} are ignored.
+ * Fields are validated with {@link QueryInputValidator}.
+ */
+public final class BatchQueryFile {
+    private BatchQueryFile() {
+    }
+
+    public static @NotNull List<TripQueryParams> read(@NotNull Path file) throws IOException {
+        return parse(Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    public static @NotNull List<TripQueryParams> parse(@NotNull List<String> lines) {
+        List<TripQueryParams> batch = new ArrayList<>();
+        for (int n = 0; n < lines.size(); n++) {
+            String line = lines.get(n).strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] raw = line.split(",", -1);
+            if (raw.length != 7) {
+                throw new IllegalArgumentException("Line " + (n + 1) + ": expected 7 comma separated fields, got " + raw.length);
+            }
+            String[] fields = new String[7];
+            for (int i = 0; i < 7; i++) {
+                String value = TripQueryParams.EMPTY_VALUE.equals(raw[i].strip()) ? "" : raw[i];
+                QueryInputValidator.Result result = switch (i) {
+                    case 0, 1 -> QueryInputValidator.datetime(value);
+                    case 4 -> QueryInputValidator.groupByPayment(value.isBlank() ? "false" : value);
+                    case 6 -> QueryInputValidator.taxiType(value);
+                    default -> QueryInputValidator.integerId(value);
+                };
+                if (!result.isValid()) {
+                    throw new IllegalArgumentException("Line " + (n + 1) + ", field " + (i + 1) + ": " + result.error());
+                }
+                fields[i] = result.value();
+            }
+            batch.add(TripAggregatorRepl.toParams(fields));
+        }
+        return batch;
+    }
+}
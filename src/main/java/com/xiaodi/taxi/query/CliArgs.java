@@ -0,0 +1,56 @@
+package com.xiaodi.taxi.query;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits command line arguments into {@code --name[=value]} flags and positional arguments.
+ */
+public final class CliArgs {
+    private final Map<String, String> flags;
+    private final List<String> positional;
+
+    private CliArgs(Map<String, String> flags, List<String> positional) {
+        this.flags = flags;
+        this.positional = positional;
+    }
+
+    public static @NotNull CliArgs parse(String @NotNull [] args) {
+        Map<String, String> flags = new HashMap<>();
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) {
+                    flags.put(arg.substring(2), "true");
+                } else {
+                    flags.put(arg.substring(2, eq), arg.substring(eq + 1));
+                }
+            } else {
+                positional.add(arg);
+            }
+        }
+        return new CliArgs(flags, positional);
+    }
+
+    public boolean has(String name) {
+        return flags.containsKey(name);
+    }
+
+    public String get(String name, String defaultValue) {
+        return flags.getOrDefault(name, defaultValue);
+    }
+
+    public long getLong(String name, long defaultValue) {
+        String value = flags.get(name);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public List<String> positional() {
+        return positional;
+    }
+}
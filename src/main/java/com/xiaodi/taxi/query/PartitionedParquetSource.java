@@ -0,0 +1,142 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Reads trips from the Hive-partitioned parquet dataset written by the ETL with {@code --storage=parquet}
+ * ({@code taxi_type=/year=/month=} directories).
+ * <p>
+ * Partitions are pruned before DuckDB sees the query: only the taxi type asked for, and only months from the month
+ * of the pickup lower bound on, are passed to read_parquet. The dropoff bound is not used for pruning since
+ * partitions are by pickup month and a trip's dropoff is not guaranteed to follow its pickup in the TLC data.
+ */
+public class PartitionedParquetSource implements TripsSource {
+    private final Path datasetDir;
+
+    /**
+     * Constructor
+     * @param datasetDir root directory of the dataset.
+     */
+    public PartitionedParquetSource(Path datasetDir) {
+        this.datasetDir = datasetDir;
+    }
+
+    @Override
+    public @NotNull String relation(@NotNull TripQueryParams p) {
+        List<Path> partitions = partitions(p);
+        if (partitions.isEmpty()) {
+            // Keep the columns, but match nothing
+            return "(SELECT * FROM " + readParquet(List.of(glob(datasetDir, 3))) + " WHERE false)";
+        }
+        if (partitions.size() == countPartitions()) {
+            return readParquet(List.of(glob(datasetDir, 3)));
+        }
+        return readParquet(partitions.stream().map(dir -> glob(dir, 0)).toList());
+    }
+
+    /**
+     * @return the partition directories {@code p} can match, in path order.
+     */
+    @NotNull List<Path> partitions(@NotNull TripQueryParams p) {
+        String taxiType = p.getTaxiType().toLowerCase();
+        boolean oneType = "yellow".equals(taxiType) || "green".equals(taxiType);
+        YearMonth from = pickupMonth(p.getPickupDatetime());
+
+        List<Path> result = new ArrayList<>();
+        for (Path typeDir : list(datasetDir)) {
+            if (oneType && !typeDir.getFileName().toString().equals("taxi_type=" + taxiType)) {
+                continue;
+            }
+            for (Path yearDir : list(typeDir)) {
+                for (Path monthDir : list(yearDir)) {
+                    YearMonth month = partitionMonth(yearDir, monthDir);
+                    if (from == null || month == null || !month.isBefore(from)) {
+                        result.add(monthDir);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private int countPartitions() {
+        int n = 0;
+        for (Path typeDir : list(datasetDir)) {
+            for (Path yearDir : list(typeDir)) {
+                n += list(yearDir).size();
+            }
+        }
+        return n;
+    }
+
+    static YearMonth pickupMonth(@NotNull String pickup) {
+        if (TripQueryParams.EMPTY_VALUE.equals(pickup) || pickup.trim().length() < 7) {
+            return null;
+        }
+        try {
+            return YearMonth.parse(pickup.trim().substring(0, 7));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static YearMonth partitionMonth(@NotNull Path yearDir, @NotNull Path monthDir) {
+        try {
+            return YearMonth.of(Integer.parseInt(value(yearDir, "year=")), Integer.parseInt(value(monthDir, "month=")));
+        } catch (RuntimeException e) {
+            // not a partition we wrote, never pruned
+            return null;
+        }
+    }
+
+    private static String value(@NotNull Path dir, @NotNull String key) {
+        String name = dir.getFileName().toString();
+        if (!name.startsWith(key)) {
+            throw new IllegalArgumentException("Not a " + key + " partition: " + dir);
+        }
+        return name.substring(key.length());
+    }
+
+    private static @NotNull List<Path> list(@NotNull Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        try (Stream<Path> children = Files.list(dir)) {
+            return children.filter(Files::isDirectory)
+                    .filter(d -> d.getFileName().toString().contains("="))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to list partitions of " + dir, e);
+        }
+    }
+
+    /**
+     * @param depth number of partition levels below {@code dir}.
+     */
+    private static @NotNull String glob(@NotNull Path dir, int depth) {
+        return dir.toAbsolutePath() + "/*".repeat(depth) + "/*.parquet";
+    }
+
+    private static @NotNull String readParquet(@NotNull List<String> globs) {
+        StringBuilder sb = new StringBuilder("read_parquet([");
+        for (int i = 0; i < globs.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append('\'').append(globs.get(i).replace("'", "''")).append('\'');
+        }
+        return sb.append("], hive_partitioning = 1)").toString();
+    }
+}
@@ -0,0 +1,93 @@
+package com.xiaodi.taxi.query;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Prepared statements of one connection, one per {@link QueryShape} and trips relation. A statement is prepared
+ * the first time its key is seen and reused for every later query with that key, so parsing and planning are paid
+ * once. The least recently used statement is closed beyond {@link #MAX_STATEMENTS}, which only matters for sources
+ * whose relation depends on the params, like {@link PartitionedParquetSource}.
+ * Not thread-safe; callers serialize access, as they must for the connection anyway.
+ */
+class PreparedStatementPool implements AutoCloseable {
+    static final int MAX_STATEMENTS = 512;
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= MAX_STATEMENTS) {
+                return false;
+            }
+            closeQuietly(eldest.getValue());
+            return true;
+        }
+    };
+
+    /**
+     * Constructor
+     * @param connection connection the statements are prepared on.
+     */
+    PreparedStatementPool(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * @param shape statement key, see {@link #key(int, String)}.
+     * @param sql SQL of the key, only evaluated when the statement is not prepared yet.
+     * @return the statement of the key, with its parameters cleared.
+     */
+    @NotNull PreparedStatement get(@NotNull String shape, @NotNull Supplier<String> sql) throws SQLException {
+        PreparedStatement stmt = statements.get(shape);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = connection.prepareStatement(sql.get());
+            statements.put(shape, stmt);
+        } else {
+            stmt.clearParameters();
+        }
+        return stmt;
+    }
+
+    static @NotNull String key(int shape, @NotNull String relation) {
+        return shape + ":" + relation;
+    }
+
+    boolean contains(@NotNull String shape) {
+        return statements.containsKey(shape);
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    /**
+     * Closes and forgets the statement of a shape, e.g. after it failed.
+     */
+    void evict(@NotNull String shape) {
+        PreparedStatement stmt = statements.remove(shape);
+        if (stmt != null) {
+            closeQuietly(stmt);
+        }
+    }
+
+    @Override
+    public void close() {
+        statements.values().forEach(PreparedStatementPool::closeQuietly);
+        statements.clear();
+    }
+
+    private static void closeQuietly(@NotNull PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException ignored) {
+            // the statement is dropped either way
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.regex.Pattern;
+
+/**
+ * Validates interactive input the same way run.sh did: blank input means "no filter", anything else must be
+ * well formed. Each method returns the normalized value or an error message to re-prompt with.
+ */
+public final class QueryInputValidator {
+    private static final Pattern TIMESTAMP = Pattern.compile("^[0-9]{4}-[0-9]{2}-[0-9]{2} [0-9]{2}:[0-9]{2}:[0-9]{2}$");
+    private static final Pattern INTEGER = Pattern.compile("^[0-9]+$");
+
+    /**
+     * @param value normalized value, null when the input was rejected.
+     * @param error message explaining the rejection, null when valid.
+     */
+    public record Result(String value, String error) {
+        @Contract("_ -> new")
+        static @NotNull Result ok(String value) { return new Result(value, null); }
+        @Contract("_ -> new")
+        static @NotNull Result error(String error) { return new Result(null, error); }
+        public boolean isValid() { return error == null; }
+    }
+
+    private QueryInputValidator() {
+    }
+
+    public static @NotNull Result datetime(String input) {
+        String v = trim(input);
+        if (v.isEmpty()) return Result.ok(TripQueryParams.EMPTY_VALUE);
+        if (TIMESTAMP.matcher(v).matches()) return Result.ok(v);
+        return Result.error("Not a valid timestamp. Try again or leave blank.");
+    }
+
+    public static @NotNull Result integerId(String input) {
+        String v = trim(input);
+        if (v.isEmpty()) return Result.ok(TripQueryParams.EMPTY_VALUE);
+        if (INTEGER.matcher(v).matches()) return Result.ok(v);
+        return Result.error("Not a valid integer. Enter a number or leave blank.");
+    }
+
+    public static @NotNull Result groupByPayment(String input) {
+        String v = trim(input).toLowerCase();
+        if (v.isEmpty()) return Result.ok("true");
+        if ("true".equals(v) || "false".equals(v)) return Result.ok(v);
+        return Result.error("Please enter true or false.");
+    }
+
+    public static @NotNull Result taxiType(String input) {
+        String v = trim(input).toLowerCase();
+        if (v.isEmpty() || "both".equals(v)) return Result.ok(TripQueryParams.EMPTY_VALUE);
+        if ("yellow".equals(v) || "green".equals(v)) return Result.ok(v);
+        return Result.error("Must be one of: yellow, green, both.");
+    }
+
+    private static @NotNull String trim(String input) {
+        return input == null ? "" : input.strip();
+    }
+}
@@ -0,0 +1,61 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The shape of a query: which filters are bound, whether it groups by payment type and which table it reads.
+ * Queries of one shape share their SQL text and only differ in bound values, so a shape identifies a prepared
+ * statement. Shapes are bit sets, {@code 0 <= shape < }{@link #COUNT}.
+ */
+final class QueryShape {
+    static final int PICKUP = 1;
+    static final int DROPOFF = 1 << 1;
+    static final int PU_LOCATION = 1 << 2;
+    static final int DO_LOCATION = 1 << 3;
+    static final int VENDOR = 1 << 4;
+    static final int TAXI_TYPE = 1 << 5;
+    static final int GROUP_BY_PAYMENT = 1 << 6;
+    static final int ROLLUP = 1 << 7;
+    static final int COUNT = 1 << 8;
+
+    private QueryShape() {
+    }
+
+    /**
+     * @param p query params.
+     * @param rollup whether the query is answered from trips_rollup.
+     * @return the shape of the query, mirroring the filters produced for it.
+     */
+    static int of(@NotNull TripQueryParams p, boolean rollup) {
+        int shape = 0;
+        if (!TripQueryParams.EMPTY_VALUE.equals(p.getPickupDatetime())) shape |= PICKUP;
+        if (!TripQueryParams.EMPTY_VALUE.equals(p.getDropoffDatetime())) shape |= DROPOFF;
+        if (!TripQueryParams.EMPTY_VALUE.equals(p.getPuLocationID())) shape |= PU_LOCATION;
+        if (!TripQueryParams.EMPTY_VALUE.equals(p.getDoLocationID())) shape |= DO_LOCATION;
+        if (!TripQueryParams.EMPTY_VALUE.equals(p.getVendorID())) shape |= VENDOR;
+        if ("yellow".equalsIgnoreCase(p.getTaxiType()) || "green".equalsIgnoreCase(p.getTaxiType())) shape |= TAXI_TYPE;
+        if (p.isGroupByPayment()) shape |= GROUP_BY_PAYMENT;
+        if (rollup) shape |= ROLLUP;
+        return shape;
+    }
+
+    /**
+     * @return params of the given shape, with placeholder values, to prepare its statement ahead of time.
+     */
+    static @NotNull TripQueryParams sample(int shape) {
+        TripQueryParams.Builder b = TripQueryParams.builder()
+                .groupByPayment((shape & GROUP_BY_PAYMENT) != 0);
+        if ((shape & PICKUP) != 0) b.pickupDatetime("2025-01-01 00:00:00");
+        if ((shape & DROPOFF) != 0) b.dropoffDatetime("2025-01-01 00:00:00");
+        if ((shape & PU_LOCATION) != 0) b.puLocationID("1");
+        if ((shape & DO_LOCATION) != 0) b.doLocationID("1");
+        if ((shape & VENDOR) != 0) b.vendorID("1");
+        if ((shape & TAXI_TYPE) != 0) b.taxiType("yellow");
+        return b.build();
+    }
+
+    static boolean isRollup(int shape) {
+        return (shape & ROLLUP) != 0;
+    }
+}
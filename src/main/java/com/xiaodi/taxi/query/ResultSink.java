@@ -0,0 +1,13 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+
+import java.io.IOException;
+
+/**
+ * Receives result rows one at a time, as they are read from the database.
+ */
+@FunctionalInterface
+public interface ResultSink {
+    void accept(TripAggregationResult row) throws IOException;
+}
@@ -0,0 +1,47 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Decides whether a query can be answered from the hourly trips_rollup table instead of trips.
+ * <p>
+ * The rollup keeps pickup time at hour grain and has no dropoff time, so it fits when there is no dropoff bound
+ * and the pickup lower bound, if any, falls exactly on an hour. All other filters are rollup keys.
+ */
+public final class RollupRouter {
+    public static final String ROLLUP_TABLE = "trips_rollup";
+
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private RollupRouter() {
+    }
+
+    public static boolean fits(@NotNull TripQueryParams p) {
+        if (!TripQueryParams.EMPTY_VALUE.equals(p.getDropoffDatetime())) {
+            return false;
+        }
+        return TripQueryParams.EMPTY_VALUE.equals(p.getPickupDatetime()) || isHourAligned(p.getPickupDatetime());
+    }
+
+    static boolean isHourAligned(@NotNull String datetime) {
+        String value = datetime.trim();
+        try {
+            LocalDateTime t = LocalDateTime.parse(value, DATE_TIME);
+            return t.getMinute() == 0 && t.getSecond() == 0;
+        } catch (DateTimeParseException e) {
+            // fall through to a date-only value, which is midnight
+        }
+        try {
+            LocalDate.parse(value);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.etl.sql.SQLBuilder;
+import com.xiaodi.taxi.query.models.Approximation;
+import com.xiaodi.taxi.query.models.GroupDimension;
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Estimates the aggregates of a query from trips_sample, the stratified sample of trips written by the ETL with
+ * {@code --sample} (see {@link SQLBuilder#createSampleTable(double, long)}).
+ * <p>
+ * Every stratum (taxi type × pickup month) is a simple random sample of {@code n} of its {@code N} trips, so the
+ * per-stratum sums of a query's matching rows are scaled by {@code N / n} and added up. Their variance is that of
+ * the stratified estimator of a domain total, {@code Σ N²(1 − n/N) s² / n} with {@code s²} the sample variance of
+ * the value within the stratum, zero for rows outside the query; margins are the half widths of the 95% normal
+ * interval. MIN and MAX are those of the sampled rows and carry no bound.
+ * <p>
+ * A query runs on a tier of the sample: tier {@code k} reads the rows whose bucket is below
+ * {@code k * stratum_rate * SAMPLE_BUCKETS}, itself a stratified sample of a {@code k}-th of the size, so coarse
+ * estimates cost a fraction of the scan.
+ */
+final class SampledAggregation {
+    static final double CONFIDENCE = 0.95;
+    static final double Z = 1.959964;
+    /**
+     * Tiers tried in turn, each ten times the rows of the previous one.
+     */
+    static final double[] TIERS = {0.01, 0.1, 1.0};
+
+    private final Connection connection;
+    private final PreparedStatementPool statements;
+    private Boolean available;
+
+    /**
+     * Constructor
+     * @param connection connection to the trips database.
+     * @param statements pool the prepared sample queries are kept in.
+     */
+    SampledAggregation(Connection connection, PreparedStatementPool statements) {
+        this.connection = connection;
+        this.statements = statements;
+    }
+
+    /**
+     * Estimates of one tier.
+     * @param sampleFraction share of the trips of the strata the query touched that were read.
+     * @param relativeError largest relative margin of all rows, infinite without rows.
+     */
+    record Estimate(List<TripAggregationResult> rows, double sampleFraction, double relativeError) {
+    }
+
+    /**
+     * @return whether trips_sample exists.
+     */
+    boolean available() throws SQLException {
+        if (available == null) {
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM duckdb_tables() WHERE table_name = '" +
+                         SQLBuilder.SAMPLE_TABLE + "'")) {
+                available = rs.next() && rs.getLong(1) > 0;
+            }
+        }
+        return available;
+    }
+
+    /**
+     * @return whether {@code p} can be estimated; queries returning several grouping sets or grouping by borough or
+     * zone name, whose groups merge several location IDs, are answered exactly.
+     */
+    static boolean supports(@NotNull TripQueryParams p) {
+        return p.groupings().size() == 1 && !TripAggregatorService.groupsByZoneName(p);
+    }
+
+    /**
+     * Runs {@code p} on one tier of the sample.
+     * @param tier share of trips_sample to read, in (0, 1].
+     */
+    @NotNull Estimate estimate(@NotNull TripQueryParams p, double tier) throws SQLException {
+        String shape = "sample|" + PreparedStatementPool.key(QueryShape.of(p, false), SQLBuilder.SAMPLE_TABLE) +
+                "|" + p.groupingKey() + "|" + p.locationSetKey();
+        try {
+            PreparedStatement stmt = statements.get(shape, () -> buildQuery(p));
+            stmt.setDouble(1, tier * SQLBuilder.SAMPLE_BUCKETS);
+            TripAggregatorService.bindParameters(stmt, p, 2);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return mapEstimates(rs, p);
+            }
+        } catch (SQLException e) {
+            statements.evict(shape);
+            throw e;
+        }
+    }
+
+    /**
+     * One row per stratum and group, with the sample size of the stratum at the bound tier next to the stratum
+     * size. The window count runs before the query's filters, so it counts every sampled row of the stratum.
+     */
+    static @NotNull String buildQuery(@NotNull TripQueryParams p) {
+        List<GroupDimension> dimensions = groupDimensions(p);
+        StringBuilder q = new StringBuilder("SELECT taxi_type, stratum_month, stratum_rows, stratum_sample_rows");
+        StringBuilder groupBy = new StringBuilder(" GROUP BY taxi_type, stratum_month, stratum_rows, stratum_sample_rows");
+        for (GroupDimension d : dimensions) {
+            String expression = TripAggregatorService.dimensionExpression(d, "pickup_datetime");
+            q.append(", ").append(expression);
+            if (!expression.equals(TripAggregatorService.dimensionAlias(d))) {
+                q.append(" AS ").append(TripAggregatorService.dimensionAlias(d));
+            }
+            groupBy.append(", ").append(expression);
+        }
+        q.append(", COUNT(*) AS trip_count, MIN(fare_amount) AS min_fare, MAX(fare_amount) AS max_fare, ")
+                .append("SUM(fare_amount) AS total_fare, SUM(fare_amount * fare_amount) AS total_fare_squares, ")
+                .append("SUM(tolls_amount) AS total_toll_fare, SUM(tolls_amount * tolls_amount) AS total_toll_fare_squares")
+                .append(" FROM (SELECT *, COUNT(*) OVER (PARTITION BY taxi_type, stratum_month) AS stratum_sample_rows FROM ")
+                .append(SQLBuilder.SAMPLE_TABLE).append(" WHERE sample_bucket < stratum_rate * ?)");
+        var filters = TripAggregatorService.getFilters(p, "pickup_datetime");
+        if (!filters.isEmpty()) {
+            q.append(" WHERE ").append(String.join(" AND ", filters));
+        }
+        return q.append(groupBy).toString();
+    }
+
+    /**
+     * @return the grouping dimensions of {@code p} besides taxi type, which every row is grouped by anyway.
+     */
+    private static @NotNull List<GroupDimension> groupDimensions(@NotNull TripQueryParams p) {
+        return p.dimensions().stream().filter(d -> d != GroupDimension.TAXI_TYPE).toList();
+    }
+
+    static @NotNull Estimate mapEstimates(@NotNull ResultSet rs, @NotNull TripQueryParams p) throws SQLException {
+        List<GroupDimension> dimensions = p.dimensions();
+        Map<List<Object>, Domain> domains = new LinkedHashMap<>();
+        Map<List<Object>, long[]> strata = new HashMap<>();
+        while (rs.next()) {
+            long stratumRows = rs.getLong("stratum_rows");
+            long sampleRows = rs.getLong("stratum_sample_rows");
+            strata.putIfAbsent(Arrays.asList(rs.getObject("taxi_type"), rs.getObject("stratum_month")),
+                    new long[]{stratumRows, sampleRows});
+
+            List<Object> key = new ArrayList<>(dimensions.size());
+            for (GroupDimension d : dimensions) {
+                key.add(rs.getObject(TripAggregatorService.dimensionAlias(d)));
+            }
+            Domain domain = domains.computeIfAbsent(key, k -> new Domain());
+            long count = rs.getLong("trip_count");
+            domain.tripCount.add(stratumRows, sampleRows, count, count);
+            domain.totalFare.add(stratumRows, sampleRows, rs.getDouble("total_fare"), rs.getDouble("total_fare_squares"));
+            domain.totalTollFare.add(stratumRows, sampleRows, rs.getDouble("total_toll_fare"),
+                    rs.getDouble("total_toll_fare_squares"));
+            double min = rs.getDouble("min_fare");
+            if (!rs.wasNull()) {
+                domain.minFare = Math.min(domain.minFare, min);
+                domain.maxFare = Math.max(domain.maxFare, rs.getDouble("max_fare"));
+            }
+        }
+
+        long read = 0;
+        long total = 0;
+        for (long[] stratum : strata.values()) {
+            total += stratum[0];
+            read += stratum[1];
+        }
+        double fraction = total == 0 ? 0 : (double) read / total;
+        List<TripAggregationResult> rows = new ArrayList<>(domains.size());
+        double relativeError = domains.isEmpty() ? Double.POSITIVE_INFINITY : 0;
+        for (Map.Entry<List<Object>, Domain> entry : domains.entrySet()) {
+            TripAggregationResult row = entry.getValue().toResult(p, dimensions, entry.getKey(), fraction);
+            rows.add(row);
+            relativeError = Math.max(relativeError, row.approximation().relativeError(row));
+        }
+        return new Estimate(rows, fraction, relativeError);
+    }
+
+    /**
+     * Estimates of one group of the result.
+     */
+    private static final class Domain {
+        final StratifiedSum tripCount = new StratifiedSum();
+        final StratifiedSum totalFare = new StratifiedSum();
+        final StratifiedSum totalTollFare = new StratifiedSum();
+        double minFare = Double.POSITIVE_INFINITY;
+        double maxFare = Double.NEGATIVE_INFINITY;
+
+        @NotNull TripAggregationResult toResult(@NotNull TripQueryParams p, @NotNull List<GroupDimension> dimensions,
+                                                @NotNull List<Object> key, double fraction) {
+            String taxiType = TripAggregatorService.taxiTypeLabel(p);
+            String vendor = TripAggregatorService.vendorLabel(p);
+            String payment = "all";
+            Map<String, String> groups = new LinkedHashMap<>();
+            for (int i = 0; i < dimensions.size(); i++) {
+                Object value = key.get(i);
+                String text = value == null ? null : value.toString();
+                groups.put(dimensions.get(i).key(), text);
+                switch (dimensions.get(i)) {
+                    case PAYMENT_TYPE -> payment = TripAggregatorService.paymentLabel(value);
+                    case VENDOR -> vendor = text == null ? "Null" : TripAggregatorService.VENDOR_MAP.getOrDefault(text, text);
+                    case TAXI_TYPE -> taxiType = text == null ? "Null" : text;
+                    default -> {
+                    }
+                }
+            }
+            boolean hasFare = minFare <= maxFare;
+            return new TripAggregationResult(taxiType, vendor, payment,
+                    hasFare ? minFare : 0.0,
+                    hasFare ? maxFare : 0.0,
+                    (int) Math.round(tripCount.total),
+                    totalTollFare.total,
+                    totalFare.total,
+                    groups,
+                    new Approximation(CONFIDENCE, fraction, tripCount.margin(), totalFare.margin(), totalTollFare.margin()));
+        }
+    }
+
+    /**
+     * Stratified estimate of the total of a value over a domain, and its variance.
+     */
+    static final class StratifiedSum {
+        double total;
+        double variance;
+
+        /**
+         * Adds the domain's rows of one stratum.
+         * @param stratumRows N, trips in the stratum.
+         * @param sampleRows n, sampled trips in the stratum.
+         * @param sum sum of the value over the sampled domain rows.
+         * @param squares sum of its squares.
+         */
+        void add(long stratumRows, long sampleRows, double sum, double squares) {
+            if (sampleRows == 0) {
+                return;
+            }
+            double n = sampleRows;
+            double weight = stratumRows / n;
+            total += weight * sum;
+            if (sampleRows >= stratumRows) {
+                // the whole stratum was read, nothing to estimate
+                return;
+            }
+            if (sampleRows < 2) {
+                variance = Double.POSITIVE_INFINITY;
+                return;
+            }
+            double s2 = Math.max(0, (squares - sum * sum / n) / (n - 1));
+            variance += (double) stratumRows * stratumRows * (1 - n / stratumRows) * s2 / n;
+        }
+
+        double margin() {
+            return Z * Math.sqrt(variance);
+        }
+    }
+}
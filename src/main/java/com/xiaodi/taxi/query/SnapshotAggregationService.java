@@ -0,0 +1,137 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.etl.DbSnapshots;
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Answers queries on the current snapshot of the database (see {@link DbSnapshots}) for long-running processes such
+ * as {@link TripAggregatorRepl}. Before every query the snapshot pointer is read again; once the ETL published a new
+ * snapshot, a read-only connection is opened on it and the previous one closed, so the query after an ETL run sees
+ * its data without restarting the process. Queries are serialized, so a snapshot is never closed under a running one.
+ */
+public final class SnapshotAggregationService implements AggregationService, AutoCloseable {
+    /**
+     * Creates the service answering queries on a newly opened snapshot.
+     */
+    @FunctionalInterface
+    public interface Opener {
+        @NotNull AggregationService open(@NotNull Connection conn) throws SQLException, IOException;
+    }
+
+    /**
+     * Opens a connection on a snapshot, read-only by default.
+     */
+    @FunctionalInterface
+    public interface Connector {
+        @NotNull Connection connect(@NotNull Path snapshot) throws SQLException;
+    }
+
+    private final Path dbFile;
+    private final Opener opener;
+    private final Connector connector;
+    private Path snapshot;
+    private Connection connection;
+    private AggregationService service;
+
+    /**
+     * Constructor
+     * @param dbFile the database path whose current snapshot is queried.
+     * @param opener creates the service of each snapshot.
+     */
+    public SnapshotAggregationService(Path dbFile, Opener opener) {
+        this(dbFile, opener, DbSnapshots::openReadOnly);
+    }
+
+    /**
+     * Constructor
+     * @param dbFile the database path whose current snapshot is queried.
+     * @param opener creates the service of each snapshot.
+     * @param connector opens the connection on a snapshot.
+     */
+    public SnapshotAggregationService(Path dbFile, Opener opener, Connector connector) {
+        this.dbFile = dbFile;
+        this.opener = opener;
+        this.connector = connector;
+    }
+
+    /**
+     * @return the service of the current snapshot, switching to a newly published snapshot first.
+     */
+    public synchronized @NotNull AggregationService current() throws SQLException {
+        Path latest;
+        try {
+            latest = DbSnapshots.current(dbFile);
+        } catch (IOException e) {
+            throw new SQLException("Unable to read the current snapshot of " + dbFile, e);
+        }
+        if (!latest.equals(snapshot)) {
+            Connection conn = connector.connect(latest);
+            AggregationService opened;
+            try {
+                opened = opener.open(conn);
+            } catch (SQLException | IOException | RuntimeException e) {
+                conn.close();
+                throw e instanceof SQLException s ? s : new SQLException("Unable to open snapshot " + latest, e);
+            }
+            closeCurrent();
+            snapshot = latest;
+            connection = conn;
+            service = opened;
+        }
+        return service;
+    }
+
+    /**
+     * @return the snapshot queries currently run on, null before the first query.
+     */
+    public synchronized Path snapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public synchronized List<TripAggregationResult> aggregate(TripQueryParams params) throws SQLException {
+        return current().aggregate(params);
+    }
+
+    @Override
+    public synchronized long aggregate(TripQueryParams params, ResultSink sink) throws SQLException, IOException {
+        return current().aggregate(params, sink);
+    }
+
+    @Override
+    public synchronized List<List<TripAggregationResult>> aggregateBatch(List<TripQueryParams> batch) throws SQLException {
+        return current().aggregateBatch(batch);
+    }
+
+    @Override
+    public synchronized void close() throws SQLException {
+        closeCurrent();
+        snapshot = null;
+    }
+
+    private void closeCurrent() throws SQLException {
+        try {
+            if (service instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("Unable to close the service of snapshot " + snapshot, e);
+        } finally {
+            service = null;
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        }
+    }
+}
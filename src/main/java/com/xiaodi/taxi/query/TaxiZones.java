@@ -0,0 +1,179 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.etl.sql.SQLBuilder;
+import com.xiaodi.taxi.query.models.GroupDimension;
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * The TLC taxi zones, in arrays indexed by location ID. There are only about 265 zones, so borough and zone names are
+ * resolved to location IDs before a query runs, and grouped location IDs are mapped back to names after it, without
+ * joining trips to the lookup.
+ * <p>
+ * The ETL loads the lookup into taxi_zones when {@code taxi_zone_lookup.csv} is next to the parquet files.
+ */
+public final class TaxiZones {
+    public static final String CSV_FILE = SQLBuilder.ZONES_CSV;
+    public static final TaxiZones EMPTY = new TaxiZones(List.of());
+
+    /**
+     * One row of the lookup.
+     */
+    public record Zone(int locationId, String borough, String zone) {
+    }
+
+    private final String[] boroughs;
+    private final String[] zones;
+    private final int size;
+
+    /**
+     * Constructor
+     * @param zones rows of the lookup; location IDs must not be negative.
+     */
+    public TaxiZones(@NotNull List<Zone> zones) {
+        int max = -1;
+        for (Zone zone : zones) {
+            if (zone.locationId() < 0) {
+                throw new IllegalArgumentException("Negative location ID: " + zone);
+            }
+            max = Math.max(max, zone.locationId());
+        }
+        this.boroughs = new String[max + 1];
+        this.zones = new String[max + 1];
+        for (Zone zone : zones) {
+            this.boroughs[zone.locationId()] = zone.borough();
+            this.zones[zone.locationId()] = zone.zone();
+        }
+        this.size = zones.size();
+    }
+
+    /**
+     * @return the zones of the taxi_zones table of the database, or {@link #EMPTY} when it has none.
+     */
+    public static @NotNull TaxiZones load(@NotNull Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery(SQLBuilder.tableExists(SQLBuilder.ZONES_TABLE))) {
+                if (!rs.next() || rs.getLong(1) == 0) {
+                    return EMPTY;
+                }
+            }
+            return read(stmt, SQLBuilder.selectZones());
+        }
+    }
+
+    /**
+     * @param csv the TLC taxi zone lookup CSV.
+     * @return its zones, read through {@code conn} without storing them.
+     */
+    public static @NotNull TaxiZones read(@NotNull Connection conn, @NotNull Path csv) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            return read(stmt, SQLBuilder.readZonesCsv(csv.toString()));
+        }
+    }
+
+    private static TaxiZones read(Statement stmt, String sql) throws SQLException {
+        List<Zone> zones = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                int id = rs.getInt("location_id");
+                if (!rs.wasNull()) {
+                    zones.add(new Zone(id, rs.getString("borough"), rs.getString("zone")));
+                }
+            }
+        }
+        return new TaxiZones(zones);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the borough of a location, null when the location is not in the lookup.
+     */
+    public @Nullable String borough(int locationId) {
+        return locationId >= 0 && locationId < boroughs.length ? boroughs[locationId] : null;
+    }
+
+    /**
+     * @return the zone name of a location, null when the location is not in the lookup.
+     */
+    public @Nullable String zone(int locationId) {
+        return locationId >= 0 && locationId < zones.length ? zones[locationId] : null;
+    }
+
+    /**
+     * @param d a dimension with {@link GroupDimension#isZoneName()}.
+     * @param locationId grouped location ID, null for SQL NULL.
+     * @return the borough or zone name of the location, null when it is NULL or not in the lookup.
+     */
+    @Nullable String name(@NotNull GroupDimension d, @Nullable Object locationId) {
+        if (!(locationId instanceof Number id)) {
+            return null;
+        }
+        return switch (d) {
+            case PU_BOROUGH, DO_BOROUGH -> borough(id.intValue());
+            case PU_ZONE, DO_ZONE -> zone(id.intValue());
+            default -> throw new IllegalArgumentException(d + " is not a taxi zone name");
+        };
+    }
+
+    /**
+     * Resolves a borough and zone filter to the location IDs matching both. Names are compared ignoring case.
+     * @param borough borough name, or {@code *} for any.
+     * @param zone zone name, or {@code *} for any.
+     * @return the matching location IDs in ascending order; empty when both are {@code *}.
+     * @throws IllegalArgumentException when no zone matches.
+     */
+    public @NotNull List<Integer> locationIds(@NotNull String borough, @NotNull String zone) {
+        boolean anyBorough = TripQueryParams.EMPTY_VALUE.equals(borough);
+        boolean anyZone = TripQueryParams.EMPTY_VALUE.equals(zone);
+        if (anyBorough && anyZone) {
+            return List.of();
+        }
+        if (isEmpty()) {
+            throw new IllegalArgumentException("No taxi zones loaded: put " + CSV_FILE + " next to the parquet " +
+                    "files and run the ETL again, or pass --zones=FILE");
+        }
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 0; id < boroughs.length; id++) {
+            if ((anyBorough || borough.strip().equalsIgnoreCase(boroughs[id])) &&
+                    (anyZone || zone.strip().equalsIgnoreCase(zones[id]))) {
+                ids.add(id);
+            }
+        }
+        if (ids.isEmpty()) {
+            throw new IllegalArgumentException("No taxi zone matches " +
+                    (anyBorough ? "" : "borough '" + borough + "' (known: " + boroughs() + ")") +
+                    (anyBorough || anyZone ? "" : " and ") + (anyZone ? "" : "zone '" + zone + "'"));
+        }
+        return ids;
+    }
+
+    /**
+     * @return the distinct borough names, sorted and comma separated.
+     */
+    private @NotNull String boroughs() {
+        TreeSet<String> names = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (String name : boroughs) {
+            if (name != null) {
+                names.add(name);
+            }
+        }
+        return String.join(", ", names);
+    }
+}
@@ -0,0 +1,116 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.etl.sql.SQLBuilder;
+import com.xiaodi.taxi.query.models.TimeBucket;
+import com.xiaodi.taxi.query.models.TimeSeriesPoint;
+import com.xiaodi.taxi.query.models.TimeSeriesQuery;
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Answers time series queries, one row per bucket, by merging partial aggregates instead of scanning trips:
+ * hourly series from trips_rollup, daily and weekly series from trips_daily. MIN/MAX/COUNT/SUM partials merge
+ * into any coarser bucket, so a year of daily buckets reads a few thousand rows.
+ */
+public class TimeSeriesService {
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Connection connection;
+
+    /**
+     * Constructor
+     * @param connection connection to the trips database.
+     */
+    public TimeSeriesService(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * @param query series parameters.
+     * @return one point per bucket in order, including empty buckets between the bounds (or between the first and
+     * last non-empty bucket when the query is unbounded).
+     */
+    public List<TimeSeriesPoint> series(@NotNull TimeSeriesQuery query) throws SQLException {
+        List<TimeSeriesPoint> points = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(buildQuery(query))) {
+            bindParameters(stmt, query);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    points.add(new TimeSeriesPoint(
+                            rs.getTimestamp("bucket").toLocalDateTime(),
+                            rs.getDouble("min_fare"),
+                            rs.getDouble("max_fare"),
+                            rs.getLong("trip_count"),
+                            rs.getDouble("total_toll_fare"),
+                            rs.getDouble("total_fare")));
+                }
+            }
+        }
+        return fillGaps(points, query);
+    }
+
+    String buildQuery(@NotNull TimeSeriesQuery q) {
+        boolean hourly = q.getBucket() == TimeBucket.HOUR;
+        String column = hourly ? "hour_bucket" : "day";
+        String bucket = hourly ? "hour_bucket" : "CAST(date_trunc('" + q.getBucket().key() + "', day) AS TIMESTAMP)";
+        List<String> filters = new ArrayList<>();
+        filters.add(column + " IS NOT NULL");
+        if (q.getFrom() != null) filters.add(column + " >= ?");
+        if (q.getTo() != null) filters.add(column + " < ?");
+        if (!TripQueryParams.EMPTY_VALUE.equals(q.getVendorID())) filters.add("vendor_id = ?");
+        if (hasTaxiTypeFilter(q)) filters.add("taxi_type = ?");
+        return "SELECT " + bucket + " AS bucket, MIN(min_fare) AS min_fare, MAX(max_fare) AS max_fare, " +
+                "CAST(SUM(trip_count) AS BIGINT) AS trip_count, SUM(sum_fare) AS total_fare, " +
+                "SUM(sum_tolls) AS total_toll_fare FROM " + (hourly ? RollupRouter.ROLLUP_TABLE : SQLBuilder.DAILY_TABLE) +
+                " WHERE " + String.join(" AND ", filters) + " GROUP BY bucket ORDER BY bucket";
+    }
+
+    void bindParameters(@NotNull PreparedStatement stmt, @NotNull TimeSeriesQuery q) throws SQLException {
+        int idx = 1;
+        if (q.getFrom() != null) stmt.setString(idx++, bound(q, q.getFrom()));
+        if (q.getTo() != null) stmt.setString(idx++, bound(q, q.getTo()));
+        if (!TripQueryParams.EMPTY_VALUE.equals(q.getVendorID())) stmt.setInt(idx++, Integer.parseInt(q.getVendorID()));
+        if (hasTaxiTypeFilter(q)) stmt.setString(idx, q.getTaxiType().toLowerCase());
+    }
+
+    /**
+     * @return a bound as compared with hour_bucket, or with the DATE column of trips_daily.
+     */
+    private static String bound(@NotNull TimeSeriesQuery q, @NotNull LocalDateTime t) {
+        return q.getBucket() == TimeBucket.HOUR ? DATE_TIME.format(t) : t.toLocalDate().toString();
+    }
+
+    private static boolean hasTaxiTypeFilter(@NotNull TimeSeriesQuery q) {
+        return "yellow".equalsIgnoreCase(q.getTaxiType()) || "green".equalsIgnoreCase(q.getTaxiType());
+    }
+
+    /**
+     * Adds an empty point for every bucket without trips.
+     * @param points non-empty buckets in order.
+     */
+    static @NotNull List<TimeSeriesPoint> fillGaps(@NotNull List<TimeSeriesPoint> points, @NotNull TimeSeriesQuery q) {
+        TimeBucket bucket = q.getBucket();
+        LocalDateTime from = q.getFrom() != null ? q.getFrom() : points.isEmpty() ? null : points.get(0).bucket();
+        LocalDateTime to = q.getTo() != null ? q.getTo()
+                : points.isEmpty() ? null : bucket.next(points.get(points.size() - 1).bucket());
+        if (from == null || to == null) {
+            return points;
+        }
+        List<TimeSeriesPoint> series = new ArrayList<>();
+        int i = 0;
+        for (LocalDateTime t = from; t.isBefore(to); t = bucket.next(t)) {
+            if (i < points.size() && points.get(i).bucket().equals(t)) {
+                series.add(points.get(i++));
+            } else {
+                series.add(TimeSeriesPoint.empty(t));
+            }
+        }
+        return series;
+    }
+}
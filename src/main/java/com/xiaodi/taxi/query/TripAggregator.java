@@ -1,49 +1,436 @@
 package com.xiaodi.taxi.query;
 
+import com.xiaodi.taxi.etl.DbSnapshots;
+import com.xiaodi.taxi.etl.DbVersionStamp;
+import com.xiaodi.taxi.etl.PartitionedDatasetWriter;
+import com.xiaodi.taxi.metrics.MetricsRegistry;
+import com.xiaodi.taxi.query.cache.CachedAggregationService;
+import com.xiaodi.taxi.query.cache.DiskResultCache;
+import com.xiaodi.taxi.query.cache.MemoryResultCache;
+import com.xiaodi.taxi.query.columnar.ColumnarAggregationService;
+import com.xiaodi.taxi.query.columnar.ColumnarExporter;
+import com.xiaodi.taxi.query.models.ApproximationTarget;
+import com.xiaodi.taxi.query.models.GroupDimension;
+import com.xiaodi.taxi.query.models.TimeBucket;
+import com.xiaodi.taxi.query.models.TimeSeriesPoint;
+import com.xiaodi.taxi.query.models.TimeSeriesQuery;
 import com.xiaodi.taxi.query.models.TripAggregationResult;
+import com.xiaodi.taxi.query.output.ResultFormat;
+import com.xiaodi.taxi.query.output.ResultWriter;
 import com.xiaodi.taxi.query.models.TripQueryParams;
+import com.xiaodi.taxi.query.slowlog.SlowQueryLog;
+import com.xiaodi.taxi.query.slowlog.SlowQueryReport;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * This class is entry point to execute a query for trip aggregates using the main method.
+ * <p>
+ * Queries open a read-only connection on the current snapshot of the database (see {@link DbSnapshots}), so they keep
+ * running while the ETL builds the next one.
+ * <p>
+ * Results are cached on disk under {@code duck-db/query-cache} until the next ETL run; pass {@code --no-cache}
+ * to bypass the cache or {@code --cache-dir=DIR} to move it.
+ * <p>
+ * With {@code --batch=FILE} the queries listed in FILE (see {@link BatchQueryFile}) are answered in one shared scan.
+ * <p>
+ * With {@code --storage=parquet} trips are read from the partitioned dataset written by the ETL with the same flag
+ * (see {@link PartitionedParquetSource}); {@code --dataset-dir=DIR} moves it from {@code duck-db/trips-dataset}.
+ * Queries then follow the snapshots of the dataset's manifest instead of the trips database, see
+ * {@link PartitionedDatasetWriter}.
+ * <p>
+ * With {@code --engine=columnar} queries are answered in the JVM from a columnar copy of trips (see
+ * {@link ColumnarAggregationService}), exported to {@code duck-db/trips.columnar} whenever the database changed;
+ * {@code --columnar-file=FILE} moves it.
+ * <p>
+ * Rows are streamed to stdout as they are read, or replayed from the cache on a hit; {@code --format=csv|jsonl|arrow}
+ * selects a machine readable format instead of the labelled text (see {@link ResultFormat}).
+ * <p>
+ * {@code --group-by=vendor,pu_location} groups by any {@link GroupDimension}s besides payment type.
+ * {@code --grouping-sets=vendor;pu_location,pickup_hour;} returns several breakdowns from one scan, an empty set
+ * being the grand total, and {@code --rollup} returns the group-by dimensions with all their subtotals.
+ * <p>
+ * {@code --pu-borough=NAME}, {@code --pu-zone=NAME}, {@code --do-borough=NAME} and {@code --do-zone=NAME} filter by
+ * taxi zone, and {@code pu_borough}, {@code pu_zone}, {@code do_borough} and {@code do_zone} group by it. Names are
+ * resolved to location IDs with the taxi_zones table loaded by the ETL, or with the lookup CSV of
+ * {@code --zones=FILE} (see {@link TaxiZones}).
+ * <p>
+ * {@code --approximate[=ERROR]} estimates the result from the sample built by the ETL with {@code --sample}, to a
+ * relative error of ERROR (default 0.01) at 95% confidence, and {@code --time-budget=MS} bounds how long it may try
+ * (see {@link TripAggregatorService#aggregateApproximate}). Estimates are never cached.
+ * <p>
+ * {@code --series=hour|day|week} prints a time series instead, one row per bucket of the trips picked up in
+ * {@code [--from, --to)}, optionally filtered by {@code --vendor} and {@code --taxi-type} (see
+ * {@link TimeSeriesService}); {@code --format=csv} prints it as CSV.
+ * <p>
+ * {@code --profile} prints the prepare/execute/map timings of the run to stderr (see {@link TripAggregatorService}),
+ * and {@code --metrics=FILE} writes them as JSON ({@code .json}) or in the Prometheus text format.
+ * <p>
+ * {@code --slow-query-ms=N} profiles every query taking N ms or more and logs it to {@code duck-db/slow-queries}
+ * (see {@link SlowQueryLog}), {@code --slow-query-log=DIR} moves the log; {@link SlowQueryReport} summarizes it.
  */
 public class TripAggregator {
     public static final String ANSI_BOLD  = "\u001B[1m";
     public static final String ANSI_RESET = "\u001B[0m";
 
+    public static final String DB_PATH = "duck-db/nyc_taxi_combined.duckdb";
+    public static final String DEFAULT_CACHE_DIR = "duck-db/query-cache";
+    public static final String DEFAULT_DATASET_DIR = "duck-db/trips-dataset";
+    public static final String DEFAULT_COLUMNAR_FILE = "duck-db/trips.columnar";
+    static final int MEMORY_CACHE_ENTRIES = 1024;
+    static final long DISK_CACHE_BYTES = 64L * 1024 * 1024;
+    static final long CACHE_TTL_MILLIS = Duration.ofDays(7).toMillis();
+    private static final DateTimeFormatter SERIES_BUCKET = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
     public static void main(String @NotNull [] args) throws Exception {
-        if (args.length != 7) {
-            System.err.println("Usage: startTime dropoffDatetime puLocationID doLocationID groupByPayment vendorID taxiType");
+        CliArgs cli = CliArgs.parse(args);
+        long start = System.nanoTime();
+        try {
+            run(cli);
+        } finally {
+            MetricsRegistry.global().timer("query_run_seconds").recordSince(start);
+            reportMetrics(cli);
+        }
+    }
+
+    private static void run(CliArgs cli) throws Exception {
+        if (cli.has("batch")) {
+            runBatch(cli, Paths.get(cli.get("batch", "")));
             return;
         }
-        TripQueryParams params = TripQueryParams.builder()
-                .pickupDatetime(args[0])
-                .dropoffDatetime(args[1])
-                .puLocationID(args[2])
-                .doLocationID(args[3])
-                .groupByPayment(Boolean.parseBoolean(args[4]))
-                .vendorID(args[5])
-                .taxiType(args[6])
+        if (cli.has("series")) {
+            runSeries(cli);
+            return;
+        }
+        List<String> positional = cli.positional();
+        if (positional.size() != 7) {
+            System.err.println("Usage: [--no-cache] [--cache-dir=DIR] [--storage=duckdb|parquet] [--dataset-dir=DIR] [--engine=duckdb|columnar] [--format=text|csv|jsonl|arrow] [--group-by=DIMS] [--grouping-sets=DIMS;DIMS;...] [--rollup] [--pu-borough=NAME] [--pu-zone=NAME] [--do-borough=NAME] [--do-zone=NAME] [--zones=FILE] [--approximate[=ERROR]] [--time-budget=MS] [--profile] [--metrics=FILE] [--slow-query-ms=N] [--slow-query-log=DIR] startTime dropoffDatetime puLocationID doLocationID groupByPayment vendorID taxiType");
+            System.err.println("       --batch=FILE");
+            System.err.println("       --series=hour|day|week [--from=DATETIME] [--to=DATETIME] [--vendor=ID] [--taxi-type=TYPE] [--format=text|csv]");
+            return;
+        }
+        TripQueryParams.Builder builder = TripQueryParams.builder()
+                .pickupDatetime(positional.get(0))
+                .dropoffDatetime(positional.get(1))
+                .puLocationID(positional.get(2))
+                .doLocationID(positional.get(3))
+                .groupByPayment(Boolean.parseBoolean(positional.get(4)))
+                .vendorID(positional.get(5))
+                .taxiType(positional.get(6))
+                .groupBy(dimensions(cli.get("group-by", "")))
+                .groupingSets(groupingSets(cli.get("grouping-sets", "")))
+                .rollup(cli.has("rollup"));
+
+        ApproximationTarget target = approximationTarget(cli);
+        try (Connection conn = connect(cli);
+             TripAggregatorService aggregator = aggregator(cli, conn)) {
+            TripQueryParams params = zoneFilters(cli, builder, aggregator).build();
+            if (target != null) {
+                if (!"duckdb".equals(cli.get("engine", "duckdb"))) {
+                    throw new IllegalArgumentException("--approximate needs --engine=duckdb");
+                }
+                try (ResultWriter writer = ResultFormat.parse(cli.get("format", "text"))
+                        .open(Channels.newChannel(System.out))) {
+                    for (TripAggregationResult row : aggregator.aggregateApproximate(params, target)) {
+                        writer.accept(row);
+                    }
+                }
+                System.out.flush();
+                return;
+            }
+            AggregationService service = engine(cli, conn, aggregator);
+            if (!cli.has("no-cache")) {
+                service = cached(service, dbFile(cli), Paths.get(cli.get("cache-dir", DEFAULT_CACHE_DIR)));
+            }
+            ResultFormat format = ResultFormat.parse(cli.get("format", "text"));
+            try (ResultWriter writer = format.open(Channels.newChannel(System.out))) {
+                service.aggregate(params, writer);
+            }
+            System.out.flush();
+        }
+    }
+
+    private static void runBatch(CliArgs cli, Path file) throws IOException, SQLException {
+        if (cli.has("format") && !"text".equals(cli.get("format", "text"))) {
+            throw new IllegalArgumentException("--batch only prints text results");
+        }
+        if (cli.has("approximate")) {
+            throw new IllegalArgumentException("--batch answers exactly, --approximate is not supported");
+        }
+        List<TripQueryParams> batch = BatchQueryFile.read(file);
+        try (Connection conn = connect(cli);
+             TripAggregatorService service = aggregator(cli, conn)) {
+            AggregationService engine = engine(cli, conn, service);
+            long start = System.nanoTime();
+            List<List<TripAggregationResult>> results;
+            if (engine == service) {
+                results = service.aggregateBatch(batch);
+            } else {
+                // the columnar scan is cheap enough to run once per query
+                results = new ArrayList<>();
+                for (TripQueryParams params : batch) {
+                    results.add(engine.aggregate(params));
+                }
+            }
+            double millis = (System.nanoTime() - start) / 1_000_000.0;
+            for (int i = 0; i < results.size(); i++) {
+                System.out.println(ANSI_BOLD + "=== Query " + (i + 1) + " ===" + ANSI_RESET);
+                print(results.get(i), System.out);
+            }
+            System.out.printf("⏱ %d queries in %.1f ms%n", batch.size(), millis);
+        }
+    }
+
+    private static void runSeries(CliArgs cli) throws IOException, SQLException {
+        if (isParquet(cli)) {
+            throw new IllegalArgumentException("--series reads the partial aggregates of the database, not --storage=parquet");
+        }
+        String format = cli.get("format", "text");
+        if (!"text".equals(format) && !"csv".equals(format)) {
+            throw new IllegalArgumentException("--series only prints text or csv");
+        }
+        TimeSeriesQuery query = TimeSeriesQuery.builder()
+                .bucket(TimeBucket.parse(cli.get("series", "day")))
+                .from(cli.has("from") ? dateTime(cli.get("from", "")) : null)
+                .to(cli.has("to") ? dateTime(cli.get("to", "")) : null)
+                .vendorID(cli.get("vendor", TripQueryParams.EMPTY_VALUE))
+                .taxiType(cli.get("taxi-type", TripQueryParams.EMPTY_VALUE))
+                .build();
+        try (Connection conn = connect(cli)) {
+            long start = System.nanoTime();
+            List<TimeSeriesPoint> points = new TimeSeriesService(conn).series(query);
+            double millis = (System.nanoTime() - start) / 1_000_000.0;
+            if ("csv".equals(format)) {
+                System.out.println("bucket,trip_count,min_fare,max_fare,total_fare,total_toll_fare");
+                for (TimeSeriesPoint p : points) {
+                    System.out.println(SERIES_BUCKET.format(p.bucket()) + "," + p.tripCount() + "," + p.minFare() + "," +
+                            p.maxFare() + "," + p.totalFare() + "," + p.totalTollFare());
+                }
+                return;
+            }
+            System.out.printf(ANSI_BOLD + "%-19s %12s %10s %10s %16s %14s" + ANSI_RESET + "%n",
+                    "Bucket", "Trips", "Min Fare", "Max Fare", "Total Fare", "Total Tolls");
+            for (TimeSeriesPoint p : points) {
+                System.out.printf("%-19s %,12d %10.2f %10.2f %,16.2f %,14.2f%n", SERIES_BUCKET.format(p.bucket()),
+                        p.tripCount(), p.minFare(), p.maxFare(), p.totalFare(), p.totalTollFare());
+            }
+            System.out.printf("⏱ %d buckets in %.1f ms%n", points.size(), millis);
+        }
+    }
+
+    /**
+     * @param value {@code yyyy-MM-dd} or {@code yyyy-MM-dd HH:mm:ss}.
+     */
+    static @NotNull LocalDateTime dateTime(@NotNull String value) {
+        String v = value.trim();
+        return v.length() == 10 ? LocalDate.parse(v).atStartOfDay() : LocalDateTime.parse(v, SERIES_BUCKET);
+    }
+
+    /**
+     * Prints and exports the metrics of the run as asked by {@code --profile} and {@code --metrics}. The profile goes
+     * to stderr, so it does not mix with machine readable results on stdout.
+     */
+    private static void reportMetrics(@NotNull CliArgs cli) throws IOException {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        if (cli.has("profile")) {
+            System.err.print(metrics.profile());
+        }
+        if (cli.has("metrics")) {
+            metrics.write(Paths.get(cli.get("metrics", "")));
+        }
+    }
+
+    /**
+     * @return the service selected by {@code --engine}: {@code aggregator} itself, or the columnar engine over a
+     * columnar file exported from the database of {@code conn}.
+     */
+    static @NotNull AggregationService engine(@NotNull CliArgs cli, @NotNull Connection conn,
+                                              @NotNull TripAggregatorService aggregator) throws IOException, SQLException {
+        String engine = cli.get("engine", "duckdb");
+        if ("duckdb".equals(engine)) {
+            return aggregator;
+        }
+        if (!"columnar".equals(engine)) {
+            throw new IllegalArgumentException("Unknown engine: " + engine + " (expected duckdb or columnar)");
+        }
+        if (isParquet(cli)) {
+            throw new IllegalArgumentException("--engine=columnar reads the trips table, not --storage=parquet");
+        }
+        Path file = Paths.get(cli.get("columnar-file", DEFAULT_COLUMNAR_FILE));
+        return new ColumnarAggregationService(new ColumnarExporter(conn).openOrExport(Paths.get(DB_PATH), file));
+    }
+
+    /**
+     * @return the query service on {@code conn}, reading the source of {@code cli}, logging slow queries as asked by
+     * {@code --slow-query-ms} and naming taxi zones from {@code --zones}, or else from the taxi_zones table.
+     */
+    static @NotNull TripAggregatorService aggregator(@NotNull CliArgs cli, @NotNull Connection conn)
+            throws IOException, SQLException {
+        TaxiZones zones = cli.has("zones") ? TaxiZones.read(conn, Paths.get(cli.get("zones", ""))) : null;
+        return new TripAggregatorService(conn, source(cli), MetricsRegistry.global(), slowQueryLog(cli), zones);
+    }
+
+    /**
+     * Adds the location IDs of the {@code --pu-borough}, {@code --pu-zone}, {@code --do-borough} and {@code --do-zone}
+     * filters to {@code builder}; the zone lookup is only loaded when one of them is given.
+     */
+    static @NotNull TripQueryParams.Builder zoneFilters(@NotNull CliArgs cli, @NotNull TripQueryParams.Builder builder,
+                                                       @NotNull TripAggregatorService aggregator) throws SQLException {
+        String any = TripQueryParams.EMPTY_VALUE;
+        if (cli.has("pu-borough") || cli.has("pu-zone")) {
+            builder.puLocationIDs(aggregator.zones().locationIds(cli.get("pu-borough", any), cli.get("pu-zone", any)));
+        }
+        if (cli.has("do-borough") || cli.has("do-zone")) {
+            builder.doLocationIDs(aggregator.zones().locationIds(cli.get("do-borough", any), cli.get("do-zone", any)));
+        }
+        return builder;
+    }
+
+    /**
+     * @return the log of {@code --slow-query-ms} and {@code --slow-query-log}, null without {@code --slow-query-ms}.
+     */
+    static SlowQueryLog slowQueryLog(@NotNull CliArgs cli) {
+        if (!cli.has("slow-query-ms")) {
+            if (cli.has("slow-query-log")) {
+                throw new IllegalArgumentException("--slow-query-log needs --slow-query-ms");
+            }
+            return null;
+        }
+        return new SlowQueryLog(Paths.get(cli.get("slow-query-log", SlowQueryReport.DEFAULT_DIR)),
+                cli.getLong("slow-query-ms", 0));
+    }
+
+    /**
+     * @return the target of {@code --approximate} and {@code --time-budget}, null without {@code --approximate}.
+     */
+    static ApproximationTarget approximationTarget(@NotNull CliArgs cli) {
+        if (!cli.has("approximate")) {
+            if (cli.has("time-budget")) {
+                throw new IllegalArgumentException("--time-budget only applies to --approximate");
+            }
+            return null;
+        }
+        String error = cli.get("approximate", "true");
+        return ApproximationTarget.builder()
+                .relativeError("true".equals(error) ? ApproximationTarget.DEFAULT_RELATIVE_ERROR : Double.parseDouble(error))
+                .timeBudgetMillis(cli.getLong("time-budget", 0))
                 .build();
+    }
+
+    /**
+     * Opens the connection queries run on: a read-only connection on the current database snapshot, or an in-memory
+     * database reading the parquet dataset.
+     */
+    static Connection connect(@NotNull CliArgs cli) throws IOException, SQLException {
+        return connect(cli, DbSnapshots.current(dbFile(cli)));
+    }
+
+    static Connection connect(@NotNull CliArgs cli, @NotNull Path snapshot) throws SQLException {
+        return isParquet(cli) ? DriverManager.getConnection("jdbc:duckdb:") : DbSnapshots.openReadOnly(snapshot);
+    }
+
+    /**
+     * @return a service following the current database snapshot, opening each new one as {@link #connect} does.
+     */
+    static @NotNull SnapshotAggregationService snapshots(@NotNull CliArgs cli,
+                                                         @NotNull SnapshotAggregationService.Opener opener) {
+        return new SnapshotAggregationService(dbFile(cli), opener, snapshot -> connect(cli, snapshot));
+    }
+
+    /**
+     * @return the database whose snapshots queries follow: the trips database, or with {@code --storage=parquet} the
+     * ingestion manifest of the dataset, published together with each dataset version.
+     */
+    static @NotNull Path dbFile(@NotNull CliArgs cli) {
+        return isParquet(cli) ? PartitionedDatasetWriter.manifestFile(datasetDir(cli)) : Paths.get(DB_PATH);
+    }
+
+    /**
+     * @return the trips source selected by {@code --storage} and {@code --dataset-dir}, on the current dataset version.
+     */
+    static @NotNull TripsSource source(@NotNull CliArgs cli) throws IOException {
+        return isParquet(cli)
+                ? new PartitionedParquetSource(PartitionedDatasetWriter.current(datasetDir(cli)))
+                : TripsSource.table();
+    }
+
+    private static @NotNull Path datasetDir(@NotNull CliArgs cli) {
+        return Paths.get(cli.get("dataset-dir", DEFAULT_DATASET_DIR));
+    }
+
+    private static boolean isParquet(@NotNull CliArgs cli) {
+        String storage = cli.get("storage", "duckdb");
+        if (!"duckdb".equals(storage) && !"parquet".equals(storage)) {
+            throw new IllegalArgumentException("Unknown storage: " + storage + " (expected duckdb or parquet)");
+        }
+        return "parquet".equals(storage);
+    }
+
+    /**
+     * @param value comma separated dimension keys, e.g. {@code vendor,pickup_hour}.
+     */
+    static @NotNull List<GroupDimension> dimensions(@NotNull String value) {
+        List<GroupDimension> dimensions = new ArrayList<>();
+        for (String key : value.split(",")) {
+            if (!key.isBlank()) {
+                dimensions.add(GroupDimension.parse(key));
+            }
+        }
+        return dimensions;
+    }
+
+    /**
+     * @param value grouping sets separated by {@code ;}, each in the format of {@link #dimensions(String)}; an empty
+     *              set, e.g. the trailing one of {@code vendor;}, is the grand total.
+     */
+    static @NotNull List<List<GroupDimension>> groupingSets(@NotNull String value) {
+        List<List<GroupDimension>> sets = new ArrayList<>();
+        if (!value.isBlank()) {
+            for (String set : value.split(";", -1)) {
+                sets.add(dimensions(set));
+            }
+        }
+        return sets;
+    }
+
+    /**
+     * Wraps {@code service} with the memory and disk result caches, invalidated by the ETL version stamp.
+     */
+    static @NotNull CachedAggregationService cached(AggregationService service, Path dbFile, Path cacheDir) {
+        return new CachedAggregationService(
+                service,
+                new MemoryResultCache(MEMORY_CACHE_ENTRIES, CACHE_TTL_MILLIS),
+                new DiskResultCache(cacheDir, DISK_CACHE_BYTES, CACHE_TTL_MILLIS),
+                () -> {
+                    try {
+                        return DbVersionStamp.read(dbFile);
+                    } catch (IOException e) {
+                        throw new SQLException("Unable to read database version stamp", e);
+                    }
+                });
+    }
 
-        String dbPath = "duck-db/nyc_taxi_combined.duckdb";
-        try (Connection conn = DriverManager.getConnection("jdbc:duckdb:" + dbPath)) {
-            var service = new TripAggregatorService(conn);
-            List<TripAggregationResult> rows = service.aggregate(params);
-            rows.forEach(row -> {
-                System.out.println(ANSI_BOLD + "Taxi Type: " + ANSI_RESET + row.taxiType());
-                System.out.println(ANSI_BOLD + "Vendor: " + ANSI_RESET + row.vendor());
-                System.out.println(ANSI_BOLD + "Payment Type: " + ANSI_RESET + row.paymentType());
-                System.out.println(ANSI_BOLD + "Min Fare: " + ANSI_RESET + row.minFare());
-                System.out.println(ANSI_BOLD + "Max Fare: " + ANSI_RESET + row.maxFare());
-                System.out.println(ANSI_BOLD + "Count of Trips: " + ANSI_RESET + row.tripCount());
-                System.out.println(ANSI_BOLD + "Total Toll Fare Sum: " + ANSI_RESET + row.totalTollFare());
-                System.out.println(ANSI_BOLD + "Total Fare Sum: " + ANSI_RESET + row.totalFare());
-                System.out.println("-------");
-            });
+    /**
+     * Prints rows as labelled text to {@code out}.
+     */
+    static void print(@NotNull List<TripAggregationResult> rows, @NotNull PrintStream out) throws IOException {
+        try (ResultWriter writer = ResultFormat.TEXT.open(Channels.newChannel(out))) {
+            for (TripAggregationResult row : rows) {
+                writer.accept(row);
+            }
         }
+        out.flush();
     }
 }
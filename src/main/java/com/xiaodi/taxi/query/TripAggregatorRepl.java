@@ -0,0 +1,232 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.metrics.MetricsRegistry;
+import com.xiaodi.taxi.query.cache.CacheStats;
+import com.xiaodi.taxi.query.cache.CachedAggregationService;
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Interactive query shell. Keeps one DuckDB connection and one cached {@link TripAggregatorService} open for the
+ * whole session, so only the first query pays for JVM warmup and opening the database. The statements of all
+ * query shapes are prepared at startup, and again when a query finds that the ETL published a new database snapshot
+ * (see {@link SnapshotAggregationService}). Takes the {@code --storage}, {@code --engine} and {@code --slow-query-ms} flags
+ * of {@link TripAggregator}.
+ * <p>
+ * Commands: blank line or {@code new} to enter a query, {@code history}, {@code !N} to re-run entry N,
+ * {@code stats}, {@code profile}, {@code help} and {@code quit}. History is kept in {@code duck-db/.repl_history}.
+ */
+public class TripAggregatorRepl {
+    static final Path HISTORY_FILE = Paths.get("duck-db", ".repl_history");
+    private static final int HISTORY_LIMIT = 500;
+
+    public static void main(String[] args) throws Exception {
+        CliArgs cli = CliArgs.parse(args);
+        try (SnapshotAggregationService snapshots = TripAggregator.snapshots(cli, conn -> {
+            long start = System.nanoTime();
+            TripAggregatorService aggregator = TripAggregator.aggregator(cli, conn);
+            int prepared = aggregator.warmUp();
+            System.out.printf("Prepared %d query shapes in %.1f ms%n", prepared, (System.nanoTime() - start) / 1_000_000.0);
+            return TripAggregator.engine(cli, conn, aggregator);
+        })) {
+            snapshots.current();
+            CachedAggregationService service = TripAggregator.cached(snapshots,
+                    TripAggregator.dbFile(cli),
+                    Paths.get(cli.get("cache-dir", TripAggregator.DEFAULT_CACHE_DIR)));
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            new TripAggregatorRepl(service, in, System.out, HISTORY_FILE).run();
+        }
+    }
+
+    private final CachedAggregationService service;
+    private final BufferedReader in;
+    private final PrintStream out;
+    private final Path historyFile;
+    private final List<String[]> history = new ArrayList<>();
+
+    /**
+     * Constructor
+     * @param service service the queries are run on.
+     * @param in user input.
+     * @param out where prompts and results are printed.
+     * @param historyFile file the query history is loaded from and appended to, or null to keep it in memory.
+     */
+    public TripAggregatorRepl(CachedAggregationService service, BufferedReader in, PrintStream out, Path historyFile) {
+        this.service = service;
+        this.in = in;
+        this.out = out;
+        this.historyFile = historyFile;
+    }
+
+    public void run() throws IOException {
+        loadHistory();
+        out.println("NYC taxi query shell. Press enter for a new query, 'help' for commands.");
+        while (true) {
+            out.print("taxi> ");
+            out.flush();
+            String line = in.readLine();
+            if (line == null) {
+                break;
+            }
+            String command = line.strip();
+            if (command.isEmpty() || "new".equals(command)) {
+                String[] fields = promptQuery();
+                if (fields == null) {
+                    break;
+                }
+                execute(fields);
+            } else if ("history".equals(command)) {
+                for (int i = 0; i < history.size(); i++) {
+                    out.printf("%3d  %s%n", i + 1, String.join(" | ", history.get(i)));
+                }
+            } else if (command.startsWith("!")) {
+                rerun(command.substring(1));
+            } else if ("stats".equals(command)) {
+                out.println(service.stats());
+            } else if ("profile".equals(command)) {
+                out.print(MetricsRegistry.global().profile());
+            } else if ("help".equals(command)) {
+                out.println("  <enter>|new  enter a new query");
+                out.println("  history      list previous queries");
+                out.println("  !N           re-run query N from history");
+                out.println("  stats        result cache hit/miss counters");
+                out.println("  profile      prepare/execute/map timings of the session");
+                out.println("  quit         exit");
+            } else if ("quit".equals(command) || "exit".equals(command)) {
+                break;
+            } else {
+                out.println("  ↳ Unknown command '" + command + "'. Type 'help' for commands.");
+            }
+        }
+    }
+
+    /**
+     * Prompts for every query field, re-prompting until the input is valid.
+     * @return the 7 fields in TripAggregator argument order, or null at end of input.
+     */
+    String[] promptQuery() throws IOException {
+        String[] fields = new String[7];
+        String[] prompts = {
+                "Enter pickup datetime (YYYY-MM-DD HH:MM:SS) [no pickup time lower bound]: ",
+                "Enter dropoff datetime (YYYY-MM-DD HH:MM:SS) [no dropoff time upper bound]: ",
+                "Enter pickup location ID (integer) [no pickup specified]: ",
+                "Enter dropoff location ID (integer) [no dropoff specified]: ",
+                "Group by payment type? (true/false) [true]: ",
+                "Enter vendor ID (integer) [all vendors]: ",
+                "Taxi type (yellow, green, both) [both]: ",
+        };
+        List<Function<String, QueryInputValidator.Result>> validators = List.of(
+                QueryInputValidator::datetime,
+                QueryInputValidator::datetime,
+                QueryInputValidator::integerId,
+                QueryInputValidator::integerId,
+                QueryInputValidator::groupByPayment,
+                QueryInputValidator::integerId,
+                QueryInputValidator::taxiType
+        );
+        for (int i = 0; i < fields.length; i++) {
+            while (fields[i] == null) {
+                out.print(prompts[i]);
+                out.flush();
+                String line = in.readLine();
+                if (line == null) {
+                    return null;
+                }
+                QueryInputValidator.Result result = validators.get(i).apply(line);
+                if (result.isValid()) {
+                    fields[i] = result.value();
+                } else {
+                    out.println("  ↳ " + result.error());
+                }
+            }
+        }
+        return fields;
+    }
+
+    private void rerun(String index) {
+        try {
+            int n = Integer.parseInt(index.strip());
+            if (n < 1 || n > history.size()) {
+                out.println("  ↳ No history entry " + n + ".");
+                return;
+            }
+            execute(history.get(n - 1));
+        } catch (NumberFormatException e) {
+            out.println("  ↳ Usage: !N, see 'history'.");
+        }
+    }
+
+    private void execute(String @NotNull [] fields) {
+        remember(fields);
+        TripQueryParams params = toParams(fields);
+        CacheStats before = service.stats();
+        long start = System.nanoTime();
+        try {
+            List<TripAggregationResult> rows = service.aggregate(params);
+            double millis = (System.nanoTime() - start) / 1_000_000.0;
+            TripAggregator.print(rows, out);
+            CacheStats after = service.stats();
+            String source = after.misses() > before.misses() ? "database" : "cache";
+            out.printf("⏱ %d row(s) in %.1f ms (%s)%n", rows.size(), millis, source);
+        } catch (SQLException | IOException | RuntimeException e) {
+            out.println("  ↳ Query failed: " + e.getMessage());
+        }
+    }
+
+    static @NotNull TripQueryParams toParams(String @NotNull [] fields) {
+        return TripQueryParams.builder()
+                .pickupDatetime(fields[0])
+                .dropoffDatetime(fields[1])
+                .puLocationID(fields[2])
+                .doLocationID(fields[3])
+                .groupByPayment(Boolean.parseBoolean(fields[4]))
+                .vendorID(fields[5])
+                .taxiType(fields[6])
+                .build();
+    }
+
+    private void loadHistory() {
+        if (historyFile == null || Files.notExists(historyFile)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(historyFile, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 7) {
+                    history.add(fields);
+                }
+            }
+        } catch (IOException e) {
+            out.println("  ↳ Unable to read history: " + e.getMessage());
+        }
+        while (history.size() > HISTORY_LIMIT) {
+            history.remove(0);
+        }
+    }
+
+    private void remember(String[] fields) {
+        history.add(fields);
+        if (historyFile == null) {
+            return;
+        }
+        try {
+            Path parent = historyFile.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Files.writeString(historyFile, String.join("\t", fields) + System.lineSeparator(),
+                    StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            out.println("  ↳ Unable to save history: " + e.getMessage());
+        }
+    }
+}
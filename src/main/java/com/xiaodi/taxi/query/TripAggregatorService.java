@@ -1,17 +1,36 @@
 package com.xiaodi.taxi.query;
 
+import com.xiaodi.taxi.etl.sql.SQLBuilder;
+import com.xiaodi.taxi.metrics.MetricsRegistry;
+import com.xiaodi.taxi.query.models.ApproximationTarget;
+import com.xiaodi.taxi.query.models.GroupDimension;
 import com.xiaodi.taxi.query.models.TripAggregationResult;
 import com.xiaodi.taxi.query.models.TripQueryParams;
+import com.xiaodi.taxi.query.slowlog.SlowQueryLog;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.*;
 
 
 /**
  * Service class encapsulating query construction, parameter binding, and result mapping.
+ * <p>
+ * Every query records its phases in a {@link MetricsRegistry}, labelled with the relation it read ({@code trips},
+ * {@code rollup}, {@code parquet} or {@code batch}): {@code query_prepare_seconds} when a statement had to be
+ * prepared ({@code query_statement_reuse_total} otherwise), {@code query_execute_seconds} until the result set is
+ * open, {@code query_map_seconds} for fetching and mapping rows, {@code query_write_seconds} for handing streamed
+ * rows to their sink, and {@code query_rows_total}.
+ * <p>
+ * With a {@link SlowQueryLog}, queries through {@code aggregate} slower than its threshold (not counting the time of
+ * the sink) are profiled and logged, and counted in {@code query_slow_total}.
+ * <p>
+ * Borough and zone names ({@link GroupDimension#isZoneName()}) are grouped by location ID in SQL, so trips are never
+ * joined to the zone lookup; the rows are then mapped to names with {@link TaxiZones} and the rows of one name merged.
  */
-public class TripAggregatorService {
+public class TripAggregatorService implements AggregationService, AutoCloseable {
     public static Map<String, String> VENDOR_MAP = Map.of(
             "1", "Creative Mobile Technologies, LLC",
             "2", "Curb Mobility, LLC",
@@ -29,41 +48,474 @@ public class TripAggregatorService {
             "6", "Voided trip"
     );
 
+    /**
+     * Upper bound of queries answered by one shared scan, to keep the generated SQL a manageable size.
+     */
+    static final int MAX_BATCH_QUERIES = 512;
+
     private final Connection connection;
+    private final TripsSource source;
+    private final PreparedStatementPool statements;
+    private final SampledAggregation sampled;
+    private final MetricsRegistry metrics;
+    private final SlowQueryLog slowQueries;
+    private TaxiZones zones;
+    private Boolean rollupAvailable;
 
     public TripAggregatorService(Connection conn) {
+        this(conn, TripsSource.table());
+    }
+
+    /**
+     * Constructor
+     * @param conn DuckDB connection the queries run on.
+     * @param source where trips are read from.
+     */
+    public TripAggregatorService(Connection conn, TripsSource source) {
+        this(conn, source, MetricsRegistry.global());
+    }
+
+    /**
+     * Constructor
+     * @param conn DuckDB connection the queries run on.
+     * @param source where trips are read from.
+     * @param metrics registry the query phases are recorded in.
+     */
+    public TripAggregatorService(Connection conn, TripsSource source, MetricsRegistry metrics) {
+        this(conn, source, metrics, null);
+    }
+
+    /**
+     * Constructor
+     * @param conn DuckDB connection the queries run on.
+     * @param source where trips are read from.
+     * @param metrics registry the query phases are recorded in.
+     * @param slowQueries log of slow queries, null to log none.
+     */
+    public TripAggregatorService(Connection conn, TripsSource source, MetricsRegistry metrics,
+                                 @Nullable SlowQueryLog slowQueries) {
+        this(conn, source, metrics, slowQueries, null);
+    }
+
+    /**
+     * Constructor
+     * @param conn DuckDB connection the queries run on.
+     * @param source where trips are read from.
+     * @param metrics registry the query phases are recorded in.
+     * @param slowQueries log of slow queries, null to log none.
+     * @param zones taxi zone lookup, null to load the taxi_zones table of the database on first use.
+     */
+    public TripAggregatorService(Connection conn, TripsSource source, MetricsRegistry metrics,
+                                 @Nullable SlowQueryLog slowQueries, @Nullable TaxiZones zones) {
+        this.zones = zones;
+        this.metrics = metrics;
+        this.slowQueries = slowQueries;
         this.connection = conn;
+        this.source = source;
+        this.statements = new PreparedStatementPool(conn);
+        this.sampled = new SampledAggregation(conn, statements);
     }
 
     /**
-     * The aggregate step which executes the query.
+     * The aggregate step which executes the query. Queries that fit the grain of trips_rollup
+     * (see {@link RollupRouter}) are answered from the rollup, everything else scans trips.
+     * The statement is taken from the pool of its {@link QueryShape} and only prepared on first use;
+     * pooled statements are shared, so calls on one service are serialized.
      * @param params The query params.
      * @return a list of {@link TripAggregationResult}
      * @throws SQLException
      */
-    public List<TripAggregationResult> aggregate(TripQueryParams params) throws SQLException {
-        String sql = buildQuery(params);
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            bindParameters(stmt, params);
-            try (ResultSet rs = stmt.executeQuery()) {
-                return mapResults(rs, params);
+    @Override
+    public synchronized List<TripAggregationResult> aggregate(TripQueryParams params) throws SQLException {
+        boolean rollup = usesRollup(params);
+        String shape = statementKey(params, rollup);
+        String relation = relationLabel(rollup);
+        long queryStart = System.nanoTime();
+        List<TripAggregationResult> rows;
+        try {
+            try (ResultSet rs = execute(params, rollup, shape)) {
+                long start = System.nanoTime();
+                rows = mapResults(rs, params);
+                metrics.timer("query_map_seconds", "source", relation).recordSince(start);
+                metrics.counter("query_rows_total", "source", relation).add(rows.size());
+            }
+        } catch (SQLException e) {
+            statements.evict(shape);
+            throw e;
+        }
+        logIfSlow(params, rollup, shape, System.nanoTime() - queryStart, rows.size());
+        return rows;
+    }
+
+    /**
+     * Same as {@link #aggregate(TripQueryParams)}, but maps each row only when the sink is ready for it, so results
+     * with many rows are never held in memory at once.
+     * @param params The query params.
+     * @param sink receives the rows in result order.
+     * @return number of rows.
+     */
+    @Override
+    public synchronized long aggregate(TripQueryParams params, ResultSink sink) throws SQLException, IOException {
+        if (groupsByZoneName(params)) {
+            // rows of one name are merged from several location IDs, so the result is complete only at the end
+            List<TripAggregationResult> rows = aggregate(params);
+            for (TripAggregationResult row : rows) {
+                sink.accept(row);
+            }
+            return rows.size();
+        }
+        boolean rollup = usesRollup(params);
+        String shape = statementKey(params, rollup);
+        String taxiType = taxiTypeLabel(params);
+        String vendor = vendorLabel(params);
+        List<GroupDimension> dimensions = params.dimensions();
+        boolean multiSet = isMultiSet(params, dimensions);
+        String relation = relationLabel(rollup);
+        long rows = 0;
+        long writeNanos = 0;
+        long queryStart = System.nanoTime();
+        try {
+            try (ResultSet rs = execute(params, rollup, shape)) {
+                long start = System.nanoTime();
+                while (rs.next()) {
+                    TripAggregationResult row = mapRow(rs, params, taxiType, vendor, dimensions, multiSet,
+                            TaxiZones.EMPTY, new AggregateAccumulator());
+                    long writeStart = System.nanoTime();
+                    sink.accept(row);
+                    writeNanos += System.nanoTime() - writeStart;
+                    rows++;
+                }
+                metrics.timer("query_map_seconds", "source", relation).record(System.nanoTime() - start - writeNanos);
+                metrics.timer("query_write_seconds", "source", relation).record(writeNanos);
+                metrics.counter("query_rows_total", "source", relation).add(rows);
+            }
+        } catch (SQLException e) {
+            statements.evict(shape);
+            throw e;
+        }
+        logIfSlow(params, rollup, shape, System.nanoTime() - queryStart - writeNanos, rows);
+        return rows;
+    }
+
+    /**
+     * Profiles and logs a query slower than the threshold of the slow-query log, re-running it on the connection.
+     * @param elapsedNanos time of the query without its sink.
+     */
+    private void logIfSlow(@NotNull TripQueryParams params, boolean rollup, String shape, long elapsedNanos, long rows) {
+        if (slowQueries == null || !slowQueries.isSlow(elapsedNanos)) {
+            return;
+        }
+        metrics.counter("query_slow_total", "source", relationLabel(rollup)).increment();
+        slowQueries.record(connection, shape, rollup ? buildRollupQuery(params) : buildQuery(params),
+                stmt -> bindParameters(stmt, params), elapsedNanos, rows);
+    }
+
+    /**
+     * Estimates the query from trips_sample (see {@link SampledAggregation}), reading ever larger tiers of the sample
+     * until every margin is within {@link ApproximationTarget#getRelativeError()}. A tier is only tried when ten
+     * times the time of the previous one fits the time budget. When even the whole sample misses the error target,
+     * the exact query runs if its time, extrapolated from the last tier, fits the budget.
+     * <p>
+     * Queries are answered exactly, with {@link TripAggregationResult#approximation()} null, when there is no
+     * sample: trips_sample missing, trips read from parquet, or several grouping sets.
+     * @param params The query params.
+     * @param target error target and time budget.
+     * @return the estimated rows, or the exact rows.
+     */
+    public synchronized List<TripAggregationResult> aggregateApproximate(@NotNull TripQueryParams params,
+                                                                         @NotNull ApproximationTarget target)
+            throws SQLException {
+        if (!source.supportsRollup() || !SampledAggregation.supports(params) || !sampled.available()) {
+            return aggregate(params);
+        }
+        long start = System.nanoTime();
+        SampledAggregation.Estimate estimate = null;
+        long tierNanos = 0;
+        for (int i = 0; i < SampledAggregation.TIERS.length; i++) {
+            double tier = SampledAggregation.TIERS[i];
+            if (estimate != null && !target.fits(System.nanoTime() - start, tierNanos * tier / SampledAggregation.TIERS[i - 1])) {
+                return estimate.rows();
+            }
+            long tierStart = System.nanoTime();
+            estimate = sampled.estimate(params, tier);
+            tierNanos = metrics.timer("query_sample_seconds", "tier", Double.toString(tier)).recordSince(tierStart);
+            if (estimate.relativeError() <= target.getRelativeError()) {
+                return estimate.rows();
+            }
+        }
+        double exactNanos = estimate.sampleFraction() > 0 ? tierNanos / estimate.sampleFraction() : 0;
+        return target.fits(System.nanoTime() - start, exactNanos) ? aggregate(params) : estimate.rows();
+    }
+
+    /**
+     * @return the taxi zones given to the constructor, or else those of the taxi_zones table, loaded on first use.
+     */
+    public synchronized @NotNull TaxiZones zones() throws SQLException {
+        if (zones == null) {
+            zones = TaxiZones.load(connection);
+        }
+        return zones;
+    }
+
+    /**
+     * @return the pool key of the statement of {@code params}: its {@link QueryShape} and relation, plus the
+     * grouping when it goes beyond payment type and the location ID sets, whose IDs are part of the SQL.
+     */
+    private String statementKey(@NotNull TripQueryParams params, boolean rollup) {
+        String key = PreparedStatementPool.key(QueryShape.of(params, rollup),
+                rollup ? RollupRouter.ROLLUP_TABLE : source.relation(params));
+        if (params.hasCustomGrouping()) {
+            key += "|" + params.groupingKey();
+        }
+        String locations = params.locationSetKey();
+        return locations.isEmpty() ? key : key + "|" + locations;
+    }
+
+    static boolean groupsByZoneName(@NotNull TripQueryParams p) {
+        return p.dimensions().stream().anyMatch(GroupDimension::isZoneName);
+    }
+
+    private ResultSet execute(TripQueryParams params, boolean rollup, String shape) throws SQLException {
+        String relation = relationLabel(rollup);
+        boolean[] prepared = new boolean[1];
+        long start = System.nanoTime();
+        PreparedStatement stmt = statements.get(shape, () -> {
+            prepared[0] = true;
+            return rollup ? buildRollupQuery(params) : buildQuery(params);
+        });
+        if (prepared[0]) {
+            metrics.timer("query_prepare_seconds", "source", relation).recordSince(start);
+        } else {
+            metrics.counter("query_statement_reuse_total", "source", relation).increment();
+        }
+        bindParameters(stmt, params);
+        start = System.nanoTime();
+        ResultSet rs = stmt.executeQuery();
+        metrics.timer("query_execute_seconds", "source", relation).recordSince(start);
+        return rs;
+    }
+
+    /**
+     * @return the source label of the metrics of a query.
+     */
+    private String relationLabel(boolean rollup) {
+        return rollup ? "rollup" : source.supportsRollup() ? "trips" : "parquet";
+    }
+
+    /**
+     * Prepares the statement of every query shape up front, so no query pays for parsing and planning.
+     * Rollup shapes are only prepared when trips_rollup exists.
+     * @return the number of prepared statements.
+     */
+    public synchronized int warmUp() throws SQLException {
+        for (int shape = 0; shape < QueryShape.COUNT; shape++) {
+            boolean rollup = QueryShape.isRollup(shape);
+            TripQueryParams p = QueryShape.sample(shape);
+            if (rollup && !usesRollup(p)) {
+                continue;
+            }
+            statements.get(PreparedStatementPool.key(shape, rollup ? RollupRouter.ROLLUP_TABLE : source.relation(p)),
+                    () -> rollup ? buildRollupQuery(p) : buildQuery(p));
+        }
+        return statements.size();
+    }
+
+    /**
+     * Closes the pooled statements; the connection is left open.
+     */
+    @Override
+    public synchronized void close() {
+        statements.close();
+    }
+
+    /**
+     * Answers all queries of the batch with one scan per {@link #MAX_BATCH_QUERIES} queries: every query becomes a
+     * boolean column and its aggregates are computed with {@code FILTER (WHERE ...)}. When any query groups by
+     * payment type the scan is grouped, and the groups are merged back for the queries that do not.
+     * Queries grouped by other dimensions ({@link TripQueryParams#hasCustomGrouping()}) already answer all their
+     * breakdowns in one scan and run on their own.
+     * @param batch query params.
+     * @return one result list per query, in input order.
+     */
+    @Override
+    public synchronized List<List<TripAggregationResult>> aggregateBatch(@NotNull List<TripQueryParams> batch)
+            throws SQLException {
+        List<List<TripAggregationResult>> results = new ArrayList<>(Collections.nCopies(batch.size(), null));
+        List<Integer> shared = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.get(i).hasCustomGrouping()) {
+                results.set(i, aggregate(batch.get(i)));
+            } else {
+                shared.add(i);
+            }
+        }
+        for (int from = 0; from < shared.size(); from += MAX_BATCH_QUERIES) {
+            List<Integer> indexes = shared.subList(from, Math.min(shared.size(), from + MAX_BATCH_QUERIES));
+            List<TripQueryParams> chunk = indexes.stream().map(batch::get).toList();
+            boolean rollup = true;
+            for (TripQueryParams p : chunk) {
+                rollup &= usesRollup(p);
+            }
+            long start = System.nanoTime();
+            try (PreparedStatement stmt = connection.prepareStatement(buildBatchQuery(chunk, rollup))) {
+                metrics.timer("query_prepare_seconds", "source", "batch").recordSince(start);
+                int idx = 1;
+                for (TripQueryParams p : chunk) {
+                    idx = bindParameters(stmt, p, idx);
+                }
+                start = System.nanoTime();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    metrics.timer("query_execute_seconds", "source", "batch").recordSince(start);
+                    start = System.nanoTime();
+                    List<List<TripAggregationResult>> chunkResults = mapBatchResults(rs, chunk);
+                    metrics.timer("query_map_seconds", "source", "batch").recordSince(start);
+                    metrics.counter("query_rows_total", "source", "batch")
+                            .add(chunkResults.stream().mapToLong(List::size).sum());
+                    for (int i = 0; i < indexes.size(); i++) {
+                        results.set(indexes.get(i), chunkResults.get(i));
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    boolean usesRollup(@NotNull TripQueryParams p) throws SQLException {
+        if (!source.supportsRollup() || !RollupRouter.fits(p)) {
+            return false;
+        }
+        if (rollupAvailable == null) {
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery(SQLBuilder.tableExists(RollupRouter.ROLLUP_TABLE))) {
+                rollupAvailable = rs.next() && rs.getLong(1) > 0;
             }
         }
+        return rollupAvailable;
     }
 
     String buildQuery(@NotNull TripQueryParams p) {
-        StringBuilder q = new StringBuilder("SELECT MIN(fare_amount) AS min_fare, MAX(fare_amount) AS max_fare, COUNT(*) AS trip_count, SUM(fare_amount) AS total_fare, SUM(tolls_amount) AS total_toll_fare");
-        if (p.isGroupByPayment()) {
-            q.append(", payment_type");
+        return buildQuery(p, "SELECT MIN(fare_amount) AS min_fare, MAX(fare_amount) AS max_fare, COUNT(*) AS trip_count, SUM(fare_amount) AS total_fare, SUM(tolls_amount) AS total_toll_fare",
+                source.relation(p), "pickup_datetime");
+    }
+
+    /**
+     * Same shape and bind order as {@link #buildQuery(TripQueryParams)}, but merging the partial aggregates of
+     * trips_rollup; the pickup bound is compared against the hour bucket.
+     */
+    String buildRollupQuery(@NotNull TripQueryParams p) {
+        return buildQuery(p, "SELECT MIN(min_fare) AS min_fare, MAX(max_fare) AS max_fare, CAST(COALESCE(SUM(trip_count), 0) AS BIGINT) AS trip_count, SUM(sum_fare) AS total_fare, SUM(sum_tolls) AS total_toll_fare",
+                RollupRouter.ROLLUP_TABLE, "hour_bucket");
+    }
+
+    /**
+     * Appends the grouping dimensions to {@code select}. With several grouping sets the query groups by
+     * {@code GROUPING SETS} and also selects the {@code GROUPING(...)} bit mask of each row as grouping_id, so every
+     * breakdown comes out of one scan.
+     */
+    private String buildQuery(@NotNull TripQueryParams p, String select, String table, String pickupColumn) {
+        StringBuilder q = new StringBuilder(select);
+        List<GroupDimension> dimensions = p.dimensions();
+        for (GroupDimension d : dimensions) {
+            String expression = dimensionExpression(d, pickupColumn);
+            q.append(", ").append(expression);
+            if (!expression.equals(dimensionAlias(d))) {
+                q.append(" AS ").append(dimensionAlias(d));
+            }
         }
-        q.append(" FROM trips");
+        boolean multiSet = isMultiSet(p, dimensions);
+        if (multiSet) {
+            q.append(", GROUPING(").append(expressions(dimensions, pickupColumn)).append(") AS grouping_id");
+        }
+        q.append(" FROM ").append(table);
 
-        var filters = getFilters(p);
+        var filters = getFilters(p, pickupColumn);
         if (!filters.isEmpty()) {
             q.append(" WHERE ")
                     .append(String.join(" AND ", filters));
         }
-        if (p.isGroupByPayment()) {
+        if (multiSet) {
+            StringJoiner sets = new StringJoiner(", ", " GROUP BY GROUPING SETS (", ")");
+            for (List<GroupDimension> set : p.groupings()) {
+                sets.add("(" + expressions(set, pickupColumn) + ")");
+            }
+            q.append(sets);
+        } else if (!dimensions.isEmpty()) {
+            q.append(" GROUP BY ").append(expressions(dimensions, pickupColumn));
+        }
+        return q.toString();
+    }
+
+    private static boolean isMultiSet(@NotNull TripQueryParams p, @NotNull List<GroupDimension> dimensions) {
+        return p.groupings().size() > 1 && !dimensions.isEmpty();
+    }
+
+    /**
+     * @param pickupColumn pickup_datetime, or hour_bucket in trips_rollup.
+     * @return the SQL expression of a dimension.
+     */
+    static @NotNull String dimensionExpression(@NotNull GroupDimension d, @NotNull String pickupColumn) {
+        return switch (d) {
+            case PAYMENT_TYPE -> "payment_type";
+            case VENDOR -> "vendor_id";
+            case TAXI_TYPE -> "taxi_type";
+            case PU_LOCATION, PU_BOROUGH, PU_ZONE -> "pu_location_id";
+            case DO_LOCATION, DO_BOROUGH, DO_ZONE -> "do_location_id";
+            case PICKUP_HOUR -> "hour(" + pickupColumn + ")";
+        };
+    }
+
+    /**
+     * @return the result column of a dimension.
+     */
+    static @NotNull String dimensionAlias(@NotNull GroupDimension d) {
+        return d == GroupDimension.PICKUP_HOUR || d.isZoneName() ? d.key() : dimensionExpression(d, "");
+    }
+
+    private static String expressions(@NotNull List<GroupDimension> dimensions, String pickupColumn) {
+        StringJoiner list = new StringJoiner(", ");
+        for (GroupDimension d : dimensions) {
+            list.add(dimensionExpression(d, pickupColumn));
+        }
+        return list.toString();
+    }
+
+    String buildBatchQuery(@NotNull List<TripQueryParams> batch, boolean rollup) {
+        boolean grouped = batch.stream().anyMatch(TripQueryParams::isGroupByPayment);
+        String pickupColumn = rollup ? "hour_bucket" : "pickup_datetime";
+
+        StringBuilder flags = new StringBuilder(rollup
+                ? "SELECT payment_type, min_fare, max_fare, trip_count, sum_fare, sum_tolls"
+                : "SELECT payment_type, fare_amount, tolls_amount");
+        StringBuilder q = new StringBuilder("SELECT ");
+        if (grouped) {
+            q.append("payment_type, ");
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            var filters = getFilters(batch.get(i), pickupColumn);
+            flags.append(", (").append(filters.isEmpty() ? "TRUE" : String.join(" AND ", filters))
+                    .append(") AS q").append(i);
+
+            String filter = " FILTER (WHERE q" + i + ")";
+            if (i > 0) {
+                q.append(", ");
+            }
+            if (rollup) {
+                q.append("MIN(min_fare)").append(filter).append(" AS min_fare_").append(i)
+                        .append(", MAX(max_fare)").append(filter).append(" AS max_fare_").append(i)
+                        .append(", CAST(COALESCE(SUM(trip_count)").append(filter).append(", 0) AS BIGINT) AS trip_count_").append(i)
+                        .append(", SUM(sum_fare)").append(filter).append(" AS total_fare_").append(i)
+                        .append(", SUM(sum_tolls)").append(filter).append(" AS total_toll_fare_").append(i);
+            } else {
+                q.append("MIN(fare_amount)").append(filter).append(" AS min_fare_").append(i)
+                        .append(", MAX(fare_amount)").append(filter).append(" AS max_fare_").append(i)
+                        .append(", COUNT(*)").append(filter).append(" AS trip_count_").append(i)
+                        .append(", SUM(fare_amount)").append(filter).append(" AS total_fare_").append(i)
+                        .append(", SUM(tolls_amount)").append(filter).append(" AS total_toll_fare_").append(i);
+            }
+        }
+        flags.append(" FROM ").append(rollup ? RollupRouter.ROLLUP_TABLE : source.relation(TripQueryParams.builder().build()));
+        q.append(" FROM (").append(flags).append(")");
+        if (grouped) {
             q.append(" GROUP BY payment_type");
         }
         return q.toString();
@@ -72,14 +524,18 @@ public class TripAggregatorService {
     /**
      *
      * @param p query params.
+     * @param pickupColumn column compared with the pickup lower bound.
      * @return list of string filters.
      */
-    private static @NotNull ArrayList<String> getFilters(@NotNull TripQueryParams p) {
+    static @NotNull ArrayList<String> getFilters(@NotNull TripQueryParams p, String pickupColumn) {
         var filters = new ArrayList<String>();
-        if (!TripQueryParams.EMPTY_VALUE.equals(p.getPickupDatetime())) filters.add("pickup_datetime >= ?");
+        if (!TripQueryParams.EMPTY_VALUE.equals(p.getPickupDatetime())) filters.add(pickupColumn + " >= ?");
         if (!TripQueryParams.EMPTY_VALUE.equals(p.getDropoffDatetime())) filters.add("dropoff_datetime <= ?");
         if (!TripQueryParams.EMPTY_VALUE.equals(p.getPuLocationID())) filters.add("pu_location_id = ?");
         if (!TripQueryParams.EMPTY_VALUE.equals(p.getDoLocationID())) filters.add("do_location_id = ?");
+        // location ID sets are resolved from the zone lookup, not user input, so they are inlined
+        if (!p.getPuLocationIDs().isEmpty()) filters.add("pu_location_id IN (" + TripQueryParams.joinIds(p.getPuLocationIDs()) + ")");
+        if (!p.getDoLocationIDs().isEmpty()) filters.add("do_location_id IN (" + TripQueryParams.joinIds(p.getDoLocationIDs()) + ")");
         if (!TripQueryParams.EMPTY_VALUE.equals(p.getVendorID())) filters.add("vendor_id = ?");
         if (!TripQueryParams.EMPTY_VALUE.equals(p.getTaxiType())) {
             if ("yellow".equalsIgnoreCase(p.getTaxiType()) || "green".equalsIgnoreCase(p.getTaxiType())) {
@@ -90,7 +546,14 @@ public class TripAggregatorService {
     }
 
     void bindParameters(PreparedStatement stmt, @NotNull TripQueryParams p) throws SQLException {
-        int idx = 1;
+        bindParameters(stmt, p, 1);
+    }
+
+    /**
+     * Binds the filter values of {@code p} starting at parameter {@code idx}.
+     * @return the index of the next unbound parameter.
+     */
+    static int bindParameters(PreparedStatement stmt, @NotNull TripQueryParams p, int idx) throws SQLException {
         if (!TripQueryParams.EMPTY_VALUE.equals(p.getPickupDatetime())) stmt.setString(idx++, p.getPickupDatetime());
         if (!TripQueryParams.EMPTY_VALUE.equals(p.getDropoffDatetime())) stmt.setString(idx++, p.getDropoffDatetime());
         if (!TripQueryParams.EMPTY_VALUE.equals(p.getPuLocationID())) stmt.setInt(idx++, Integer.parseInt(p.getPuLocationID()));
@@ -98,36 +561,183 @@ public class TripAggregatorService {
         if (!TripQueryParams.EMPTY_VALUE.equals(p.getVendorID())) stmt.setInt(idx++, Integer.parseInt(p.getVendorID()));
         if (!TripQueryParams.EMPTY_VALUE.equals(p.getTaxiType())) {
             if ("yellow".equalsIgnoreCase(p.getTaxiType()) || "green".equalsIgnoreCase(p.getTaxiType())) {
-                stmt.setString(idx, p.getTaxiType().toLowerCase());
+                stmt.setString(idx++, p.getTaxiType().toLowerCase());
             }
         }
+        return idx;
     }
 
     List<TripAggregationResult> mapResults(@NotNull ResultSet rs, TripQueryParams p) throws SQLException {
         List<TripAggregationResult> results = new ArrayList<>();
+        String taxiType = taxiTypeLabel(p);
+        String vendor = vendorLabel(p);
+        List<GroupDimension> dimensions = p.dimensions();
+        boolean multiSet = isMultiSet(p, dimensions);
+        boolean zoneNames = groupsByZoneName(p);
+        TaxiZones lookup = zoneNames ? zones() : TaxiZones.EMPTY;
+        if (zoneNames && lookup.isEmpty()) {
+            throw new IllegalArgumentException("No taxi zones loaded to group by borough or zone: put " +
+                    TaxiZones.CSV_FILE + " next to the parquet files and run the ETL again, or pass --zones=FILE");
+        }
+        if (zoneNames) {
+            return mergeGroups(rs, p, taxiType, vendor, dimensions, multiSet, lookup);
+        }
         while (rs.next()) {
-            String taxiType = TripQueryParams.EMPTY_VALUE.equals(p.getTaxiType())
-                    ? "yellow and green"
-                    : p.getTaxiType();
-
-            String vendor = TripQueryParams.EMPTY_VALUE.equals(p.getVendorID())
-                    ? "all"
-                    : VENDOR_MAP.get(p.getVendorID());
-
-            String payment = p.isGroupByPayment() ? rs.getObject("payment_type") != null
-                            ? PAYMENT_MAP.getOrDefault(rs.getString("payment_type"), "all") : "Null" : "all";
-
-            results.add(new TripAggregationResult(
-                    taxiType,
-                    vendor,
-                    payment,
-                    rs.getDouble("min_fare"),
-                    rs.getDouble("max_fare"),
-                    rs.getInt("trip_count"),
-                    rs.getDouble("total_toll_fare"),
-                    rs.getDouble("total_fare")
-            ));
+            results.add(mapRow(rs, p, taxiType, vendor, dimensions, multiSet, lookup, new AggregateAccumulator()));
         }
         return results;
     }
-}
\ No newline at end of file
+
+    /**
+     * Maps the rows and merges those with the same labels and groups, such as the location IDs of one borough,
+     * keeping the order of their first row. Aggregates are merged with their SQL NULLs, so a location ID without
+     * fares leaves the minimum and maximum of the others as they are.
+     */
+    private static @NotNull List<TripAggregationResult> mergeGroups(@NotNull ResultSet rs, @NotNull TripQueryParams p,
+                                                                    String taxiType, String vendor,
+                                                                    @NotNull List<GroupDimension> dimensions,
+                                                                    boolean multiSet, @NotNull TaxiZones zones)
+            throws SQLException {
+        Map<List<Object>, AggregateAccumulator> merged = new LinkedHashMap<>();
+        Map<List<Object>, TripAggregationResult> first = new HashMap<>();
+        while (rs.next()) {
+            AggregateAccumulator partial = new AggregateAccumulator();
+            TripAggregationResult row = mapRow(rs, p, taxiType, vendor, dimensions, multiSet, zones, partial);
+            List<Object> key = Arrays.asList(row.taxiType(), row.vendor(), row.paymentType(), row.groups());
+            merged.computeIfAbsent(key, k -> new AggregateAccumulator()).add(partial);
+            first.putIfAbsent(key, row);
+        }
+        List<TripAggregationResult> results = new ArrayList<>(merged.size());
+        for (Map.Entry<List<Object>, AggregateAccumulator> entry : merged.entrySet()) {
+            TripAggregationResult row = first.get(entry.getKey());
+            results.add(entry.getValue().toResult(row.taxiType(), row.vendor(), row.paymentType(), row.groups()));
+        }
+        return results;
+    }
+
+    /**
+     * Maps one row. Dimensions grouped in the row's set go to {@link TripAggregationResult#groups()}; payment type,
+     * vendor and taxi type also replace the query-wide labels of the row. Zone name dimensions map the grouped
+     * location ID to its name in {@code zones}. The aggregates are read into {@code aggregates}, an empty
+     * accumulator, which keeps their SQL NULLs.
+     */
+    private static @NotNull TripAggregationResult mapRow(@NotNull ResultSet rs, @NotNull TripQueryParams p,
+                                                         String taxiType, String vendor,
+                                                         @NotNull List<GroupDimension> dimensions, boolean multiSet,
+                                                         @NotNull TaxiZones zones,
+                                                         @NotNull AggregateAccumulator aggregates)
+            throws SQLException {
+        String payment = "all";
+        Map<String, String> groups = dimensions.isEmpty() ? Map.of() : new LinkedHashMap<>();
+        int groupingId = multiSet ? rs.getInt("grouping_id") : 0;
+        for (int i = 0; i < dimensions.size(); i++) {
+            // GROUPING() sets the bit of an aggregated-away dimension, the first argument being the highest bit
+            if ((groupingId & (1 << (dimensions.size() - 1 - i))) != 0) {
+                continue;
+            }
+            GroupDimension d = dimensions.get(i);
+            Object value = rs.getObject(dimensionAlias(d));
+            String text = d.isZoneName() ? zones.name(d, value) : value == null ? null : value.toString();
+            groups.put(d.key(), text);
+            switch (d) {
+                case PAYMENT_TYPE -> payment = paymentLabel(value);
+                case VENDOR -> vendor = text == null ? "Null" : VENDOR_MAP.getOrDefault(text, text);
+                case TAXI_TYPE -> taxiType = text == null ? "Null" : text;
+                default -> {
+                }
+            }
+        }
+
+        aggregates.add(
+                nullableDouble(rs, "min_fare"),
+                nullableDouble(rs, "max_fare"),
+                rs.getInt("trip_count"),
+                nullableDouble(rs, "total_fare"),
+                nullableDouble(rs, "total_toll_fare")
+        );
+        return aggregates.toResult(taxiType, vendor, payment, groups);
+    }
+
+    List<List<TripAggregationResult>> mapBatchResults(@NotNull ResultSet rs, @NotNull List<TripQueryParams> batch)
+            throws SQLException {
+        boolean grouped = batch.stream().anyMatch(TripQueryParams::isGroupByPayment);
+        int offset = grouped ? 2 : 1;
+        List<List<TripAggregationResult>> results = new ArrayList<>(batch.size());
+        AggregateAccumulator[] totals = new AggregateAccumulator[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            results.add(new ArrayList<>());
+            totals[i] = new AggregateAccumulator();
+        }
+        while (rs.next()) {
+            Object code = grouped ? rs.getObject(1) : null;
+            String payment = grouped ? paymentLabel(code) : "all";
+            Map<String, String> groups = grouped ? paymentGroup(code) : Map.of();
+            for (int i = 0; i < batch.size(); i++) {
+                TripQueryParams p = batch.get(i);
+                int col = offset + i * 5;
+                long count = rs.getLong(col + 2);
+                if (p.isGroupByPayment()) {
+                    if (count > 0) {
+                        results.get(i).add(new TripAggregationResult(taxiTypeLabel(p), vendorLabel(p), payment,
+                                rs.getDouble(col), rs.getDouble(col + 1), (int) count,
+                                rs.getDouble(col + 4), rs.getDouble(col + 3), groups));
+                    }
+                } else if (count > 0) {
+                    totals[i].add(nullableDouble(rs, col), nullableDouble(rs, col + 1), count,
+                            nullableDouble(rs, col + 3), nullableDouble(rs, col + 4));
+                }
+            }
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            TripQueryParams p = batch.get(i);
+            if (!p.isGroupByPayment()) {
+                results.get(i).add(totals[i].toResult(taxiTypeLabel(p), vendorLabel(p), "all"));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return the groups of a row grouped by payment type only.
+     */
+    public static @NotNull Map<String, String> paymentGroup(Object paymentType) {
+        Map<String, String> groups = new LinkedHashMap<>();
+        groups.put(GroupDimension.PAYMENT_TYPE.key(), paymentType == null ? null : paymentType.toString());
+        return groups;
+    }
+
+    private static Double nullableDouble(@NotNull ResultSet rs, int col) throws SQLException {
+        double value = rs.getDouble(col);
+        return rs.wasNull() ? null : value;
+    }
+
+    private static Double nullableDouble(@NotNull ResultSet rs, String column) throws SQLException {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    /**
+     * @return the label of a payment_type value; unknown codes are "all" and SQL NULL is "Null".
+     */
+    public static String paymentLabel(Object paymentType) {
+        return paymentType != null ? PAYMENT_MAP.getOrDefault(paymentType.toString(), "all") : "Null";
+    }
+
+    /**
+     * @return the taxi type shown on every result row of {@code p}.
+     */
+    public static String taxiTypeLabel(@NotNull TripQueryParams p) {
+        return TripQueryParams.EMPTY_VALUE.equals(p.getTaxiType())
+                ? "yellow and green"
+                : p.getTaxiType();
+    }
+
+    /**
+     * @return the vendor shown on every result row of {@code p}.
+     */
+    public static String vendorLabel(@NotNull TripQueryParams p) {
+        return TripQueryParams.EMPTY_VALUE.equals(p.getVendorID())
+                ? "all"
+                : VENDOR_MAP.get(p.getVendorID());
+    }
+}
@@ -0,0 +1,39 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Where {@link TripAggregatorService} reads trips from.
+ */
+public interface TripsSource {
+    /**
+     * @param p query params, which a source may use to leave out data that cannot match.
+     * @return the relation to select from: a table name or a table function call.
+     */
+    @NotNull String relation(@NotNull TripQueryParams p);
+
+    /**
+     * @return whether queries may be answered from the trips_rollup table of the same connection.
+     */
+    default boolean supportsRollup() {
+        return false;
+    }
+
+    /**
+     * @return the trips table of the connected database.
+     */
+    static @NotNull TripsSource table() {
+        return new TripsSource() {
+            @Override
+            public @NotNull String relation(@NotNull TripQueryParams p) {
+                return "trips";
+            }
+
+            @Override
+            public boolean supportsRollup() {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,21 @@
+package com.xiaodi.taxi.query.cache;
+
+/**
+ * Snapshot of the cache counters.
+ */
+public record CacheStats(long memoryHits, long diskHits, long misses, long invalidations) {
+    public long requests() {
+        return memoryHits + diskHits + misses;
+    }
+
+    public double hitRate() {
+        long requests = requests();
+        return requests == 0 ? 0 : (memoryHits + diskHits) / (double) requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("memory hits=%d, disk hits=%d, misses=%d, invalidations=%d, hit rate=%.1f%%",
+                memoryHits, diskHits, misses, invalidations, hitRate() * 100);
+    }
+}
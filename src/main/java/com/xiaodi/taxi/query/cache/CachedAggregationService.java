@@ -0,0 +1,203 @@
+package com.xiaodi.taxi.query.cache;
+
+import com.xiaodi.taxi.query.AggregationService;
+import com.xiaodi.taxi.query.ResultSink;
+import com.xiaodi.taxi.query.TripAggregatorService;
+import com.xiaodi.taxi.query.models.GroupDimension;
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches aggregate results in a memory tier and an optional disk tier, keyed on {@link QueryCacheKey}.
+ * Every lookup is checked against the database version stamp, so entries computed before an ETL run are
+ * never served after it.
+ * <p>
+ * Misses answered through a {@link ResultSink} are streamed straight from the delegate; results of more than
+ * {@link #MAX_CACHED_ROWS} rows are not cached.
+ */
+public class CachedAggregationService implements AggregationService {
+    public static final int MAX_CACHED_ROWS = 10_000;
+
+    /**
+     * Supplies the current database version, see {@link com.xiaodi.taxi.etl.DbVersionStamp}.
+     */
+    @FunctionalInterface
+    public interface VersionSource {
+        String currentVersion() throws SQLException;
+    }
+
+    private final AggregationService delegate;
+    private final ResultCache memory;
+    private final ResultCache disk;
+    private final VersionSource versionSource;
+    private final Clock clock;
+    private final int maxCachedRows;
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructor
+     * @param delegate service that answers cache misses.
+     * @param memory in-memory tier.
+     * @param disk on-disk tier, or null to keep results in memory only.
+     * @param versionSource current database version.
+     */
+    public CachedAggregationService(AggregationService delegate, ResultCache memory, ResultCache disk,
+                                    VersionSource versionSource) {
+        this(delegate, memory, disk, versionSource, Clock.systemUTC());
+    }
+
+    public CachedAggregationService(AggregationService delegate, ResultCache memory, ResultCache disk,
+                                    VersionSource versionSource, Clock clock) {
+        this(delegate, memory, disk, versionSource, clock, MAX_CACHED_ROWS);
+    }
+
+    public CachedAggregationService(AggregationService delegate, ResultCache memory, ResultCache disk,
+                                    VersionSource versionSource, Clock clock, int maxCachedRows) {
+        this.delegate = delegate;
+        this.memory = memory;
+        this.disk = disk;
+        this.versionSource = versionSource;
+        this.clock = clock;
+        this.maxCachedRows = maxCachedRows;
+    }
+
+    @Override
+    public List<TripAggregationResult> aggregate(TripQueryParams params) throws SQLException {
+        String key = QueryCacheKey.of(params);
+        String version = versionSource.currentVersion();
+
+        List<TripAggregationResult> cached = lookup(key, version, params);
+        if (cached != null) {
+            return cached;
+        }
+
+        misses.increment();
+        List<TripAggregationResult> rows = List.copyOf(delegate.aggregate(params));
+        store(key, version, rows);
+        return rows;
+    }
+
+    /**
+     * Hits are replayed from the cache. Misses are streamed from the delegate, buffering at most
+     * {@code maxCachedRows} rows to cache once the query completed.
+     */
+    @Override
+    public long aggregate(TripQueryParams params, ResultSink sink) throws SQLException, IOException {
+        String key = QueryCacheKey.of(params);
+        String version = versionSource.currentVersion();
+
+        List<TripAggregationResult> cached = lookup(key, version, params);
+        if (cached != null) {
+            for (TripAggregationResult row : cached) {
+                sink.accept(row);
+            }
+            return cached.size();
+        }
+
+        misses.increment();
+        List<TripAggregationResult> rows = new ArrayList<>();
+        long count = delegate.aggregate(params, row -> {
+            if (rows.size() <= maxCachedRows) {
+                rows.add(row);
+            }
+            sink.accept(row);
+        });
+        if (count <= maxCachedRows) {
+            store(key, version, List.copyOf(rows));
+        }
+        return count;
+    }
+
+    /**
+     * Answers the cached queries of {@code batch} from the cache and the others with one call to the delegate.
+     */
+    @Override
+    public List<List<TripAggregationResult>> aggregateBatch(List<TripQueryParams> batch) throws SQLException {
+        String version = versionSource.currentVersion();
+        List<List<TripAggregationResult>> results = new ArrayList<>(Collections.nCopies(batch.size(), null));
+        List<Integer> missed = new ArrayList<>();
+        List<TripQueryParams> pending = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            TripQueryParams params = batch.get(i);
+            List<TripAggregationResult> cached = lookup(QueryCacheKey.of(params), version, params);
+            results.set(i, cached);
+            if (cached == null) {
+                missed.add(i);
+                pending.add(params);
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            misses.add(pending.size());
+            List<List<TripAggregationResult>> answered = delegate.aggregateBatch(pending);
+            for (int j = 0; j < pending.size(); j++) {
+                List<TripAggregationResult> rows = List.copyOf(answered.get(j));
+                store(QueryCacheKey.of(pending.get(j)), version, rows);
+                results.set(missed.get(j), rows);
+            }
+        }
+        return results;
+    }
+
+    public CacheStats stats() {
+        long invalidations = memory.invalidations() + (disk == null ? 0 : disk.invalidations());
+        return new CacheStats(memoryHits.sum(), diskHits.sum(), misses.sum(), invalidations);
+    }
+
+    /**
+     * @return the rows cached for {@code key} at {@code version}, relabelled for {@code params}, or null on a miss.
+     */
+    private List<TripAggregationResult> lookup(String key, String version, TripQueryParams params) {
+        CachedResult cached = memory.get(key, version);
+        if (cached != null) {
+            memoryHits.increment();
+            return relabel(cached.rows(), params);
+        }
+        if (disk != null) {
+            cached = disk.get(key, version);
+            if (cached != null) {
+                diskHits.increment();
+                memory.put(key, cached);
+                return relabel(cached.rows(), params);
+            }
+        }
+        return null;
+    }
+
+    private void store(String key, String version, List<TripAggregationResult> rows) {
+        CachedResult result = new CachedResult(version, clock.millis(), rows);
+        memory.put(key, result);
+        if (disk != null) {
+            disk.put(key, result);
+        }
+    }
+
+    /**
+     * Equivalent params can differ in their display labels (e.g. "Yellow" vs "yellow"), so labels are re-derived
+     * from the params of the current call. A row grouped by vendor or taxi type keeps the label of its group.
+     */
+    private static @NotNull List<TripAggregationResult> relabel(@NotNull List<TripAggregationResult> rows,
+                                                                TripQueryParams params) {
+        String taxiType = TripAggregatorService.taxiTypeLabel(params);
+        String vendor = TripAggregatorService.vendorLabel(params);
+        return rows.stream()
+                .map(r -> new TripAggregationResult(
+                        r.groups().containsKey(GroupDimension.TAXI_TYPE.key()) ? r.taxiType() : taxiType,
+                        r.groups().containsKey(GroupDimension.VENDOR.key()) ? r.vendor() : vendor,
+                        r.paymentType(), r.minFare(), r.maxFare(), r.tripCount(), r.totalTollFare(), r.totalFare(),
+                        r.groups(), r.approximation()))
+                .toList();
+    }
+}
@@ -0,0 +1,14 @@
+package com.xiaodi.taxi.query.cache;
+
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+
+import java.util.List;
+
+/**
+ * A cached query answer with the database version it was computed on.
+ */
+public record CachedResult(String version, long createdAtMillis, List<TripAggregationResult> rows) {
+    public boolean isValid(String currentVersion, long nowMillis, long ttlMillis) {
+        return version.equals(currentVersion) && nowMillis - createdAtMillis < ttlMillis;
+    }
+}
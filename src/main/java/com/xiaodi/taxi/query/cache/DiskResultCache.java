@@ -0,0 +1,204 @@
+package com.xiaodi.taxi.query.cache;
+
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.stream.Stream;
+
+/**
+ * On-disk tier that survives CLI restarts: one small text file per key, bounded by total bytes and TTL.
+ * File modification times are refreshed on every hit, so size eviction drops the least recently used entries.
+ */
+public class DiskResultCache implements ResultCache {
+    private static final String SUFFIX = ".cache";
+    private static final String NULL = "~";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final Clock clock;
+    private long invalidations;
+
+    public DiskResultCache(Path directory, long maxBytes, long ttlMillis) {
+        this(directory, maxBytes, ttlMillis, Clock.systemUTC());
+    }
+
+    public DiskResultCache(Path directory, long maxBytes, long ttlMillis, Clock clock) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    @Override
+    public synchronized CachedResult get(String key, String version) {
+        Path file = fileOf(key);
+        if (Files.notExists(file)) {
+            return null;
+        }
+        try {
+            CachedResult result = read(file, key);
+            if (result == null || !result.isValid(version, clock.millis(), ttlMillis)) {
+                Files.deleteIfExists(file);
+                invalidations++;
+                return null;
+            }
+            Files.setLastModifiedTime(file, FileTime.fromMillis(clock.millis()));
+            return result;
+        } catch (IOException | RuntimeException e) {
+            // A corrupt or concurrently removed entry is just a miss
+            return null;
+        }
+    }
+
+    /**
+     * Writes an entry. The disk tier is only an optimization, so an entry that cannot be written (full disk,
+     * read-only directory) is reported and skipped rather than failing the query it belongs to.
+     */
+    @Override
+    public synchronized void put(String key, CachedResult result) {
+        Path tmp = null;
+        try {
+            Files.createDirectories(directory);
+            Path file = fileOf(key);
+            tmp = Files.createTempFile(directory, "entry", ".tmp");
+            Files.write(tmp, serialize(key, result), StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            evict();
+        } catch (IOException e) {
+            System.err.println("Could not write cache entry in " + directory + ": " + e.getMessage());
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                    // a stray .tmp file is never read as an entry
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized long invalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Drops expired entries, then the least recently used ones until the directory fits in {@code maxBytes}.
+     */
+    private void evict() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = new ArrayList<>(list.filter(p -> p.toString().endsWith(SUFFIX)).toList());
+        }
+        files.sort(Comparator.comparingLong(DiskResultCache::lastModified));
+        long now = clock.millis();
+        long total = 0;
+        for (Path file : files) {
+            total += Files.size(file);
+        }
+        for (Path file : files) {
+            if (total <= maxBytes && now - lastModified(file) < ttlMillis) {
+                continue;
+            }
+            long size = Files.size(file);
+            if (Files.deleteIfExists(file)) {
+                total -= size;
+            }
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private Path fileOf(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(HexFormat.of().formatHex(hash) + SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static @NotNull List<String> serialize(String key, @NotNull CachedResult result) {
+        List<String> lines = new ArrayList<>();
+        lines.add(encode(key));
+        lines.add(encode(result.version()));
+        lines.add(Long.toString(result.createdAtMillis()));
+        for (TripAggregationResult row : result.rows()) {
+            lines.add(String.join("\t",
+                    encode(row.taxiType()), encode(row.vendor()), encode(row.paymentType()),
+                    Double.toString(row.minFare()), Double.toString(row.maxFare()), Integer.toString(row.tripCount()),
+                    Double.toString(row.totalTollFare()), Double.toString(row.totalFare()), encodeGroups(row.groups())));
+        }
+        return lines;
+    }
+
+    private static CachedResult read(Path file, String key) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if (lines.size() < 3 || !key.equals(decode(lines.get(0)))) {
+            // hash collision or truncated entry
+            return null;
+        }
+        List<TripAggregationResult> rows = new ArrayList<>();
+        for (String line : lines.subList(3, lines.size())) {
+            String[] f = line.split("\t", -1);
+            if (f.length < 9) {
+                // written before rows carried their groups
+                return null;
+            }
+            rows.add(new TripAggregationResult(decode(f[0]), decode(f[1]), decode(f[2]),
+                    Double.parseDouble(f[3]), Double.parseDouble(f[4]), Integer.parseInt(f[5]),
+                    Double.parseDouble(f[6]), Double.parseDouble(f[7]), decodeGroups(f[8])));
+        }
+        return new CachedResult(decode(lines.get(1)), Long.parseLong(lines.get(2)), rows);
+    }
+
+    /**
+     * @return {@code key=value} pairs joined by {@code &}, both sides encoded.
+     */
+    private static @NotNull String encodeGroups(@NotNull Map<String, String> groups) {
+        StringJoiner pairs = new StringJoiner("&");
+        groups.forEach((key, value) -> pairs.add(encode(key) + "=" + encode(value)));
+        return pairs.toString();
+    }
+
+    private static @NotNull Map<String, String> decodeGroups(@NotNull String field) {
+        Map<String, String> groups = new LinkedHashMap<>();
+        if (!field.isEmpty()) {
+            for (String pair : field.split("&")) {
+                int eq = pair.indexOf('=');
+                groups.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+            }
+        }
+        return groups;
+    }
+
+    private static String encode(String value) {
+        return value == null ? NULL : URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String decode(String value) {
+        return NULL.equals(value) ? null : URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
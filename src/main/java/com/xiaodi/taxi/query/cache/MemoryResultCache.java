@@ -0,0 +1,58 @@
+package com.xiaodi.taxi.query.cache;
+
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory LRU tier, bounded by entry count and TTL.
+ */
+public class MemoryResultCache implements ResultCache {
+    private final Map<String, CachedResult> entries;
+    private final long ttlMillis;
+    private final Clock clock;
+    private long invalidations;
+
+    public MemoryResultCache(int maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, Clock.systemUTC());
+    }
+
+    public MemoryResultCache(int maxEntries, long ttlMillis, Clock clock) {
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public synchronized CachedResult get(String key, String version) {
+        CachedResult result = entries.get(key);
+        if (result == null) {
+            return null;
+        }
+        if (!result.isValid(version, clock.millis(), ttlMillis)) {
+            entries.remove(key);
+            invalidations++;
+            return null;
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void put(String key, CachedResult result) {
+        entries.put(key, result);
+    }
+
+    @Override
+    public synchronized long invalidations() {
+        return invalidations;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
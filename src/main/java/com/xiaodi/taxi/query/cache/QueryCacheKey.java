@@ -0,0 +1,56 @@
+package com.xiaodi.taxi.query.cache;
+
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Canonical cache key of a {@link TripQueryParams}: params that produce the same SQL filters map to the same key.
+ * Params are already trimmed and their IDs canonical when built; on top of that, {@code "2025-06-01"} and
+ * {@code "2025-06-01 00:00:00"} are the same bound to DuckDB, and so are {@code "Yellow"} and {@code "yellow"}.
+ * Display labels derived from the params are not part of the key.
+ */
+public final class QueryCacheKey {
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private QueryCacheKey() {
+    }
+
+    public static @NotNull String of(@NotNull TripQueryParams p) {
+        return "pickup=" + datetime(p.getPickupDatetime()) +
+                "|dropoff=" + datetime(p.getDropoffDatetime()) +
+                "|pu=" + p.getPuLocationID() +
+                "|do=" + p.getDoLocationID() +
+                "|vendor=" + p.getVendorID() +
+                "|taxi=" + taxiType(p.getTaxiType()) +
+                "|groupByPayment=" + p.isGroupByPayment() +
+                (p.hasCustomGrouping() ? "|groups=" + p.groupingKey() : "") +
+                (p.locationSetKey().isEmpty() ? "" : "|" + p.locationSetKey());
+    }
+
+    private static String datetime(String value) {
+        if (TripQueryParams.EMPTY_VALUE.equals(value)) {
+            return TripQueryParams.EMPTY_VALUE;
+        }
+        try {
+            return LocalDateTime.parse(value, DATE_TIME).format(DATE_TIME);
+        } catch (DateTimeParseException e) {
+            // not a full timestamp
+        }
+        try {
+            return LocalDate.parse(value).atStartOfDay().format(DATE_TIME);
+        } catch (DateTimeParseException e) {
+            return value;
+        }
+    }
+
+    private static String taxiType(String value) {
+        // The service only filters on yellow and green; anything else reads every taxi type
+        String v = value.toLowerCase();
+        return "yellow".equals(v) || "green".equals(v) ? v : TripQueryParams.EMPTY_VALUE;
+    }
+}
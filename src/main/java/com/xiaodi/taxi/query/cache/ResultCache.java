@@ -0,0 +1,20 @@
+package com.xiaodi.taxi.query.cache;
+
+/**
+ * One tier of the query result cache.
+ */
+public interface ResultCache {
+    /**
+     * @param key canonical key, see {@link QueryCacheKey}.
+     * @param version current database version; entries of other versions are invalid.
+     * @return the cached result, or null when absent, expired or of another version.
+     */
+    CachedResult get(String key, String version);
+
+    void put(String key, CachedResult result);
+
+    /**
+     * @return the number of entries dropped because their version or TTL did not match on read.
+     */
+    long invalidations();
+}
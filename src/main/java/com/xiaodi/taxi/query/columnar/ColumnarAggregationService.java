@@ -0,0 +1,307 @@
+package com.xiaodi.taxi.query.columnar;
+
+import com.xiaodi.taxi.query.AggregateAccumulator;
+import com.xiaodi.taxi.query.AggregationService;
+import com.xiaodi.taxi.query.TripAggregatorService;
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Serial;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * In-JVM engine for the aggregate of {@link TripAggregatorService#aggregate(TripQueryParams)} over a
+ * {@link ColumnarTripsFile}: no JDBC round trip, no SQL parsing or planning.
+ * <p>
+ * Filters and aggregates follow the SQL semantics of the DuckDB query: rows with a NULL in a filtered column never
+ * match, MIN/MAX/SUM skip NULL values and COUNT counts rows. NaN fares and tolls are skipped like NULLs, see
+ * {@link ColumnarTripsFile}. Rows are split into ranges scanned in parallel on a
+ * fork-join pool; the scan loops only touch primitives and preallocated per-task arrays. Counts, minima and maxima
+ * are identical to DuckDB's. Sums use compensated (Neumaier) summation, so they may differ from DuckDB's plain
+ * floating point sum, whose last digits depend on its own summation order, by rounding only.
+ * <p>
+ * Grouping is limited to payment type; queries with other {@link com.xiaodi.taxi.query.models.GroupDimension}s
+ * are rejected.
+ */
+public class ColumnarAggregationService implements AggregationService {
+    static final int MIN_SPLIT_ROWS = 1 << 16;
+    static final int MAX_PAYMENT_GROUPS = 1 << 16;
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final ColumnarTripsFile file;
+    private final ForkJoinPool pool;
+
+    public ColumnarAggregationService(ColumnarTripsFile file) {
+        this(file, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor
+     * @param file columnar trips.
+     * @param pool pool the scan runs on.
+     */
+    public ColumnarAggregationService(ColumnarTripsFile file, ForkJoinPool pool) {
+        this.file = file;
+        this.pool = pool;
+    }
+
+    @Override
+    public List<TripAggregationResult> aggregate(@NotNull TripQueryParams params) {
+        if (params.hasCustomGrouping()) {
+            throw new IllegalArgumentException("The columnar engine only groups by payment type, use --engine=duckdb");
+        }
+        if (!params.locationSetKey().isEmpty()) {
+            throw new IllegalArgumentException("The columnar engine does not filter by borough or zone, use --engine=duckdb");
+        }
+        Filter filter = Filter.of(params, file);
+        Partial total = pool.invoke(new ScanTask(file, filter, 0, file.rowCount()));
+
+        String taxiType = TripAggregatorService.taxiTypeLabel(params);
+        String vendor = TripAggregatorService.vendorLabel(params);
+        List<TripAggregationResult> results = new ArrayList<>();
+        if (!params.isGroupByPayment()) {
+            AggregateAccumulator all = new AggregateAccumulator();
+            for (int g = 0; g < total.count.length; g++) {
+                total.addTo(all, g);
+            }
+            results.add(all.toResult(taxiType, vendor, "all"));
+            return results;
+        }
+        for (int g = 0; g < total.count.length; g++) {
+            if (total.count[g] > 0) {
+                AggregateAccumulator group = new AggregateAccumulator();
+                total.addTo(group, g);
+                Object code = g == filter.nullGroup ? null : filter.minPayment + g;
+                results.add(group.toResult(taxiType, vendor, TripAggregatorService.paymentLabel(code),
+                        TripAggregatorService.paymentGroup(code)));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Parses a datetime bound the way DuckDB casts it to TIMESTAMP: {@code yyyy-MM-dd HH:mm:ss} or a date.
+     * @return microseconds since 1970-01-01 00:00:00.
+     */
+    static long toMicros(@NotNull String value) {
+        String v = value.trim();
+        LocalDateTime t;
+        try {
+            t = LocalDateTime.parse(v, DATE_TIME);
+        } catch (DateTimeParseException e) {
+            t = LocalDate.parse(v).atStartOfDay();
+        }
+        return t.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + t.getNano() / 1_000;
+    }
+
+    /**
+     * The query's filters as primitives. Groups are payment types {@code minPayment + g}, plus one group for NULL.
+     */
+    record Filter(boolean hasPickup, long pickupMin, boolean hasDropoff, long dropoffMax,
+                  boolean hasPu, int pu, boolean hasDo, int doLocation, boolean hasVendor, int vendor,
+                  boolean hasTaxiType, byte taxiType, boolean grouped, int minPayment, int groups, int nullGroup) {
+
+        static @NotNull Filter of(@NotNull TripQueryParams p, @NotNull ColumnarTripsFile file) {
+            String pickup = p.getPickupDatetime();
+            String dropoff = p.getDropoffDatetime();
+            String taxi = p.getTaxiType();
+            boolean hasTaxiType = "yellow".equalsIgnoreCase(taxi) || "green".equalsIgnoreCase(taxi);
+            boolean anyPayment = file.minPaymentType() != ColumnarTripsFile.NULL_INT;
+            int minPayment = anyPayment ? file.minPaymentType() : 0;
+            int codes = anyPayment ? file.maxPaymentType() - file.minPaymentType() + 1 : 0;
+            boolean grouped = p.isGroupByPayment();
+            if (grouped && codes > MAX_PAYMENT_GROUPS) {
+                throw new IllegalStateException("Payment types span " + codes + " codes, too many to group in memory");
+            }
+            return new Filter(
+                    !isWildcard(pickup), isWildcard(pickup) ? 0 : toMicros(pickup),
+                    !isWildcard(dropoff), isWildcard(dropoff) ? 0 : toMicros(dropoff),
+                    !isWildcard(p.getPuLocationID()), parseInt(p.getPuLocationID()),
+                    !isWildcard(p.getDoLocationID()), parseInt(p.getDoLocationID()),
+                    !isWildcard(p.getVendorID()), parseInt(p.getVendorID()),
+                    hasTaxiType, "green".equalsIgnoreCase(taxi) ? ColumnarTripsFile.GREEN : ColumnarTripsFile.YELLOW,
+                    grouped, minPayment, grouped ? codes + 1 : 1, grouped ? codes : 0);
+        }
+
+        private static boolean isWildcard(String value) {
+            return TripQueryParams.EMPTY_VALUE.equals(value);
+        }
+
+        private static int parseInt(String value) {
+            return isWildcard(value) ? 0 : Integer.parseInt(value);
+        }
+    }
+
+    /**
+     * Per group partial aggregates of a row range.
+     */
+    static final class Partial {
+        final long[] count;
+        final double[] min;
+        final double[] max;
+        final double[] fareSum;
+        final double[] fareComp;
+        final double[] tollSum;
+        final double[] tollComp;
+        final boolean[] hasFare;
+        final boolean[] hasToll;
+
+        Partial(int groups) {
+            count = new long[groups];
+            min = new double[groups];
+            max = new double[groups];
+            fareSum = new double[groups];
+            fareComp = new double[groups];
+            tollSum = new double[groups];
+            tollComp = new double[groups];
+            hasFare = new boolean[groups];
+            hasToll = new boolean[groups];
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        }
+
+        void merge(@NotNull Partial o) {
+            for (int g = 0; g < count.length; g++) {
+                count[g] += o.count[g];
+                min[g] = Math.min(min[g], o.min[g]);
+                max[g] = Math.max(max[g], o.max[g]);
+                hasFare[g] |= o.hasFare[g];
+                hasToll[g] |= o.hasToll[g];
+                fareComp[g] += o.fareComp[g] + neumaierError(fareSum[g], o.fareSum[g]);
+                fareSum[g] += o.fareSum[g];
+                tollComp[g] += o.tollComp[g] + neumaierError(tollSum[g], o.tollSum[g]);
+                tollSum[g] += o.tollSum[g];
+            }
+        }
+
+        void addTo(@NotNull AggregateAccumulator acc, int g) {
+            if (count[g] == 0) {
+                return;
+            }
+            acc.add(hasFare[g] ? min[g] : null, hasFare[g] ? max[g] : null, count[g],
+                    hasFare[g] ? fareSum[g] + fareComp[g] : null, hasToll[g] ? tollSum[g] + tollComp[g] : null);
+        }
+    }
+
+    /**
+     * @return the rounding error of {@code sum + value}, to be added to the compensation term.
+     */
+    static double neumaierError(double sum, double value) {
+        double t = sum + value;
+        return Math.abs(sum) >= Math.abs(value) ? (sum - t) + value : (value - t) + sum;
+    }
+
+    /**
+     * Scans rows {@code [from, to)}, splitting in halves down to {@link #MIN_SPLIT_ROWS} rows within one chunk.
+     */
+    static final class ScanTask extends RecursiveTask<Partial> {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        // fork/join tasks are never serialized; the memory-mapped file and its filter could not be anyway
+        private final transient ColumnarTripsFile file;
+        private final transient Filter f;
+        private final long from;
+        private final long to;
+
+        ScanTask(ColumnarTripsFile file, Filter f, long from, long to) {
+            this.file = file;
+            this.f = f;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            long chunkEnd = (from / ColumnarTripsFile.CHUNK_ROWS + 1) * ColumnarTripsFile.CHUNK_ROWS;
+            if (to - from > MIN_SPLIT_ROWS || to > chunkEnd) {
+                long mid = to > chunkEnd ? chunkEnd : from + (to - from) / 2;
+                ScanTask left = new ScanTask(file, f, from, mid);
+                left.fork();
+                Partial right = new ScanTask(file, f, mid, to).compute();
+                Partial result = left.join();
+                result.merge(right);
+                return result;
+            }
+            Partial p = new Partial(f.groups());
+            if (from < to) {
+                int chunk = (int) (from / ColumnarTripsFile.CHUNK_ROWS);
+                int offset = (int) ((long) chunk * ColumnarTripsFile.CHUNK_ROWS);
+                scan(p, chunk, (int) (from - offset), (int) (to - offset));
+            }
+            return p;
+        }
+
+        private void scan(Partial p, int chunk, int start, int end) {
+            LongBuffer pickup = file.pickup[chunk];
+            LongBuffer dropoff = file.dropoff[chunk];
+            IntBuffer pu = file.puLocation[chunk];
+            IntBuffer dropoffZone = file.doLocation[chunk];
+            IntBuffer vendor = file.vendor[chunk];
+            ByteBuffer taxiType = file.taxiType[chunk];
+            IntBuffer payment = file.paymentType[chunk];
+            DoubleBuffer fare = file.fare[chunk];
+            DoubleBuffer tolls = file.tolls[chunk];
+            long[] count = p.count;
+            double[] min = p.min;
+            double[] max = p.max;
+            double[] fareSum = p.fareSum;
+            double[] fareComp = p.fareComp;
+            double[] tollSum = p.tollSum;
+            double[] tollComp = p.tollComp;
+            boolean[] hasFare = p.hasFare;
+            boolean[] hasToll = p.hasToll;
+
+            for (int i = start; i < end; i++) {
+                if (f.hasPickup()) {
+                    long v = pickup.get(i);
+                    if (v == ColumnarTripsFile.NULL_TIMESTAMP || v < f.pickupMin()) continue;
+                }
+                if (f.hasDropoff()) {
+                    long v = dropoff.get(i);
+                    if (v == ColumnarTripsFile.NULL_TIMESTAMP || v > f.dropoffMax()) continue;
+                }
+                // NULL_INT never equals a parsed id, so NULLs are filtered out as in SQL
+                if (f.hasPu() && pu.get(i) != f.pu()) continue;
+                if (f.hasDo() && dropoffZone.get(i) != f.doLocation()) continue;
+                if (f.hasVendor() && vendor.get(i) != f.vendor()) continue;
+                if (f.hasTaxiType() && taxiType.get(i) != f.taxiType()) continue;
+
+                int g = 0;
+                if (f.grouped()) {
+                    int code = payment.get(i);
+                    g = code == ColumnarTripsFile.NULL_INT ? f.nullGroup() : code - f.minPayment();
+                }
+                count[g]++;
+                double fv = fare.get(i);
+                if (!Double.isNaN(fv)) {
+                    if (fv < min[g]) min[g] = fv;
+                    if (fv > max[g]) max[g] = fv;
+                    fareComp[g] += neumaierError(fareSum[g], fv);
+                    fareSum[g] += fv;
+                    hasFare[g] = true;
+                }
+                double tv = tolls.get(i);
+                if (!Double.isNaN(tv)) {
+                    tollComp[g] += neumaierError(tollSum[g], tv);
+                    tollSum[g] += tv;
+                    hasToll[g] = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.xiaodi.taxi.query.columnar;
+
+import com.xiaodi.taxi.etl.DbVersionStamp;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+
+/**
+ * Exports the columns the aggregate query reads from the trips table into a {@link ColumnarTripsFile}.
+ * <p>
+ * Rows are read in rowid ranges of {@link #BATCH_ROWS}, so neither DuckDB nor the JDBC driver materializes the whole
+ * table, and keep their table order (the pickup time order when the ETL ran with {@code --cluster}).
+ */
+public class ColumnarExporter {
+    static final long BATCH_ROWS = 1_000_000;
+    static final String SELECT_RANGE =
+            "SELECT epoch_us(pickup_datetime), epoch_us(dropoff_datetime), pu_location_id, do_location_id, " +
+                    "vendor_id, payment_type, taxi_type, fare_amount, tolls_amount " +
+                    "FROM trips WHERE rowid >= ? AND rowid < ? ORDER BY rowid";
+
+    private final Connection connection;
+
+    /**
+     * Constructor
+     * @param connection connection to the trips database.
+     */
+    public ColumnarExporter(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Maps {@code file} when it was exported from the current version of the database, exports it again otherwise.
+     * @param dbFile DuckDB file, whose version stamp the export is tagged with.
+     * @param file columnar file.
+     */
+    public @NotNull ColumnarTripsFile openOrExport(@NotNull Path dbFile, @NotNull Path file)
+            throws IOException, SQLException {
+        String version = DbVersionStamp.read(dbFile);
+        if (Files.exists(file)) {
+            try {
+                ColumnarTripsFile existing = ColumnarTripsFile.open(file);
+                if (version.equals(existing.version())) {
+                    return existing;
+                }
+            } catch (IOException e) {
+                // older format or truncated, export again
+            }
+        }
+        export(file, version);
+        return ColumnarTripsFile.open(file);
+    }
+
+    /**
+     * Writes all trips to {@code file}, replacing it.
+     * @param file columnar file.
+     * @param version version stamp to tag the file with.
+     * @return number of rows exported.
+     */
+    public long export(@NotNull Path file, @NotNull String version) throws IOException, SQLException {
+        long rows;
+        long maxRowId;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*), COALESCE(MAX(rowid), -1) FROM trips")) {
+            rs.next();
+            rows = rs.getLong(1);
+            maxRowId = rs.getLong(2);
+        }
+        try (ColumnarTripsFile.Writer writer = ColumnarTripsFile.create(file, rows, version);
+             PreparedStatement ps = connection.prepareStatement(SELECT_RANGE)) {
+            for (long from = 0; from <= maxRowId; from += BATCH_ROWS) {
+                ps.setLong(1, from);
+                ps.setLong(2, from + BATCH_ROWS);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        addRow(writer, rs);
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static void addRow(@NotNull ColumnarTripsFile.Writer writer, @NotNull ResultSet rs) throws SQLException {
+        long pickup = rs.getLong(1);
+        if (rs.wasNull()) pickup = ColumnarTripsFile.NULL_TIMESTAMP;
+        long dropoff = rs.getLong(2);
+        if (rs.wasNull()) dropoff = ColumnarTripsFile.NULL_TIMESTAMP;
+        int pu = intOrNull(rs, 3);
+        int doLocation = intOrNull(rs, 4);
+        int vendor = intOrNull(rs, 5);
+        int payment = intOrNull(rs, 6);
+        byte taxiType = taxiTypeCode(rs.getString(7));
+        double fare = rs.getDouble(8);
+        if (rs.wasNull()) fare = Double.NaN;
+        double tolls = rs.getDouble(9);
+        if (rs.wasNull()) tolls = Double.NaN;
+        writer.add(pickup, dropoff, pu, doLocation, vendor, payment, taxiType, fare, tolls);
+    }
+
+    private static int intOrNull(@NotNull ResultSet rs, int column) throws SQLException {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? ColumnarTripsFile.NULL_INT : value;
+    }
+
+    static byte taxiTypeCode(String taxiType) {
+        if ("yellow".equals(taxiType)) return ColumnarTripsFile.YELLOW;
+        if ("green".equals(taxiType)) return ColumnarTripsFile.GREEN;
+        return ColumnarTripsFile.OTHER_TAXI_TYPE;
+    }
+}
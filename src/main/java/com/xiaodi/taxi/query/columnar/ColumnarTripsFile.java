@@ -0,0 +1,291 @@
+package com.xiaodi.taxi.query.columnar;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory-mapped, primitive-typed columnar copy of the trips columns the aggregate query reads.
+ * <p>
+ * Layout: a {@link #HEADER_BYTES} header (magic, format version, row count, payment_type range and the version
+ * stamp of the database it was exported from), followed by one little-endian array per {@link Column}, each
+ * starting on an 8 byte boundary. Columns are mapped in chunks of {@link #CHUNK_ROWS} rows, so files larger than
+ * 2 GB per column are supported. SQL NULLs are stored as {@link #NULL_TIMESTAMP}, {@link #NULL_INT}, NaN for
+ * doubles and {@link #OTHER_TAXI_TYPE}. A NaN fare or toll in trips is therefore read back as NULL: TLC fares are
+ * never NaN (nor can compact DECIMAL fares be), and a validity column would add a byte per row to every scan.
+ * <p>
+ * The data lives in the page cache, not on the Java heap; the mappings stay valid after the file channel is
+ * closed and are released when the file object is garbage collected.
+ */
+public final class ColumnarTripsFile {
+    static final long MAGIC = 0x5452495053434F4CL; // "TRIPSCOL"
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_BYTES = 512;
+    static final int CHUNK_ROWS = 1 << 24;
+    private static final int MAX_VERSION_BYTES = HEADER_BYTES - 40;
+
+    public static final long NULL_TIMESTAMP = Long.MIN_VALUE;
+    public static final int NULL_INT = Integer.MIN_VALUE;
+    public static final byte YELLOW = 0;
+    public static final byte GREEN = 1;
+    public static final byte OTHER_TAXI_TYPE = -1;
+
+    enum Column {
+        PICKUP(8), DROPOFF(8), FARE(8), TOLLS(8), PU_LOCATION(4), DO_LOCATION(4), VENDOR(4), PAYMENT_TYPE(4),
+        TAXI_TYPE(1);
+
+        final int width;
+
+        Column(int width) {
+            this.width = width;
+        }
+    }
+
+    private final long rowCount;
+    private final int minPaymentType;
+    private final int maxPaymentType;
+    private final String version;
+    final LongBuffer[] pickup;
+    final LongBuffer[] dropoff;
+    final DoubleBuffer[] fare;
+    final DoubleBuffer[] tolls;
+    final IntBuffer[] puLocation;
+    final IntBuffer[] doLocation;
+    final IntBuffer[] vendor;
+    final IntBuffer[] paymentType;
+    final ByteBuffer[] taxiType;
+
+    private ColumnarTripsFile(FileChannel channel, long rowCount, int minPaymentType, int maxPaymentType,
+                              String version) throws IOException {
+        this.rowCount = rowCount;
+        this.minPaymentType = minPaymentType;
+        this.maxPaymentType = maxPaymentType;
+        this.version = version;
+        int chunks = chunkCount(rowCount);
+        pickup = new LongBuffer[chunks];
+        dropoff = new LongBuffer[chunks];
+        fare = new DoubleBuffer[chunks];
+        tolls = new DoubleBuffer[chunks];
+        puLocation = new IntBuffer[chunks];
+        doLocation = new IntBuffer[chunks];
+        vendor = new IntBuffer[chunks];
+        paymentType = new IntBuffer[chunks];
+        taxiType = new ByteBuffer[chunks];
+        for (int c = 0; c < chunks; c++) {
+            pickup[c] = map(channel, Column.PICKUP, c, FileChannel.MapMode.READ_ONLY).asLongBuffer();
+            dropoff[c] = map(channel, Column.DROPOFF, c, FileChannel.MapMode.READ_ONLY).asLongBuffer();
+            fare[c] = map(channel, Column.FARE, c, FileChannel.MapMode.READ_ONLY).asDoubleBuffer();
+            tolls[c] = map(channel, Column.TOLLS, c, FileChannel.MapMode.READ_ONLY).asDoubleBuffer();
+            puLocation[c] = map(channel, Column.PU_LOCATION, c, FileChannel.MapMode.READ_ONLY).asIntBuffer();
+            doLocation[c] = map(channel, Column.DO_LOCATION, c, FileChannel.MapMode.READ_ONLY).asIntBuffer();
+            vendor[c] = map(channel, Column.VENDOR, c, FileChannel.MapMode.READ_ONLY).asIntBuffer();
+            paymentType[c] = map(channel, Column.PAYMENT_TYPE, c, FileChannel.MapMode.READ_ONLY).asIntBuffer();
+            taxiType[c] = map(channel, Column.TAXI_TYPE, c, FileChannel.MapMode.READ_ONLY);
+        }
+    }
+
+    /**
+     * Maps an existing file.
+     * @param file columnar file written by {@link Writer}.
+     */
+    public static @NotNull ColumnarTripsFile open(@NotNull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getLong(0) != MAGIC || header.getInt(8) != FORMAT_VERSION) {
+                throw new IOException("Not a columnar trips file (or an older format): " + file);
+            }
+            long rows = header.getLong(16);
+            int minPayment = header.getInt(24);
+            int maxPayment = header.getInt(28);
+            byte[] version = new byte[header.getInt(32)];
+            header.get(36, version);
+            if (channel.size() < fileSize(rows)) {
+                throw new IOException("Truncated columnar trips file: " + file);
+            }
+            return new ColumnarTripsFile(channel, rows, minPayment, maxPayment,
+                    new String(version, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Starts writing a file with exactly {@code rows} rows. The file is written to a temporary sibling and moved
+     * into place by {@link Writer#close()}, so a reader never maps a half-written file.
+     * @param file target file.
+     * @param rows number of rows that will be added.
+     * @param version version stamp of the exported data.
+     */
+    public static @NotNull Writer create(@NotNull Path file, long rows, @NotNull String version) throws IOException {
+        return new Writer(file, rows, version);
+    }
+
+    public long rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the version stamp of the database the file was exported from.
+     */
+    public @NotNull String version() {
+        return version;
+    }
+
+    /**
+     * @return the smallest non-null payment_type, or {@link #NULL_INT} when there is none.
+     */
+    int minPaymentType() {
+        return minPaymentType;
+    }
+
+    int maxPaymentType() {
+        return maxPaymentType;
+    }
+
+    int chunkCount() {
+        return pickup.length;
+    }
+
+    static int chunkCount(long rows) {
+        return (int) ((rows + CHUNK_ROWS - 1) / CHUNK_ROWS);
+    }
+
+    static int chunkRows(long rows, int chunk) {
+        return (int) Math.min(CHUNK_ROWS, rows - (long) chunk * CHUNK_ROWS);
+    }
+
+    private static long columnOffset(@NotNull Column column, long rows) {
+        long offset = HEADER_BYTES;
+        for (Column c : Column.values()) {
+            if (c == column) {
+                return offset;
+            }
+            offset += align8(rows * c.width);
+        }
+        throw new IllegalStateException();
+    }
+
+    private static long fileSize(long rows) {
+        Column[] columns = Column.values();
+        Column last = columns[columns.length - 1];
+        return columnOffset(last, rows) + rows * last.width;
+    }
+
+    private static long align8(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private @NotNull ByteBuffer map(@NotNull FileChannel channel, @NotNull Column column, int chunk,
+                                    FileChannel.MapMode mode) throws IOException {
+        return mapChunk(channel, column, rowCount, chunk, mode);
+    }
+
+    private static @NotNull ByteBuffer mapChunk(@NotNull FileChannel channel, @NotNull Column column, long rows,
+                                                int chunk, FileChannel.MapMode mode) throws IOException {
+        long offset = columnOffset(column, rows) + (long) chunk * CHUNK_ROWS * column.width;
+        long length = (long) chunkRows(rows, chunk) * column.width;
+        return channel.map(mode, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Appends rows to a new columnar file; see {@link #create(Path, long, String)}.
+     */
+    public static final class Writer implements AutoCloseable {
+        private final Path target;
+        private final Path tmp;
+        private final FileChannel channel;
+        private final long rows;
+        private final byte[] version;
+        private final ByteBuffer[][] chunks = new ByteBuffer[Column.values().length][];
+        private long written;
+        private int minPaymentType = Integer.MAX_VALUE;
+        private int maxPaymentType = Integer.MIN_VALUE;
+
+        private Writer(Path target, long rows, String version) throws IOException {
+            this.version = version.getBytes(StandardCharsets.UTF_8);
+            if (this.version.length > MAX_VERSION_BYTES) {
+                throw new IllegalArgumentException("Version stamp too long: " + version);
+            }
+            this.target = target;
+            this.tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            this.rows = rows;
+            Path parent = target.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            this.channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            for (Column column : Column.values()) {
+                ByteBuffer[] buffers = new ByteBuffer[chunkCount(rows)];
+                for (int c = 0; c < buffers.length; c++) {
+                    buffers[c] = mapChunk(channel, column, rows, c, FileChannel.MapMode.READ_WRITE);
+                }
+                chunks[column.ordinal()] = buffers;
+            }
+        }
+
+        /**
+         * Appends one row. Pass the NULL sentinels of {@link ColumnarTripsFile} for SQL NULLs.
+         * @param pickupMicros pickup_datetime in microseconds since 1970-01-01 00:00:00.
+         * @param dropoffMicros dropoff_datetime in microseconds since 1970-01-01 00:00:00.
+         */
+        public void add(long pickupMicros, long dropoffMicros, int puLocation, int doLocation, int vendor,
+                        int paymentType, byte taxiType, double fare, double tolls) {
+            if (written == rows) {
+                throw new IllegalStateException("All " + rows + " rows were already written");
+            }
+            int chunk = (int) (written / CHUNK_ROWS);
+            int i = (int) (written % CHUNK_ROWS);
+            chunks[Column.PICKUP.ordinal()][chunk].putLong(i * 8, pickupMicros);
+            chunks[Column.DROPOFF.ordinal()][chunk].putLong(i * 8, dropoffMicros);
+            chunks[Column.FARE.ordinal()][chunk].putDouble(i * 8, fare);
+            chunks[Column.TOLLS.ordinal()][chunk].putDouble(i * 8, tolls);
+            chunks[Column.PU_LOCATION.ordinal()][chunk].putInt(i * 4, puLocation);
+            chunks[Column.DO_LOCATION.ordinal()][chunk].putInt(i * 4, doLocation);
+            chunks[Column.VENDOR.ordinal()][chunk].putInt(i * 4, vendor);
+            chunks[Column.PAYMENT_TYPE.ordinal()][chunk].putInt(i * 4, paymentType);
+            chunks[Column.TAXI_TYPE.ordinal()][chunk].put(i, taxiType);
+            if (paymentType != NULL_INT) {
+                minPaymentType = Math.min(minPaymentType, paymentType);
+                maxPaymentType = Math.max(maxPaymentType, paymentType);
+            }
+            written++;
+        }
+
+        /**
+         * Writes the header and moves the file into place.
+         * @throws IOException also when fewer rows were added than announced.
+         */
+        @Override
+        public void close() throws IOException {
+            try (channel) {
+                if (written != rows) {
+                    Files.deleteIfExists(tmp);
+                    throw new IOException("Expected " + rows + " rows, got " + written);
+                }
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putLong(0, MAGIC);
+                header.putInt(8, FORMAT_VERSION);
+                header.putLong(16, rows);
+                header.putInt(24, minPaymentType > maxPaymentType ? NULL_INT : minPaymentType);
+                header.putInt(28, minPaymentType > maxPaymentType ? NULL_INT : maxPaymentType);
+                header.putInt(32, version.length);
+                header.put(36, version);
+                channel.write(header, 0);
+                for (ByteBuffer[] column : chunks) {
+                    for (ByteBuffer chunk : column) {
+                        ((MappedByteBuffer) chunk).force();
+                    }
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.xiaodi.taxi.query.models;
+
+/**
+ * Error bounds of an estimated result row. Each margin is the half width of the confidence interval of its
+ * aggregate, e.g. the trip count lies in {@code tripCount ± tripCountMargin} with probability {@code confidence}.
+ * @param confidence confidence level of the intervals, e.g. 0.95.
+ * @param sampleFraction share of the trips the estimate was computed from.
+ */
+public record Approximation(double confidence, double sampleFraction, double tripCountMargin,
+                            double totalFareMargin, double totalTollFareMargin) {
+
+    /**
+     * @return the largest margin relative to its estimate in {@code row}; infinite when an estimate is 0 but its
+     * margin is not.
+     */
+    public double relativeError(TripAggregationResult row) {
+        return Math.max(relative(tripCountMargin, row.tripCount()),
+                Math.max(relative(totalFareMargin, row.totalFare()), relative(totalTollFareMargin, row.totalTollFare())));
+    }
+
+    private static double relative(double margin, double estimate) {
+        if (margin == 0) {
+            return 0;
+        }
+        return estimate == 0 ? Double.POSITIVE_INFINITY : margin / Math.abs(estimate);
+    }
+}
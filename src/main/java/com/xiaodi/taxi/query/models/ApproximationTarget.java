@@ -0,0 +1,52 @@
+package com.xiaodi.taxi.query.models;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * What an approximate query aims for: estimates whose largest relative margin (see
+ * {@link Approximation#relativeError(TripAggregationResult)}) is at most {@code relativeError}, answered within
+ * {@code timeBudgetMillis}. When both cannot be met the time budget wins; a budget of 0 means no limit.
+ */
+public final class ApproximationTarget {
+    public static final double DEFAULT_RELATIVE_ERROR = 0.01;
+
+    private final double relativeError;
+    private final long timeBudgetMillis;
+
+    @Contract(pure = true)
+    private ApproximationTarget(@NotNull Builder b) {
+        this.relativeError = b.relativeError;
+        this.timeBudgetMillis = b.timeBudgetMillis;
+    }
+
+    @Contract(" -> new")
+    public static @NotNull Builder builder() { return new Builder(); }
+    public static final class Builder {
+        private double relativeError = DEFAULT_RELATIVE_ERROR;
+        private long timeBudgetMillis;
+
+        public Builder relativeError(double error) {
+            if (!(error > 0)) throw new IllegalArgumentException("relative error must be positive: " + error);
+            this.relativeError = error;
+            return this;
+        }
+        public Builder timeBudgetMillis(long millis) {
+            if (millis < 0) throw new IllegalArgumentException("time budget must not be negative: " + millis);
+            this.timeBudgetMillis = millis;
+            return this;
+        }
+        @Contract(value = " -> new", pure = true)
+        public @NotNull ApproximationTarget build() { return new ApproximationTarget(this); }
+    }
+
+    public double getRelativeError() { return relativeError; }
+    public long getTimeBudgetMillis() { return timeBudgetMillis; }
+
+    /**
+     * @return whether {@code elapsedNanos} still leaves time for another {@code moreNanos}.
+     */
+    public boolean fits(long elapsedNanos, double moreNanos) {
+        return timeBudgetMillis == 0 || elapsedNanos + moreNanos <= timeBudgetMillis * 1_000_000.0;
+    }
+}
@@ -0,0 +1,65 @@
+package com.xiaodi.taxi.query.models;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A column results can be grouped by. The key names the dimension on the command line and in
+ * {@link TripAggregationResult#groups()}.
+ */
+public enum GroupDimension {
+    PAYMENT_TYPE("payment_type"),
+    VENDOR("vendor"),
+    TAXI_TYPE("taxi_type"),
+    PU_LOCATION("pu_location"),
+    DO_LOCATION("do_location"),
+    /** Hour of day of the pickup, 0-23. */
+    PICKUP_HOUR("pickup_hour"),
+    /** Borough of the pickup location, from the taxi zone lookup. */
+    PU_BOROUGH("pu_borough"),
+    /** Zone name of the pickup location, from the taxi zone lookup. */
+    PU_ZONE("pu_zone"),
+    DO_BOROUGH("do_borough"),
+    DO_ZONE("do_zone");
+
+    private final String key;
+
+    GroupDimension(String key) {
+        this.key = key;
+    }
+
+    public @NotNull String key() {
+        return key;
+    }
+
+    /**
+     * @return whether the dimension is a name of the taxi zone lookup, grouped by location ID in SQL and mapped to
+     * the name afterwards.
+     */
+    public boolean isZoneName() {
+        return this == PU_BOROUGH || this == PU_ZONE || this == DO_BOROUGH || this == DO_ZONE;
+    }
+
+    /**
+     * @param value a dimension key, e.g. {@code pu_location}.
+     */
+    public static @NotNull GroupDimension parse(@NotNull String value) {
+        String v = value.trim();
+        for (GroupDimension dimension : values()) {
+            if (dimension.key.equals(v)) {
+                return dimension;
+            }
+        }
+        throw new IllegalArgumentException("Unknown group-by dimension: " + value + " (expected one of " +
+                describe(List.of(values())) + ")");
+    }
+
+    /**
+     * @return the keys of {@code dimensions}, comma separated.
+     */
+    public static @NotNull String describe(@NotNull List<GroupDimension> dimensions) {
+        return dimensions.stream().map(GroupDimension::key).collect(Collectors.joining(","));
+    }
+}
@@ -0,0 +1,62 @@
+package com.xiaodi.taxi.query.models;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Width of the buckets of a time series. Weeks start on Monday, like DuckDB's {@code date_trunc('week', ...)}.
+ */
+public enum TimeBucket {
+    HOUR("hour"),
+    DAY("day"),
+    WEEK("week");
+
+    private final String key;
+
+    TimeBucket(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @return the name of the bucket on the command line and in {@code date_trunc}.
+     */
+    public @NotNull String key() {
+        return key;
+    }
+
+    public static @NotNull TimeBucket parse(@NotNull String value) {
+        String v = value.trim().toLowerCase();
+        for (TimeBucket bucket : values()) {
+            if (bucket.key.equals(v)) {
+                return bucket;
+            }
+        }
+        throw new IllegalArgumentException("Unknown bucket: " + value + " (expected hour, day or week)");
+    }
+
+    /**
+     * @return the start of the bucket {@code t} falls in.
+     */
+    public @NotNull LocalDateTime truncate(@NotNull LocalDateTime t) {
+        return switch (this) {
+            case HOUR -> t.truncatedTo(ChronoUnit.HOURS);
+            case DAY -> t.truncatedTo(ChronoUnit.DAYS);
+            case WEEK -> t.truncatedTo(ChronoUnit.DAYS).with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        };
+    }
+
+    /**
+     * @return the start of the bucket after the one starting at {@code start}.
+     */
+    public @NotNull LocalDateTime next(@NotNull LocalDateTime start) {
+        return switch (this) {
+            case HOUR -> start.plusHours(1);
+            case DAY -> start.plusDays(1);
+            case WEEK -> start.plusWeeks(1);
+        };
+    }
+}
@@ -0,0 +1,16 @@
+package com.xiaodi.taxi.query.models;
+
+import java.time.LocalDateTime;
+
+/**
+ * Aggregates of the trips picked up in one bucket of a time series; a bucket without trips has a count of 0 and
+ * fares of 0.
+ * @param bucket start of the bucket.
+ */
+public record TimeSeriesPoint(LocalDateTime bucket, double minFare, double maxFare, long tripCount,
+                              double totalTollFare, double totalFare) {
+
+    public static TimeSeriesPoint empty(LocalDateTime bucket) {
+        return new TimeSeriesPoint(bucket, 0.0, 0.0, 0, 0.0, 0.0);
+    }
+}
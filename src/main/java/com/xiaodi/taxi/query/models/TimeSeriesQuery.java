@@ -0,0 +1,65 @@
+package com.xiaodi.taxi.query.models;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.LocalDateTime;
+
+/**
+ * Value object holding time series parameters: trips picked up in {@code [from, to)}, optionally of one taxi type
+ * and vendor, aggregated per {@link TimeBucket}. Both bounds are optional but must fall on a bucket boundary, so
+ * every bucket of the series is complete.
+ */
+public final class TimeSeriesQuery {
+    private final TimeBucket bucket;
+    private final LocalDateTime from;
+    private final LocalDateTime to;
+    private final String vendorID;
+    private final String taxiType;
+
+    @Contract(pure = true)
+    private TimeSeriesQuery(@NotNull Builder b) {
+        this.bucket = b.bucket;
+        this.from = b.from;
+        this.to = b.to;
+        this.vendorID = b.vendorID;
+        this.taxiType = b.taxiType;
+    }
+
+    @Contract(" -> new")
+    public static @NotNull Builder builder() { return new Builder(); }
+    public static final class Builder {
+        private TimeBucket bucket = TimeBucket.DAY;
+        private LocalDateTime from;
+        private LocalDateTime to;
+        private String vendorID = TripQueryParams.EMPTY_VALUE;
+        private String taxiType = TripQueryParams.EMPTY_VALUE;
+
+        public Builder bucket(@NotNull TimeBucket bucket) { this.bucket = bucket; return this; }
+        public Builder from(LocalDateTime from) { this.from = from; return this; }
+        public Builder to(LocalDateTime to) { this.to = to; return this; }
+        public Builder vendorID(String id) { this.vendorID = id; return this; }
+        public Builder taxiType(String type) { this.taxiType = type; return this; }
+        @Contract(value = " -> new", pure = true)
+        public @NotNull TimeSeriesQuery build() {
+            if (from != null && !bucket.truncate(from).equals(from)) {
+                throw new IllegalArgumentException("from must start a " + bucket.key() + ": " + from);
+            }
+            if (to != null && !bucket.truncate(to).equals(to)) {
+                throw new IllegalArgumentException("to must start a " + bucket.key() + ": " + to);
+            }
+            if (from != null && to != null && !from.isBefore(to)) {
+                throw new IllegalArgumentException("from must be before to");
+            }
+            return new TimeSeriesQuery(this);
+        }
+    }
+
+    public TimeBucket getBucket() { return bucket; }
+    /** Inclusive lower bound of the pickup time, null for none. */
+    public LocalDateTime getFrom() { return from; }
+    /** Exclusive upper bound of the pickup time, null for none. */
+    public LocalDateTime getTo() { return to; }
+    public String getVendorID() { return vendorID; }
+    public String getTaxiType() { return taxiType; }
+}
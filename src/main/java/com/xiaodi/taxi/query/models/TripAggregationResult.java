@@ -1,8 +1,40 @@
 package com.xiaodi.taxi.query.models;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Represents an aggregated result row.
+ * @param groups values of the row's grouping dimensions by {@link GroupDimension#key()}, in query order; a null
+ *               value is a SQL NULL. Dimensions aggregated away in the row's grouping set are absent.
+ * @param approximation error bounds when the row was estimated from a sample, null when it is exact.
  */
 public record TripAggregationResult(String taxiType, String vendor, String paymentType, double minFare, double maxFare,
-                                    int tripCount, double totalTollFare, double totalFare) {
+                                    int tripCount, double totalTollFare, double totalFare,
+                                    Map<String, String> groups, Approximation approximation) {
+
+    public TripAggregationResult {
+        groups = groups == null || groups.isEmpty() ? Map.of() : Collections.unmodifiableMap(new LinkedHashMap<>(groups));
+    }
+
+    /**
+     * Constructor of an exact row.
+     */
+    public TripAggregationResult(String taxiType, String vendor, String paymentType, double minFare, double maxFare,
+                                 int tripCount, double totalTollFare, double totalFare, Map<String, String> groups) {
+        this(taxiType, vendor, paymentType, minFare, maxFare, tripCount, totalTollFare, totalFare, groups, null);
+    }
+
+    /**
+     * Constructor of an exact row without grouping keys.
+     */
+    public TripAggregationResult(String taxiType, String vendor, String paymentType, double minFare, double maxFare,
+                                 int tripCount, double totalTollFare, double totalFare) {
+        this(taxiType, vendor, paymentType, minFare, maxFare, tripCount, totalTollFare, totalFare, Map.of());
+    }
+
+    public boolean isApproximate() {
+        return approximation != null;
+    }
 }
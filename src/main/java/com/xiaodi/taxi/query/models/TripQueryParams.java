@@ -3,8 +3,28 @@ package com.xiaodi.taxi.query.models;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeSet;
+
 /**
  * Value object holding aggregation parameters.
+ * <p>
+ * Besides {@code groupByPayment}, results can be grouped by any {@link GroupDimension}s. With {@code groupingSets}
+ * one query returns several breakdowns at once: every set is grouped by in addition to the group-by dimensions,
+ * like SQL's {@code GROUP BY a, GROUPING SETS ((b), (c))}. {@code rollup} instead returns the group-by dimensions
+ * and every prefix of them down to the grand total, like {@code GROUP BY ROLLUP (a, b)}.
+ * <p>
+ * {@code puLocationIDs} and {@code doLocationIDs} restrict pickup and dropoff to sets of location IDs, e.g. the zones
+ * of a borough resolved by the taxi zone lookup; an empty set matches every location.
+ * <p>
+ * Values are normalized when built, so the SQL bindings and the cache key see the same values: surrounding
+ * whitespace is removed and location and vendor IDs are written without leading zeros, e.g. {@code " 007"} is
+ * {@code "7"}. IDs that are not numbers are kept as given and rejected when bound.
  */
 public final class TripQueryParams {
     public static String EMPTY_VALUE = "*";
@@ -13,19 +33,29 @@ public final class TripQueryParams {
     private final String dropoffDatetime;
     private final String puLocationID;
     private final String doLocationID;
+    private final List<Integer> puLocationIDs;
+    private final List<Integer> doLocationIDs;
     private final boolean groupByPayment;
     private final String vendorID;
     private final String taxiType;
+    private final List<GroupDimension> groupBy;
+    private final List<List<GroupDimension>> groupingSets;
+    private final boolean rollup;
 
     @Contract(pure = true)
     private TripQueryParams(@NotNull Builder b) {
-        this.pickupDatetime = b.pickupDatetime;
-        this.dropoffDatetime = b.dropoffDatetime;
-        this.puLocationID = b.puLocationID;
-        this.doLocationID = b.doLocationID;
+        this.pickupDatetime = trim(b.pickupDatetime);
+        this.dropoffDatetime = trim(b.dropoffDatetime);
+        this.puLocationID = id(b.puLocationID);
+        this.doLocationID = id(b.doLocationID);
+        this.puLocationIDs = List.copyOf(new TreeSet<>(b.puLocationIDs));
+        this.doLocationIDs = List.copyOf(new TreeSet<>(b.doLocationIDs));
         this.groupByPayment = b.groupByPayment;
-        this.vendorID = b.vendorID;
-        this.taxiType = b.taxiType;
+        this.vendorID = id(b.vendorID);
+        this.taxiType = trim(b.taxiType);
+        this.groupBy = List.copyOf(b.groupBy);
+        this.groupingSets = b.groupingSets.stream().map(List::copyOf).toList();
+        this.rollup = b.rollup;
     }
 
     @Contract(" -> new")
@@ -35,19 +65,34 @@ public final class TripQueryParams {
         private String dropoffDatetime = EMPTY_VALUE;
         private String puLocationID = EMPTY_VALUE;
         private String doLocationID = EMPTY_VALUE;
+        private Collection<Integer> puLocationIDs = List.of();
+        private Collection<Integer> doLocationIDs = List.of();
         private boolean groupByPayment;
         private String vendorID = EMPTY_VALUE;
         private String taxiType = EMPTY_VALUE;
+        private List<GroupDimension> groupBy = List.of();
+        private List<List<GroupDimension>> groupingSets = List.of();
+        private boolean rollup;
 
         public Builder pickupDatetime(String dt) { this.pickupDatetime = dt; return this; }
         public Builder dropoffDatetime(String dt) { this.dropoffDatetime = dt; return this; }
         public Builder puLocationID(String id) { this.puLocationID = id; return this; }
         public Builder doLocationID(String id) { this.doLocationID = id; return this; }
+        public Builder puLocationIDs(Collection<Integer> ids) { this.puLocationIDs = ids; return this; }
+        public Builder doLocationIDs(Collection<Integer> ids) { this.doLocationIDs = ids; return this; }
         public Builder groupByPayment(boolean flag) { this.groupByPayment = flag; return this; }
         public Builder vendorID(String id) { this.vendorID = id; return this; }
         public Builder taxiType(String type) { this.taxiType = type; return this; }
+        public Builder groupBy(List<GroupDimension> dimensions) { this.groupBy = dimensions; return this; }
+        public Builder groupingSets(List<List<GroupDimension>> sets) { this.groupingSets = sets; return this; }
+        public Builder rollup(boolean flag) { this.rollup = flag; return this; }
         @Contract(value = " -> new", pure = true)
-        public @NotNull TripQueryParams build() { return new TripQueryParams(this); }
+        public @NotNull TripQueryParams build() {
+            if (rollup && !groupingSets.isEmpty()) {
+                throw new IllegalArgumentException("rollup and grouping sets cannot be combined");
+            }
+            return new TripQueryParams(this);
+        }
     }
 
     // getters...
@@ -55,7 +100,106 @@ public final class TripQueryParams {
     public String getDropoffDatetime() { return dropoffDatetime; }
     public String getPuLocationID() { return puLocationID; }
     public String getDoLocationID() { return doLocationID; }
+    /** Pickup location IDs in ascending order, empty for any. */
+    public List<Integer> getPuLocationIDs() { return puLocationIDs; }
+    /** Dropoff location IDs in ascending order, empty for any. */
+    public List<Integer> getDoLocationIDs() { return doLocationIDs; }
     public boolean isGroupByPayment() { return groupByPayment; }
     public String getVendorID() { return vendorID; }
     public String getTaxiType() { return taxiType; }
+    public List<GroupDimension> getGroupBy() { return groupBy; }
+    public List<List<GroupDimension>> getGroupingSets() { return groupingSets; }
+    public boolean isRollup() { return rollup; }
+
+    /**
+     * @return the sets of dimensions the results are grouped by, one breakdown each; a single empty set for an
+     * ungrouped query.
+     */
+    public @NotNull List<List<GroupDimension>> groupings() {
+        Set<GroupDimension> base = new LinkedHashSet<>();
+        if (groupByPayment) {
+            base.add(GroupDimension.PAYMENT_TYPE);
+        }
+        base.addAll(groupBy);
+        List<GroupDimension> baseList = List.copyOf(base);
+        List<List<GroupDimension>> sets = new ArrayList<>();
+        if (rollup) {
+            for (int n = baseList.size(); n >= 0; n--) {
+                sets.add(baseList.subList(0, n));
+            }
+        } else if (!groupingSets.isEmpty()) {
+            for (List<GroupDimension> set : groupingSets) {
+                Set<GroupDimension> merged = new LinkedHashSet<>(base);
+                merged.addAll(set);
+                sets.add(List.copyOf(merged));
+            }
+        } else {
+            sets.add(baseList);
+        }
+        return sets;
+    }
+
+    /**
+     * @return every dimension of {@link #groupings()}, in order of first appearance.
+     */
+    public @NotNull List<GroupDimension> dimensions() {
+        Set<GroupDimension> all = new LinkedHashSet<>();
+        groupings().forEach(all::addAll);
+        return List.copyOf(all);
+    }
+
+    /**
+     * @return a canonical description of {@link #groupings()}, e.g. {@code vendor,pu_location;vendor;}.
+     */
+    public @NotNull String groupingKey() {
+        StringJoiner sets = new StringJoiner(";");
+        for (List<GroupDimension> set : groupings()) {
+            sets.add(GroupDimension.describe(set));
+        }
+        return sets.toString();
+    }
+
+    /**
+     * @return a canonical description of the location ID sets, e.g. {@code pu_ids=4,12|do_ids=}, or an empty string
+     * when there are none.
+     */
+    public @NotNull String locationSetKey() {
+        if (puLocationIDs.isEmpty() && doLocationIDs.isEmpty()) {
+            return "";
+        }
+        return "pu_ids=" + joinIds(puLocationIDs) + "|do_ids=" + joinIds(doLocationIDs);
+    }
+
+    private static String trim(String value) {
+        return value == null ? null : value.trim();
+    }
+
+    private static String id(String value) {
+        String v = trim(value);
+        if (v == null || EMPTY_VALUE.equals(v)) {
+            return v;
+        }
+        try {
+            return Integer.toString(Integer.parseInt(v));
+        } catch (NumberFormatException e) {
+            return v;
+        }
+    }
+
+    /**
+     * @return the IDs comma separated, e.g. {@code 4,12,13}.
+     */
+    public static @NotNull String joinIds(@NotNull List<Integer> ids) {
+        StringJoiner list = new StringJoiner(",");
+        ids.forEach(id -> list.add(Integer.toString(id)));
+        return list.toString();
+    }
+
+    /**
+     * @return whether the grouping goes beyond {@code groupByPayment}, which older code paths are limited to.
+     */
+    public boolean hasCustomGrouping() {
+        List<List<GroupDimension>> sets = groupings();
+        return sets.size() > 1 || sets.get(0).size() > (groupByPayment ? 1 : 0);
+    }
 }
@@ -0,0 +1,146 @@
+package com.xiaodi.taxi.query.output;
+
+import com.xiaodi.taxi.query.models.Approximation;
+import com.xiaodi.taxi.query.models.GroupDimension;
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Arrow IPC stream format, readable by pyarrow, DuckDB, Polars etc. Rows are written in record batches of
+ * {@link #BATCH_ROWS}; the vectors of one batch are reset and refilled for the next, so memory stays bounded by
+ * a single batch. Like the CSV output, one {@code group_<key>} column per {@link GroupDimension} holds the
+ * row's raw group values, and the error bounds of estimated rows come last, null for exact rows.
+ */
+public class ArrowResultWriter implements ResultWriter {
+    static final int BATCH_ROWS = 8192;
+    static final String[] APPROXIMATION_COLUMNS =
+            {"confidence", "sample_fraction", "trip_count_margin", "total_fare_margin", "total_toll_fare_margin"};
+    static final Schema SCHEMA = new Schema(Stream.concat(Stream.of(
+            Field.nullable("taxi_type", new ArrowType.Utf8()),
+            Field.nullable("vendor", new ArrowType.Utf8()),
+            Field.nullable("payment_type", new ArrowType.Utf8()),
+            Field.nullable("min_fare", new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE)),
+            Field.nullable("max_fare", new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE)),
+            Field.nullable("trip_count", new ArrowType.Int(64, true)),
+            Field.nullable("total_toll_fare", new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE)),
+            Field.nullable("total_fare", new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE))
+    ), Stream.concat(
+            Stream.of(GroupDimension.values()).map(d -> Field.nullable("group_" + d.key(), new ArrowType.Utf8())),
+            Stream.of(APPROXIMATION_COLUMNS).map(c -> Field.nullable(c, new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE)))
+    )).toList());
+
+    private final BufferAllocator allocator = new RootAllocator();
+    private final VectorSchemaRoot root = VectorSchemaRoot.create(SCHEMA, allocator);
+    private final ArrowStreamWriter writer;
+    private final VarCharVector taxiType = (VarCharVector) root.getVector("taxi_type");
+    private final VarCharVector vendor = (VarCharVector) root.getVector("vendor");
+    private final VarCharVector paymentType = (VarCharVector) root.getVector("payment_type");
+    private final Float8Vector minFare = (Float8Vector) root.getVector("min_fare");
+    private final Float8Vector maxFare = (Float8Vector) root.getVector("max_fare");
+    private final BigIntVector tripCount = (BigIntVector) root.getVector("trip_count");
+    private final Float8Vector totalTollFare = (Float8Vector) root.getVector("total_toll_fare");
+    private final Float8Vector totalFare = (Float8Vector) root.getVector("total_fare");
+    private final VarCharVector[] groups = Stream.of(GroupDimension.values())
+            .map(d -> (VarCharVector) root.getVector("group_" + d.key())).toArray(VarCharVector[]::new);
+    private final Float8Vector[] approximation = Stream.of(APPROXIMATION_COLUMNS)
+            .map(c -> (Float8Vector) root.getVector(c)).toArray(Float8Vector[]::new);
+    // labels repeat on every row, encode each only once
+    private final Map<String, byte[]> utf8 = new HashMap<>();
+    private int rows;
+
+    /**
+     * Constructor, writes the schema message.
+     * @param channel channel the stream is written to.
+     */
+    public ArrowResultWriter(WritableByteChannel channel) throws IOException {
+        this.writer = new ArrowStreamWriter(root, null, channel);
+        writer.start();
+    }
+
+    @Override
+    public void accept(@NotNull TripAggregationResult row) throws IOException {
+        setText(taxiType, row.taxiType());
+        setText(vendor, row.vendor());
+        setText(paymentType, row.paymentType());
+        minFare.setSafe(rows, row.minFare());
+        maxFare.setSafe(rows, row.maxFare());
+        tripCount.setSafe(rows, row.tripCount());
+        totalTollFare.setSafe(rows, row.totalTollFare());
+        totalFare.setSafe(rows, row.totalFare());
+        for (GroupDimension d : GroupDimension.values()) {
+            setText(groups[d.ordinal()], row.groups().get(d.key()));
+        }
+        Approximation a = row.approximation();
+        if (a == null) {
+            for (Float8Vector vector : approximation) {
+                vector.setNull(rows);
+            }
+        } else {
+            approximation[0].setSafe(rows, a.confidence());
+            approximation[1].setSafe(rows, a.sampleFraction());
+            approximation[2].setSafe(rows, a.tripCountMargin());
+            approximation[3].setSafe(rows, a.totalFareMargin());
+            approximation[4].setSafe(rows, a.totalTollFareMargin());
+        }
+        if (++rows == BATCH_ROWS) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the pending rows as one record batch.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (rows == 0) {
+            return;
+        }
+        root.setRowCount(rows);
+        writer.writeBatch();
+        for (FieldVector vector : root.getFieldVectors()) {
+            vector.reset();
+        }
+        rows = 0;
+    }
+
+    /**
+     * Writes the last batch and the end-of-stream marker, and frees the vectors.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            writer.end();
+        } finally {
+            root.close();
+            allocator.close();
+        }
+    }
+
+    private void setText(@NotNull VarCharVector vector, String value) {
+        if (value == null) {
+            vector.setNull(rows);
+        } else {
+            vector.setSafe(rows, utf8.computeIfAbsent(value, v -> v.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+}
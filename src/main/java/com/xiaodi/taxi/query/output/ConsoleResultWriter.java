@@ -0,0 +1,70 @@
+package com.xiaodi.taxi.query.output;
+
+import com.xiaodi.taxi.query.models.Approximation;
+import com.xiaodi.taxi.query.models.GroupDimension;
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.channels.WritableByteChannel;
+import java.util.Locale;
+
+/**
+ * Human readable output: one labelled field per line and a separator line after every row. Location, zone and hour
+ * groups get a line of their own; payment type, vendor and taxi type groups show in their fields. Estimated rows
+ * show the margin of each sum and a line with the confidence level and sample size.
+ */
+public class ConsoleResultWriter extends TextResultWriter {
+    public static final String ANSI_BOLD = "\u001B[1m";
+    public static final String ANSI_RESET = "\u001B[0m";
+
+    public ConsoleResultWriter(WritableByteChannel channel) {
+        super(channel);
+    }
+
+    @Override
+    void format(@NotNull StringBuilder line, @NotNull TripAggregationResult row) {
+        field(line, "Taxi Type: ").append(row.taxiType()).append('\n');
+        field(line, "Vendor: ").append(row.vendor()).append('\n');
+        field(line, "Payment Type: ").append(row.paymentType()).append('\n');
+        group(line, row, "Pickup Location: ", GroupDimension.PU_LOCATION);
+        group(line, row, "Dropoff Location: ", GroupDimension.DO_LOCATION);
+        group(line, row, "Pickup Hour: ", GroupDimension.PICKUP_HOUR);
+        group(line, row, "Pickup Borough: ", GroupDimension.PU_BOROUGH);
+        group(line, row, "Pickup Zone: ", GroupDimension.PU_ZONE);
+        group(line, row, "Dropoff Borough: ", GroupDimension.DO_BOROUGH);
+        group(line, row, "Dropoff Zone: ", GroupDimension.DO_ZONE);
+        field(line, "Min Fare: ").append(row.minFare()).append('\n');
+        field(line, "Max Fare: ").append(row.maxFare()).append('\n');
+        Approximation a = row.approximation();
+        margin(field(line, "Count of Trips: ").append(row.tripCount()), a == null ? null : a.tripCountMargin());
+        margin(field(line, "Total Toll Fare Sum: ").append(row.totalTollFare()), a == null ? null : a.totalTollFareMargin());
+        margin(field(line, "Total Fare Sum: ").append(row.totalFare()), a == null ? null : a.totalFareMargin());
+        if (a != null) {
+            field(line, "Estimate: ").append(String.format(Locale.ROOT, "%.0f%% confidence from %.2f%% of trips",
+                    100 * a.confidence(), 100 * a.sampleFraction())).append('\n');
+        }
+        line.append("-------\n");
+    }
+
+    /**
+     * Adds a line for a dimension that has no field of its own, when the row is grouped by it.
+     */
+    private static void group(@NotNull StringBuilder line, @NotNull TripAggregationResult row, String label,
+                              @NotNull GroupDimension d) {
+        if (row.groups().containsKey(d.key())) {
+            String value = row.groups().get(d.key());
+            field(line, label).append(value == null ? "Null" : value).append('\n');
+        }
+    }
+
+    private static void margin(@NotNull StringBuilder line, Double margin) {
+        if (margin != null) {
+            line.append(" ± ").append(String.format(Locale.ROOT, "%.2f", margin));
+        }
+        line.append('\n');
+    }
+
+    private static StringBuilder field(@NotNull StringBuilder line, String label) {
+        return line.append(ANSI_BOLD).append(label).append(ANSI_RESET);
+    }
+}
@@ -0,0 +1,97 @@
+package com.xiaodi.taxi.query.output;
+
+import com.xiaodi.taxi.query.models.Approximation;
+import com.xiaodi.taxi.query.models.GroupDimension;
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * RFC 4180 CSV with a header line. Text fields are quoted only when they contain a comma, quote or line break.
+ * The raw value of every {@link GroupDimension} follows the aggregates, empty when the row is not grouped by it,
+ * and the error bounds of an estimated row (see {@link Approximation}) come last, empty when the row is exact.
+ */
+public class CsvResultWriter extends TextResultWriter {
+    static final String HEADER =
+            "taxi_type,vendor,payment_type,min_fare,max_fare,trip_count,total_toll_fare,total_fare," +
+                    "group_payment_type,group_vendor,group_taxi_type,group_pu_location,group_do_location," +
+                    "group_pickup_hour,group_pu_borough,group_pu_zone,group_do_borough,group_do_zone,confidence,sample_fraction,trip_count_margin,total_fare_margin," +
+                    "total_toll_fare_margin\n";
+
+    private boolean headerWritten;
+
+    public CsvResultWriter(WritableByteChannel channel) {
+        super(channel);
+    }
+
+    @Override
+    public void accept(@NotNull TripAggregationResult row) throws IOException {
+        writeHeader();
+        super.accept(row);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // an empty result still gets its header
+        writeHeader();
+        super.close();
+    }
+
+    @Override
+    void format(@NotNull StringBuilder line, @NotNull TripAggregationResult row) {
+        text(line, row.taxiType()).append(',');
+        text(line, row.vendor()).append(',');
+        text(line, row.paymentType()).append(',');
+        line.append(row.minFare()).append(',')
+                .append(row.maxFare()).append(',')
+                .append(row.tripCount()).append(',')
+                .append(row.totalTollFare()).append(',')
+                .append(row.totalFare());
+        for (GroupDimension d : GroupDimension.values()) {
+            text(line.append(','), row.groups().get(d.key()));
+        }
+        Approximation a = row.approximation();
+        if (a == null) {
+            line.append(",,,,,");
+        } else {
+            line.append(',').append(a.confidence())
+                    .append(',').append(a.sampleFraction())
+                    .append(',').append(a.tripCountMargin())
+                    .append(',').append(a.totalFareMargin())
+                    .append(',').append(a.totalTollFareMargin());
+        }
+        line.append('\n');
+    }
+
+    private void writeHeader() throws IOException {
+        if (!headerWritten) {
+            headerWritten = true;
+            write(HEADER);
+        }
+    }
+
+    static StringBuilder text(@NotNull StringBuilder line, String value) {
+        if (value == null) {
+            return line;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            return line.append(value);
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        return line.append('"');
+    }
+}
@@ -0,0 +1,102 @@
+package com.xiaodi.taxi.query.output;
+
+import com.xiaodi.taxi.query.models.Approximation;
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+
+/**
+ * JSON Lines: one JSON object per row. Non-finite numbers, which JSON cannot represent, are written as null.
+ * Rows of a grouped query carry their group values in a {@code groups} object, and estimated rows their error
+ * bounds in an {@code approximation} object.
+ */
+public class JsonLinesResultWriter extends TextResultWriter {
+
+    public JsonLinesResultWriter(WritableByteChannel channel) {
+        super(channel);
+    }
+
+    @Override
+    void format(@NotNull StringBuilder line, @NotNull TripAggregationResult row) {
+        line.append("{\"taxi_type\":");
+        string(line, row.taxiType());
+        line.append(",\"vendor\":");
+        string(line, row.vendor());
+        line.append(",\"payment_type\":");
+        string(line, row.paymentType());
+        line.append(",\"min_fare\":");
+        number(line, row.minFare());
+        line.append(",\"max_fare\":");
+        number(line, row.maxFare());
+        line.append(",\"trip_count\":").append(row.tripCount());
+        line.append(",\"total_toll_fare\":");
+        number(line, row.totalTollFare());
+        line.append(",\"total_fare\":");
+        number(line, row.totalFare());
+        if (!row.groups().isEmpty()) {
+            line.append(",\"groups\":{");
+            boolean first = true;
+            for (Map.Entry<String, String> group : row.groups().entrySet()) {
+                if (!first) {
+                    line.append(',');
+                }
+                first = false;
+                string(line, group.getKey());
+                line.append(':');
+                string(line, group.getValue());
+            }
+            line.append('}');
+        }
+        Approximation a = row.approximation();
+        if (a != null) {
+            line.append(",\"approximation\":{\"confidence\":");
+            number(line, a.confidence());
+            line.append(",\"sample_fraction\":");
+            number(line, a.sampleFraction());
+            line.append(",\"trip_count_margin\":");
+            number(line, a.tripCountMargin());
+            line.append(",\"total_fare_margin\":");
+            number(line, a.totalFareMargin());
+            line.append(",\"total_toll_fare_margin\":");
+            number(line, a.totalTollFareMargin());
+            line.append('}');
+        }
+        line.append("}\n");
+    }
+
+    static void string(@NotNull StringBuilder line, String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> line.append("\\\"");
+                case '\\' -> line.append("\\\\");
+                case '\n' -> line.append("\\n");
+                case '\r' -> line.append("\\r");
+                case '\t' -> line.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+                }
+            }
+        }
+        line.append('"');
+    }
+
+    private static void number(@NotNull StringBuilder line, double value) {
+        if (Double.isFinite(value)) {
+            line.append(value);
+        } else {
+            line.append("null");
+        }
+    }
+}
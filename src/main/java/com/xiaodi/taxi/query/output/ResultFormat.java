@@ -0,0 +1,46 @@
+package com.xiaodi.taxi.query.output;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Output formats of query results, selected with {@code --format}.
+ */
+public enum ResultFormat {
+    /** Labelled fields for the terminal. */
+    TEXT,
+    /** CSV with a header line. */
+    CSV,
+    /** One JSON object per line. */
+    JSONL,
+    /** Arrow IPC stream. */
+    ARROW;
+
+    /**
+     * @param channel channel the results are written to; it is not closed by the writer.
+     * @return a writer of this format.
+     */
+    public @NotNull ResultWriter open(@NotNull WritableByteChannel channel) throws IOException {
+        return switch (this) {
+            case TEXT -> new ConsoleResultWriter(channel);
+            case CSV -> new CsvResultWriter(channel);
+            case JSONL -> new JsonLinesResultWriter(channel);
+            case ARROW -> new ArrowResultWriter(channel);
+        };
+    }
+
+    /**
+     * @param value {@code text}, {@code csv}, {@code jsonl} or {@code arrow}.
+     */
+    public static ResultFormat parse(String value) {
+        return switch (value) {
+            case "text" -> TEXT;
+            case "csv" -> CSV;
+            case "jsonl" -> JSONL;
+            case "arrow" -> ARROW;
+            default -> throw new IllegalArgumentException("Unknown format: " + value + " (expected text, csv, jsonl or arrow)");
+        };
+    }
+}
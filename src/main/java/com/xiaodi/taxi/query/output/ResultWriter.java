@@ -0,0 +1,19 @@
+package com.xiaodi.taxi.query.output;
+
+import com.xiaodi.taxi.query.ResultSink;
+
+import java.io.IOException;
+
+/**
+ * A {@link ResultSink} that encodes rows into an output channel. {@link #close()} writes whatever is buffered and
+ * the format's trailer, but leaves the channel open: it belongs to the caller.
+ */
+public interface ResultWriter extends ResultSink, AutoCloseable {
+    /**
+     * Writes the buffered rows to the channel.
+     */
+    void flush() throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
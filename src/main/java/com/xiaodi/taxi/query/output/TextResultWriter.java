@@ -0,0 +1,82 @@
+package com.xiaodi.taxi.query.output;
+
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Base of the line oriented formats. Every row is formatted into one reused {@link StringBuilder} and encoded into
+ * one reused byte buffer, which is written to the channel whenever it fills up.
+ */
+abstract class TextResultWriter implements ResultWriter {
+    static final int BUFFER_BYTES = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private final StringBuilder line = new StringBuilder(256);
+
+    /**
+     * Constructor
+     * @param channel channel the encoded rows are written to.
+     */
+    TextResultWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Appends the text of one row, including its line separator.
+     */
+    abstract void format(@NotNull StringBuilder line, @NotNull TripAggregationResult row);
+
+    @Override
+    public void accept(@NotNull TripAggregationResult row) throws IOException {
+        line.setLength(0);
+        format(line, row);
+        write(line);
+    }
+
+    /**
+     * Encodes {@code text} into the buffer, draining it to the channel as often as needed.
+     */
+    void write(@NotNull CharSequence text) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isUnderflow()) {
+                break;
+            }
+            if (result.isOverflow()) {
+                drain();
+            } else {
+                result.throwException();
+            }
+        }
+        encoder.reset();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,209 @@
+package com.xiaodi.taxi.query.slowlog;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the slow-query log: a reader for DuckDB's profiling output and the log's own lines, and
+ * string quoting for writing them. Objects are read as {@link Map}s, arrays as {@link List}s, numbers as
+ * {@link Double}s.
+ */
+final class Json {
+    private final String text;
+    private int pos;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    static Object parse(@NotNull String text) {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.whitespace();
+        if (json.pos != text.length()) {
+            throw json.error("trailing characters");
+        }
+        return value;
+    }
+
+    private Object value() {
+        whitespace();
+        if (pos >= text.length()) {
+            throw error("unexpected end");
+        }
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                return number();
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        pos++;
+        whitespace();
+        if (peek('}')) {
+            return map;
+        }
+        do {
+            whitespace();
+            String key = string();
+            whitespace();
+            expect(':');
+            map.put(key, value());
+            whitespace();
+        } while (peek(','));
+        expect('}');
+        return map;
+    }
+
+    private List<Object> array() {
+        List<Object> list = new ArrayList<>();
+        pos++;
+        whitespace();
+        if (peek(']')) {
+            return list;
+        }
+        do {
+            list.add(value());
+            whitespace();
+        } while (peek(','));
+        expect(']');
+        return list;
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder out = new StringBuilder();
+        while (pos < text.length()) {
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                return out.toString();
+            }
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            if (pos >= text.length()) {
+                break;
+            }
+            char e = text.charAt(pos++);
+            switch (e) {
+                case 'n' -> out.append('\n');
+                case 'r' -> out.append('\r');
+                case 't' -> out.append('\t');
+                case 'b' -> out.append('\b');
+                case 'f' -> out.append('\f');
+                case 'u' -> {
+                    out.append(unicode());
+                    pos += 4;
+                }
+                default -> out.append(e);
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private char unicode() {
+        if (pos + 4 > text.length()) {
+            throw error("unterminated string");
+        }
+        int code = 0;
+        for (int i = pos; i < pos + 4; i++) {
+            int digit = Character.digit(text.charAt(i), 16);
+            if (digit < 0) {
+                throw error("invalid unicode escape");
+            }
+            code = code * 16 + digit;
+        }
+        return (char) code;
+    }
+
+    private Object literal(String word, Object value) {
+        if (!text.startsWith(word, pos)) {
+            throw error("expected " + word);
+        }
+        pos += word.length();
+        return value;
+    }
+
+    private Double number() {
+        int start = pos;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+            pos++;
+        }
+        try {
+            return Double.parseDouble(text.substring(start, pos));
+        } catch (NumberFormatException e) {
+            throw error("expected a value");
+        }
+    }
+
+    private void whitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private boolean peek(char c) {
+        if (pos < text.length() && text.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!peek(c)) {
+            throw error("expected '" + c + "'");
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid JSON at " + pos + ": " + message);
+    }
+
+    /**
+     * @return {@code value} as a JSON string literal, {@code null} for null.
+     */
+    static @NotNull String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder out = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        return out.append('"').toString();
+    }
+}
@@ -0,0 +1,110 @@
+package com.xiaodi.taxi.query.slowlog;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One operator of a profiled DuckDB plan.
+ * @param extraInfo DuckDB's operator details, e.g. the projected columns and pushed down filters of a scan.
+ * @param seconds time spent in the operator itself.
+ * @param cardinality rows the operator emitted.
+ */
+public record ProfiledOperator(String name, String extraInfo, double seconds, long cardinality,
+                               List<ProfiledOperator> children) {
+
+    public ProfiledOperator {
+        children = List.copyOf(children);
+    }
+
+    /**
+     * Reads a node of DuckDB's JSON profiling output ({@code PRAGMA enable_profiling='json'}). Both the
+     * {@code name/timing/cardinality} keys of DuckDB 0.9 and the {@code operator_*} keys of later versions are
+     * understood.
+     */
+    @SuppressWarnings("unchecked")
+    static @NotNull ProfiledOperator fromJson(@NotNull Map<String, Object> node) {
+        List<ProfiledOperator> children = new ArrayList<>();
+        if (node.get("children") instanceof List<?> list) {
+            for (Object child : list) {
+                children.add(fromJson((Map<String, Object>) child));
+            }
+        }
+        Object name = first(node, "name", "operator_type");
+        Object extra = first(node, "extra_info", "extra-info");
+        return new ProfiledOperator(
+                name == null ? "QUERY" : name.toString().trim(),
+                extra == null ? "" : extra.toString().trim(),
+                number(first(node, "timing", "operator_timing", "latency")),
+                (long) number(first(node, "cardinality", "operator_cardinality")),
+                children);
+    }
+
+    private static Object first(Map<String, Object> node, String... keys) {
+        for (String key : keys) {
+            if (node.containsKey(key)) {
+                return node.get(key);
+            }
+        }
+        return null;
+    }
+
+    private static double number(Object value) {
+        return value instanceof Number n ? n.doubleValue() : 0;
+    }
+
+    /**
+     * @return the subtree as JSON, in the format {@link #fromJson(Map)} reads.
+     */
+    @NotNull String toJson() {
+        StringBuilder out = new StringBuilder("{\"name\":").append(Json.quote(name))
+                .append(",\"extra_info\":").append(Json.quote(extraInfo))
+                .append(",\"timing\":").append(seconds)
+                .append(",\"cardinality\":").append(cardinality)
+                .append(",\"children\":[");
+        for (int i = 0; i < children.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(children.get(i).toJson());
+        }
+        return out.append("]}").toString();
+    }
+
+    /**
+     * @return the rows emitted by the scan operators of this subtree. Filters pushed into a scan are applied
+     * before its rows are counted; row groups skipped by zone maps are never read.
+     */
+    public long rowsScanned() {
+        long rows = name.contains("SCAN") || name.startsWith("READ_") ? cardinality : 0;
+        for (ProfiledOperator child : children) {
+            rows += child.rowsScanned();
+        }
+        return rows;
+    }
+
+    /**
+     * @return the subtree as an indented plan, one operator per line with its time and rows.
+     */
+    public @NotNull String render() {
+        StringBuilder out = new StringBuilder();
+        render(out, 0);
+        return out.toString();
+    }
+
+    private void render(StringBuilder out, int depth) {
+        out.append("  ".repeat(depth)).append(name)
+                .append(String.format(Locale.ROOT, "  %.3f ms  %,d rows", seconds * 1000, cardinality));
+        String details = extraInfo.replaceAll("\\s+", " ").trim();
+        if (!details.isEmpty()) {
+            out.append("  [").append(details).append(']');
+        }
+        out.append('\n');
+        for (ProfiledOperator child : children) {
+            child.render(out, depth + 1);
+        }
+    }
+}
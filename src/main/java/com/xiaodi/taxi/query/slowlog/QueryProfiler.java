@@ -0,0 +1,109 @@
+package com.xiaodi.taxi.query.slowlog;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Re-runs a query with DuckDB's JSON profiling enabled and reads back the profiled plan. Profiling is a setting
+ * of the connection, so no other statement may run on it meanwhile.
+ */
+public class QueryProfiler {
+    /**
+     * Binds the parameters of the re-run statement.
+     */
+    @FunctionalInterface
+    public interface Binder {
+        void bind(PreparedStatement stmt) throws SQLException;
+    }
+
+    private final Connection connection;
+
+    /**
+     * Constructor
+     * @param connection connection the query is re-run on.
+     */
+    public QueryProfiler(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Runs {@code sql} to completion under profiling.
+     * @return the root of the profiled plan, whose seconds are the total query time.
+     */
+    public @NotNull ProfiledOperator profile(@NotNull String sql, @NotNull Binder binder) throws SQLException, IOException {
+        Path output = Files.createTempFile("duckdb-profile", ".json");
+        try (Statement settings = connection.createStatement()) {
+            settings.execute("PRAGMA enable_profiling='json'");
+            settings.execute("PRAGMA profiling_output='" + output.toAbsolutePath().toString().replace("'", "''") + "'");
+            try {
+                try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                    binder.bind(stmt);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            // the profile is written once the result is consumed
+                        }
+                    }
+                }
+                return parse(Files.readString(output, StandardCharsets.UTF_8));
+            } finally {
+                settings.execute("PRAGMA disable_profiling");
+            }
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    /**
+     * Binds the values on a statement prepared from {@code sql}, which every call of {@code binder} reaches.
+     * @return the values {@code binder} binds, in parameter order, as text.
+     */
+    public static @NotNull List<String> parameters(@NotNull Connection connection, @NotNull String sql,
+                                                   @NotNull Binder binder) throws SQLException {
+        TreeMap<Integer, String> values = new TreeMap<>();
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            binder.bind(recording(stmt, values));
+        }
+        return new ArrayList<>(values.values());
+    }
+
+    /**
+     * @return {@code stmt}, with the values bound through it (or cleared) mirrored in {@code values}.
+     */
+    private static PreparedStatement recording(PreparedStatement stmt, Map<Integer, String> values) {
+        return (PreparedStatement) Proxy.newProxyInstance(QueryProfiler.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    Object result;
+                    try {
+                        result = method.invoke(stmt, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    String name = method.getName();
+                    if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer idx) {
+                        values.put(idx, name.equals("setNull") ? "NULL" : String.valueOf(args[1]));
+                    } else if (name.equals("clearParameters")) {
+                        values.clear();
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * @param json DuckDB's JSON profiling output.
+     */
+    @SuppressWarnings("unchecked")
+    static @NotNull ProfiledOperator parse(@NotNull String json) {
+        return ProfiledOperator.fromJson((Map<String, Object>) Json.parse(json));
+    }
+}
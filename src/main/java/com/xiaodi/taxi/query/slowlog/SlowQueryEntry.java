@@ -0,0 +1,86 @@
+package com.xiaodi.taxi.query.slowlog;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One slow query as written to the slow-query log, one JSON object per line.
+ * @param shape key of the query's statement, the same for every query differing only in bound values.
+ * @param params bound values in parameter order.
+ * @param elapsedMillis time of the query as it ran.
+ * @param rows result rows.
+ * @param profile profiled plan of the re-run, null when profiling failed.
+ * @param error why profiling failed, null otherwise.
+ */
+public record SlowQueryEntry(Instant timestamp, String shape, String sql, List<String> params, double elapsedMillis,
+                             long rows, @Nullable ProfiledOperator profile, @Nullable String error) {
+
+    public SlowQueryEntry {
+        params = List.copyOf(params);
+    }
+
+    /**
+     * @return rows emitted by the scans of the profiled plan, -1 without a profile.
+     */
+    public long rowsScanned() {
+        return profile == null ? -1 : profile.rowsScanned();
+    }
+
+    /**
+     * @return the profiled plan as indented text, empty without a profile.
+     */
+    public @NotNull String plan() {
+        return profile == null ? "" : profile.render();
+    }
+
+    /**
+     * @return the entry as one line of JSON. The rendered plan is written next to the profile tree so the log
+     * can be read without tools.
+     */
+    public @NotNull String toJson() {
+        StringBuilder out = new StringBuilder("{\"timestamp\":").append(Json.quote(timestamp.toString()))
+                .append(",\"shape\":").append(Json.quote(shape))
+                .append(",\"sql\":").append(Json.quote(sql))
+                .append(",\"params\":[");
+        for (int i = 0; i < params.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(Json.quote(params.get(i)));
+        }
+        out.append("],\"elapsed_ms\":").append(elapsedMillis)
+                .append(",\"rows\":").append(rows)
+                .append(",\"rows_scanned\":").append(rowsScanned())
+                .append(",\"plan\":").append(Json.quote(plan()))
+                .append(",\"profile\":").append(profile == null ? "null" : profile.toJson())
+                .append(",\"error\":").append(Json.quote(error));
+        return out.append('}').toString();
+    }
+
+    /**
+     * @param line one line of the slow-query log.
+     */
+    @SuppressWarnings("unchecked")
+    public static @NotNull SlowQueryEntry fromJson(@NotNull String line) {
+        Map<String, Object> json = (Map<String, Object>) Json.parse(line);
+        List<String> params = new ArrayList<>();
+        for (Object param : (List<Object>) json.get("params")) {
+            params.add(String.valueOf(param));
+        }
+        Object profile = json.get("profile");
+        return new SlowQueryEntry(
+                Instant.parse((String) json.get("timestamp")),
+                (String) json.get("shape"),
+                (String) json.get("sql"),
+                params,
+                ((Number) json.get("elapsed_ms")).doubleValue(),
+                ((Number) json.get("rows")).longValue(),
+                profile == null ? null : ProfiledOperator.fromJson((Map<String, Object>) profile),
+                (String) json.get("error"));
+    }
+}
@@ -0,0 +1,152 @@
+package com.xiaodi.taxi.query.slowlog;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Log of the queries slower than a threshold. Each slow query is re-run under DuckDB's profiler (see
+ * {@link QueryProfiler}) and written with its bound values, profiled plan and rows scanned to
+ * {@value #FILE_NAME}, one JSON line per query. The file is rotated to {@code slow-queries.log.1} ...
+ * {@code .N} once it grows past its size limit, dropping the oldest.
+ * <p>
+ * The re-run doubles the cost of a slow query, so the threshold should only catch outliers.
+ */
+public class SlowQueryLog {
+    public static final String FILE_NAME = "slow-queries.log";
+    public static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 5;
+
+    private final Path directory;
+    private final long thresholdMillis;
+    private final long maxBytes;
+    private final int maxFiles;
+
+    /**
+     * Constructor
+     * @param directory directory of the log files.
+     * @param thresholdMillis queries taking at least this long are logged.
+     */
+    public SlowQueryLog(Path directory, long thresholdMillis) {
+        this(directory, thresholdMillis, DEFAULT_MAX_BYTES, DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * Constructor
+     * @param directory directory of the log files.
+     * @param thresholdMillis queries taking at least this long are logged.
+     * @param maxBytes size past which the log is rotated.
+     * @param maxFiles rotated files kept besides the current one.
+     */
+    public SlowQueryLog(Path directory, long thresholdMillis, long maxBytes, int maxFiles) {
+        if (thresholdMillis < 0 || maxBytes <= 0 || maxFiles < 0) {
+            throw new IllegalArgumentException("Invalid slow-query log limits");
+        }
+        this.directory = directory;
+        this.thresholdMillis = thresholdMillis;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getThresholdMillis() {
+        return thresholdMillis;
+    }
+
+    public boolean isSlow(long elapsedNanos) {
+        return elapsedNanos >= thresholdMillis * 1_000_000;
+    }
+
+    /**
+     * Profiles a slow query on {@code connection} and logs it. Neither a failed profile nor a failed write fails
+     * the query: the former is logged as the entry's error, the latter reported on stderr.
+     * @param shape statement key of the query.
+     * @param sql SQL of the query.
+     * @param binder binds the query's values.
+     * @param elapsedNanos time of the query as it ran.
+     * @param rows result rows.
+     */
+    public synchronized void record(@NotNull Connection connection, @NotNull String shape, @NotNull String sql,
+                                    @NotNull QueryProfiler.Binder binder, long elapsedNanos, long rows) {
+        try {
+            List<String> params = QueryProfiler.parameters(connection, sql, binder);
+            ProfiledOperator profile = null;
+            String error = null;
+            try {
+                profile = new QueryProfiler(connection).profile(sql, binder);
+            } catch (SQLException | IOException | RuntimeException e) {
+                error = e.toString();
+            }
+            append(new SlowQueryEntry(Instant.now(), shape, sql, params, elapsedNanos / 1_000_000.0, rows, profile, error));
+        } catch (SQLException | IOException | RuntimeException e) {
+            System.err.println("Could not log slow query: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends one entry, rotating first when the log is full.
+     */
+    public synchronized void append(@NotNull SlowQueryEntry entry) throws IOException {
+        Files.createDirectories(directory);
+        Path current = directory.resolve(FILE_NAME);
+        byte[] line = (entry.toJson() + "\n").getBytes(StandardCharsets.UTF_8);
+        if (Files.exists(current) && Files.size(current) + line.length > maxBytes) {
+            rotate(current);
+        }
+        Files.write(current, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void rotate(Path current) throws IOException {
+        Files.deleteIfExists(rotated(maxFiles));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            if (Files.exists(rotated(i))) {
+                Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 0) {
+            Files.move(current, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(current);
+        }
+    }
+
+    private Path rotated(int index) {
+        return directory.resolve(FILE_NAME + "." + index);
+    }
+
+    /**
+     * @return the entries of the current and rotated log files of {@code directory}, oldest first.
+     */
+    public static @NotNull List<SlowQueryEntry> read(@NotNull Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (int i = 1; Files.exists(directory.resolve(FILE_NAME + "." + i)); i++) {
+            files.add(0, directory.resolve(FILE_NAME + "." + i));
+        }
+        files.add(directory.resolve(FILE_NAME));
+        List<SlowQueryEntry> entries = new ArrayList<>();
+        for (Path file : files) {
+            if (!Files.exists(file)) {
+                continue;
+            }
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    entries.add(SlowQueryEntry.fromJson(line));
+                }
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,102 @@
+package com.xiaodi.taxi.query.slowlog;
+
+import com.xiaodi.taxi.query.CliArgs;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Summarizes the slow-query log by query shape, worst first: how often each shape was slow, its total and
+ * slowest time, the rows its scans read on average, and the plan of its slowest query.
+ * <p>
+ * Usage: {@code [--top=N] [DIR]}, DIR defaulting to {@value #DEFAULT_DIR}.
+ */
+public class SlowQueryReport {
+    public static final String DEFAULT_DIR = "duck-db/slow-queries";
+    static final int DEFAULT_TOP = 10;
+
+    /**
+     * Slow queries of one shape.
+     * @param worst the slowest of them.
+     * @param averageRowsScanned mean rows scanned of the profiled ones, -1 when none was profiled.
+     */
+    public record ShapeSummary(String shape, int count, double totalMillis, double maxMillis,
+                               double averageRowsScanned, SlowQueryEntry worst) {
+    }
+
+    public static void main(String @NotNull [] args) throws IOException {
+        CliArgs cli = CliArgs.parse(args);
+        Path directory = Paths.get(cli.positional().isEmpty() ? DEFAULT_DIR : cli.positional().get(0));
+        List<SlowQueryEntry> entries = SlowQueryLog.read(directory);
+        if (entries.isEmpty()) {
+            System.out.println("No slow queries logged in " + directory);
+            return;
+        }
+        System.out.print(format(summarize(entries), (int) cli.getLong("top", DEFAULT_TOP)));
+    }
+
+    /**
+     * @return one summary per shape, by total time descending.
+     */
+    public static @NotNull List<ShapeSummary> summarize(@NotNull List<SlowQueryEntry> entries) {
+        Map<String, List<SlowQueryEntry>> byShape = new LinkedHashMap<>();
+        for (SlowQueryEntry entry : entries) {
+            byShape.computeIfAbsent(entry.shape(), k -> new ArrayList<>()).add(entry);
+        }
+        List<ShapeSummary> summaries = new ArrayList<>();
+        for (Map.Entry<String, List<SlowQueryEntry>> shape : byShape.entrySet()) {
+            double total = 0;
+            long scanned = 0;
+            int profiled = 0;
+            SlowQueryEntry worst = null;
+            for (SlowQueryEntry entry : shape.getValue()) {
+                total += entry.elapsedMillis();
+                if (entry.rowsScanned() >= 0) {
+                    scanned += entry.rowsScanned();
+                    profiled++;
+                }
+                if (worst == null || entry.elapsedMillis() > worst.elapsedMillis()) {
+                    worst = entry;
+                }
+            }
+            summaries.add(new ShapeSummary(shape.getKey(), shape.getValue().size(), total, worst.elapsedMillis(),
+                    profiled == 0 ? -1 : (double) scanned / profiled, worst));
+        }
+        summaries.sort(Comparator.comparingDouble(ShapeSummary::totalMillis).reversed());
+        return summaries;
+    }
+
+    /**
+     * @param top number of shapes printed.
+     */
+    static @NotNull String format(@NotNull List<ShapeSummary> summaries, int top) {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "%-40s %6s %12s %10s %16s%n", "Shape", "Count", "Total ms", "Max ms", "Avg rows scanned"));
+        for (ShapeSummary s : summaries.subList(0, Math.min(top, summaries.size()))) {
+            out.append(String.format(Locale.ROOT, "%-40s %6d %12.1f %10.1f %16s%n", s.shape(), s.count(),
+                    s.totalMillis(), s.maxMillis(),
+                    s.averageRowsScanned() < 0 ? "-" : String.format(Locale.ROOT, "%,.0f", s.averageRowsScanned())));
+        }
+        for (ShapeSummary s : summaries.subList(0, Math.min(top, summaries.size()))) {
+            SlowQueryEntry worst = s.worst();
+            out.append('\n').append(s.shape()).append(String.format(Locale.ROOT, ", slowest at %s (%.1f ms):%n",
+                    worst.timestamp(), worst.elapsedMillis()));
+            out.append("  ").append(worst.sql()).append('\n');
+            out.append("  params ").append(worst.params()).append('\n');
+            if (worst.profile() != null) {
+                worst.plan().lines().forEach(line -> out.append("    ").append(line).append('\n'));
+            } else if (worst.error() != null) {
+                out.append("  not profiled: ").append(worst.error()).append('\n');
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package com.xiaodi.taxi.etl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DbSnapshotsTest {
+    private static final Instant NOW = Instant.parse("2025-07-01T12:00:00Z");
+
+    @Test
+    void testPublishMovesThePointer(@TempDir Path dir) throws Exception {
+        Path db = dir.resolve("trips.duckdb");
+        assertEquals(db, DbSnapshots.current(db));
+
+        Path first = DbSnapshots.next(db, NOW);
+        assertEquals("trips.20250701T120000000.duckdb", first.getFileName().toString());
+        Files.writeString(first, "first");
+        Path second = DbSnapshots.next(db, NOW);
+        assertEquals("trips.20250701T120000001.duckdb", second.getFileName().toString());
+        Files.writeString(second, "second");
+
+        DbSnapshots.publish(db, first);
+        assertEquals(first, DbSnapshots.current(db));
+        DbSnapshots.publish(db, second);
+        assertEquals(second, DbSnapshots.current(db));
+        assertEquals(List.of(first, second), DbSnapshots.list(db));
+    }
+
+    @Test
+    void testGarbageCollectionKeepsRetiredSnapshotsForTheGracePeriod(@TempDir Path dir) throws Exception {
+        Path db = dir.resolve("trips.duckdb");
+        Files.writeString(db, "legacy");
+        Path old = snapshot(db, NOW.minus(Duration.ofDays(2)));
+        Path previous = snapshot(db, NOW.minus(Duration.ofDays(1)));
+        Path current = snapshot(db, NOW.minus(Duration.ofMinutes(10)));
+        Path failed = snapshot(db, NOW.minus(Duration.ofHours(2)).plus(Duration.ofDays(1)));
+        DbSnapshots.publish(db, current);
+        assertEquals(List.of(db, old, previous, current, failed), DbSnapshots.list(db));
+
+        // previous was retired when current was written 10 minutes ago
+        assertEquals(List.of(db, old), DbSnapshots.collectGarbage(db, Duration.ofHours(1), NOW));
+        assertTrue(Files.exists(previous));
+        assertTrue(Files.exists(failed));
+
+        assertEquals(List.of(previous), DbSnapshots.collectGarbage(db, Duration.ofMinutes(5), NOW));
+        assertTrue(Files.exists(current));
+        assertTrue(Files.exists(failed));
+    }
+
+    @Test
+    void testNothingIsCollectedBeforeTheFirstPublish(@TempDir Path dir) throws Exception {
+        Path db = dir.resolve("trips.duckdb");
+        Files.writeString(db, "legacy");
+        Path building = snapshot(db, NOW.minus(Duration.ofMinutes(1)));
+
+        assertEquals(List.of(building), DbSnapshots.list(db));
+        assertEquals(List.of(), DbSnapshots.collectGarbage(db, Duration.ofHours(1), NOW));
+        assertTrue(Files.exists(db));
+    }
+
+    /**
+     * Writes a snapshot versioned and last modified at {@code time}.
+     */
+    private static Path snapshot(Path db, Instant time) throws Exception {
+        Path snapshot = DbSnapshots.next(db, time);
+        Files.writeString(snapshot, time.toString());
+        Files.setLastModifiedTime(snapshot, FileTime.from(time));
+        return snapshot;
+    }
+}
@@ -0,0 +1,120 @@
+package com.xiaodi.taxi.etl;
+
+import com.xiaodi.taxi.etl.model.ClusterOrder;
+import com.xiaodi.taxi.etl.model.ResourceBudget;
+import com.xiaodi.taxi.etl.model.StorageBackend;
+import com.xiaodi.taxi.etl.model.TripsSchema;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EtlOptionsTest {
+    @Test
+    void testDefaults() {
+        EtlOptions options = EtlOptions.parse(new String[0]);
+        assertEquals(1, options.getParallelism());
+        assertFalse(options.isIncremental());
+        assertEquals(ClusterOrder.NONE, options.getClusterOrder());
+        assertEquals(StorageBackend.DUCKDB, options.getStorage());
+    }
+
+    @Test
+    void testParseStorage() {
+        EtlOptions options = EtlOptions.parse(new String[]{"--storage=parquet", "--dataset-dir=data/trips"});
+        assertEquals(StorageBackend.PARQUET, options.getStorage());
+        assertEquals(Paths.get("data/trips"), options.getDatasetDir());
+        assertThrows(IllegalArgumentException.class, () -> EtlOptions.parse(new String[]{"--storage=csv"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> EtlOptions.parse(new String[]{"--storage=parquet", "--cluster"}));
+    }
+
+    @Test
+    void testParseCluster() {
+        assertEquals(ClusterOrder.PICKUP, EtlOptions.parse(new String[]{"--cluster"}).getClusterOrder());
+        assertEquals(ClusterOrder.TAXI_TYPE_PICKUP, EtlOptions.parse(new String[]{"--cluster=taxi_type"}).getClusterOrder());
+        assertThrows(IllegalArgumentException.class, () -> EtlOptions.parse(new String[]{"--cluster=vendor"}));
+    }
+
+    @Test
+    void testParseSample() {
+        assertEquals(0.0, EtlOptions.parse(new String[]{}).getSampleFraction());
+        assertEquals(EtlOptions.DEFAULT_SAMPLE_FRACTION, EtlOptions.parse(new String[]{"--sample"}).getSampleFraction());
+        assertEquals(0.05, EtlOptions.parse(new String[]{"--sample=0.05"}).getSampleFraction());
+        assertThrows(IllegalArgumentException.class, () -> EtlOptions.parse(new String[]{"--sample=2"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> EtlOptions.parse(new String[]{"--sample", "--storage=parquet"}));
+    }
+
+    @Test
+    void testParseProfileAndMetrics() {
+        EtlOptions options = EtlOptions.parse(new String[]{"--profile", "--metrics=out/etl.prom"});
+        assertTrue(options.isProfile());
+        assertEquals(Paths.get("out/etl.prom"), options.getMetricsFile());
+        assertNull(EtlOptions.parse(new String[]{}).getMetricsFile());
+        assertThrows(IllegalArgumentException.class, () -> EtlOptions.parse(new String[]{"--metrics"}));
+    }
+
+    @Test
+    void testParseResourceBudget() {
+        EtlOptions options = EtlOptions.parse(new String[]{"--max-threads=4", "--max-memory=8GB", "--temp-dir=/scratch/duck"});
+        assertEquals(4, options.getMaxThreads());
+        assertEquals(8_000_000_000L, options.getMaxMemoryBytes());
+        assertEquals(Paths.get("/scratch/duck"), options.getTempDir());
+        assertEquals(new ResourceBudget(4, 8_000_000_000L, Paths.get("/scratch/duck")), options.resourceBudget());
+
+        ResourceBudget defaults = EtlOptions.defaults().resourceBudget();
+        assertEquals(Runtime.getRuntime().availableProcessors(), defaults.threads());
+        assertTrue(defaults.memoryBytes() > 0);
+        assertNull(defaults.tempDirectory());
+        assertThrows(IllegalArgumentException.class, () -> EtlOptions.parse(new String[]{"--max-threads=0"}));
+        assertThrows(IllegalArgumentException.class, () -> EtlOptions.parse(new String[]{"--max-memory=lots"}));
+    }
+
+    @Test
+    void testParseSplitRows() {
+        assertEquals(0, EtlOptions.parse(new String[]{}).getSplitRows());
+        assertEquals(EtlOptions.DEFAULT_SPLIT_ROWS, EtlOptions.parse(new String[]{"--split-rows"}).getSplitRows());
+        assertEquals(1_000_000, EtlOptions.parse(new String[]{"--split-rows=1000000"}).getSplitRows());
+        assertThrows(IllegalArgumentException.class,
+                () -> EtlOptions.parse(new String[]{"--split-rows", "--storage=parquet"}));
+    }
+
+    @Test
+    void testParseSchema() {
+        assertEquals(TripsSchema.STANDARD, EtlOptions.parse(new String[]{}).getSchema());
+        assertEquals(TripsSchema.COMPACT, EtlOptions.parse(new String[]{"--schema=compact"}).getSchema());
+        assertThrows(IllegalArgumentException.class, () -> EtlOptions.parse(new String[]{"--schema=tiny"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> EtlOptions.parse(new String[]{"--schema=compact", "--storage=parquet"}));
+    }
+
+    @Test
+    void testParseSnapshotGrace() {
+        assertEquals(EtlOptions.DEFAULT_SNAPSHOT_GRACE, EtlOptions.parse(new String[]{}).getSnapshotGrace());
+        assertEquals(Duration.ofMinutes(5), EtlOptions.parse(new String[]{"--snapshot-grace=5"}).getSnapshotGrace());
+        assertEquals(Duration.ZERO, EtlOptions.parse(new String[]{"--snapshot-grace=0"}).getSnapshotGrace());
+        assertThrows(IllegalArgumentException.class, () -> EtlOptions.parse(new String[]{"--snapshot-grace=-1"}));
+    }
+
+    @Test
+    void testParseIncremental() {
+        assertTrue(EtlOptions.parse(new String[]{"--incremental"}).isIncremental());
+        assertFalse(EtlOptions.parse(new String[]{"--incremental=false"}).isIncremental());
+    }
+
+    @Test
+    void testParseParallelism() {
+        EtlOptions options = EtlOptions.parse(new String[]{"--parallel=4"});
+        assertEquals(4, options.getParallelism());
+    }
+
+    @Test
+    void testRejectsUnknownAndInvalidOptions() {
+        assertThrows(IllegalArgumentException.class, () -> EtlOptions.parse(new String[]{"--bogus"}));
+        assertThrows(IllegalArgumentException.class, () -> EtlOptions.parse(new String[]{"--parallel"}));
+        assertThrows(IllegalArgumentException.class, () -> EtlOptions.parse(new String[]{"--parallel=0"}));
+    }
+}
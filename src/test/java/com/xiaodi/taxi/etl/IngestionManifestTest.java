@@ -0,0 +1,80 @@
+package com.xiaodi.taxi.etl;
+
+import com.xiaodi.taxi.etl.model.IngestAction;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class IngestionManifestTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testDecideNewUnchangedAndChanged() throws Exception {
+        Connection conn = mock(Connection.class);
+        Statement stmt = mock(Statement.class);
+        ResultSet rs = mock(ResultSet.class);
+        PreparedStatement upsert = mock(PreparedStatement.class);
+        when(conn.createStatement()).thenReturn(stmt);
+        when(stmt.executeQuery(anyString())).thenReturn(rs);
+        when(rs.next()).thenReturn(false);
+        when(conn.prepareStatement(startsWith("INSERT OR REPLACE INTO ingested_files"))).thenReturn(upsert);
+
+        IngestionManifest manifest = IngestionManifest.load(conn);
+        verify(stmt).execute(startsWith("CREATE TABLE IF NOT EXISTS ingested_files"));
+
+        Path file = Files.writeString(tempDir.resolve("yellow_tripdata_2025-06.parquet"), "first version");
+        IngestionManifest.Decision first = manifest.decide(file);
+        assertEquals(IngestAction.NEW, first.action());
+        assertEquals("yellow_tripdata_2025-06.parquet", first.key());
+
+        manifest.record(conn, first.toEntry(10));
+        verify(upsert).setString(1, "yellow_tripdata_2025-06.parquet");
+        verify(upsert).setLong(5, 10L);
+        assertEquals(IngestAction.UNCHANGED, manifest.decide(file).action());
+
+        // Same content with a new mtime is still unchanged
+        Files.setLastModifiedTime(file, FileTime.fromMillis(first.mtimeMillis() + 60_000));
+        assertEquals(IngestAction.UNCHANGED, manifest.decide(file).action());
+
+        Files.writeString(file, "second version, longer");
+        IngestionManifest.Decision changed = manifest.decide(file);
+        assertEquals(IngestAction.CHANGED, changed.action());
+        assertNotEquals(first.contentHash(), changed.contentHash());
+    }
+
+    @Test
+    void testRemoveMakesTheFileNewAgain() throws Exception {
+        Connection conn = mock(Connection.class);
+        Statement stmt = mock(Statement.class);
+        ResultSet rs = mock(ResultSet.class);
+        PreparedStatement upsert = mock(PreparedStatement.class);
+        PreparedStatement delete = mock(PreparedStatement.class);
+        when(conn.createStatement()).thenReturn(stmt);
+        when(stmt.executeQuery(anyString())).thenReturn(rs);
+        when(rs.next()).thenReturn(false);
+        when(conn.prepareStatement(startsWith("INSERT OR REPLACE INTO ingested_files"))).thenReturn(upsert);
+        when(conn.prepareStatement(startsWith("DELETE FROM ingested_files"))).thenReturn(delete);
+
+        IngestionManifest manifest = IngestionManifest.load(conn);
+        Path file = Files.writeString(tempDir.resolve("green_tripdata_2025-06.parquet"), "rows");
+        manifest.record(conn, manifest.decide(file).toEntry(10));
+
+        manifest.remove(conn, "green_tripdata_2025-06.parquet");
+        verify(delete).setString(1, "green_tripdata_2025-06.parquet");
+        verify(delete).executeUpdate();
+        assertNull(manifest.get("green_tripdata_2025-06.parquet"));
+        assertEquals(IngestAction.NEW, manifest.decide(file).action());
+    }
+}
@@ -0,0 +1,151 @@
+package com.xiaodi.taxi.etl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.xiaodi.taxi.etl.model.DownloadResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParquetsDownloaderTest {
+    @TempDir
+    Path outputDir;
+
+    private HttpServer server;
+    private volatile byte[] content;
+    private volatile String etag;
+    private final List<String> rangeHeaders = new CopyOnWriteArrayList<>();
+    private final List<String> getRequests = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        content = "PAR1 fake parquet payload for tests PAR1".getBytes(StandardCharsets.UTF_8);
+        etag = "\"v1\"";
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/trip-data/", this::handle);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = content;
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", Integer.toString(body.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        getRequests.add(exchange.getRequestURI().getPath());
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            rangeHeaders.add(range);
+            int start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+            byte[] rest = Arrays.copyOfRange(body, start, body.length);
+            exchange.getResponseHeaders().set("Content-Range",
+                    "bytes " + start + "-" + (body.length - 1) + "/" + body.length);
+            exchange.sendResponseHeaders(206, rest.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(rest);
+            }
+            return;
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private URI uri(String fileName) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/trip-data/" + fileName);
+    }
+
+    private ParquetsDownloader downloader() {
+        return new ParquetsDownloader(ParquetsDownloader.defaultClient(), outputDir, 2);
+    }
+
+    @Test
+    void testDownloadsThenSkipsUnchangedFile() throws IOException {
+        URI uri = uri("yellow_tripdata_2025-06.parquet");
+
+        DownloadResult first = downloader().download(uri);
+        assertEquals(DownloadResult.Status.DOWNLOADED, first.status());
+        assertArrayEquals(content, Files.readAllBytes(outputDir.resolve("yellow_tripdata_2025-06.parquet")));
+        assertFalse(Files.exists(outputDir.resolve("yellow_tripdata_2025-06.parquet.part")));
+
+        DownloadResult second = downloader().download(uri);
+        assertEquals(DownloadResult.Status.SKIPPED, second.status());
+        assertEquals(1, getRequests.size());
+    }
+
+    @Test
+    void testRedownloadsWhenEtagChanges() throws IOException {
+        URI uri = uri("green_tripdata_2025-05.parquet");
+        assertEquals(DownloadResult.Status.DOWNLOADED, downloader().download(uri).status());
+
+        content = "PAR1 a newer payload PAR1".getBytes(StandardCharsets.UTF_8);
+        etag = "\"v2\"";
+        assertEquals(DownloadResult.Status.DOWNLOADED, downloader().download(uri).status());
+        assertArrayEquals(content, Files.readAllBytes(outputDir.resolve("green_tripdata_2025-05.parquet")));
+    }
+
+    @Test
+    void testResumesPartialDownloadWithRange() throws IOException {
+        String fileName = "yellow_tripdata_2025-05.parquet";
+        Files.write(outputDir.resolve(fileName + ".part"), Arrays.copyOfRange(content, 0, 10));
+        Files.writeString(outputDir.resolve(fileName + ".part.etag"), etag);
+
+        DownloadResult result = downloader().download(uri(fileName));
+
+        assertEquals(DownloadResult.Status.RESUMED, result.status());
+        assertEquals(List.of("bytes=10-"), rangeHeaders);
+        assertEquals(content.length - 10, result.bytesTransferred());
+        assertArrayEquals(content, Files.readAllBytes(outputDir.resolve(fileName)));
+    }
+
+    @Test
+    void testDownloadAllKeepsInputOrderAndIsolatesFailures() {
+        server.createContext("/missing/", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        URI missing = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/missing/x.parquet");
+        List<DownloadResult> results = downloader().downloadAll(List.of(
+                uri("a.parquet"), missing, uri("b.parquet")));
+
+        assertEquals(3, results.size());
+        assertEquals(DownloadResult.Status.DOWNLOADED, results.get(0).status());
+        assertEquals(DownloadResult.Status.FAILED, results.get(1).status());
+        assertEquals(DownloadResult.Status.DOWNLOADED, results.get(2).status());
+    }
+
+    @Test
+    void testMonthRange() {
+        List<URI> uris = ParquetsDownloader.monthRange(YearMonth.of(2024, 12), YearMonth.of(2025, 1),
+                List.of("yellow", "green"));
+        assertEquals(4, uris.size());
+        assertEquals(URI.create(ParquetsDownloader.BASE_URL + "yellow_tripdata_2024-12.parquet"), uris.get(0));
+        assertEquals(URI.create(ParquetsDownloader.BASE_URL + "green_tripdata_2025-01.parquet"), uris.get(3));
+    }
+}
@@ -0,0 +1,115 @@
+package com.xiaodi.taxi.etl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionedDatasetWriterTest {
+    private static final Instant NOW = Instant.parse("2025-07-01T12:00:00Z");
+
+    @TempDir
+    Path dir;
+    private Path dataset;
+
+    @BeforeEach
+    void setUp() {
+        dataset = dir.resolve("trips-dataset");
+    }
+
+    @Test
+    void testPartPrefix() {
+        assertEquals("yellow_tripdata_2025-06.", PartitionedDatasetWriter.partPrefix("yellow_tripdata_2025-06.parquet"));
+    }
+
+    @Test
+    void testDeleteRemovesOnlyPartsOfTheSourceFile() throws IOException {
+        Path june = part("taxi_type=yellow/year=2025/month=6/yellow_tripdata_2025-06.0.parquet");
+        Path stray = part("taxi_type=yellow/year=2025/month=5/yellow_tripdata_2025-06.1.parquet");
+        Path may = part("taxi_type=yellow/year=2025/month=5/yellow_tripdata_2025-05.0.parquet");
+        Path staged = part(PartitionedDatasetWriter.STAGING_DIR + "/yellow_tripdata_2025-06.parquet/taxi_type=yellow/"
+                + "year=2025/month=6/yellow_tripdata_2025-06.0.parquet");
+
+        new PartitionedDatasetWriter(dataset).delete("yellow_tripdata_2025-06.parquet");
+
+        assertFalse(Files.exists(june));
+        assertFalse(Files.exists(stray));
+        assertTrue(Files.exists(may));
+        assertTrue(Files.exists(staged));
+    }
+
+    @Test
+    void testClearDeletesDataset() throws IOException {
+        part("taxi_type=green/year=2025/month=6/green_tripdata_2025-06.0.parquet");
+        new PartitionedDatasetWriter(dataset).clear();
+        assertFalse(Files.exists(dataset));
+    }
+
+    @Test
+    void testVersionsFollowTheManifestSnapshots() throws IOException {
+        Path manifest = PartitionedDatasetWriter.manifestFile(dataset);
+        assertEquals(dataset.getFileName() + ".duckdb", manifest.getFileName().toString());
+        assertEquals(dataset, PartitionedDatasetWriter.current(dataset));
+
+        Path snapshot = DbSnapshots.next(manifest, NOW);
+        Path version = PartitionedDatasetWriter.version(dataset, snapshot);
+        assertEquals(dataset.getFileName() + ".20250701T120000000", version.getFileName().toString());
+        DbSnapshots.publish(manifest, snapshot);
+        assertEquals(version, PartitionedDatasetWriter.current(dataset));
+    }
+
+    @Test
+    void testLinkFromSharesPartsButNotTheirReplacements() throws IOException {
+        Path june = part("taxi_type=yellow/year=2025/month=6/yellow_tripdata_2025-06.0.parquet");
+        part(PartitionedDatasetWriter.STAGING_DIR + "/yellow_tripdata_2025-07.parquet/taxi_type=yellow/"
+                + "year=2025/month=7/yellow_tripdata_2025-07.0.parquet");
+        Path next = dataset.resolveSibling(dataset.getFileName() + ".next");
+
+        PartitionedDatasetWriter writer = new PartitionedDatasetWriter(next);
+        writer.linkFrom(dataset);
+        Path linked = next.resolve(dataset.relativize(june).toString());
+        assertEquals("x", Files.readString(linked));
+        assertFalse(Files.exists(next.resolve(PartitionedDatasetWriter.STAGING_DIR)));
+
+        writer.delete("yellow_tripdata_2025-06.parquet");
+        assertFalse(Files.exists(linked));
+        assertEquals("x", Files.readString(june));
+    }
+
+    @Test
+    void testGarbageCollectionDeletesVersionsWithoutSnapshot() throws IOException {
+        Path manifest = PartitionedDatasetWriter.manifestFile(dataset);
+        part("taxi_type=yellow/year=2025/month=6/yellow_tripdata_2025-06.0.parquet");
+        Path retired = DbSnapshots.next(manifest, NOW.minus(Duration.ofDays(1)));
+        Path current = DbSnapshots.next(manifest, NOW);
+        Files.writeString(current, "manifest");
+        Files.createDirectories(PartitionedDatasetWriter.version(dataset, retired));
+        Files.createDirectories(PartitionedDatasetWriter.version(dataset, current));
+
+        // the snapshot of retired was collected; the pre-version dataset stays until a version is published
+        assertEquals(List.of(PartitionedDatasetWriter.version(dataset, retired)),
+                PartitionedDatasetWriter.collectGarbage(dataset, Duration.ofHours(1), NOW));
+        assertTrue(Files.isDirectory(dataset));
+
+        DbSnapshots.publish(manifest, current);
+        Files.setLastModifiedTime(DbSnapshots.pointerFile(manifest), FileTime.from(NOW.minus(Duration.ofMinutes(10))));
+        assertEquals(List.of(), PartitionedDatasetWriter.collectGarbage(dataset, Duration.ofHours(1), NOW));
+        assertEquals(List.of(dataset), PartitionedDatasetWriter.collectGarbage(dataset, Duration.ofMinutes(5), NOW));
+        assertTrue(Files.isDirectory(PartitionedDatasetWriter.version(dataset, current)));
+    }
+
+    private Path part(String relative) throws IOException {
+        Path file = dataset.resolve(relative);
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, "x");
+    }
+}
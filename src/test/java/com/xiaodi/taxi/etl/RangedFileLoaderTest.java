@@ -0,0 +1,85 @@
+package com.xiaodi.taxi.etl;
+
+import com.xiaodi.taxi.etl.model.RowRange;
+import com.xiaodi.taxi.metrics.MetricsRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class RangedFileLoaderTest {
+
+    @Test
+    void testPlanGroupsWholeRowGroups() {
+        List<RowRange> ranges = RangedFileLoader.plan(List.of(100L, 100L, 100L, 100L, 50L), 200);
+
+        assertEquals(List.of(new RowRange(0, 0, 200), new RowRange(1, 200, 400), new RowRange(2, 400, 450)), ranges);
+        assertEquals(List.of(new RowRange(0, 0, 450)), RangedFileLoader.plan(List.of(100L, 100L, 100L, 100L, 50L), 1_000));
+        assertTrue(RangedFileLoader.plan(List.of(), 200).isEmpty());
+    }
+
+    @Test
+    void testFailedRangeIsRetriedAlone() throws Exception {
+        Statement stmt = rangeStatement();
+        when(stmt.execute(startsWith("INSERT INTO trips")))
+                .thenThrow(new SQLException("connection reset"))
+                .thenReturn(false);
+        MetricsRegistry metrics = new MetricsRegistry();
+
+        long rows = loader(stmt, metrics).load(Paths.get("data/yellow.parquet"), "yellow.parquet",
+                List.of(new RowRange(0, 0, 100), new RowRange(1, 100, 200)));
+
+        assertEquals(84, rows);
+        verify(stmt, times(3)).execute(startsWith("INSERT INTO trips"));
+        verify(stmt, times(1)).execute("ROLLBACK");
+        verify(stmt, times(2)).execute("COMMIT");
+        verify(stmt, times(2)).execute(contains("file_row_number >= 0 AND file_row_number < 100"));
+        verify(stmt).execute(contains("file_row_number >= 100 AND file_row_number < 200"));
+        assertEquals(1, metrics.counter("etl_range_retries_total", "file", "yellow.parquet").value());
+    }
+
+    @Test
+    void testRangeFailingEveryAttemptFailsTheLoad() throws Exception {
+        Statement stmt = rangeStatement();
+        when(stmt.execute(startsWith("INSERT INTO trips"))).thenThrow(new SQLException("disk full"));
+
+        SQLException e = assertThrows(SQLException.class, () -> loader(stmt, new MetricsRegistry())
+                .load(Paths.get("data/yellow.parquet"), "yellow.parquet", List.of(new RowRange(0, 0, 100))));
+
+        assertTrue(e.getMessage().startsWith("1 of 1 ranges of yellow.parquet failed"), e.getMessage());
+        verify(stmt, times(RangedFileLoader.MAX_ATTEMPTS)).execute("ROLLBACK");
+        verify(stmt, never()).execute("COMMIT");
+    }
+
+    private static RangedFileLoader loader(Statement stmt, MetricsRegistry metrics) throws SQLException {
+        Connection conn = mock(Connection.class);
+        Connection worker = mock(Connection.class);
+        ConnectionFactory factory = mock(ConnectionFactory.class);
+        when(factory.duplicate(conn)).thenReturn(worker);
+        when(worker.createStatement()).thenReturn(stmt);
+        return new RangedFileLoader(factory, conn, 1, metrics);
+    }
+
+    /**
+     * @return a statement reading a yellow schema, inserting 42 rows per range.
+     */
+    private static Statement rangeStatement() throws SQLException {
+        Statement stmt = mock(Statement.class);
+        when(stmt.executeQuery(startsWith("SELECT name FROM parquet_schema('"))).thenAnswer(invocation -> {
+            ResultSet rs = mock(ResultSet.class);
+            when(rs.next()).thenReturn(true, true, false);
+            when(rs.getString("name")).thenReturn("tpep_pickup_datetime", "tpep_dropoff_datetime");
+            return rs;
+        });
+        when(stmt.getUpdateCount()).thenReturn(42);
+        return stmt;
+    }
+}
@@ -0,0 +1,79 @@
+package com.xiaodi.taxi.etl;
+
+import com.xiaodi.taxi.etl.model.ParquetFileStats;
+import com.xiaodi.taxi.etl.model.ResourceBudget;
+import com.xiaodi.taxi.etl.model.ResourceSettings;
+import com.xiaodi.taxi.metrics.MetricsRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ResourceGovernorTest {
+    private static final long GB = 1000L * 1000 * 1000;
+    private static final long MB = 1000L * 1000;
+
+    @Test
+    void testPlanGivesOneThreadPerRowGroupUpToTheShare() {
+        ResourceGovernor governor = new ResourceGovernor(new ResourceBudget(8, 16 * GB, null), 2, new MetricsRegistry());
+
+        ResourceSettings small = governor.plan(new ParquetFileStats(200_000, 2, 20 * MB, 100 * MB));
+        assertEquals(2, small.threads());
+        assertEquals(ResourceGovernor.BASE_MEMORY + 2 * 2 * 50 * MB, small.memoryBytes());
+
+        ResourceSettings large = governor.plan(new ParquetFileStats(3_000_000, 30, 600 * MB, 3 * GB));
+        assertEquals(4, large.threads());
+        assertEquals(ResourceGovernor.BASE_MEMORY + 2 * 4 * 100 * MB, large.memoryBytes());
+    }
+
+    @Test
+    void testPlanStaysWithinBudget() {
+        ResourceGovernor governor = new ResourceGovernor(new ResourceBudget(2, GB, null), 4, new MetricsRegistry());
+
+        ResourceSettings settings = governor.plan(new ParquetFileStats(10_000_000, 80, 20 * GB, 80 * GB));
+        assertEquals(1, settings.threads());
+        assertEquals(GB, settings.memoryBytes());
+
+        ResourceSettings empty = governor.plan(new ParquetFileStats(0, 0, 0, 0));
+        assertEquals(1, empty.threads());
+        assertEquals(ResourceGovernor.BASE_MEMORY, empty.memoryBytes());
+    }
+
+    @Test
+    void testInstanceLimitsFollowTheFilesInFlight() throws Exception {
+        Connection conn = mock(Connection.class);
+        Statement stmt = mock(Statement.class);
+        when(conn.createStatement()).thenReturn(stmt);
+        ResourceGovernor governor = new ResourceGovernor(new ResourceBudget(8, 16 * GB, null), 2, new MetricsRegistry());
+
+        ResourceGovernor.Lease a = governor.acquire(conn, "a.parquet", new ParquetFileStats(100, 2, MB, 100 * MB));
+        ResourceGovernor.Lease b = governor.acquire(conn, "b.parquet", new ParquetFileStats(100, 1, MB, 100 * MB));
+        verify(stmt).execute("SET threads = 2");
+        verify(stmt).execute("SET threads = 3");
+        verify(stmt).execute("SET memory_limit = '456MB'");
+        verify(stmt).execute("SET memory_limit = '912MB'");
+
+        a.close();
+        verify(stmt).execute("SET threads = 1");
+        verify(stmt, times(2)).execute("SET memory_limit = '456MB'");
+        b.close();
+        verify(stmt).execute("SET threads = 8");
+        verify(stmt).execute("SET memory_limit = '16000MB'");
+    }
+
+    @Test
+    void testParseAndFormatBytes() {
+        assertEquals(8 * GB, ResourceBudget.parseBytes("8GB"));
+        assertEquals(512L << 20, ResourceBudget.parseBytes("512 MiB"));
+        assertEquals(1_200_000_000L, ResourceBudget.parseBytes("1.2GB"));
+        assertEquals(0, ResourceBudget.parseBytes("0 bytes"));
+        assertEquals(42, ResourceBudget.parseBytes("42"));
+        assertThrows(IllegalArgumentException.class, () -> ResourceBudget.parseBytes("lots"));
+        assertThrows(IllegalArgumentException.class, () -> ResourceBudget.parseBytes("4 parsecs"));
+        assertEquals("1.5 GB", ResourceBudget.formatBytes(1_500_000_000L));
+        assertEquals("256.0 MB", ResourceBudget.formatBytes(256 * MB));
+    }
+}
@@ -1,6 +1,8 @@
 package com.xiaodi.taxi.etl;
 
+import com.xiaodi.taxi.etl.model.ClusterOrder;
 import com.xiaodi.taxi.etl.model.NormalizedColumns;
+import com.xiaodi.taxi.etl.model.TripsSchema;
 import com.xiaodi.taxi.etl.sql.SQLBuilder;
 import org.junit.jupiter.api.Test;
 
@@ -13,15 +15,107 @@ public class SQLBuilderTest {
         assertTrue(sql.startsWith("CREATE TABLE IF NOT EXISTS trips"));
         assertTrue(sql.contains("vendor_id INTEGER"));
         assertTrue(sql.contains("taxi_type VARCHAR"));
+        assertTrue(sql.contains("source_file VARCHAR"));
+    }
+
+    @Test
+    void testZonesSql() {
+        assertEquals("CREATE OR REPLACE TABLE taxi_zones AS SELECT CAST(LocationID AS INTEGER) AS location_id, " +
+                        "Borough AS borough, Zone AS zone, service_zone " +
+                        "FROM read_csv_auto('parquets/taxi_zone_lookup.csv', header = true, all_varchar = true)",
+                SQLBuilder.createZonesTable("parquets/taxi_zone_lookup.csv"));
+        assertEquals("SELECT location_id, borough, zone, service_zone FROM taxi_zones", SQLBuilder.selectZones());
+    }
+
+    @Test
+    void testCreateCompactTablesSql() {
+        String trips = SQLBuilder.createTripsTable(TripsSchema.COMPACT);
+        assertTrue(trips.contains("vendor_id UTINYINT"));
+        assertTrue(trips.contains("pu_location_id USMALLINT, do_location_id USMALLINT, payment_type UTINYINT"));
+        assertTrue(trips.contains("fare_amount DECIMAL(18,2)"));
+        assertTrue(trips.contains("taxi_type ENUM('yellow', 'green')"));
+        assertEquals(SQLBuilder.createTripsTable(), SQLBuilder.createTripsTable(TripsSchema.STANDARD));
+
+        String rollup = SQLBuilder.createRollupTable(TripsSchema.COMPACT);
+        assertTrue(rollup.contains("min_fare DECIMAL(18,2), max_fare DECIMAL(18,2), trip_count BIGINT, " +
+                "sum_fare DECIMAL(38,2), sum_tolls DECIMAL(38,2)"));
+        assertTrue(SQLBuilder.createDailyTable(TripsSchema.COMPACT).contains("vendor_id UTINYINT"));
+        assertTrue(SQLBuilder.createDailyTable().contains("sum_fare DOUBLE"));
+    }
+
+    @Test
+    void testClusterSql() {
+        assertEquals("CREATE OR REPLACE TABLE trips_clustered AS SELECT * FROM trips ORDER BY taxi_type, pickup_datetime",
+                SQLBuilder.createClusteredTrips(ClusterOrder.TAXI_TYPE_PICKUP.orderBy()));
+        assertTrue(SQLBuilder.selectSegments().startsWith("SELECT rowid // 122880 AS segment_id, COUNT(*) AS row_count"));
+        assertEquals("SELECT COALESCE(SUM(row_count), 0), COUNT(*) FROM trips_segments WHERE max_pickup >= ? AND min_pickup < ?",
+                SQLBuilder.rowsScannedForPickupWindow("trips_segments"));
+        assertEquals("DROP TABLE IF EXISTS trips_segments", SQLBuilder.dropSegmentsTable());
+    }
+
+    @Test
+    void testCopyToPartitionsSql() {
+        NormalizedColumns info = new NormalizedColumns("tpep_pickup_datetime", "tpep_dropoff_datetime", "yellow");
+        String sql = SQLBuilder.copyToPartitions(info, SQLBuilder.readParquet("data/y.parquet"), "y.parquet",
+                "out/.staging", "y.{i}");
+        assertTrue(sql.startsWith("COPY (SELECT VendorID as vendor_id, tpep_pickup_datetime AS pickup_datetime"));
+        assertTrue(sql.contains("'y.parquet' AS source_file, year(tpep_pickup_datetime) AS year, " +
+                "month(tpep_pickup_datetime) AS month FROM read_parquet('data/y.parquet')"));
+        assertTrue(sql.endsWith("TO 'out/.staging' (FORMAT PARQUET, PARTITION_BY (taxi_type, year, month), " +
+                "OVERWRITE_OR_IGNORE 1, FILENAME_PATTERN 'y.{i}')"));
+    }
+
+    @Test
+    void testCreateSampleTableSql() {
+        String sql = SQLBuilder.createSampleTable(0.01, 10_000);
+        assertTrue(sql.startsWith("CREATE OR REPLACE TABLE trips_sample AS WITH strata AS (SELECT taxi_type, " +
+                "date_trunc('month', pickup_datetime) AS stratum_month, COUNT(*) AS stratum_rows FROM trips GROUP BY ALL)"));
+        assertTrue(sql.contains("LEAST(1.0, GREATEST(0.01, CAST(10000 AS DOUBLE) / s.stratum_rows)) AS stratum_rate"));
+        assertTrue(sql.contains("hash(t.rowid) % 1000000 AS sample_bucket"));
+        assertTrue(sql.contains("WHERE sample_bucket < stratum_rate * 1000000"));
+        assertEquals("DROP TABLE IF EXISTS trips_sample", SQLBuilder.dropSampleTable());
+    }
+
+    @Test
+    void testInsertDailySql() {
+        assertEquals("INSERT INTO trips_daily SELECT CAST(hour_bucket AS DATE) AS day, vendor_id, payment_type, " +
+                "taxi_type, source_file, MIN(min_fare), MAX(max_fare), SUM(trip_count), SUM(sum_fare), SUM(sum_tolls) " +
+                "FROM trips_rollup WHERE source_file = 'o''brien.parquet' " +
+                "GROUP BY day, vendor_id, payment_type, taxi_type, source_file", SQLBuilder.insertDaily("o'brien.parquet"));
+        assertFalse(SQLBuilder.insertDaily(null).contains("WHERE"));
+    }
+
+    @Test
+    void testResourceSettingsSql() {
+        assertEquals("SET threads = 4", SQLBuilder.setThreads(4));
+        assertEquals("SET memory_limit = '1500MB'", SQLBuilder.setMemoryLimit(1_500_000_000L));
+        assertEquals("SET temp_directory = '/tmp/o''brien'", SQLBuilder.setTempDirectory("/tmp/o'brien"));
+        assertTrue(SQLBuilder.readParquetMetadata("data/x.parquet")
+                .contains("FROM parquet_metadata('data/x.parquet') GROUP BY row_group_id"));
+    }
+
+    @Test
+    void testReadParquetRangeSql() {
+        assertEquals("(SELECT * FROM read_parquet('data/x.parquet', file_row_number = true) " +
+                "WHERE file_row_number >= 245760 AND file_row_number < 491520)",
+                SQLBuilder.readParquetRange("data/x.parquet", 245_760, 491_520));
+        assertTrue(SQLBuilder.readRowGroups("data/x.parquet").endsWith("GROUP BY row_group_id ORDER BY row_group_id"));
+    }
+
+    @Test
+    void testReadParquetSchemaSql() {
+        assertEquals("SELECT name FROM parquet_schema('data/x.parquet')", SQLBuilder.readParquetSchema("data/x.parquet"));
     }
 
     @Test
     void testBuildInsertSql() {
         NormalizedColumns info = new NormalizedColumns("pickup", "dropoff", "green");
-        String sql = SQLBuilder.buildInsertSql(info);
-        assertTrue(sql.contains("INSERT INTO trips"));
+        String sql = SQLBuilder.buildInsertSql(info, SQLBuilder.readParquet("data/green.parquet"), "green.parquet");
+        assertTrue(sql.contains("INSERT INTO trips (vendor_id, pickup_datetime, dropoff_datetime, rate_code_id"));
         assertTrue(sql.contains("pickup AS pickup_datetime"));
         assertTrue(sql.contains("dropoff AS dropoff_datetime"));
         assertTrue(sql.contains("'green' AS taxi_type"));
+        assertTrue(sql.contains("'green.parquet' AS source_file"));
+        assertTrue(sql.endsWith("FROM read_parquet('data/green.parquet')"));
     }
 }
\ No newline at end of file
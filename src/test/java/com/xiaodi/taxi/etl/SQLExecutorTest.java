@@ -1,12 +1,14 @@
 package com.xiaodi.taxi.etl;
 
 import com.xiaodi.taxi.etl.sql.SQLExecutor;
+import com.xiaodi.taxi.metrics.MetricsRegistry;
 import org.junit.jupiter.api.Test;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.ResultSet;
 import java.sql.Statement;
 
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
@@ -15,27 +17,62 @@ public class SQLExecutorTest {
     void testExecuteExecutesCorrectSql() throws Exception {
         Statement stmt = mock(Statement.class);
         ResultSet rs = mock(ResultSet.class);
-        when(stmt.executeQuery("PRAGMA table_info(temp_trips)"))
+        when(stmt.executeQuery(startsWith("SELECT name FROM parquet_schema('")))
                 .thenReturn(rs);
         // Simulate two rows: pickup and dropoff columns
         when(rs.next()).thenReturn(true, true, false);
         when(rs.getString("name"))
                 .thenReturn("tpep_pickup_datetime", "tpep_dropoff_datetime");
+        when(stmt.getUpdateCount()).thenReturn(42);
 
         SQLExecutor processor = new SQLExecutor(stmt);
         Path file = Paths.get("data/sample.parquet");
-        processor.execute(file);
+        long rows = processor.execute(file);
 
-        // Verify parquet load
-        verify(stmt).execute(startsWith("CREATE TABLE temp_trips AS SELECT * FROM read_parquet('"));
-        // Verify normalized insert SQL
+        // Verify normalized insert SQL streams straight from the parquet file
         verify(stmt).execute(argThat(sql ->
                 sql.contains("INSERT INTO trips") &&
                         sql.contains("tpep_pickup_datetime") &&
                         sql.contains("tpep_dropoff_datetime") &&
-                        sql.contains("'yellow'")
+                        sql.contains("'yellow'") &&
+                        sql.contains("'sample.parquet' AS source_file") &&
+                        sql.contains("FROM read_parquet('")
         ));
-        // Verify cleanup
-        verify(stmt).execute("DROP TABLE IF EXISTS temp_trips");
+        // Verify no staging copy is made
+        verify(stmt, never()).execute(startsWith("CREATE TABLE"));
+        assertEquals(42, rows);
+    }
+
+    @Test
+    void testExecuteRecordsLoadMetrics() throws Exception {
+        Statement stmt = mock(Statement.class);
+        ResultSet rs = mock(ResultSet.class);
+        when(stmt.executeQuery(startsWith("SELECT name FROM parquet_schema('"))).thenReturn(rs);
+        when(rs.next()).thenReturn(true, true, false);
+        when(rs.getString("name")).thenReturn("lpep_pickup_datetime", "lpep_dropoff_datetime");
+        when(stmt.getUpdateCount()).thenReturn(10);
+        MetricsRegistry metrics = new MetricsRegistry();
+
+        new SQLExecutor(stmt, metrics).execute(Paths.get("data/green.parquet"), "green.parquet");
+
+        assertEquals(1, metrics.timer("etl_read_seconds", "file", "green.parquet").count());
+        assertEquals(1, metrics.timer("etl_insert_seconds", "file", "green.parquet").count());
+        assertEquals(10, metrics.counter("etl_rows_total", "file", "green.parquet").value());
+        assertTrue(metrics.gauge("etl_rows_per_second", "file", "green.parquet").value() > 0);
+    }
+
+    @Test
+    void testExecuteSkipsUnknownSchema() throws Exception {
+        Statement stmt = mock(Statement.class);
+        ResultSet rs = mock(ResultSet.class);
+        when(stmt.executeQuery(startsWith("SELECT name FROM parquet_schema('")))
+                .thenReturn(rs);
+        when(rs.next()).thenReturn(true, false);
+        when(rs.getString("name")).thenReturn("some_column");
+
+        long rows = new SQLExecutor(stmt).execute(Paths.get("data/other.parquet"));
+
+        verify(stmt, never()).execute(anyString());
+        assertEquals(0, rows);
     }
 }
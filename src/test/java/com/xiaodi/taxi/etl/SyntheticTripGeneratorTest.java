@@ -0,0 +1,60 @@
+package com.xiaodi.taxi.etl;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.YearMonth;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SyntheticTripGeneratorTest {
+    private static final YearMonth JUNE = YearMonth.of(2025, 6);
+
+    @Test
+    void testYellowUsesTpepColumns() {
+        String sql = generator(SyntheticTripGenerator.Spec.builder().build()).buildSelect("yellow", JUNE);
+        assertTrue(sql.contains("AS tpep_pickup_datetime"));
+        assertTrue(sql.contains("AS tpep_dropoff_datetime"));
+        assertTrue(sql.contains("AS Airport_fee"));
+        assertFalse(sql.contains("lpep_"));
+    }
+
+    @Test
+    void testGreenUsesLpepColumns() {
+        String sql = generator(SyntheticTripGenerator.Spec.builder().build()).buildSelect("green", JUNE);
+        assertTrue(sql.contains("AS lpep_pickup_datetime"));
+        assertTrue(sql.contains("AS lpep_dropoff_datetime"));
+        assertTrue(sql.contains("AS ehail_fee"));
+        assertTrue(sql.contains("AS trip_type"));
+        assertFalse(sql.contains("tpep_"));
+    }
+
+    @Test
+    void testSpecDrivesRowsAndSeed() {
+        SyntheticTripGenerator.Spec spec = SyntheticTripGenerator.Spec.builder().rowsPerFile(5_000).seed(7).build();
+        String sql = generator(spec).buildSelect("yellow", JUNE);
+        assertTrue(sql.contains("FROM range(5000)"));
+        assertTrue(sql.contains("hash(i, 0, 7, 'yellow_tripdata_2025-06.parquet')"));
+        assertEquals(sql, generator(spec).buildSelect("yellow", JUNE));
+    }
+
+    @Test
+    void testSpecDefaultsAndValidation() {
+        SyntheticTripGenerator.Spec spec = SyntheticTripGenerator.Spec.builder().from(YearMonth.of(2024, 1)).build();
+        assertEquals(YearMonth.of(2024, 1), spec.getTo());
+        assertThrows(IllegalArgumentException.class,
+                () -> SyntheticTripGenerator.Spec.builder().from(JUNE).to(YearMonth.of(2025, 1)).build());
+        assertThrows(IllegalArgumentException.class, () -> SyntheticTripGenerator.Spec.builder().rowsPerFile(0));
+        assertThrows(IllegalArgumentException.class, () -> SyntheticTripGenerator.Spec.builder().creditCardShare(1.5));
+        assertThrows(IllegalArgumentException.class,
+                () -> generator(SyntheticTripGenerator.Spec.builder().build()).buildSelect("blue", JUNE));
+    }
+
+    @Test
+    void testFileNameMatchesTlcNaming() {
+        assertEquals("green_tripdata_2025-06.parquet", SyntheticTripGenerator.fileName("green", JUNE));
+    }
+
+    private static SyntheticTripGenerator generator(SyntheticTripGenerator.Spec spec) {
+        return new SyntheticTripGenerator(url -> null, spec);
+    }
+}
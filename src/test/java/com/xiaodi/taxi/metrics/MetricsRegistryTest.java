@@ -0,0 +1,79 @@
+package com.xiaodi.taxi.metrics;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsRegistryTest {
+
+    @Test
+    void testTimerKeepsCountTotalAndMax() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        Timer timer = metrics.timer("query_execute_seconds", "source", "trips");
+        timer.record(2_000_000);
+        timer.record(5_000_000);
+
+        assertSame(timer, metrics.timer("query_execute_seconds", "source", "trips"));
+        assertNotSame(timer, metrics.timer("query_execute_seconds", "source", "rollup"));
+        assertEquals(2, timer.count());
+        assertEquals(7_000_000, timer.totalNanos());
+        assertEquals(5_000_000, timer.maxNanos());
+    }
+
+    @Test
+    void testPrometheusFormat() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.timer("etl_insert_seconds", "file", "a\"b.parquet").record(1_500_000_000);
+        metrics.counter("etl_rows_total", "file", "a.parquet").add(42);
+        metrics.gauge("etl_rows_per_second").set(28.0);
+
+        assertEquals("""
+                # TYPE etl_insert_seconds summary
+                etl_insert_seconds_count{file="a\\"b.parquet"} 1
+                etl_insert_seconds_sum{file="a\\"b.parquet"} 1.5
+                # TYPE etl_insert_seconds_max gauge
+                etl_insert_seconds_max{file="a\\"b.parquet"} 1.5
+                # TYPE etl_rows_per_second gauge
+                etl_rows_per_second 28.0
+                # TYPE etl_rows_total counter
+                etl_rows_total{file="a.parquet"} 42
+                """, metrics.toPrometheus());
+    }
+
+    @Test
+    void testJsonFormat() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.timer("query_map_seconds").record(250_000_000);
+        metrics.counter("query_rows_total", "source", "trips").add(3);
+
+        assertEquals("{\"timers\":[{\"name\":\"query_map_seconds\",\"labels\":{},\"count\":1,\"total_seconds\":0.25," +
+                "\"max_seconds\":0.25}],\"counters\":[{\"name\":\"query_rows_total\",\"labels\":{\"source\":\"trips\"}," +
+                "\"value\":3}],\"gauges\":[]}", metrics.toJson());
+    }
+
+    @Test
+    void testWriteChoosesFormatByExtension(@TempDir Path dir) throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.counter("runs_total").increment();
+
+        metrics.write(dir.resolve("m.json"));
+        metrics.write(dir.resolve("m.prom"));
+
+        assertTrue(Files.readString(dir.resolve("m.json")).startsWith("{\"timers\":[]"));
+        assertTrue(Files.readString(dir.resolve("m.prom")).contains("runs_total 1\n"));
+    }
+
+    @Test
+    void testRejectsMismatchedTypesAndLabels() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.counter("rows_total");
+
+        assertThrows(IllegalArgumentException.class, () -> metrics.timer("rows_total"));
+        assertThrows(IllegalArgumentException.class, () -> metrics.counter("other", "file"));
+        assertTrue(metrics.profile().contains("rows_total"));
+    }
+}
@@ -0,0 +1,39 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchQueryFileTest {
+    @Test
+    void testParseSkipsCommentsAndDefaultsBlankFields() {
+        List<TripQueryParams> batch = BatchQueryFile.parse(List.of(
+                "# pickup, dropoff, pu, do, groupByPayment, vendor, taxiType",
+                "",
+                "2025-06-01 00:00:00,2025-06-01 23:59:59,132,,false,,yellow",
+                "*,*,*,*,true,2,both"));
+
+        assertEquals(2, batch.size());
+        TripQueryParams first = batch.get(0);
+        assertEquals("2025-06-01 00:00:00", first.getPickupDatetime());
+        assertEquals("132", first.getPuLocationID());
+        assertEquals(TripQueryParams.EMPTY_VALUE, first.getDoLocationID());
+        assertFalse(first.isGroupByPayment());
+        assertEquals("yellow", first.getTaxiType());
+
+        TripQueryParams second = batch.get(1);
+        assertTrue(second.isGroupByPayment());
+        assertEquals("2", second.getVendorID());
+        assertEquals(TripQueryParams.EMPTY_VALUE, second.getTaxiType());
+    }
+
+    @Test
+    void testParseReportsLineOfInvalidField() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> BatchQueryFile.parse(List.of("#", "2025-06-01,*,*,*,true,*,*")));
+        assertTrue(e.getMessage().startsWith("Line 2, field 1"));
+    }
+}
@@ -0,0 +1,73 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionedParquetSourceTest {
+    @TempDir
+    Path dataset;
+
+    private PartitionedParquetSource source;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        for (String partition : List.of("taxi_type=yellow/year=2025/month=5", "taxi_type=yellow/year=2025/month=6",
+                "taxi_type=green/year=2025/month=6", "taxi_type=green/year=2024/month=12")) {
+            Files.createDirectories(dataset.resolve(partition));
+        }
+        source = new PartitionedParquetSource(dataset);
+    }
+
+    @Test
+    void testPrunesByTaxiTypeAndPickupMonth() {
+        TripQueryParams p = TripQueryParams.builder()
+                .pickupDatetime("2025-06-01 00:00:00")
+                .taxiType("yellow")
+                .build();
+        assertEquals(List.of(dataset.resolve("taxi_type=yellow/year=2025/month=6")), source.partitions(p));
+
+        String relation = source.relation(p);
+        assertEquals("read_parquet(['" + dataset.toAbsolutePath() + "/taxi_type=yellow/year=2025/month=6/*.parquet'], " +
+                "hive_partitioning = 1)", relation);
+    }
+
+    @Test
+    void testDropoffBoundDoesNotPrune() {
+        TripQueryParams p = TripQueryParams.builder()
+                .dropoffDatetime("2025-01-01 00:00:00")
+                .taxiType("green")
+                .build();
+        assertEquals(2, source.partitions(p).size());
+    }
+
+    @Test
+    void testWildcardReadsWholeDataset() {
+        assertEquals("read_parquet(['" + dataset.toAbsolutePath() + "/*/*/*/*.parquet'], hive_partitioning = 1)",
+                source.relation(TripQueryParams.builder().build()));
+    }
+
+    @Test
+    void testNoMatchingPartitionMatchesNothing() {
+        String relation = source.relation(TripQueryParams.builder().pickupDatetime("2030-01-01").build());
+        assertTrue(relation.startsWith("(SELECT * FROM read_parquet("));
+        assertTrue(relation.endsWith(" WHERE false)"));
+    }
+
+    @Test
+    void testPickupMonth() {
+        assertEquals(YearMonth.of(2025, 6), PartitionedParquetSource.pickupMonth("2025-06-15 12:00:00"));
+        assertEquals(YearMonth.of(2025, 6), PartitionedParquetSource.pickupMonth("2025-06-15"));
+        assertNull(PartitionedParquetSource.pickupMonth("*"));
+        assertNull(PartitionedParquetSource.pickupMonth("garbage"));
+    }
+}
@@ -0,0 +1,37 @@
+package com.xiaodi.taxi.query;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryInputValidatorTest {
+    @Test
+    void testDatetime() {
+        assertEquals("*", QueryInputValidator.datetime("   ").value());
+        assertEquals("2025-06-01 08:00:00", QueryInputValidator.datetime(" 2025-06-01 08:00:00 ").value());
+        assertFalse(QueryInputValidator.datetime("2025-06-01").isValid());
+    }
+
+    @Test
+    void testIntegerId() {
+        assertEquals("*", QueryInputValidator.integerId("").value());
+        assertEquals("132", QueryInputValidator.integerId("132").value());
+        assertFalse(QueryInputValidator.integerId("-1").isValid());
+        assertFalse(QueryInputValidator.integerId("abc").isValid());
+    }
+
+    @Test
+    void testGroupByPayment() {
+        assertEquals("true", QueryInputValidator.groupByPayment("").value());
+        assertEquals("false", QueryInputValidator.groupByPayment("FALSE").value());
+        assertFalse(QueryInputValidator.groupByPayment("yes").isValid());
+    }
+
+    @Test
+    void testTaxiType() {
+        assertEquals("*", QueryInputValidator.taxiType("both").value());
+        assertEquals("*", QueryInputValidator.taxiType("").value());
+        assertEquals("green", QueryInputValidator.taxiType("Green").value());
+        assertEquals("Must be one of: yellow, green, both.", QueryInputValidator.taxiType("blue").error());
+    }
+}
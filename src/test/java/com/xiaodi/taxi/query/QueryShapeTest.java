@@ -0,0 +1,39 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryShapeTest {
+    @Test
+    void testSampleHasItsOwnShape() {
+        for (int shape = 0; shape < QueryShape.COUNT; shape++) {
+            boolean rollup = QueryShape.isRollup(shape);
+            assertEquals(shape, QueryShape.of(QueryShape.sample(shape), rollup));
+        }
+    }
+
+    @Test
+    void testShapesWithSameSqlShareAShape() {
+        TripQueryParams a = TripQueryParams.builder().puLocationID("1").vendorID("2").build();
+        TripQueryParams b = TripQueryParams.builder().puLocationID("200").vendorID("7").build();
+        assertEquals(QueryShape.of(a, false), QueryShape.of(b, false));
+
+        // "both" adds no taxi_type filter, like "*"
+        TripQueryParams both = TripQueryParams.builder().taxiType("both").build();
+        assertEquals(QueryShape.of(TripQueryParams.builder().build(), false), QueryShape.of(both, false));
+    }
+
+    @Test
+    void testSqlIsDistinctPerShape() {
+        TripAggregatorService service = new TripAggregatorService(null);
+        Set<String> sql = new HashSet<>();
+        for (int shape = 0; shape < QueryShape.ROLLUP; shape++) {
+            assertTrue(sql.add(service.buildQuery(QueryShape.sample(shape))));
+        }
+    }
+}
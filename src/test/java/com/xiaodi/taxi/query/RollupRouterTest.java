@@ -0,0 +1,30 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RollupRouterTest {
+    @Test
+    void testWildcardFits() {
+        assertTrue(RollupRouter.fits(TripQueryParams.builder().groupByPayment(true).vendorID("1").build()));
+    }
+
+    @Test
+    void testHourAlignedPickupFits() {
+        assertTrue(RollupRouter.fits(TripQueryParams.builder().pickupDatetime("2025-06-01 13:00:00").build()));
+        assertTrue(RollupRouter.fits(TripQueryParams.builder().pickupDatetime("2025-06-01").build()));
+    }
+
+    @Test
+    void testSubHourPickupFallsBack() {
+        assertFalse(RollupRouter.fits(TripQueryParams.builder().pickupDatetime("2025-06-01 13:30:00").build()));
+        assertFalse(RollupRouter.fits(TripQueryParams.builder().pickupDatetime("not a date").build()));
+    }
+
+    @Test
+    void testDropoffBoundFallsBack() {
+        assertFalse(RollupRouter.fits(TripQueryParams.builder().dropoffDatetime("2025-06-30 23:59:59").build()));
+    }
+}
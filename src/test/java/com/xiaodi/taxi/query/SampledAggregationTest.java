@@ -0,0 +1,88 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.Approximation;
+import com.xiaodi.taxi.query.models.ApproximationTarget;
+import com.xiaodi.taxi.query.models.GroupDimension;
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SampledAggregationTest {
+
+    @Test
+    void testBuildQuery_groupsByStratumAndDimensions() {
+        TripQueryParams params = TripQueryParams.builder()
+                .vendorID("2")
+                .groupBy(List.of(GroupDimension.TAXI_TYPE, GroupDimension.PICKUP_HOUR))
+                .build();
+
+        String sql = SampledAggregation.buildQuery(params);
+
+        assertTrue(sql.startsWith("SELECT taxi_type, stratum_month, stratum_rows, stratum_sample_rows, " +
+                "hour(pickup_datetime) AS pickup_hour, COUNT(*) AS trip_count"));
+        assertTrue(sql.contains(" FROM (SELECT *, COUNT(*) OVER (PARTITION BY taxi_type, stratum_month) AS " +
+                "stratum_sample_rows FROM trips_sample WHERE sample_bucket < stratum_rate * ?) WHERE vendor_id = ?"));
+        assertTrue(sql.endsWith(" GROUP BY taxi_type, stratum_month, stratum_rows, stratum_sample_rows, " +
+                "hour(pickup_datetime)"));
+    }
+
+    @Test
+    void testSupports_onlySingleGroupingSet() {
+        assertTrue(SampledAggregation.supports(TripQueryParams.builder().groupByPayment(true).build()));
+        assertFalse(SampledAggregation.supports(TripQueryParams.builder()
+                .groupBy(List.of(GroupDimension.VENDOR)).rollup(true).build()));
+    }
+
+    @Test
+    void testStratifiedSum_scalesAndBoundsTheDomainTotal() {
+        // stratum of 1000 trips, 100 sampled, 40 of which match with value 1
+        SampledAggregation.StratifiedSum count = new SampledAggregation.StratifiedSum();
+        count.add(1000, 100, 40, 40);
+
+        assertEquals(400, count.total, 1e-9);
+        // N²(1 - n/N) s² / n with s² = (40 - 40²/100) / 99
+        double s2 = (40 - 1600 / 100.0) / 99;
+        assertEquals(1000.0 * 1000 * 0.9 * s2 / 100, count.variance, 1e-9);
+        assertEquals(SampledAggregation.Z * Math.sqrt(count.variance), count.margin(), 1e-9);
+    }
+
+    @Test
+    void testStratifiedSum_wholeStratumIsExactAndSingleRowIsUnbounded() {
+        SampledAggregation.StratifiedSum whole = new SampledAggregation.StratifiedSum();
+        whole.add(50, 50, 120.0, 400.0);
+        whole.add(10, 0, 0, 0);
+        assertEquals(120.0, whole.total, 1e-9);
+        assertEquals(0.0, whole.margin());
+
+        SampledAggregation.StratifiedSum single = new SampledAggregation.StratifiedSum();
+        single.add(1000, 1, 5.0, 25.0);
+        assertEquals(5000.0, single.total, 1e-9);
+        assertEquals(Double.POSITIVE_INFINITY, single.margin());
+    }
+
+    @Test
+    void testRelativeError_isTheLargestRelativeMargin() {
+        TripAggregationResult row = new TripAggregationResult("yellow", "all", "all", 1.0, 2.0, 400, 10.0, 1000.0,
+                Map.of(), new Approximation(0.95, 0.1, 8, 50, 0));
+
+        assertEquals(0.05, row.approximation().relativeError(row), 1e-12);
+        assertEquals(Double.POSITIVE_INFINITY, new Approximation(0.95, 0.1, 1, 0, 0)
+                .relativeError(new TripAggregationResult("yellow", "all", "all", 0, 0, 0, 0, 0)));
+    }
+
+    @Test
+    void testApproximationTarget_fitsBudget() {
+        ApproximationTarget unlimited = ApproximationTarget.builder().build();
+        ApproximationTarget budget = ApproximationTarget.builder().relativeError(0.05).timeBudgetMillis(50).build();
+
+        assertTrue(unlimited.fits(Long.MAX_VALUE / 2, 1e18));
+        assertTrue(budget.fits(10_000_000, 40_000_000));
+        assertFalse(budget.fits(10_000_000, 41_000_000));
+        assertThrows(IllegalArgumentException.class, () -> ApproximationTarget.builder().relativeError(0));
+    }
+}
@@ -0,0 +1,54 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.etl.DbSnapshots;
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class SnapshotAggregationServiceTest {
+    @Test
+    void testSwitchesToANewlyPublishedSnapshot(@TempDir Path dir) throws Exception {
+        Path db = dir.resolve("trips.duckdb");
+        Path first = DbSnapshots.next(db, Instant.parse("2025-07-01T00:00:00Z"));
+        Path second = DbSnapshots.next(db, Instant.parse("2025-07-02T00:00:00Z"));
+        DbSnapshots.publish(db, first);
+
+        List<Path> opened = new ArrayList<>();
+        List<Connection> connections = new ArrayList<>();
+        TripQueryParams params = TripQueryParams.builder().build();
+        SnapshotAggregationService service = new SnapshotAggregationService(db, conn -> {
+            TripAggregationResult row = new TripAggregationResult("yellow", "all", "all", 0, 0,
+                    connections.size(), 0, 0);
+            return p -> List.of(row);
+        }, snapshot -> {
+            opened.add(snapshot);
+            Connection conn = mock(Connection.class);
+            connections.add(conn);
+            return conn;
+        });
+
+        assertEquals(1, service.aggregate(params).get(0).tripCount());
+        assertEquals(1, service.aggregate(params).get(0).tripCount());
+        assertEquals(List.of(first), opened);
+
+        DbSnapshots.publish(db, second);
+        assertEquals(2, service.aggregate(params).get(0).tripCount());
+        assertEquals(List.of(first, second), opened);
+        assertEquals(second, service.snapshot());
+        verify(connections.get(0)).close();
+        verify(connections.get(1), never()).close();
+
+        service.close();
+        verify(connections.get(1)).close();
+    }
+}
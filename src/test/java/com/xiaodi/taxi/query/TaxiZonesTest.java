@@ -0,0 +1,49 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.GroupDimension;
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TaxiZonesTest {
+    private final TaxiZones zones = new TaxiZones(List.of(
+            new TaxiZones.Zone(1, "EWR", "Newark Airport"),
+            new TaxiZones.Zone(132, "Queens", "JFK Airport"),
+            new TaxiZones.Zone(138, "Queens", "LaGuardia Airport"),
+            new TaxiZones.Zone(161, "Manhattan", "Midtown Center")));
+
+    @Test
+    void testNamesByLocationId() {
+        assertEquals(4, zones.size());
+        assertEquals("Queens", zones.borough(132));
+        assertEquals("Midtown Center", zones.zone(161));
+        assertNull(zones.borough(2));
+        assertNull(zones.zone(999));
+        assertNull(zones.zone(-1));
+        assertEquals("Queens", zones.name(GroupDimension.DO_BOROUGH, 138L));
+        assertEquals("Newark Airport", zones.name(GroupDimension.PU_ZONE, 1));
+        assertNull(zones.name(GroupDimension.PU_BOROUGH, null));
+    }
+
+    @Test
+    void testLocationIds() {
+        String any = TripQueryParams.EMPTY_VALUE;
+        assertEquals(List.of(132, 138), zones.locationIds("queens", any));
+        assertEquals(List.of(161), zones.locationIds(any, "Midtown Center"));
+        assertEquals(List.of(138), zones.locationIds("Queens", "LaGuardia Airport"));
+        assertEquals(List.of(), zones.locationIds(any, any));
+    }
+
+    @Test
+    void testUnknownNamesAreRejected() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> zones.locationIds("Brooklin", TripQueryParams.EMPTY_VALUE));
+        assertTrue(e.getMessage().contains("known: EWR, Manhattan, Queens"), e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> zones.locationIds("Manhattan", "JFK Airport"));
+        assertThrows(IllegalArgumentException.class,
+                () -> TaxiZones.EMPTY.locationIds("Queens", TripQueryParams.EMPTY_VALUE));
+    }
+}
@@ -0,0 +1,75 @@
+package com.xiaodi.taxi.query;
+
+import com.xiaodi.taxi.query.models.TimeBucket;
+import com.xiaodi.taxi.query.models.TimeSeriesPoint;
+import com.xiaodi.taxi.query.models.TimeSeriesQuery;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+public class TimeSeriesServiceTest {
+    private final TimeSeriesService service = new TimeSeriesService(mock(Connection.class));
+
+    @Test
+    void testBuildQuery_weeklyFromDailyPartials() {
+        TimeSeriesQuery query = TimeSeriesQuery.builder()
+                .bucket(TimeBucket.WEEK)
+                .from(LocalDateTime.of(2025, 6, 2, 0, 0))
+                .to(LocalDateTime.of(2025, 6, 30, 0, 0))
+                .taxiType("yellow")
+                .build();
+
+        assertEquals("SELECT CAST(date_trunc('week', day) AS TIMESTAMP) AS bucket, MIN(min_fare) AS min_fare, " +
+                "MAX(max_fare) AS max_fare, CAST(SUM(trip_count) AS BIGINT) AS trip_count, SUM(sum_fare) AS total_fare, " +
+                "SUM(sum_tolls) AS total_toll_fare FROM trips_daily WHERE day IS NOT NULL AND day >= ? AND day < ? " +
+                "AND taxi_type = ? GROUP BY bucket ORDER BY bucket", service.buildQuery(query));
+    }
+
+    @Test
+    void testBuildQuery_hourlyFromRollup() {
+        TimeSeriesQuery query = TimeSeriesQuery.builder().bucket(TimeBucket.HOUR).vendorID("2").build();
+
+        String sql = service.buildQuery(query);
+
+        assertTrue(sql.startsWith("SELECT hour_bucket AS bucket,"));
+        assertTrue(sql.contains(" FROM trips_rollup WHERE hour_bucket IS NOT NULL AND vendor_id = ? GROUP BY bucket"));
+    }
+
+    @Test
+    void testFillGaps_addsEmptyBucketsWithinBounds() {
+        LocalDateTime day = LocalDateTime.of(2025, 6, 1, 0, 0);
+        TimeSeriesQuery query = TimeSeriesQuery.builder().from(day).to(day.plusDays(4)).build();
+        TimeSeriesPoint second = new TimeSeriesPoint(day.plusDays(1), 2.5, 30.0, 7, 1.0, 80.0);
+
+        List<TimeSeriesPoint> series = TimeSeriesService.fillGaps(List.of(second), query);
+
+        assertEquals(List.of(TimeSeriesPoint.empty(day), second, TimeSeriesPoint.empty(day.plusDays(2)),
+                TimeSeriesPoint.empty(day.plusDays(3))), series);
+    }
+
+    @Test
+    void testFillGaps_unboundedSpansFirstToLastBucket() {
+        LocalDateTime hour = LocalDateTime.of(2025, 6, 1, 10, 0);
+        TimeSeriesQuery query = TimeSeriesQuery.builder().bucket(TimeBucket.HOUR).build();
+        TimeSeriesPoint first = new TimeSeriesPoint(hour, 1, 2, 3, 0, 4);
+        TimeSeriesPoint last = new TimeSeriesPoint(hour.plusHours(2), 1, 2, 3, 0, 4);
+
+        assertEquals(3, TimeSeriesService.fillGaps(List.of(first, last), query).size());
+        assertTrue(TimeSeriesService.fillGaps(List.of(), query).isEmpty());
+    }
+
+    @Test
+    void testQueryRejectsBoundsInsideABucket() {
+        assertEquals(LocalDateTime.of(2025, 6, 2, 0, 0), TimeBucket.WEEK.truncate(LocalDateTime.of(2025, 6, 4, 13, 5)));
+        assertThrows(IllegalArgumentException.class, () -> TimeSeriesQuery.builder()
+                .bucket(TimeBucket.WEEK).from(LocalDateTime.of(2025, 6, 4, 0, 0)).build());
+        assertThrows(IllegalArgumentException.class, () -> TimeSeriesQuery.builder()
+                .from(LocalDateTime.of(2025, 6, 1, 12, 0)).build());
+        assertThrows(IllegalArgumentException.class, () -> TimeBucket.parse("month"));
+    }
+}
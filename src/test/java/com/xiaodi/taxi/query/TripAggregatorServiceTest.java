@@ -1,5 +1,7 @@
 package com.xiaodi.taxi.query;
 
+import com.xiaodi.taxi.metrics.MetricsRegistry;
+import com.xiaodi.taxi.query.models.GroupDimension;
 import com.xiaodi.taxi.query.models.TripAggregationResult;
 import com.xiaodi.taxi.query.models.TripQueryParams;
 import org.junit.jupiter.api.BeforeEach;
@@ -11,7 +13,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -54,6 +58,22 @@ public class TripAggregatorServiceTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    void testBuildRollupQuery_withFiltersAndGroup() {
+        TripQueryParams params = TripQueryParams.builder()
+                .pickupDatetime("2025-01-01 08:00:00")
+                .puLocationID("5")
+                .taxiType("yellow")
+                .groupByPayment(true)
+                .build();
+        String expected =
+                "SELECT MIN(min_fare) AS min_fare, MAX(max_fare) AS max_fare, CAST(COALESCE(SUM(trip_count), 0) AS BIGINT) AS trip_count, SUM(sum_fare) AS total_fare, SUM(sum_tolls) AS total_toll_fare, payment_type " +
+                        "FROM trips_rollup " +
+                        "WHERE hour_bucket >= ? AND pu_location_id = ? AND taxi_type = ? " +
+                        "GROUP BY payment_type";
+        assertEquals(expected, service.buildRollupQuery(params));
+    }
+
     @Test
     void testBindParameters() throws SQLException {
         PreparedStatement pstmt = mock(PreparedStatement.class);
@@ -112,6 +132,295 @@ public class TripAggregatorServiceTest {
         assertEquals(30.0, second.totalFare());
     }
 
+    @Test
+    void testBuildQuery_locationIdSetsAreInlined() {
+        TripQueryParams params = TripQueryParams.builder()
+                .puLocationIDs(List.of(138, 132, 132))
+                .doLocationIDs(List.of(161))
+                .groupBy(List.of(GroupDimension.DO_ZONE))
+                .build();
+        String expected =
+                "SELECT MIN(fare_amount) AS min_fare, MAX(fare_amount) AS max_fare, COUNT(*) AS trip_count, SUM(fare_amount) AS total_fare, SUM(tolls_amount) AS total_toll_fare, do_location_id AS do_zone " +
+                        "FROM trips " +
+                        "WHERE pu_location_id IN (132,138) AND do_location_id IN (161) " +
+                        "GROUP BY do_location_id";
+        assertEquals(expected, service.buildQuery(params));
+        assertEquals("pu_ids=132,138|do_ids=161", params.locationSetKey());
+    }
+
+    @Test
+    void testMapResults_mergesLocationsOfOneBorough() throws SQLException {
+        TaxiZones zones = new TaxiZones(List.of(
+                new TaxiZones.Zone(132, "Queens", "JFK Airport"),
+                new TaxiZones.Zone(138, "Queens", "LaGuardia Airport"),
+                new TaxiZones.Zone(161, "Manhattan", "Midtown Center")));
+        TripAggregatorService named = new TripAggregatorService(mock(Connection.class), TripsSource.table(),
+                new MetricsRegistry(), null, zones);
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.next()).thenReturn(true, true, true, false);
+        when(rs.getObject("pu_borough")).thenReturn(132, 161, 138);
+        when(rs.getDouble("min_fare")).thenReturn(5.0, 3.0, 4.0);
+        when(rs.getDouble("max_fare")).thenReturn(70.0, 20.0, 60.0);
+        when(rs.getInt("trip_count")).thenReturn(10, 20, 5);
+        when(rs.getDouble("total_fare")).thenReturn(500.0, 200.0, 150.0);
+
+        TripQueryParams params = TripQueryParams.builder()
+                .groupBy(List.of(GroupDimension.PU_BOROUGH))
+                .build();
+        List<TripAggregationResult> results = named.mapResults(rs, params);
+
+        assertEquals(2, results.size());
+        assertEquals(Map.of("pu_borough", "Queens"), results.get(0).groups());
+        assertEquals(15, results.get(0).tripCount());
+        assertEquals(4.0, results.get(0).minFare());
+        assertEquals(70.0, results.get(0).maxFare());
+        assertEquals(650.0, results.get(0).totalFare());
+        assertEquals(Map.of("pu_borough", "Manhattan"), results.get(1).groups());
+        assertEquals(20, results.get(1).tripCount());
+    }
+
+    @Test
+    void testMapResults_mergeKeepsNullFaresOutOfMinAndMax() throws SQLException {
+        TaxiZones zones = new TaxiZones(List.of(
+                new TaxiZones.Zone(132, "Queens", "JFK Airport"),
+                new TaxiZones.Zone(138, "Queens", "LaGuardia Airport")));
+        TripAggregatorService named = new TripAggregatorService(mock(Connection.class), TripsSource.table(),
+                new MetricsRegistry(), null, zones);
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.next()).thenReturn(true, true, false);
+        when(rs.getObject("pu_borough")).thenReturn(132, 138);
+        // The second location only has trips without a fare: its aggregates are SQL NULLs, read as 0
+        when(rs.getDouble("min_fare")).thenReturn(5.0, 0.0);
+        when(rs.getDouble("max_fare")).thenReturn(70.0, 0.0);
+        when(rs.getInt("trip_count")).thenReturn(10, 3);
+        when(rs.getDouble("total_fare")).thenReturn(500.0, 0.0);
+        when(rs.getDouble("total_toll_fare")).thenReturn(12.0, 0.0);
+        when(rs.wasNull()).thenReturn(false, false, false, false, true, true, true, true);
+
+        List<TripAggregationResult> results = named.mapResults(rs, TripQueryParams.builder()
+                .groupBy(List.of(GroupDimension.PU_BOROUGH))
+                .build());
+
+        assertEquals(1, results.size());
+        assertEquals(13, results.get(0).tripCount());
+        assertEquals(5.0, results.get(0).minFare());
+        assertEquals(70.0, results.get(0).maxFare());
+        assertEquals(500.0, results.get(0).totalFare());
+        assertEquals(12.0, results.get(0).totalTollFare());
+    }
+
+    @Test
+    void testBuildBatchQuery_sharedScan() {
+        List<TripQueryParams> batch = List.of(
+                TripQueryParams.builder().puLocationID("5").groupByPayment(true).build(),
+                TripQueryParams.builder().build());
+        String expected = "SELECT payment_type, " +
+                "MIN(fare_amount) FILTER (WHERE q0) AS min_fare_0, MAX(fare_amount) FILTER (WHERE q0) AS max_fare_0, COUNT(*) FILTER (WHERE q0) AS trip_count_0, SUM(fare_amount) FILTER (WHERE q0) AS total_fare_0, SUM(tolls_amount) FILTER (WHERE q0) AS total_toll_fare_0, " +
+                "MIN(fare_amount) FILTER (WHERE q1) AS min_fare_1, MAX(fare_amount) FILTER (WHERE q1) AS max_fare_1, COUNT(*) FILTER (WHERE q1) AS trip_count_1, SUM(fare_amount) FILTER (WHERE q1) AS total_fare_1, SUM(tolls_amount) FILTER (WHERE q1) AS total_toll_fare_1 " +
+                "FROM (SELECT payment_type, fare_amount, tolls_amount, (pu_location_id = ?) AS q0, (TRUE) AS q1 FROM trips) " +
+                "GROUP BY payment_type";
+        assertEquals(expected, service.buildBatchQuery(batch, false));
+    }
+
+    @Test
+    void testBindParameters_normalizedWhenBuilt() throws SQLException {
+        PreparedStatement pstmt = mock(PreparedStatement.class);
+        TripQueryParams params = TripQueryParams.builder()
+                .pickupDatetime(" 2025-01-01 ")
+                .puLocationID(" 007")
+                .vendorID("02 ")
+                .taxiType(" Yellow")
+                .build();
+        assertEquals("7", params.getPuLocationID());
+        assertEquals("Yellow", params.getTaxiType());
+        service.bindParameters(pstmt, params);
+
+        verify(pstmt).setString(1, "2025-01-01");
+        verify(pstmt).setInt(2, 7);
+        verify(pstmt).setInt(3, 2);
+        verify(pstmt).setString(4, "yellow");
+        verifyNoMoreInteractions(pstmt);
+    }
+
+    @Test
+    void testBindParameters_continuesFromIndex() throws SQLException {
+        PreparedStatement pstmt = mock(PreparedStatement.class);
+        int next = service.bindParameters(pstmt, TripQueryParams.builder().vendorID("2").taxiType("yellow").build(), 4);
+
+        verify(pstmt).setInt(4, 2);
+        verify(pstmt).setString(5, "yellow");
+        assertEquals(6, next);
+    }
+
+    @Test
+    void testMapBatchResults_mergesGroupsForUngroupedQueries() throws SQLException {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.next()).thenReturn(true, true, false);
+        when(rs.getObject(1)).thenReturn(1, 2);
+        // query 0, grouped: only the first payment group has trips
+        when(rs.getLong(4)).thenReturn(3L, 0L);
+        when(rs.getDouble(2)).thenReturn(2.0);
+        when(rs.getDouble(3)).thenReturn(10.0);
+        when(rs.getDouble(5)).thenReturn(15.0);
+        when(rs.getDouble(6)).thenReturn(1.0);
+        // query 1, not grouped: both groups are merged
+        when(rs.getLong(9)).thenReturn(2L, 4L);
+        when(rs.getDouble(7)).thenReturn(1.0, 0.5);
+        when(rs.getDouble(8)).thenReturn(8.0, 20.0);
+        when(rs.getDouble(10)).thenReturn(9.0, 30.0);
+        when(rs.getDouble(11)).thenReturn(0.5, 2.0);
+        when(rs.wasNull()).thenReturn(false);
+
+        List<List<TripAggregationResult>> results = service.mapBatchResults(rs, List.of(
+                TripQueryParams.builder().groupByPayment(true).build(),
+                TripQueryParams.builder().vendorID("1").build()));
+
+        assertEquals(2, results.size());
+        assertEquals(1, results.get(0).size());
+        TripAggregationResult grouped = results.get(0).get(0);
+        assertEquals("Credit card", grouped.paymentType());
+        assertEquals(3, grouped.tripCount());
+        assertEquals(15.0, grouped.totalFare());
+        assertEquals(1.0, grouped.totalTollFare());
+
+        assertEquals(1, results.get(1).size());
+        TripAggregationResult merged = results.get(1).get(0);
+        assertEquals("all", merged.paymentType());
+        assertEquals("Creative Mobile Technologies, LLC", merged.vendor());
+        assertEquals(0.5, merged.minFare());
+        assertEquals(20.0, merged.maxFare());
+        assertEquals(6, merged.tripCount());
+        assertEquals(39.0, merged.totalFare());
+        assertEquals(2.5, merged.totalTollFare());
+    }
+
+    @Test
+    void testAggregate_reusesStatementPerShape() throws SQLException {
+        Connection conn = mock(Connection.class);
+        PreparedStatement pstmt = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+        when(conn.prepareStatement(anyString())).thenReturn(pstmt);
+        when(pstmt.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(false);
+
+        TripAggregatorService pooled = new TripAggregatorService(conn);
+        // a dropoff bound keeps both queries on trips, so no rollup lookup is made
+        pooled.aggregate(TripQueryParams.builder().dropoffDatetime("2025-06-30 23:59:59").vendorID("1").build());
+        pooled.aggregate(TripQueryParams.builder().dropoffDatetime("2025-06-15 00:00:00").vendorID("2").build());
+
+        verify(conn, times(1)).prepareStatement("SELECT MIN(fare_amount) AS min_fare, MAX(fare_amount) AS max_fare, COUNT(*) AS trip_count, SUM(fare_amount) AS total_fare, SUM(tolls_amount) AS total_toll_fare FROM trips WHERE dropoff_datetime <= ? AND vendor_id = ?");
+        verify(pstmt).clearParameters();
+        verify(pstmt).setInt(2, 1);
+        verify(pstmt).setInt(2, 2);
+        verify(pstmt, times(2)).executeQuery();
+
+        pooled.close();
+        verify(pstmt).close();
+    }
+
+    @Test
+    void testAggregate_streamsRowsToSink() throws Exception {
+        Connection conn = mock(Connection.class);
+        PreparedStatement pstmt = mock(PreparedStatement.class);
+        ResultSet rs = mock(ResultSet.class);
+        when(conn.prepareStatement(anyString())).thenReturn(pstmt);
+        when(pstmt.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true, true, false);
+        when(rs.getObject("payment_type")).thenReturn(1, 2);
+        when(rs.getInt("trip_count")).thenReturn(3, 4);
+
+        List<TripAggregationResult> received = new ArrayList<>();
+        long rows;
+        try (TripAggregatorService streaming = new TripAggregatorService(conn)) {
+            rows = streaming.aggregate(TripQueryParams.builder().dropoffDatetime("2025-06-30 23:59:59")
+                    .groupByPayment(true).build(), received::add);
+        }
+
+        assertEquals(2, rows);
+        assertEquals("Credit card", received.get(0).paymentType());
+        assertEquals(3, received.get(0).tripCount());
+        assertEquals("Cash", received.get(1).paymentType());
+        verify(rs).close();
+    }
+
+    @Test
+    void testBuildQuery_groupingSets() {
+        TripQueryParams params = TripQueryParams.builder()
+                .vendorID("1")
+                .groupBy(List.of(GroupDimension.VENDOR))
+                .groupingSets(List.of(List.of(GroupDimension.PU_LOCATION), List.of(GroupDimension.PICKUP_HOUR), List.of()))
+                .build();
+        String expected = "SELECT MIN(fare_amount) AS min_fare, MAX(fare_amount) AS max_fare, COUNT(*) AS trip_count, SUM(fare_amount) AS total_fare, SUM(tolls_amount) AS total_toll_fare" +
+                ", vendor_id, pu_location_id, hour(pickup_datetime) AS pickup_hour, GROUPING(vendor_id, pu_location_id, hour(pickup_datetime)) AS grouping_id" +
+                " FROM trips WHERE vendor_id = ?" +
+                " GROUP BY GROUPING SETS ((vendor_id, pu_location_id), (vendor_id, hour(pickup_datetime)), (vendor_id))";
+        assertEquals(expected, service.buildQuery(params));
+    }
+
+    @Test
+    void testBuildRollupQuery_rollupOverDimensions() {
+        TripQueryParams params = TripQueryParams.builder()
+                .groupBy(List.of(GroupDimension.TAXI_TYPE, GroupDimension.PICKUP_HOUR))
+                .rollup(true)
+                .build();
+        String expected = "SELECT MIN(min_fare) AS min_fare, MAX(max_fare) AS max_fare, CAST(COALESCE(SUM(trip_count), 0) AS BIGINT) AS trip_count, SUM(sum_fare) AS total_fare, SUM(sum_tolls) AS total_toll_fare" +
+                ", taxi_type, hour(hour_bucket) AS pickup_hour, GROUPING(taxi_type, hour(hour_bucket)) AS grouping_id" +
+                " FROM trips_rollup" +
+                " GROUP BY GROUPING SETS ((taxi_type, hour(hour_bucket)), (taxi_type), ())";
+        assertEquals(expected, service.buildRollupQuery(params));
+    }
+
+    @Test
+    void testMapResults_groupingSetsKeepOnlyGroupedKeys() throws SQLException {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.next()).thenReturn(true, true, true, false);
+        // (vendor, pu_location), (pickup_hour), ()
+        when(rs.getInt("grouping_id")).thenReturn(0b001, 0b110, 0b111);
+        when(rs.getObject("vendor_id")).thenReturn(2);
+        when(rs.getObject("pu_location_id")).thenReturn(132);
+        when(rs.getObject("pickup_hour")).thenReturn(17L);
+        when(rs.getInt("trip_count")).thenReturn(4, 9, 30);
+
+        TripQueryParams params = TripQueryParams.builder()
+                .groupingSets(List.of(List.of(GroupDimension.VENDOR, GroupDimension.PU_LOCATION),
+                        List.of(GroupDimension.PICKUP_HOUR), List.of()))
+                .build();
+        List<TripAggregationResult> results = service.mapResults(rs, params);
+
+        assertEquals(3, results.size());
+        assertEquals(Map.of("vendor", "2", "pu_location", "132"), results.get(0).groups());
+        assertEquals("Curb Mobility, LLC", results.get(0).vendor());
+        assertEquals(Map.of("pickup_hour", "17"), results.get(1).groups());
+        assertEquals("all", results.get(1).vendor());
+        assertEquals(Map.of(), results.get(2).groups());
+        assertEquals(30, results.get(2).tripCount());
+    }
+
+    @Test
+    void testGroupings_combineGroupByWithSetsAndRollup() {
+        TripQueryParams sets = TripQueryParams.builder()
+                .groupByPayment(true)
+                .groupBy(List.of(GroupDimension.VENDOR))
+                .groupingSets(List.of(List.of(GroupDimension.PICKUP_HOUR), List.of()))
+                .build();
+        assertEquals(List.of(
+                List.of(GroupDimension.PAYMENT_TYPE, GroupDimension.VENDOR, GroupDimension.PICKUP_HOUR),
+                List.of(GroupDimension.PAYMENT_TYPE, GroupDimension.VENDOR)), sets.groupings());
+        assertEquals("payment_type,vendor,pickup_hour;payment_type,vendor", sets.groupingKey());
+        assertTrue(sets.hasCustomGrouping());
+
+        TripQueryParams rollup = TripQueryParams.builder()
+                .groupBy(List.of(GroupDimension.TAXI_TYPE, GroupDimension.VENDOR))
+                .rollup(true)
+                .build();
+        assertEquals(3, rollup.groupings().size());
+        assertEquals(List.of(), rollup.groupings().get(2));
+
+        assertFalse(TripQueryParams.builder().groupByPayment(true).build().hasCustomGrouping());
+        assertThrows(IllegalArgumentException.class, () -> TripQueryParams.builder()
+                .rollup(true).groupingSets(List.of(List.of())).build());
+    }
+
     @Test
     void testTripQueryParamsBuilderDefaults() {
         TripQueryParams params = TripQueryParams.builder().build();
@@ -0,0 +1,274 @@
+package com.xiaodi.taxi.query.cache;
+
+import com.xiaodi.taxi.query.AggregationService;
+import com.xiaodi.taxi.query.ResultSink;
+import com.xiaodi.taxi.query.models.GroupDimension;
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachedAggregationServiceTest {
+    private static final long TTL = 60_000;
+
+    @TempDir
+    Path cacheDir;
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final MutableClock clock = new MutableClock();
+    private String version = "v1";
+
+    private final AggregationService delegate = params -> {
+        calls.incrementAndGet();
+        return List.of(new TripAggregationResult("ignored", "ignored", "Cash", 1.0, 99.5, 42, 0.1 + 0.2, 1234.56));
+    };
+
+    private CachedAggregationService newService() {
+        return new CachedAggregationService(delegate,
+                new MemoryResultCache(10, TTL, clock),
+                new DiskResultCache(cacheDir, 1024 * 1024, TTL, clock),
+                () -> version, clock);
+    }
+
+    @Test
+    void testEquivalentParamsHitMemory() throws Exception {
+        CachedAggregationService service = newService();
+        service.aggregate(TripQueryParams.builder().pickupDatetime("2025-06-01").vendorID("1").taxiType("yellow").build());
+        List<TripAggregationResult> rows = service.aggregate(TripQueryParams.builder()
+                .pickupDatetime("2025-06-01 00:00:00").vendorID(" 1").taxiType("Yellow").build());
+
+        assertEquals(1, calls.get());
+        assertEquals(1, service.stats().memoryHits());
+        assertEquals("Yellow", rows.get(0).taxiType());
+        assertEquals(0.1 + 0.2, rows.get(0).totalTollFare());
+    }
+
+    @Test
+    void testGroupedRowsKeepTheirGroupsAndLabels() throws Exception {
+        List<TripAggregationResult> grouped = List.of(
+                new TripAggregationResult("yellow", "Creative Mobile Technologies, LLC", "all", 2.0, 50.0, 10, 1.0,
+                        200.0, Map.of("vendor", "1", "taxi_type", "yellow")),
+                new TripAggregationResult("green", "Curb Mobility, LLC", "all", 3.0, 60.0, 20, 2.0, 400.0,
+                        Map.of("vendor", "2", "taxi_type", "green")));
+        CachedAggregationService service = new CachedAggregationService(params -> {
+            calls.incrementAndGet();
+            return grouped;
+        }, new MemoryResultCache(10, TTL, clock), new DiskResultCache(cacheDir, 1024 * 1024, TTL, clock),
+                () -> version, clock);
+        TripQueryParams params = TripQueryParams.builder()
+                .groupBy(List.of(GroupDimension.VENDOR, GroupDimension.TAXI_TYPE))
+                .build();
+
+        List<TripAggregationResult> miss = service.aggregate(params);
+        List<TripAggregationResult> hit = service.aggregate(params);
+
+        assertEquals(1, calls.get());
+        assertEquals(1, service.stats().memoryHits());
+        assertEquals(miss, hit);
+        assertEquals(Map.of("vendor", "2", "taxi_type", "green"), hit.get(1).groups());
+        assertEquals("Curb Mobility, LLC", hit.get(1).vendor());
+        assertEquals("green", hit.get(1).taxiType());
+    }
+
+    @Test
+    void testDiskTierSurvivesRestart() throws Exception {
+        TripQueryParams params = TripQueryParams.builder().groupByPayment(true).build();
+        newService().aggregate(params);
+
+        CachedAggregationService restarted = newService();
+        List<TripAggregationResult> rows = restarted.aggregate(params);
+
+        assertEquals(1, calls.get());
+        assertEquals(1, restarted.stats().diskHits());
+        assertEquals(42, rows.get(0).tripCount());
+        assertEquals(1234.56, rows.get(0).totalFare());
+        assertEquals("yellow and green", rows.get(0).taxiType());
+    }
+
+    @Test
+    void testUnwritableDiskTierDoesNotFailTheQuery() throws Exception {
+        Path notADirectory = Files.writeString(cacheDir.resolve("file"), "x");
+        CachedAggregationService service = new CachedAggregationService(delegate,
+                new MemoryResultCache(10, TTL, clock),
+                new DiskResultCache(notADirectory.resolve("cache"), 1024 * 1024, TTL, clock),
+                () -> version, clock);
+        TripQueryParams params = TripQueryParams.builder().build();
+
+        assertEquals(42, service.aggregate(params).get(0).tripCount());
+        assertEquals(42, service.aggregate(params).get(0).tripCount());
+        assertEquals(1, calls.get());
+        assertEquals(1, service.stats().memoryHits());
+    }
+
+    @Test
+    void testMissStreamsToTheSinkAndHitReplaysIt() throws Exception {
+        List<TripAggregationResult> received = new ArrayList<>();
+        CachedAggregationService service = new CachedAggregationService(streaming(received, 2),
+                new MemoryResultCache(10, TTL, clock), null, () -> version, clock);
+        TripQueryParams params = TripQueryParams.builder().groupByPayment(true).build();
+
+        assertEquals(2, service.aggregate(params, received::add));
+        assertEquals(2, received.size());
+
+        received.clear();
+        assertEquals(2, service.aggregate(params, received::add));
+        assertEquals(1, calls.get());
+        assertEquals(1, service.stats().memoryHits());
+        assertEquals("Cash", received.get(1).paymentType());
+    }
+
+    @Test
+    void testStreamedResultsAboveTheRowCapAreNotCached() throws Exception {
+        List<TripAggregationResult> received = new ArrayList<>();
+        CachedAggregationService service = new CachedAggregationService(streaming(received, 3),
+                new MemoryResultCache(10, TTL, clock), null, () -> version, clock, 2);
+        TripQueryParams params = TripQueryParams.builder().groupByPayment(true).build();
+
+        assertEquals(3, service.aggregate(params, received::add));
+        received.clear();
+        assertEquals(3, service.aggregate(params, received::add));
+
+        assertEquals(2, calls.get());
+        assertEquals(0, service.stats().memoryHits());
+    }
+
+    @Test
+    void testBatchSendsOnlyTheMissesToTheDelegateInOneCall() throws Exception {
+        List<List<TripQueryParams>> batches = new ArrayList<>();
+        AggregationService batching = new AggregationService() {
+            @Override
+            public List<TripAggregationResult> aggregate(TripQueryParams params) throws SQLException {
+                return delegate.aggregate(params);
+            }
+
+            @Override
+            public List<List<TripAggregationResult>> aggregateBatch(List<TripQueryParams> batch) {
+                batches.add(batch);
+                return batch.stream()
+                        .map(p -> List.of(new TripAggregationResult("yellow", "all", "all", 1.0, 9.0,
+                                Integer.parseInt(p.getVendorID()), 0.0, 50.0)))
+                        .toList();
+            }
+        };
+        CachedAggregationService service = new CachedAggregationService(batching,
+                new MemoryResultCache(10, TTL, clock), null, () -> version, clock);
+        TripQueryParams cached = TripQueryParams.builder().vendorID("1").build();
+        TripQueryParams first = TripQueryParams.builder().vendorID("2").build();
+        TripQueryParams second = TripQueryParams.builder().vendorID("6").build();
+        service.aggregate(cached);
+
+        List<List<TripAggregationResult>> results = service.aggregateBatch(List.of(first, cached, second));
+
+        assertEquals(List.of(List.of(first, second)), batches);
+        assertEquals(2, results.get(0).get(0).tripCount());
+        assertEquals(42, results.get(1).get(0).tripCount());
+        assertEquals(6, results.get(2).get(0).tripCount());
+
+        service.aggregateBatch(List.of(second, first));
+        assertEquals(1, batches.size());
+        assertEquals(3, service.stats().memoryHits());
+        assertEquals(3, service.stats().misses());
+    }
+
+    @Test
+    void testNewVersionInvalidatesBothTiers() throws Exception {
+        CachedAggregationService service = newService();
+        TripQueryParams params = TripQueryParams.builder().build();
+        service.aggregate(params);
+
+        version = "v2";
+        service.aggregate(params);
+
+        assertEquals(2, calls.get());
+        CacheStats stats = service.stats();
+        assertEquals(2, stats.misses());
+        assertEquals(2, stats.invalidations());
+    }
+
+    @Test
+    void testExpiredEntriesAreRecomputed() throws Exception {
+        CachedAggregationService service = newService();
+        TripQueryParams params = TripQueryParams.builder().build();
+        service.aggregate(params);
+
+        clock.advance(TTL + 1);
+        service.aggregate(params);
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void testMemoryTierEvictsLeastRecentlyUsed() {
+        MemoryResultCache cache = new MemoryResultCache(2, TTL, clock);
+        CachedResult result = new CachedResult("v1", clock.millis(), List.of());
+        cache.put("a", result);
+        cache.put("b", result);
+        cache.get("a", "v1");
+        cache.put("c", result);
+
+        assertNotNull(cache.get("a", "v1"));
+        assertNull(cache.get("b", "v1"));
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * A delegate that can only stream: each row must have reached {@code received} before the next one is read.
+     */
+    private AggregationService streaming(List<TripAggregationResult> received, int rowCount) {
+        return new AggregationService() {
+            @Override
+            public List<TripAggregationResult> aggregate(TripQueryParams params) {
+                throw new AssertionError("miss was materialized");
+            }
+
+            @Override
+            public long aggregate(TripQueryParams params, ResultSink sink) throws IOException {
+                calls.incrementAndGet();
+                for (int i = 0; i < rowCount; i++) {
+                    assertEquals(i, received.size());
+                    sink.accept(new TripAggregationResult("yellow", "all", i == 0 ? "Credit card" : "Cash", 1.0,
+                            9.0, 10 + i, 0.0, 50.0));
+                }
+                return rowCount;
+            }
+        };
+    }
+
+    private static final class MutableClock extends Clock {
+        private long millis = 1_700_000_000_000L;
+
+        void advance(long delta) {
+            millis += delta;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+}
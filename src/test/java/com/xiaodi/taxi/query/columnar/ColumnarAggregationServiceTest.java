@@ -0,0 +1,139 @@
+package com.xiaodi.taxi.query.columnar;
+
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import com.xiaodi.taxi.query.models.TripQueryParams;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColumnarAggregationServiceTest {
+    private static final long JUNE_1 = ColumnarAggregationService.toMicros("2025-06-01 00:00:00");
+    private static final long HOUR = 3_600_000_000L;
+
+    @TempDir
+    Path dir;
+
+    private ColumnarAggregationService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Path file = dir.resolve("trips.columnar");
+        try (ColumnarTripsFile.Writer writer = ColumnarTripsFile.create(file, 5, "v1")) {
+            writer.add(JUNE_1, JUNE_1 + HOUR, 10, 20, 1, 1, ColumnarTripsFile.YELLOW, 12.5, 0.0);
+            writer.add(JUNE_1 + HOUR, JUNE_1 + 2 * HOUR, 10, 30, 2, 2, ColumnarTripsFile.GREEN, 7.0, 6.55);
+            writer.add(JUNE_1 + 2 * HOUR, JUNE_1 + 3 * HOUR, 11, 20, 1, 1, ColumnarTripsFile.YELLOW, 30.0, Double.NaN);
+            writer.add(JUNE_1 - HOUR, JUNE_1, ColumnarTripsFile.NULL_INT, 20, 1, ColumnarTripsFile.NULL_INT,
+                    ColumnarTripsFile.YELLOW, Double.NaN, 1.0);
+            writer.add(ColumnarTripsFile.NULL_TIMESTAMP, ColumnarTripsFile.NULL_TIMESTAMP, 10, 20, 1, 1,
+                    ColumnarTripsFile.YELLOW, 5.0, 0.0);
+        }
+        service = new ColumnarAggregationService(ColumnarTripsFile.open(file));
+    }
+
+    @Test
+    void testWildcardAggregatesEveryRow() {
+        List<TripAggregationResult> rows = service.aggregate(TripQueryParams.builder().build());
+
+        assertEquals(1, rows.size());
+        TripAggregationResult all = rows.get(0);
+        assertEquals("yellow and green", all.taxiType());
+        assertEquals("all", all.paymentType());
+        assertEquals(5, all.tripCount());
+        assertEquals(5.0, all.minFare());
+        assertEquals(30.0, all.maxFare());
+        assertEquals(54.5, all.totalFare(), 1e-9);
+        assertEquals(7.55, all.totalTollFare(), 1e-9);
+    }
+
+    @Test
+    void testFiltersExcludeNulls() {
+        TripQueryParams p = TripQueryParams.builder()
+                .pickupDatetime("2025-06-01 00:00:00")
+                .puLocationID("10")
+                .taxiType("yellow")
+                .build();
+
+        TripAggregationResult row = service.aggregate(p).get(0);
+        assertEquals(1, row.tripCount());
+        assertEquals(12.5, row.totalFare());
+    }
+
+    @Test
+    void testGroupByPaymentEmitsNonEmptyGroupsOnly() {
+        TripQueryParams p = TripQueryParams.builder()
+                .doLocationID("20")
+                .groupByPayment(true)
+                .build();
+
+        List<TripAggregationResult> rows = service.aggregate(p);
+        assertEquals(2, rows.size());
+        assertEquals("Credit card", rows.get(0).paymentType());
+        assertEquals(3, rows.get(0).tripCount());
+        assertEquals("Null", rows.get(1).paymentType());
+        assertEquals(1, rows.get(1).tripCount());
+        assertEquals(0.0, rows.get(1).minFare());
+        assertEquals(1.0, rows.get(1).totalTollFare());
+    }
+
+    @Test
+    void testNoMatchReturnsZeroRow() {
+        TripQueryParams p = TripQueryParams.builder().vendorID("6").build();
+
+        List<TripAggregationResult> rows = service.aggregate(p);
+        assertEquals(1, rows.size());
+        assertEquals(0, rows.get(0).tripCount());
+        assertEquals(0.0, rows.get(0).totalFare());
+    }
+
+    @Test
+    void testDateBoundParsesAsMidnight() {
+        assertEquals(JUNE_1, ColumnarAggregationService.toMicros("2025-06-01"));
+    }
+
+    @Test
+    void testNeumaierErrorRecoversLostLowBits() {
+        assertEquals(1.0, 1e16 + 1.0 - 1e16 + ColumnarAggregationService.neumaierError(1e16, 1.0), 0.0);
+    }
+
+    @Test
+    void testParallelScanMatchesSequentialTotals() throws IOException {
+        int rows = 3 * ColumnarAggregationService.MIN_SPLIT_ROWS + 17;
+        Path file = dir.resolve("large.columnar");
+        try (ColumnarTripsFile.Writer writer = ColumnarTripsFile.create(file, rows, "v1")) {
+            for (int i = 0; i < rows; i++) {
+                writer.add(JUNE_1 + i, JUNE_1 + i, i % 7, 1, 1, 1 + i % 4, ColumnarTripsFile.YELLOW, 0.1, 0.0);
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            TripQueryParams p = TripQueryParams.builder().puLocationID("3").groupByPayment(true).build();
+            List<TripAggregationResult> result = new ColumnarAggregationService(ColumnarTripsFile.open(file), pool)
+                    .aggregate(p);
+
+            assertEquals(4, result.size());
+            long matched = (rows + 3) / 7;
+            assertEquals(matched, result.stream().mapToLong(TripAggregationResult::tripCount).sum());
+            assertEquals(matched * 0.1, result.stream().mapToDouble(TripAggregationResult::totalFare).sum(), 1e-9);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testWriterRejectsMissingRows() throws IOException {
+        Path file = dir.resolve("short.columnar");
+        ColumnarTripsFile.Writer writer = ColumnarTripsFile.create(file, 2, "v1");
+        writer.add(JUNE_1, JUNE_1, 1, 1, 1, 1, ColumnarTripsFile.YELLOW, 1.0, 0.0);
+
+        assertThrows(IOException.class, writer::close);
+        assertFalse(Files.exists(file));
+    }
+}
@@ -0,0 +1,55 @@
+package com.xiaodi.taxi.query.output;
+
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArrowResultWriterTest {
+
+    @Test
+    void testRoundTripsRowsAcrossBatches() throws IOException {
+        int rows = ArrowResultWriter.BATCH_ROWS + 3;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ArrowResultWriter writer = new ArrowResultWriter(Channels.newChannel(out))) {
+            for (int i = 0; i < rows; i++) {
+                writer.accept(new TripAggregationResult("yellow", i % 2 == 0 ? "all" : null, "Cash",
+                        1.0, 2.0, i, 0.5, i * 1.5));
+            }
+        }
+
+        long read = 0;
+        int batches = 0;
+        try (RootAllocator allocator = new RootAllocator();
+             ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(out.toByteArray()), allocator)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            while (reader.loadNextBatch()) {
+                batches++;
+                VarCharVector taxiType = (VarCharVector) root.getVector("taxi_type");
+                VarCharVector vendor = (VarCharVector) root.getVector("vendor");
+                BigIntVector tripCount = (BigIntVector) root.getVector("trip_count");
+                Float8Vector totalFare = (Float8Vector) root.getVector("total_fare");
+                for (int i = 0; i < root.getRowCount(); i++, read++) {
+                    assertEquals("yellow", new String(taxiType.get(i), StandardCharsets.UTF_8));
+                    assertEquals(read % 2 != 0, vendor.isNull(i));
+                    assertEquals(read, tripCount.get(i));
+                    assertEquals(read * 1.5, totalFare.get(i));
+                }
+            }
+        }
+        assertEquals(rows, read);
+        assertEquals(2, batches);
+    }
+}
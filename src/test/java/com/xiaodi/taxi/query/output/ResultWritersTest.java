@@ -0,0 +1,113 @@
+package com.xiaodi.taxi.query.output;
+
+import com.xiaodi.taxi.query.models.Approximation;
+import com.xiaodi.taxi.query.models.TripAggregationResult;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResultWritersTest {
+    private static final TripAggregationResult ROW = new TripAggregationResult("yellow", "Curb Mobility, LLC",
+            "Credit card", 2.5, 80.0, 42, 6.55, 512.25);
+
+    @Test
+    void testCsvQuotesTextWithCommas() throws IOException {
+        String csv = write(ResultFormat.CSV, ROW);
+
+        assertEquals(CsvResultWriter.HEADER +
+                "yellow,\"Curb Mobility, LLC\",Credit card,2.5,80.0,42,6.55,512.25,,,,,,,,,,,,,,,\n", csv);
+    }
+
+    @Test
+    void testCsvWritesHeaderForEmptyResult() throws IOException {
+        assertEquals(CsvResultWriter.HEADER, write(ResultFormat.CSV));
+    }
+
+    @Test
+    void testJsonLinesEscapesAndWritesOneObjectPerRow() throws IOException {
+        TripAggregationResult quoted = new TripAggregationResult("green", null, "say \"hi\"",
+                0.0, 0.0, 0, 0.0, Double.NaN);
+
+        String jsonl = write(ResultFormat.JSONL, ROW, quoted);
+
+        String[] lines = jsonl.split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("{\"taxi_type\":\"yellow\",\"vendor\":\"Curb Mobility, LLC\",\"payment_type\":\"Credit card\"," +
+                "\"min_fare\":2.5,\"max_fare\":80.0,\"trip_count\":42,\"total_toll_fare\":6.55,\"total_fare\":512.25}",
+                lines[0]);
+        assertEquals("{\"taxi_type\":\"green\",\"vendor\":null,\"payment_type\":\"say \\\"hi\\\"\"," +
+                "\"min_fare\":0.0,\"max_fare\":0.0,\"trip_count\":0,\"total_toll_fare\":0.0,\"total_fare\":null}",
+                lines[1]);
+    }
+
+    @Test
+    void testGroupsAreWrittenByDimension() throws IOException {
+        Map<String, String> groups = new LinkedHashMap<>();
+        groups.put("pu_location", "132");
+        groups.put("pickup_hour", null);
+        TripAggregationResult grouped = new TripAggregationResult("yellow", "all", "all", 1.0, 2.0, 3, 0.0, 4.0, groups);
+
+        assertTrue(write(ResultFormat.CSV, grouped).endsWith(",4.0,,,,132,,,,,,,,,,,\n"));
+        assertTrue(write(ResultFormat.JSONL, grouped).endsWith(",\"groups\":{\"pu_location\":\"132\",\"pickup_hour\":null}}\n"));
+        String text = write(ResultFormat.TEXT, grouped);
+        assertTrue(text.contains("Pickup Location: " + ConsoleResultWriter.ANSI_RESET + "132\n"));
+        assertTrue(text.contains("Pickup Hour: " + ConsoleResultWriter.ANSI_RESET + "Null\n"));
+    }
+
+    @Test
+    void testApproximateRowsCarryTheirMargins() throws IOException {
+        TripAggregationResult estimated = new TripAggregationResult("yellow", "all", "all", 1.0, 2.0, 300, 0.0, 400.0,
+                Map.of(), new Approximation(0.95, 0.01, 12.5, 20.25, 0.0));
+
+        assertTrue(write(ResultFormat.CSV, estimated).endsWith(",400.0,,,,,,,,,,,0.95,0.01,12.5,20.25,0.0\n"));
+        assertTrue(write(ResultFormat.JSONL, estimated).endsWith(",\"approximation\":{\"confidence\":0.95," +
+                "\"sample_fraction\":0.01,\"trip_count_margin\":12.5,\"total_fare_margin\":20.25," +
+                "\"total_toll_fare_margin\":0.0}}\n"));
+        String text = write(ResultFormat.TEXT, estimated);
+        assertTrue(text.contains("Count of Trips: " + ConsoleResultWriter.ANSI_RESET + "300 ± 12.50\n"));
+        assertTrue(text.contains("95% confidence from 1.00% of trips\n"));
+        assertFalse(write(ResultFormat.TEXT, ROW).contains("±"));
+    }
+
+    @Test
+    void testTextWriterLabelsEveryField() throws IOException {
+        String text = write(ResultFormat.TEXT, ROW);
+
+        assertTrue(text.contains("Payment Type: " + ConsoleResultWriter.ANSI_RESET + "Credit card\n"));
+        assertTrue(text.endsWith("-------\n"));
+    }
+
+    @Test
+    void testRowsLargerThanBufferAreWrittenCompletely() throws IOException {
+        String longLabel = "x".repeat(3 * TextResultWriter.BUFFER_BYTES);
+        TripAggregationResult row = new TripAggregationResult(longLabel, "all", "all", 0, 0, 0, 0, 0);
+
+        String csv = write(ResultFormat.CSV, row);
+
+        assertEquals(CsvResultWriter.HEADER.length() + longLabel.length() + ",all,all,0.0,0.0,0,0.0,0.0,,,,,,,,,,,,,,,\n".length(),
+                csv.length());
+    }
+
+    @Test
+    void testParseRejectsUnknownFormat() {
+        assertEquals(ResultFormat.JSONL, ResultFormat.parse("jsonl"));
+        assertThrows(IllegalArgumentException.class, () -> ResultFormat.parse("xml"));
+    }
+
+    private static String write(ResultFormat format, TripAggregationResult... rows) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ResultWriter writer = format.open(Channels.newChannel(out))) {
+            for (TripAggregationResult row : rows) {
+                writer.accept(row);
+            }
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,69 @@
+package com.xiaodi.taxi.query.slowlog;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonTest {
+    @Test
+    void testParseStringEscapes() {
+        assertEquals("say \"hi\"", Json.parse("\"say \\\"hi\\\"\""));
+        assertEquals("C:\\trips\\2025", Json.parse("\"C:\\\\trips\\\\2025\""));
+        assertEquals("a/b", Json.parse("\"a\\/b\""));
+        assertEquals("line\nnext\r\ttab\b\f", Json.parse("\"line\\nnext\\r\\ttab\\b\\f\""));
+    }
+
+    @Test
+    void testParseUnicodeEscapes() {
+        assertEquals("caf\u00e9", Json.parse("\"caf\\u00e9\""));
+        assertEquals("caf\u00e9", Json.parse("\"caf\\u00E9\""));
+        assertEquals("\u0001", Json.parse("\"\\u0001\""));
+        // a character outside the BMP arrives as a surrogate pair
+        assertEquals("\uD83D\uDE95", Json.parse("\"\\ud83d\\ude95\""));
+        assertEquals("\uD83D\uDE95", Json.parse("\"\uD83D\uDE95\""));
+    }
+
+    @Test
+    void testQuoteRoundTrips() {
+        String value = "quote \" backslash \\ newline \n return \r tab \t bell \u0007 caf\u00e9";
+
+        String quoted = Json.quote(value);
+
+        assertEquals("\"quote \\\" backslash \\\\ newline \\n return \\r tab \\t bell \\u0007 caf\u00e9\"", quoted);
+        assertEquals(value, Json.parse(quoted));
+        assertEquals("null", Json.quote(null));
+    }
+
+    @Test
+    void testParseNumbers() {
+        assertEquals(0.0, Json.parse("0"));
+        assertEquals(-12.0, Json.parse("-12"));
+        assertEquals(3.25, Json.parse("3.25"));
+        assertEquals(-0.5, Json.parse("-0.5"));
+        assertEquals(1500.0, Json.parse("1.5e3"));
+        assertEquals(0.02, Json.parse("2E-2"));
+        assertEquals(120.0, Json.parse("1.2e+2"));
+        // integers come back as doubles too, exact up to 2^53
+        assertEquals(12345678901.0, Json.parse("12345678901"));
+        assertEquals(9007199254740992.0, Json.parse("9007199254740993"));
+    }
+
+    @Test
+    void testParseNestedValues() {
+        Object value = Json.parse(" {\"a\": [1, -2.5, true, false, null], \"b\": {}, \"c\": [] } ");
+
+        assertEquals(Map.of("a", Arrays.asList(1.0, -2.5, true, false, null), "b", Map.of(), "c", List.of()), value);
+    }
+
+    @Test
+    void testParseRejectsMalformedInput() {
+        for (String json : List.of("", "-", "1.2.3", "1 2", "[1,]", "{\"a\" 1}", "tru", "\"open",
+                "\"trailing backslash\\", "\"\\u12\"", "\"\\uzzzz\"", "\"\\u-001\"", "NaN")) {
+            assertThrows(IllegalArgumentException.class, () -> Json.parse(json), json);
+        }
+    }
+}
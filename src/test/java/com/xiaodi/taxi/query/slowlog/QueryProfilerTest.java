@@ -0,0 +1,145 @@
+package com.xiaodi.taxi.query.slowlog;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class QueryProfilerTest {
+    // trimmed output of PRAGMA enable_profiling='json' in DuckDB 0.9
+    private static final String PROFILE = """
+            {
+               "result": 0.042,
+               "timing": 0.042,
+               "cardinality": 0,
+               "extra-info": "SELECT MIN(fare_amount) FROM trips WHERE pu_location_id = ?",
+               "timings": [],
+               "children": [
+                {
+                   "name": "UNGROUPED_AGGREGATE",
+                   "timing": 0.004,
+                   "cardinality": 1,
+                   "extra_info": "min(#0)",
+                   "timings": [],
+                   "children": [
+                    {
+                       "name": "SEQ_SCAN ",
+                       "timing": 0.037,
+                       "cardinality": 12345,
+                       "extra_info": "trips\\n[INFOSEPARATOR]\\nfare_amount\\n[INFOSEPARATOR]\\nFilters: pu_location_id=132",
+                       "timings": [],
+                       "children": []
+                    }
+                   ]
+                }
+               ]
+            }
+            """;
+
+    @Test
+    void testParseDuckDbProfile() {
+        ProfiledOperator root = QueryProfiler.parse(PROFILE);
+
+        assertEquals("QUERY", root.name());
+        assertEquals(0.042, root.seconds(), 1e-9);
+        ProfiledOperator scan = root.children().get(0).children().get(0);
+        assertEquals("SEQ_SCAN", scan.name());
+        assertEquals(12345, scan.cardinality());
+        assertEquals(12345, root.rowsScanned());
+    }
+
+    @Test
+    void testParseNewerOperatorKeys() {
+        ProfiledOperator root = QueryProfiler.parse("""
+                {"latency": 0.5, "children": [{"operator_type": "TABLE_SCAN", "operator_timing": 0.4,
+                 "operator_cardinality": 7, "extra_info": {}, "children": []}]}
+                """);
+
+        assertEquals(0.5, root.seconds(), 1e-9);
+        assertEquals("TABLE_SCAN", root.children().get(0).name());
+        assertEquals(7, root.rowsScanned());
+    }
+
+    @Test
+    void testRenderIndentsChildren() {
+        String plan = QueryProfiler.parse(PROFILE).render();
+        String[] lines = plan.split("\n");
+
+        assertEquals(3, lines.length);
+        assertTrue(lines[1].startsWith("  UNGROUPED_AGGREGATE  4.000 ms  1 rows"), lines[1]);
+        assertTrue(lines[2].startsWith("    SEQ_SCAN  37.000 ms  12,345 rows  [trips [INFOSEPARATOR]"), lines[2]);
+    }
+
+    @Test
+    void testToJsonRoundTrips() {
+        ProfiledOperator root = QueryProfiler.parse(PROFILE);
+
+        assertEquals(root, ProfiledOperator.fromJson(castMap(Json.parse(root.toJson()))));
+    }
+
+    @Test
+    void testParametersRecordsBoundValuesInOrder() throws Exception {
+        Connection conn = mock(Connection.class);
+        PreparedStatement stmt = mock(PreparedStatement.class);
+        when(conn.prepareStatement("SELECT ?, ?, ?")).thenReturn(stmt);
+
+        List<String> params = QueryProfiler.parameters(conn, "SELECT ?, ?, ?", s -> {
+            s.setInt(2, 132);
+            s.setString(1, "2025-01-01");
+            s.setNull(3, Types.INTEGER);
+        });
+
+        assertEquals(List.of("2025-01-01", "132", "NULL"), params);
+        verify(stmt).setInt(2, 132);
+        verify(stmt).setNull(3, Types.INTEGER);
+        verify(stmt).close();
+    }
+
+    @Test
+    void testParametersPassesOtherCallsToTheStatement() throws Exception {
+        Connection conn = mock(Connection.class);
+        PreparedStatement stmt = mock(PreparedStatement.class);
+        ParameterMetaData metaData = mock(ParameterMetaData.class);
+        when(conn.prepareStatement("SELECT ?")).thenReturn(stmt);
+        when(stmt.getParameterMetaData()).thenReturn(metaData);
+
+        List<String> params = QueryProfiler.parameters(conn, "SELECT ?", s -> {
+            s.setQueryTimeout(5);
+            s.setString(1, "first");
+            s.clearParameters();
+            assertSame(metaData, s.getParameterMetaData());
+            s.setObject(1, 7L, Types.BIGINT);
+        });
+
+        assertEquals(List.of("7"), params);
+        verify(stmt).setQueryTimeout(5);
+        verify(stmt).clearParameters();
+    }
+
+    @Test
+    void testParametersPropagatesTheStatementsErrors() throws Exception {
+        Connection conn = mock(Connection.class);
+        PreparedStatement stmt = mock(PreparedStatement.class);
+        when(conn.prepareStatement("SELECT ?")).thenReturn(stmt);
+        doThrow(new SQLException("Index out of range")).when(stmt).setInt(2, 1);
+
+        SQLException e = assertThrows(SQLException.class,
+                () -> QueryProfiler.parameters(conn, "SELECT ?", s -> s.setInt(2, 1)));
+
+        assertEquals("Index out of range", e.getMessage());
+        verify(stmt).close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> castMap(Object json) {
+        return (Map<String, Object>) json;
+    }
+}
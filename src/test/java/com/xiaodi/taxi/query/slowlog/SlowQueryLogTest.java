@@ -0,0 +1,87 @@
+package com.xiaodi.taxi.query.slowlog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SlowQueryLogTest {
+    @TempDir
+    Path dir;
+
+    private static SlowQueryEntry entry(String shape, double millis, long scanned) {
+        ProfiledOperator scan = new ProfiledOperator("SEQ_SCAN", "trips", millis / 1000, scanned, List.of());
+        ProfiledOperator root = new ProfiledOperator("QUERY", "", millis / 1000, 0, List.of(scan));
+        return new SlowQueryEntry(Instant.parse("2025-06-01T10:15:30Z"), shape, "SELECT 1 WHERE x = ?",
+                List.of("132"), millis, 1, root, null);
+    }
+
+    @Test
+    void testEntryJsonRoundTrips() {
+        SlowQueryEntry entry = entry("3:trips", 250.5, 1000);
+        String json = entry.toJson();
+
+        assertFalse(json.contains("\n"));
+        assertTrue(json.contains("\"rows_scanned\":1000"), json);
+        assertEquals(entry, SlowQueryEntry.fromJson(json));
+    }
+
+    @Test
+    void testEntryWithoutProfile() {
+        SlowQueryEntry entry = new SlowQueryEntry(Instant.EPOCH, "3:trips", "SELECT 1", List.of(), 10, 0, null, "boom");
+
+        SlowQueryEntry read = SlowQueryEntry.fromJson(entry.toJson());
+        assertNull(read.profile());
+        assertEquals("boom", read.error());
+        assertEquals(-1, read.rowsScanned());
+    }
+
+    @Test
+    void testThreshold() {
+        SlowQueryLog log = new SlowQueryLog(dir, 100);
+
+        assertFalse(log.isSlow(99_999_999));
+        assertTrue(log.isSlow(100_000_000));
+    }
+
+    @Test
+    void testRotatesAndKeepsMaxFiles() throws Exception {
+        long lineBytes = entry("0:trips", 1, 1).toJson().length() + 1;
+        SlowQueryLog log = new SlowQueryLog(dir, 0, lineBytes * 2, 2);
+        for (int i = 0; i < 7; i++) {
+            log.append(entry(i + ":trips", 1, 1));
+        }
+
+        assertTrue(Files.exists(dir.resolve("slow-queries.log.1")));
+        assertTrue(Files.exists(dir.resolve("slow-queries.log.2")));
+        assertFalse(Files.exists(dir.resolve("slow-queries.log.3")));
+        List<SlowQueryEntry> entries = SlowQueryLog.read(dir);
+        assertEquals(List.of("2:trips", "3:trips", "4:trips", "5:trips", "6:trips"),
+                entries.stream().map(SlowQueryEntry::shape).toList());
+    }
+
+    @Test
+    void testReportGroupsByShapeWorstFirst() {
+        List<SlowQueryReport.ShapeSummary> summaries = SlowQueryReport.summarize(List.of(
+                entry("1:trips", 100, 10), entry("2:rollup", 150, 5), entry("1:trips", 300, 30)));
+
+        assertEquals(2, summaries.size());
+        SlowQueryReport.ShapeSummary worst = summaries.get(0);
+        assertEquals("1:trips", worst.shape());
+        assertEquals(2, worst.count());
+        assertEquals(400, worst.totalMillis(), 1e-9);
+        assertEquals(300, worst.maxMillis(), 1e-9);
+        assertEquals(20, worst.averageRowsScanned(), 1e-9);
+        assertEquals(300, worst.worst().elapsedMillis(), 1e-9);
+
+        String report = SlowQueryReport.format(summaries, 1);
+        assertTrue(report.contains("1:trips"), report);
+        assertFalse(report.contains("2:rollup"), report);
+        assertTrue(report.contains("SEQ_SCAN"), report);
+    }
+}